@@ -1367,6 +1367,36 @@ public abstract class AbstractJsonFactoryTest extends TestCase {
     assertEquals(SIMPLE_WRAPPED, out.toString("UTF-8"));
   }
 
+  public void testJsonHttpContent_serializationModes() throws Exception {
+    JsonFactory factory = newFactory();
+    Simple simple = new Simple();
+    simple.a = "b";
+    JsonHttpContent content = new JsonHttpContent(factory, simple);
+    assertEquals(JsonHttpContent.SerializationMode.COMPUTE_LENGTH,
+        content.getSerializationMode());
+    assertEquals(SIMPLE.length(), content.getLength());
+
+    // the buffered serialization is written again even if the data changes
+    content = new JsonHttpContent(factory, simple)
+        .setSerializationMode(JsonHttpContent.SerializationMode.BUFFER);
+    assertEquals(SIMPLE.length(), content.getLength());
+    simple.a = "c";
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      content.writeTo(out);
+      assertEquals(SIMPLE, out.toString("UTF-8"));
+    }
+    simple.a = "b";
+
+    content = new JsonHttpContent(factory, simple).setWrapperKey("d")
+        .setSerializationMode(JsonHttpContent.SerializationMode.STREAM);
+    assertEquals(-1, content.getLength());
+    assertTrue(content.retrySupported());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    content.writeTo(out);
+    assertEquals(SIMPLE_WRAPPED, out.toString("UTF-8"));
+  }
+
   public static class V {
     @Key
     Void v;
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Low-level HTTP response whose status, headers and content have been read into memory, so that
+ * it may be replayed by {@link #copy() copies}.
+ *
+ * <p>
+ * The content is buffered as received, before any content decoding, so each copy is decoded by
+ * its own {@link HttpResponse}.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe, except for the content stream of each copy.
+ * </p>
+ */
+final class BufferedLowLevelHttpResponse extends LowLevelHttpResponse {
+
+  private final int statusCode;
+
+  private final String statusLine;
+
+  private final String reasonPhrase;
+
+  private final String contentType;
+
+  private final String contentEncoding;
+
+  private final String[] headerNames;
+
+  private final String[] headerValues;
+
+  /** Content or {@code null} for none. */
+  private final byte[] content;
+
+  /**
+   * Reads the given response completely and closes its content stream.
+   *
+   * @param response low-level HTTP response
+   */
+  BufferedLowLevelHttpResponse(LowLevelHttpResponse response) throws IOException {
+    statusCode = response.getStatusCode();
+    statusLine = response.getStatusLine();
+    reasonPhrase = response.getReasonPhrase();
+    contentType = response.getContentType();
+    contentEncoding = response.getContentEncoding();
+    int headerCount = response.getHeaderCount();
+    headerNames = new String[headerCount];
+    headerValues = new String[headerCount];
+    for (int i = 0; i < headerCount; i++) {
+      headerNames[i] = response.getHeaderName(i);
+      headerValues[i] = response.getHeaderValue(i);
+    }
+    InputStream stream = response.getContent();
+    if (stream == null) {
+      content = null;
+    } else {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      IOUtils.copy(stream, buffer);
+      content = buffer.toByteArray();
+    }
+  }
+
+  private BufferedLowLevelHttpResponse(BufferedLowLevelHttpResponse other) {
+    statusCode = other.statusCode;
+    statusLine = other.statusLine;
+    reasonPhrase = other.reasonPhrase;
+    contentType = other.contentType;
+    contentEncoding = other.contentEncoding;
+    headerNames = other.headerNames;
+    headerValues = other.headerValues;
+    content = other.content;
+  }
+
+  /** Returns a copy that shares the buffered content but has its own content stream. */
+  BufferedLowLevelHttpResponse copy() {
+    return new BufferedLowLevelHttpResponse(this);
+  }
+
+  /** Returns the buffered content, which must not be modified, or {@code null} for none. */
+  byte[] getContentBytes() {
+    return content;
+  }
+
+  @Override
+  public InputStream getContent() {
+    return content == null ? null : new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  @Override
+  public long getContentLength() {
+    return content == null ? 0 : content.length;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public String getStatusLine() {
+    return statusLine;
+  }
+
+  @Override
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  @Override
+  public String getReasonPhrase() {
+    return reasonPhrase;
+  }
+
+  @Override
+  public int getHeaderCount() {
+    return headerNames.length;
+  }
+
+  @Override
+  public String getHeaderName(int index) {
+    return headerNames[index];
+  }
+
+  @Override
+  public String getHeaderValue(int index) {
+    return headerValues[index];
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Preconditions;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link Beta} <br/>
+ * Circuit breaker per origin (scheme, host and port), which fails requests fast while an origin is
+ * failing instead of waiting for connect or read timeouts.
+ *
+ * <p>
+ * The circuit of an origin is initially {@link State#CLOSED closed}. After
+ * {@link Builder#setFailureThreshold(int) failureThreshold} consecutive failures, which are
+ * {@link java.io.IOException}s and server errors (5xx), it is {@link State#OPEN open}:
+ * {@link HttpRequest#execute()} throws a {@link CircuitBreakerOpenException} without sending the
+ * request. Once {@link Builder#setOpenDurationMillis(long) openDuration} has elapsed, the circuit
+ * is {@link State#HALF_OPEN half-open}: a single probe request is sent, which closes the circuit
+ * if it succeeds or opens it again if it fails.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class CircuitBreaker {
+
+  private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+  /** Default number of consecutive failures that open the circuit. */
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+  /** Default time in milliseconds during which an open circuit fails requests (30 seconds). */
+  public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000;
+
+  /** Maximum number of origins whose circuit is kept, the least recently used are dropped. */
+  private static final int MAX_ORIGINS = 1024;
+
+  /** State of the circuit of an origin. */
+  public enum State {
+
+    /** Requests are sent. */
+    CLOSED,
+
+    /** Requests fail fast. */
+    OPEN,
+
+    /** A single probe request is sent to find out whether the origin has recovered. */
+    HALF_OPEN
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Listener of the state changes of the circuits.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public interface Listener {
+
+    /**
+     * Called after the state of the circuit of an origin changed. Must be fast and must not throw.
+     *
+     * @param origin origin, for example {@code "https://www.googleapis.com:443"}
+     * @param from previous state
+     * @param to new state
+     */
+    void onStateChange(String origin, State from, State to);
+  }
+
+  private final int failureThreshold;
+
+  private final long openDurationNanos;
+
+  private final NanoClock nanoClock;
+
+  private final Listener listener;
+
+  /** Circuits by origin, guarded by this. */
+  private final Map<String, Circuit> circuits =
+      new LinkedHashMap<String, Circuit>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Circuit> eldest) {
+          return size() > MAX_ORIGINS;
+        }
+      };
+
+  /** Constructor with the default configuration. */
+  public CircuitBreaker() {
+    this(new Builder());
+  }
+
+  /**
+   * @param builder builder
+   */
+  CircuitBreaker(Builder builder) {
+    failureThreshold = builder.failureThreshold;
+    openDurationNanos = builder.openDurationMillis * 1000000;
+    nanoClock = builder.nanoClock;
+    listener = builder.listener;
+  }
+
+  /**
+   * Returns the origin of the given URL, which is the key of its circuit, for example
+   * {@code "https://www.googleapis.com:443"}.
+   *
+   * @param url URL
+   */
+  public static String getOrigin(GenericUrl url) {
+    String scheme = url.getScheme();
+    int port = url.getPort();
+    if (port == -1) {
+      port = "https".equals(scheme) ? 443 : 80;
+    }
+    return scheme + "://" + url.getHost().toLowerCase(Locale.US) + ":" + port;
+  }
+
+  /**
+   * Returns whether a request to the given origin may be sent. In the half-open state, this
+   * permits the probe request, whose outcome must then be reported with {@link #onSuccess} or
+   * {@link #onFailure}.
+   *
+   * @param origin origin
+   */
+  public boolean tryAcquirePermission(String origin) {
+    State from;
+    synchronized (this) {
+      Circuit circuit = getCircuit(origin);
+      from = circuit.state;
+      long now = nanoClock.nanoTime();
+      switch (from) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (now - circuit.sinceNanos < openDurationNanos) {
+            return false;
+          }
+          circuit.state = State.HALF_OPEN;
+          circuit.sinceNanos = now;
+          break;
+        default:
+          // permit another probe if the outcome of the last one was never reported
+          if (now - circuit.sinceNanos < openDurationNanos) {
+            return false;
+          }
+          circuit.sinceNanos = now;
+          return true;
+      }
+    }
+    notifyListener(origin, from, State.HALF_OPEN);
+    return true;
+  }
+
+  /**
+   * Reports a successful request to the given origin, which closes a half-open circuit.
+   *
+   * @param origin origin
+   */
+  public void onSuccess(String origin) {
+    State from;
+    synchronized (this) {
+      Circuit circuit = getCircuit(origin);
+      circuit.consecutiveFailures = 0;
+      from = circuit.state;
+      if (from != State.HALF_OPEN) {
+        return;
+      }
+      circuit.state = State.CLOSED;
+    }
+    notifyListener(origin, from, State.CLOSED);
+  }
+
+  /**
+   * Reports a failed request to the given origin, which opens the circuit after too many
+   * consecutive failures or if it is half-open.
+   *
+   * @param origin origin
+   */
+  public void onFailure(String origin) {
+    State from;
+    synchronized (this) {
+      Circuit circuit = getCircuit(origin);
+      circuit.consecutiveFailures++;
+      from = circuit.state;
+      if (from == State.OPEN
+          || from == State.CLOSED && circuit.consecutiveFailures < failureThreshold) {
+        return;
+      }
+      circuit.state = State.OPEN;
+      circuit.sinceNanos = nanoClock.nanoTime();
+    }
+    notifyListener(origin, from, State.OPEN);
+  }
+
+  /**
+   * Returns the state of the circuit of the given origin. An open circuit whose open duration has
+   * elapsed is still reported as open until the next request.
+   *
+   * @param origin origin
+   */
+  public synchronized State getState(String origin) {
+    Circuit circuit = circuits.get(origin);
+    return circuit == null ? State.CLOSED : circuit.state;
+  }
+
+  /** Returns the number of consecutive failures that open the circuit. */
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /** Returns the time in milliseconds during which an open circuit fails requests. */
+  public long getOpenDurationMillis() {
+    return openDurationNanos / 1000000;
+  }
+
+  /** Returns the listener or {@code null} for none. */
+  public Listener getListener() {
+    return listener;
+  }
+
+  /** Returns the circuit of the given origin, which is created closed. Must hold the lock. */
+  private Circuit getCircuit(String origin) {
+    Circuit circuit = circuits.get(origin);
+    if (circuit == null) {
+      circuit = new Circuit();
+      circuits.put(origin, circuit);
+    }
+    return circuit;
+  }
+
+  private void notifyListener(String origin, State from, State to) {
+    if (listener != null) {
+      try {
+        listener.onStateChange(origin, from, to);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "circuit breaker listener threw an exception", e);
+      }
+    }
+  }
+
+  /** Circuit of an origin, guarded by the circuit breaker. */
+  private static final class Circuit {
+
+    State state = State.CLOSED;
+
+    int consecutiveFailures;
+
+    /** Time in nanoseconds when the circuit was opened or the last probe was permitted. */
+    long sinceNanos;
+
+    Circuit() {
+    }
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Builder for {@link CircuitBreaker}.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Builder {
+
+    int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+
+    NanoClock nanoClock = NanoClock.SYSTEM;
+
+    Listener listener;
+
+    public Builder() {
+    }
+
+    /** Builds a new instance of {@link CircuitBreaker}. */
+    public CircuitBreaker build() {
+      return new CircuitBreaker(this);
+    }
+
+    /** Returns the number of consecutive failures that open the circuit. */
+    public int getFailureThreshold() {
+      return failureThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures that open the circuit. The default value is
+     * {@link #DEFAULT_FAILURE_THRESHOLD}. Must be {@code > 0}.
+     */
+    public Builder setFailureThreshold(int failureThreshold) {
+      Preconditions.checkArgument(failureThreshold > 0);
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    /** Returns the time in milliseconds during which an open circuit fails requests. */
+    public long getOpenDurationMillis() {
+      return openDurationMillis;
+    }
+
+    /**
+     * Sets the time in milliseconds during which an open circuit fails requests before a probe
+     * request is permitted. The default value is {@link #DEFAULT_OPEN_DURATION_MILLIS}. Must be
+     * {@code >= 0}.
+     */
+    public Builder setOpenDurationMillis(long openDurationMillis) {
+      Preconditions.checkArgument(openDurationMillis >= 0);
+      this.openDurationMillis = openDurationMillis;
+      return this;
+    }
+
+    /** Returns the nano clock. */
+    public NanoClock getNanoClock() {
+      return nanoClock;
+    }
+
+    /** Sets the nano clock. The default value is {@link NanoClock#SYSTEM}. */
+    public Builder setNanoClock(NanoClock nanoClock) {
+      this.nanoClock = Preconditions.checkNotNull(nanoClock);
+      return this;
+    }
+
+    /** Returns the listener or {@code null} for none. */
+    public Listener getListener() {
+      return listener;
+    }
+
+    /** Sets the listener of state changes or {@code null} for none. */
+    public Builder setListener(Listener listener) {
+      this.listener = listener;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import java.io.IOException;
+
+/**
+ * {@link Beta} <br/>
+ * Exception thrown by {@link HttpRequest#execute()} without sending the request because the
+ * {@link CircuitBreaker} of the origin is open.
+ *
+ * @since 1.27
+ */
+@Beta
+public class CircuitBreakerOpenException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String origin;
+
+  /**
+   * @param origin origin whose circuit breaker is open, for example
+   *        {@code "https://www.googleapis.com:443"}
+   */
+  public CircuitBreakerOpenException(String origin) {
+    super("Circuit breaker is open for " + origin);
+    this.origin = origin;
+  }
+
+  /** Returns the origin whose circuit breaker is open. */
+  public final String getOrigin() {
+    return origin;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link Beta} <br/>
+ * Policy that chooses whether to compress request content, so that small content and content of a
+ * type that does not compress well, such as images, are sent uncompressed.
+ *
+ * <p>
+ * Content is compressed with the {@link Builder#setEncoding(HttpEncoding) encoding} if its media
+ * type is {@link Builder#setCompressibleTypes(Collection) compressible} and its length is
+ * unknown or at least {@link Builder#setMinLength(long) minLength}. A request with a policy but no
+ * {@link HttpRequest#setEncoding(HttpEncoding) encoding} of its own uses the encoding chosen by
+ * the policy.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class CompressionPolicy {
+
+  /** Default minimum length in bytes of the content to compress. */
+  public static final long DEFAULT_MIN_LENGTH = 1024;
+
+  /** Default compressible media types. */
+  public static final List<String> DEFAULT_COMPRESSIBLE_TYPES = Collections.unmodifiableList(
+      Arrays.asList("text/*", "application/json", "application/*+json", "application/xml",
+          "application/*+xml", "application/javascript", "application/x-www-form-urlencoded",
+          "image/svg+xml"));
+
+  private final HttpEncoding encoding;
+
+  private final long minLength;
+
+  private final List<String> compressibleTypes;
+
+  /** Constructor with the default settings of {@link Builder}. */
+  public CompressionPolicy() {
+    this(new Builder());
+  }
+
+  CompressionPolicy(Builder builder) {
+    encoding = builder.encoding;
+    minLength = builder.minLength;
+    compressibleTypes = builder.compressibleTypes;
+  }
+
+  /**
+   * Returns the encoding to compress the given content with or {@code null} to send it
+   * uncompressed.
+   *
+   * @param content HTTP content
+   */
+  public HttpEncoding getEncoding(HttpContent content) throws IOException {
+    if (!isCompressible(content.getType())) {
+      return null;
+    }
+    long length = content.getLength();
+    return length >= 0 && length < minLength ? null : encoding;
+  }
+
+  /**
+   * Returns whether content of the given media type is compressed.
+   *
+   * @param contentType media type, possibly with parameters, or {@code null} for none
+   */
+  public boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String type;
+    String subType;
+    try {
+      HttpMediaType mediaType = new HttpMediaType(contentType);
+      type = mediaType.getType().toLowerCase(Locale.US);
+      subType = mediaType.getSubType().toLowerCase(Locale.US);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    for (String pattern : compressibleTypes) {
+      int slash = pattern.indexOf('/');
+      String patternType = pattern.substring(0, slash);
+      String patternSubType = pattern.substring(slash + 1);
+      if (!patternType.equals(type)) {
+        continue;
+      }
+      if (patternSubType.equals("*") || patternSubType.equals(subType)
+          || patternSubType.startsWith("*+") && subType.endsWith(patternSubType.substring(1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the encoding that compresses content. */
+  public HttpEncoding getEncoding() {
+    return encoding;
+  }
+
+  /** Returns the minimum length in bytes of the content to compress. */
+  public long getMinLength() {
+    return minLength;
+  }
+
+  /** Returns the unmodifiable list of compressible media type patterns. */
+  public List<String> getCompressibleTypes() {
+    return compressibleTypes;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Builder for {@link CompressionPolicy}.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Builder {
+
+    HttpEncoding encoding = new GZipEncoding();
+
+    long minLength = DEFAULT_MIN_LENGTH;
+
+    List<String> compressibleTypes = DEFAULT_COMPRESSIBLE_TYPES;
+
+    public Builder() {
+    }
+
+    /** Builds a new instance of {@link CompressionPolicy}. */
+    public CompressionPolicy build() {
+      return new CompressionPolicy(this);
+    }
+
+    /** Returns the encoding that compresses content. */
+    public HttpEncoding getEncoding() {
+      return encoding;
+    }
+
+    /**
+     * Sets the encoding that compresses content, which must be thread-safe. The default value is a
+     * {@link GZipEncoding} with the default compression level.
+     */
+    public Builder setEncoding(HttpEncoding encoding) {
+      this.encoding = Preconditions.checkNotNull(encoding);
+      return this;
+    }
+
+    /** Returns the minimum length in bytes of the content to compress. */
+    public long getMinLength() {
+      return minLength;
+    }
+
+    /**
+     * Sets the minimum length in bytes of the content to compress. The default value is
+     * {@link #DEFAULT_MIN_LENGTH}. Must be {@code >= 0}.
+     */
+    public Builder setMinLength(long minLength) {
+      Preconditions.checkArgument(minLength >= 0);
+      this.minLength = minLength;
+      return this;
+    }
+
+    /** Returns the compressible media type patterns. */
+    public List<String> getCompressibleTypes() {
+      return compressibleTypes;
+    }
+
+    /**
+     * Sets the compressible media type patterns. A pattern is a media type without parameters,
+     * such as {@code "application/json"}, whose subtype may be {@code "*"} to match any subtype or
+     * start with {@code "*+"} to match a structured syntax suffix, such as
+     * {@code "application/*+json"}. Patterns are case-insensitive. The default value is
+     * {@link #DEFAULT_COMPRESSIBLE_TYPES}.
+     */
+    public Builder setCompressibleTypes(Collection<String> compressibleTypes) {
+      List<String> patterns = new ArrayList<String>();
+      for (String pattern : compressibleTypes) {
+        Preconditions.checkArgument(pattern.indexOf('/') > 0, "invalid pattern: %s", pattern);
+        patterns.add(pattern.toLowerCase(Locale.US));
+      }
+      this.compressibleTypes = Collections.unmodifiableList(patterns);
+      return this;
+    }
+  }
+}
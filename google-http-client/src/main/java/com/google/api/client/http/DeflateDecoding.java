@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@link Beta} <br/>
+ * Deflate HTTP content decoding.
+ *
+ * <p>
+ * The content is expected in the zlib format, as specified for the {@code deflate} content coding,
+ * but raw deflate content, which some servers send instead, is detected and decoded too.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public class DeflateDecoding implements HttpDecoding {
+
+  public String getName() {
+    return "deflate";
+  }
+
+  public InputStream decode(InputStream content) throws IOException {
+    PushbackInputStream in = new PushbackInputStream(content, 2);
+    byte[] header = new byte[2];
+    int length = 0;
+    int n;
+    while (length < 2 && (n = in.read(header, length, 2 - length)) != -1) {
+      length += n;
+    }
+    in.unread(header, 0, length);
+    if (length == 0) {
+      // no content, for example in response to a HEAD request
+      return in;
+    }
+    int cmf = header[0] & 0xff;
+    int flg = header[1] & 0xff;
+    boolean zlib = length == 2 && (cmf & 0x0f) == 8 && (cmf * 256 + flg) % 31 == 0;
+    final Inflater inflater = new Inflater(!zlib);
+    return new InflaterInputStream(in, inflater) {
+
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          try {
+            super.close();
+          } finally {
+            // a custom inflater is not ended by the input stream
+            inflater.end();
+          }
+        }
+      }
+    };
+  }
+}
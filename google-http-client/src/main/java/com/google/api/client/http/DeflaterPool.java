@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import java.util.LinkedList;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of {@link Deflater}s that produce raw deflate data, shared by the HTTP encodings so that a
+ * deflater and its native memory are not allocated for each request.
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class DeflaterPool {
+
+  /** Maximum number of idle deflaters that are kept. */
+  static final int MAX_IDLE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /** Idle deflaters, guarded by itself. */
+  private static final LinkedList<Deflater> IDLE = new LinkedList<Deflater>();
+
+  /**
+   * Returns a deflater with the given compression level and strategy, which must be
+   * {@link #release released} once no longer used.
+   */
+  static Deflater acquire(int level, int strategy) {
+    Deflater deflater;
+    synchronized (IDLE) {
+      deflater = IDLE.poll();
+    }
+    if (deflater == null) {
+      deflater = new Deflater(level, true);
+    } else {
+      deflater.setLevel(level);
+    }
+    deflater.setStrategy(strategy);
+    return deflater;
+  }
+
+  /** Returns a deflater to the pool, or ends it if enough deflaters are idle. */
+  static void release(Deflater deflater) {
+    deflater.reset();
+    synchronized (IDLE) {
+      if (IDLE.size() < MAX_IDLE) {
+        IDLE.push(deflater);
+        return;
+      }
+    }
+    deflater.end();
+  }
+
+  /** Returns the number of idle deflaters. */
+  static int getIdleCount() {
+    synchronized (IDLE) {
+      return IDLE.size();
+    }
+  }
+
+  private DeflaterPool() {
+  }
+}
@@ -0,0 +1,815 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.StringUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link Beta} <br/>
+ * {@link HttpResponseCache.Store Store} of an {@link HttpResponseCache} that keeps the entries on
+ * disk, so that they survive process restarts.
+ *
+ * <p>
+ * Entries are appended to segment files and located through a hash index of their keys in a
+ * memory-mapped file, which also records the position, size, expiry and last access of each entry.
+ * A cached response streams its content straight from its segment file, which is opened when the
+ * entry is read, so the content remains readable if the entry is evicted meanwhile. Once the total
+ * size or the number of entries exceeds its maximum, the least recently used entries are evicted,
+ * starting with the expired entries that have no validator. A segment file whose entries have
+ * mostly been removed is compacted.
+ * </p>
+ *
+ * <p>
+ * A directory must only be used by one store at a time, which should be {@link #close() closed}
+ * when no longer used. Writes are not synchronized with the storage device, so a crash may lose the
+ * most recent entries. Entries that are incomplete or corrupt are dropped when they are read or
+ * when the store is opened again.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  HttpRequestFactory requestFactory = transport.createRequestFactory();
+  requestFactory.setResponseCache(new HttpResponseCache(new DiskCacheStore(directory)));
+ * </pre>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class DiskCacheStore implements HttpResponseCache.Store {
+
+  /** Default maximum total size of the entries in bytes (256 MiB). */
+  public static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+  /** Default maximum number of entries. */
+  public static final int DEFAULT_MAX_ENTRIES = 8192;
+
+  private static final int INDEX_MAGIC = 0x48434958;
+
+  private static final int RECORD_MAGIC = 0x48435245;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Size of the index header: magic, version, capacity and next segment identifier (4 bytes each),
+   * then the access clock (8 bytes).
+   */
+  private static final int HEADER_SIZE = 24;
+
+  /**
+   * Size of an index slot: key hash (8 bytes, {@code 0} for an empty slot), segment identifier and
+   * metadata length (4 bytes each), then offset, length, last access and expiry (8 bytes each).
+   */
+  private static final int SLOT_SIZE = 48;
+
+  /** Size of a record header: magic, metadata length and metadata checksum (4 bytes each). */
+  private static final int RECORD_HEADER_SIZE = 12;
+
+  /** Minimum size in bytes after which a new segment file is started. */
+  private static final long MIN_SEGMENT_SIZE_BYTES = 1024 * 1024;
+
+  private static final String INDEX_FILE_NAME = "index";
+
+  private static final String SEGMENT_FILE_PREFIX = "segment-";
+
+  private final File directory;
+
+  private final long maxSizeBytes;
+
+  private final int maxEntries;
+
+  private final long segmentSizeBytes;
+
+  /** Number of index slots, which is a power of two of at least twice the maximum entries. */
+  private final int capacity;
+
+  // fields below are guarded by this
+
+  private final RandomAccessFile indexFile;
+
+  private final MappedByteBuffer index;
+
+  /** Total length of the live records by segment identifier. */
+  private final Map<Integer, Long> segmentLiveBytes = new HashMap<Integer, Long>();
+
+  private int activeSegmentId;
+
+  /** Segment file that records are appended to, opened on first use. */
+  private RandomAccessFile activeSegment;
+
+  private long sizeBytes;
+
+  private int entryCount;
+
+  private boolean closed;
+
+  /**
+   * Opens a store with the {@link #DEFAULT_MAX_SIZE_BYTES default maximum size} and
+   * {@link #DEFAULT_MAX_ENTRIES default maximum number of entries}.
+   *
+   * @param directory directory of the store, which is created if needed
+   */
+  public DiskCacheStore(File directory) throws IOException {
+    this(directory, DEFAULT_MAX_SIZE_BYTES, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Opens a store. Entries that a previous store left in the directory are kept, unless the index
+   * has a different maximum number of entries.
+   *
+   * @param directory directory of the store, which is created if needed
+   * @param maxSizeBytes maximum total size of the entries in bytes
+   * @param maxEntries maximum number of entries
+   */
+  public DiskCacheStore(File directory, long maxSizeBytes, int maxEntries) throws IOException {
+    Preconditions.checkArgument(maxSizeBytes > 0);
+    Preconditions.checkArgument(maxEntries > 0 && maxEntries <= 1 << 24);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("unable to create directory " + directory);
+    }
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+    this.maxEntries = maxEntries;
+    segmentSizeBytes = Math.max(MIN_SEGMENT_SIZE_BYTES, maxSizeBytes / 16);
+    int slots = 1;
+    while (slots < 2 * maxEntries) {
+      slots <<= 1;
+    }
+    capacity = slots;
+    long indexLength = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    indexFile = new RandomAccessFile(new File(directory, INDEX_FILE_NAME), "rw");
+    boolean valid = indexFile.length() == indexLength;
+    indexFile.setLength(indexLength);
+    index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexLength);
+    synchronized (this) {
+      if (!valid || index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION
+          || index.getInt(8) != capacity) {
+        for (int i = 0; i < indexLength; i++) {
+          index.put(i, (byte) 0);
+        }
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, 1);
+      }
+      load();
+    }
+  }
+
+  /** Returns the directory of the store. */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /** Returns the maximum total size of the entries in bytes. */
+  public long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  /** Returns the maximum number of entries. */
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /** Returns the total size of the entries in bytes. */
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  /** Returns the number of entries. */
+  public synchronized int getEntryCount() {
+    return entryCount;
+  }
+
+  public synchronized HttpResponseCache.Entry get(String key) throws IOException {
+    checkOpen();
+    int slot = findSlot(keyHash(key));
+    if (slot < 0) {
+      return null;
+    }
+    File file = segmentFile(getSegment(slot));
+    long offset = getOffset(slot);
+    int metadataLength = getMetadataLength(slot);
+    byte[] metadata = new byte[metadataLength];
+    // the segment is opened while the lock is held, and the stream is kept open for the content
+    // so that the record is still readable once it has been evicted or compacted
+    FileInputStream segment = null;
+    boolean valid = false;
+    try {
+      segment = new FileInputStream(file);
+      segment.getChannel().position(offset);
+      DataInputStream header = new DataInputStream(segment);
+      if (header.readInt() == RECORD_MAGIC && header.readInt() == metadataLength) {
+        int checksum = header.readInt();
+        header.readFully(metadata);
+        valid = checksum == checksum(metadata);
+      }
+    } catch (FileNotFoundException e) {
+      // missing segment
+    } catch (EOFException e) {
+      // truncated segment
+    } finally {
+      if (!valid && segment != null) {
+        segment.close();
+      }
+    }
+    if (!valid) {
+      removeSlot(slot);
+      return null;
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+    if (!key.equals(in.readUTF())) {
+      // hash collision with another key
+      segment.close();
+      return null;
+    }
+    int statusCode = in.readInt();
+    String statusLine = readString(in);
+    String reasonPhrase = readString(in);
+    int headerCount = in.readInt();
+    List<String> headerNames = new ArrayList<String>(headerCount);
+    List<String> headerValues = new ArrayList<String>(headerCount);
+    for (int i = 0; i < headerCount; i++) {
+      headerNames.add(in.readUTF());
+      headerValues.add(in.readUTF());
+    }
+    String varyKey = in.readUTF();
+    long requestTimeMillis = in.readLong();
+    long responseTimeMillis = in.readLong();
+    long contentLength = in.readLong();
+    setLastAccess(slot, nextAccess());
+    HttpResponseCache.EntryContent content = null;
+    if (contentLength == -1) {
+      segment.close();
+    } else {
+      content = new SegmentContent(
+          file, offset + RECORD_HEADER_SIZE + metadataLength, contentLength, segment);
+    }
+    return new HttpResponseCache.Entry(statusCode, statusLine, reasonPhrase, headerNames,
+        headerValues, content, varyKey, requestTimeMillis, responseTimeMillis);
+  }
+
+  public synchronized void put(String key, HttpResponseCache.Entry entry) throws IOException {
+    checkOpen();
+    byte[] metadata;
+    try {
+      metadata = encodeMetadata(key, entry);
+    } catch (UTFDataFormatException e) {
+      // a string is too long to be stored
+      remove(key);
+      return;
+    }
+    HttpResponseCache.EntryContent content = entry.getContent();
+    long contentLength = content == null ? 0 : content.getLength();
+    long length = RECORD_HEADER_SIZE + metadata.length + contentLength;
+    if (length > maxSizeBytes) {
+      remove(key);
+      return;
+    }
+    // append the record
+    RandomAccessFile segment = getActiveSegment(length);
+    long offset = segment.length();
+    boolean written = false;
+    try {
+      segment.seek(offset);
+      segment.writeInt(RECORD_MAGIC);
+      segment.writeInt(metadata.length);
+      segment.writeInt(checksum(metadata));
+      segment.write(metadata);
+      if (content != null) {
+        InputStream in = content.openStream();
+        try {
+          byte[] buffer = new byte[8192];
+          long remaining = contentLength;
+          int n;
+          while (remaining > 0
+              && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            segment.write(buffer, 0, n);
+            remaining -= n;
+          }
+          if (remaining != 0) {
+            throw new EOFException("content is shorter than its length");
+          }
+        } finally {
+          in.close();
+        }
+      }
+      written = true;
+    } finally {
+      if (!written) {
+        segment.setLength(offset);
+      }
+    }
+    // update the index
+    long hash = keyHash(key);
+    int slot = findSlot(hash);
+    int previousSegment = -1;
+    long previousLength = 0;
+    if (slot >= 0) {
+      previousSegment = getSegment(slot);
+      previousLength = getLength(slot);
+    } else {
+      slot = -1 - slot;
+      entryCount++;
+    }
+    int position = slotPosition(slot);
+    index.putLong(position, hash);
+    index.putInt(position + 8, activeSegmentId);
+    index.putInt(position + 12, metadata.length);
+    index.putLong(position + 16, offset);
+    index.putLong(position + 24, length);
+    index.putLong(position + 32, nextAccess());
+    index.putLong(position + 40, getExpiresMillis(entry));
+    addLiveBytes(activeSegmentId, length);
+    sizeBytes += length;
+    if (previousSegment != -1) {
+      sizeBytes -= previousLength;
+      onRecordRemoved(previousSegment, previousLength);
+    }
+    evict();
+  }
+
+  public synchronized void remove(String key) throws IOException {
+    checkOpen();
+    int slot = findSlot(keyHash(key));
+    if (slot >= 0) {
+      removeSlot(slot);
+    }
+  }
+
+  /**
+   * Closes the store, writing the index to the storage device. Further operations fail with an
+   * {@link IOException}.
+   */
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    index.force();
+    if (activeSegment != null) {
+      activeSegment.close();
+    }
+    indexFile.close();
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("store is closed");
+    }
+  }
+
+  /**
+   * Loads the index: drops the entries whose record is missing, accounts for the live records,
+   * deletes the segment files without live records and starts a new segment file.
+   */
+  private void load() throws IOException {
+    Map<Integer, Long> segmentLengths = new HashMap<Integer, Long>();
+    List<Long> invalidHashes = new ArrayList<Long>();
+    for (int slot = 0; slot < capacity; slot++) {
+      long hash = getHash(slot);
+      if (hash == 0) {
+        continue;
+      }
+      int segment = getSegment(slot);
+      Long segmentLength = segmentLengths.get(segment);
+      if (segmentLength == null) {
+        segmentLength = segmentFile(segment).length();
+        segmentLengths.put(segment, segmentLength);
+      }
+      long length = getLength(slot);
+      if (getOffset(slot) + length > segmentLength) {
+        invalidHashes.add(hash);
+      } else {
+        addLiveBytes(segment, length);
+        sizeBytes += length;
+        entryCount++;
+      }
+    }
+    for (long hash : invalidHashes) {
+      int slot = findSlot(hash);
+      clearSlot(slot);
+    }
+    String[] names = directory.list();
+    if (names != null) {
+      for (String name : names) {
+        if (name.startsWith(SEGMENT_FILE_PREFIX)) {
+          Integer segment = parseSegmentId(name.substring(SEGMENT_FILE_PREFIX.length()));
+          if (segment == null || !segmentLiveBytes.containsKey(segment)) {
+            new File(directory, name).delete();
+          }
+        }
+      }
+    }
+    activeSegmentId = nextSegmentId();
+    evict();
+  }
+
+  /** Returns the segment file to append a record of the given length to. */
+  private RandomAccessFile getActiveSegment(long length) throws IOException {
+    if (activeSegment != null && activeSegment.length() > 0
+        && activeSegment.length() + length > segmentSizeBytes) {
+      activeSegment.close();
+      activeSegment = null;
+      activeSegmentId = nextSegmentId();
+    }
+    if (activeSegment == null) {
+      activeSegment = new RandomAccessFile(segmentFile(activeSegmentId), "rw");
+    }
+    return activeSegment;
+  }
+
+  /** Evicts entries until the total size and number of entries are within their maximum. */
+  private void evict() throws IOException {
+    while (entryCount > maxEntries || sizeBytes > maxSizeBytes) {
+      long now = System.currentTimeMillis();
+      int victim = -1;
+      boolean victimExpired = false;
+      long victimAccess = Long.MAX_VALUE;
+      for (int slot = 0; slot < capacity; slot++) {
+        if (getHash(slot) == 0) {
+          continue;
+        }
+        boolean expired = getExpiresMillis(slot) < now;
+        long access = getLastAccess(slot);
+        if (expired && !victimExpired || expired == victimExpired && access < victimAccess) {
+          victim = slot;
+          victimExpired = expired;
+          victimAccess = access;
+        }
+      }
+      removeSlot(victim);
+    }
+  }
+
+  /** Removes the entry of the given slot. */
+  private void removeSlot(int slot) throws IOException {
+    int segment = getSegment(slot);
+    long length = getLength(slot);
+    clearSlot(slot);
+    entryCount--;
+    sizeBytes -= length;
+    onRecordRemoved(segment, length);
+  }
+
+  /**
+   * Accounts for a removed record: a segment file without live records is deleted, and one whose
+   * live records take less than a quarter of it is compacted.
+   */
+  private void onRecordRemoved(int segment, long length) throws IOException {
+    long liveBytes = segmentLiveBytes.get(segment) - length;
+    if (segment == activeSegmentId) {
+      segmentLiveBytes.put(segment, liveBytes);
+      return;
+    }
+    if (liveBytes <= 0) {
+      segmentLiveBytes.remove(segment);
+      segmentFile(segment).delete();
+      return;
+    }
+    segmentLiveBytes.put(segment, liveBytes);
+    if (liveBytes * 4 < segmentFile(segment).length()) {
+      compact(segment);
+    }
+  }
+
+  /** Moves the live records of the given segment file to the active one and deletes it. */
+  private void compact(int segment) throws IOException {
+    RandomAccessFile source = new RandomAccessFile(segmentFile(segment), "r");
+    try {
+      FileChannel sourceChannel = source.getChannel();
+      for (int slot = 0; slot < capacity; slot++) {
+        if (getHash(slot) == 0 || getSegment(slot) != segment) {
+          continue;
+        }
+        long length = getLength(slot);
+        RandomAccessFile target = getActiveSegment(length);
+        long targetOffset = target.length();
+        FileChannel targetChannel = target.getChannel();
+        long transferred = 0;
+        while (transferred < length) {
+          long n = sourceChannel.transferTo(getOffset(slot) + transferred, length - transferred,
+              targetChannel.position(targetOffset + transferred));
+          if (n <= 0) {
+            target.setLength(targetOffset);
+            throw new EOFException("segment " + segment + " is truncated");
+          }
+          transferred += n;
+        }
+        int position = slotPosition(slot);
+        index.putInt(position + 8, activeSegmentId);
+        index.putLong(position + 16, targetOffset);
+        addLiveBytes(activeSegmentId, length);
+      }
+    } finally {
+      source.close();
+    }
+    segmentLiveBytes.remove(segment);
+    segmentFile(segment).delete();
+  }
+
+  private void addLiveBytes(int segment, long length) {
+    Long liveBytes = segmentLiveBytes.get(segment);
+    segmentLiveBytes.put(segment, (liveBytes == null ? 0 : liveBytes) + length);
+  }
+
+  private File segmentFile(int segment) {
+    return new File(directory, SEGMENT_FILE_PREFIX + segment);
+  }
+
+  private static Integer parseSegmentId(String value) {
+    try {
+      return Integer.valueOf(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private int nextSegmentId() {
+    int segment = index.getInt(12);
+    index.putInt(12, segment + 1);
+    return segment;
+  }
+
+  /** Returns the next value of the access clock, which orders the accesses of the entries. */
+  private long nextAccess() {
+    long access = index.getLong(16) + 1;
+    index.putLong(16, access);
+    return access;
+  }
+
+  // index slots, with open addressing and linear probing
+
+  /**
+   * Returns the slot of the given key hash, or {@code -1 - slot} of the empty slot where it would
+   * be inserted.
+   */
+  private int findSlot(long hash) {
+    int mask = capacity - 1;
+    int slot = (int) hash & mask;
+    while (true) {
+      long slotHash = getHash(slot);
+      if (slotHash == 0) {
+        return -1 - slot;
+      }
+      if (slotHash == hash) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /** Clears the given slot, shifting back the following slots of the same probe sequence. */
+  private void clearSlot(int slot) {
+    int mask = capacity - 1;
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      long hash = getHash(next);
+      if (hash == 0) {
+        break;
+      }
+      int home = (int) hash & mask;
+      boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+      if (!stays) {
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+          index.putLong(slotPosition(slot) + i, index.getLong(slotPosition(next) + i));
+        }
+        slot = next;
+      }
+    }
+    for (int i = 0; i < SLOT_SIZE; i += 8) {
+      index.putLong(slotPosition(slot) + i, 0);
+    }
+  }
+
+  private static int slotPosition(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private long getHash(int slot) {
+    return index.getLong(slotPosition(slot));
+  }
+
+  private int getSegment(int slot) {
+    return index.getInt(slotPosition(slot) + 8);
+  }
+
+  private int getMetadataLength(int slot) {
+    return index.getInt(slotPosition(slot) + 12);
+  }
+
+  private long getOffset(int slot) {
+    return index.getLong(slotPosition(slot) + 16);
+  }
+
+  private long getLength(int slot) {
+    return index.getLong(slotPosition(slot) + 24);
+  }
+
+  private long getLastAccess(int slot) {
+    return index.getLong(slotPosition(slot) + 32);
+  }
+
+  private void setLastAccess(int slot, long access) {
+    index.putLong(slotPosition(slot) + 32, access);
+  }
+
+  private long getExpiresMillis(int slot) {
+    return index.getLong(slotPosition(slot) + 40);
+  }
+
+  /**
+   * Returns the time in milliseconds after which the given entry is useless, which is never if it
+   * has a validator to be revalidated with.
+   */
+  private static long getExpiresMillis(HttpResponseCache.Entry entry) {
+    if (entry.getHeaderValue("ETag") != null || entry.getHeaderValue("Last-Modified") != null) {
+      return Long.MAX_VALUE;
+    }
+    long responseTimeMillis = entry.getResponseTimeMillis();
+    return responseTimeMillis - HttpResponseCache.getAgeMillis(entry, responseTimeMillis)
+        + HttpResponseCache.getFreshnessLifetimeMillis(entry,
+            HttpResponseCache.parseCacheControl(entry.getHeaderValue("Cache-Control")));
+  }
+
+  /** Returns the non-zero 64-bit FNV-1a hash of the given key. */
+  static long keyHash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : StringUtils.getBytesUtf8(key)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static int checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static byte[] encodeMetadata(String key, HttpResponseCache.Entry entry)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(key);
+    out.writeInt(entry.getStatusCode());
+    writeString(out, entry.getStatusLine());
+    writeString(out, entry.getReasonPhrase());
+    List<String> headerNames = entry.getHeaderNames();
+    List<String> headerValues = entry.getHeaderValues();
+    out.writeInt(headerNames.size());
+    for (int i = 0; i < headerNames.size(); i++) {
+      out.writeUTF(headerNames.get(i));
+      out.writeUTF(headerValues.get(i));
+    }
+    out.writeUTF(entry.getVaryKey());
+    out.writeLong(entry.getRequestTimeMillis());
+    out.writeLong(entry.getResponseTimeMillis());
+    out.writeLong(entry.getContent() == null ? -1 : entry.getContent().getLength());
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Content of an entry in a segment file.
+   *
+   * <p>
+   * The first stream is the one opened by {@link #get(String)}, so it reads the content even if the
+   * record has been removed since. Further streams open the segment file again, and fail if it has
+   * been deleted in the meantime.
+   * </p>
+   */
+  private static final class SegmentContent implements HttpResponseCache.EntryContent {
+
+    private final File file;
+
+    private final long offset;
+
+    private final long length;
+
+    /** Segment positioned at the content or {@code null} once it has been handed out. */
+    private FileInputStream segment;
+
+    SegmentContent(File file, long offset, long length, FileInputStream segment) {
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+      this.segment = segment;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public InputStream openStream() throws IOException {
+      FileInputStream segment;
+      synchronized (this) {
+        segment = this.segment;
+        this.segment = null;
+      }
+      if (segment == null) {
+        segment = new FileInputStream(file);
+        segment.getChannel().position(offset);
+      }
+      return new SegmentInputStream(segment, length);
+    }
+  }
+
+  /** Input stream of a range of a segment file. */
+  private static final class SegmentInputStream extends InputStream {
+
+    private final FileInputStream segment;
+
+    private long remaining;
+
+    SegmentInputStream(FileInputStream segment, long length) {
+      this.segment = segment;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (remaining == 0) {
+        return -1;
+      }
+      int n = segment.read(b, off, (int) Math.min(len, remaining));
+      if (n == -1) {
+        throw new EOFException("segment is truncated");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+      segment.close();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.ByteArrayPool;
+import com.google.api.client.util.HashedWheelTimer;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Preconditions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Beta} <br/>
+ * Policy that reads the rest of the content of a response that is {@link HttpResponse#ignore()
+ * ignored}, up to a bounded number of bytes and time, before closing it.
+ *
+ * <p>
+ * Transports such as {@link com.google.api.client.http.javanet.NetHttpTransport} only return a
+ * persistent connection to their keep-alive cache once its response has been read to the end, and
+ * otherwise close the connection, so that the next request must connect again, including a TLS
+ * handshake for HTTPS. Draining a small remainder is cheaper than that, which matters in particular
+ * for the unsuccessful responses that are ignored before each retry. Content that is longer than
+ * {@link #getMaxBytes() maxBytes} according to its {@code Content-Length} is not drained at all,
+ * and draining stops once {@link #getMaxMillis() maxMillis} have elapsed. A read that still blocks
+ * then, for example on a stalled server, is aborted by disconnecting the response, so that it does
+ * not wait for the read timeout. Draining reads the content as received, without decoding it. The
+ * content is not drained by {@link HttpResponse#disconnect()}, because the connection is not
+ * reused.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class DrainPolicy {
+
+  /** Default maximum number of bytes that are drained. */
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024;
+
+  /** Default maximum time in milliseconds spent draining. */
+  public static final long DEFAULT_MAX_MILLIS = 100;
+
+  /** Timer that aborts draining once the maximum time has elapsed, created on first use. */
+  private static HashedWheelTimer timer;
+
+  private final long maxBytes;
+
+  private final long maxMillis;
+
+  private final NanoClock nanoClock;
+
+  /** Constructor with the default maximum number of bytes and time. */
+  public DrainPolicy() {
+    this(DEFAULT_MAX_BYTES, DEFAULT_MAX_MILLIS);
+  }
+
+  /**
+   * @param maxBytes maximum number of bytes that are drained
+   * @param maxMillis maximum time in milliseconds spent draining
+   */
+  public DrainPolicy(long maxBytes, long maxMillis) {
+    this(maxBytes, maxMillis, NanoClock.SYSTEM);
+  }
+
+  DrainPolicy(long maxBytes, long maxMillis, NanoClock nanoClock) {
+    Preconditions.checkArgument(maxBytes >= 0);
+    Preconditions.checkArgument(maxMillis >= 0);
+    this.maxBytes = maxBytes;
+    this.maxMillis = maxMillis;
+    this.nanoClock = nanoClock;
+  }
+
+  /** Returns the maximum number of bytes that are drained. */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /** Returns the maximum time in milliseconds spent draining. */
+  public long getMaxMillis() {
+    return maxMillis;
+  }
+
+  /**
+   * Reads the given content to its end within the bounds of this policy like
+   * {@link #drain(InputStream, long)}, and runs the given task to abort a read that still blocks
+   * once the maximum time has elapsed.
+   *
+   * @param content content
+   * @param contentLength length of the content or {@code -1} if unknown
+   * @param abort task that aborts a blocked read, for example by disconnecting the response
+   * @return whether the end of the content has been reached
+   */
+  boolean drain(InputStream content, long contentLength, Runnable abort) throws IOException {
+    if (contentLength > maxBytes) {
+      return false;
+    }
+    Watchdog watchdog = new Watchdog(abort);
+    // like the timeouts of requests, at most Integer.MAX_VALUE milliseconds
+    HashedWheelTimer.Timeout timeout = getTimer().newTimeout(
+        watchdog, Math.min(maxMillis, Integer.MAX_VALUE), TimeUnit.MILLISECONDS);
+    try {
+      return drain(content, contentLength);
+    } finally {
+      watchdog.finish();
+      timeout.cancel();
+    }
+  }
+
+  /**
+   * Reads the given content to its end within the bounds of this policy. The content is not
+   * closed.
+   *
+   * @param content content
+   * @param contentLength length of the content or {@code -1} if unknown
+   * @return whether the end of the content has been reached
+   */
+  boolean drain(InputStream content, long contentLength) throws IOException {
+    if (contentLength > maxBytes) {
+      return false;
+    }
+    long deadlineNanos = nanoClock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    ByteArrayPool pool = ByteArrayPool.getDefault();
+    byte[] buffer = pool.acquire();
+    try {
+      long remaining = maxBytes;
+      while (true) {
+        // read one more byte than allowed to detect the end of the content
+        int n = content.read(buffer, 0, (int) Math.min(buffer.length, remaining + 1));
+        if (n == -1) {
+          return true;
+        }
+        remaining -= n;
+        if (remaining < 0 || nanoClock.nanoTime() - deadlineNanos > 0) {
+          return false;
+        }
+      }
+    } finally {
+      pool.release(buffer);
+    }
+  }
+
+  private static synchronized HashedWheelTimer getTimer() {
+    if (timer == null) {
+      timer = new HashedWheelTimer("google-http-client-drain-timer");
+    }
+    return timer;
+  }
+
+  /** Timer task that aborts draining, unless draining finished first. */
+  private static final class Watchdog implements Runnable {
+
+    private final Runnable abort;
+
+    private boolean finished;
+
+    Watchdog(Runnable abort) {
+      this.abort = Preconditions.checkNotNull(abort);
+    }
+
+    public synchronized void run() {
+      if (!finished) {
+        finished = true;
+        abort.run();
+      }
+    }
+
+    /** Marks draining as finished, so that the watchdog no longer aborts it. */
+    synchronized void finish() {
+      finished = true;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+
+/**
+ * {@link Beta} <br/>
+ * How {@link HttpRequest} sends content with an {@link HttpRequest#setEncoding encoding}, whose
+ * length is only known once the content has been encoded.
+ *
+ * @since 1.27
+ */
+@Beta
+public enum EncodedContentMode {
+
+  /**
+   * Encodes retryable content once to compute its length and again to send it, so that it is sent
+   * with a {@code Content-Length} header. Content that does not support retries is sent with an
+   * unknown length.
+   */
+  COMPUTE_LENGTH,
+
+  /**
+   * Encodes retryable content once into a buffer, which is sent with a {@code Content-Length}
+   * header by each attempt of an execution. Encoded content above 1 MiB is buffered in a temporary
+   * file that is deleted once the execution completes. Content that does not support retries is
+   * sent with an unknown length.
+   */
+  BUFFER,
+
+  /**
+   * Encodes content while sending it with an unknown length, for example with chunked transfer
+   * coding in HTTP/1.1. Each attempt encodes the content again.
+   */
+  STREAM
+}
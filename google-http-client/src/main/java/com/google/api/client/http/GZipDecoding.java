@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Beta} <br/>
+ * GZip HTTP content decoding.
+ *
+ * <p>
+ * The decoded stream uses a pooled {@link java.util.zip.Inflater} and input buffer, which are
+ * returned to the pool as soon as the stream is closed, for example by
+ * {@link HttpResponse#ignore()} or {@link HttpResponse#disconnect()}.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public class GZipDecoding implements HttpDecoding {
+
+  public String getName() {
+    return "gzip";
+  }
+
+  public InputStream decode(InputStream content) throws IOException {
+    return new PooledGZipInputStream(content);
+  }
+}
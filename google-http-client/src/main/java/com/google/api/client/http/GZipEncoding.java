@@ -14,40 +14,114 @@
 
 package com.google.api.client.http;
 
+import com.google.api.client.util.Preconditions;
 import com.google.api.client.util.StreamingContent;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 /**
  * GZip HTTP content encoding.
  *
+ * <p>
+ * The compression level and strategy may be chosen, and the {@link Deflater}s are pooled across
+ * requests.
+ * </p>
+ *
  * @since 1.14
  * @author Yaniv Inbar
  */
 public class GZipEncoding implements HttpEncoding {
 
+  /** GZip member header: magic, deflate method, no flags, no modification time, no extra flags. */
+  static final byte[] HEADER = {31, (byte) 139, 8, 0, 0, 0, 0, 0, 0, 0};
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final int level;
+
+  private final int strategy;
+
+  /** Constructor with the default compression level and strategy. */
+  public GZipEncoding() {
+    this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+  }
+
+  /**
+   * @param level compression level from {@code 0} to {@code 9} or
+   *        {@link Deflater#DEFAULT_COMPRESSION}
+   * @param strategy compression strategy, such as {@link Deflater#DEFAULT_STRATEGY},
+   *        {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}
+   * @since 1.27
+   */
+  public GZipEncoding(int level, int strategy) {
+    Preconditions.checkArgument(
+        level == Deflater.DEFAULT_COMPRESSION || level >= 0 && level <= 9);
+    Preconditions.checkArgument(strategy == Deflater.DEFAULT_STRATEGY
+        || strategy == Deflater.FILTERED || strategy == Deflater.HUFFMAN_ONLY);
+    this.level = level;
+    this.strategy = strategy;
+  }
+
+  /**
+   * Returns the compression level.
+   *
+   * @since 1.27
+   */
+  public final int getLevel() {
+    return level;
+  }
+
+  /**
+   * Returns the compression strategy.
+   *
+   * @since 1.27
+   */
+  public final int getStrategy() {
+    return strategy;
+  }
+
   public String getName() {
     return "gzip";
   }
 
   public void encode(StreamingContent content, OutputStream out) throws IOException {
-    // must not close the underlying output stream
-    OutputStream out2 = new BufferedOutputStream(out) {
-      @Override
-      public void close() throws IOException {
-        // copy implementation of super.close(), except do not close the underlying output stream
-        try {
+    Deflater deflater = DeflaterPool.acquire(level, strategy);
+    try {
+      out.write(HEADER);
+      CRC32 crc = new CRC32();
+      DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+      // buffer the content so that the deflater is not called for each small write, and must not
+      // close the underlying output stream
+      OutputStream contentOut = new BufferedOutputStream(
+          new CheckedOutputStream(deflaterOut, crc), BUFFER_SIZE) {
+        @Override
+        public void close() throws IOException {
           flush();
-        } catch (IOException ignored) {
         }
-      }
-    };
-    GZIPOutputStream zipper = new GZIPOutputStream(out2);
-    content.writeTo(zipper);
-    // cannot call just zipper.finish() because that would cause a severe memory leak
-    zipper.close();
+      };
+      content.writeTo(contentOut);
+      contentOut.flush();
+      deflaterOut.finish();
+      // trailer: CRC-32 and uncompressed size modulo 2^32, in little-endian order
+      byte[] trailer = new byte[8];
+      writeIntLittleEndian(trailer, 0, crc.getValue());
+      writeIntLittleEndian(trailer, 4, deflater.getBytesRead());
+      out.write(trailer);
+      out.flush();
+    } finally {
+      DeflaterPool.release(deflater);
+    }
+  }
+
+  static void writeIntLittleEndian(byte[] bytes, int offset, long value) {
+    for (int i = 0; i < 4; i++) {
+      bytes[offset + i] = (byte) (value >> (8 * i));
+    }
   }
 }
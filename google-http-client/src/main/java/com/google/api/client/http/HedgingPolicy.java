@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.HashedWheelTimer;
+import com.google.api.client.util.Preconditions;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Beta} <br/>
+ * Policy to hedge idempotent requests: if no response has arrived after a delay, a duplicate
+ * request is sent, the first response wins, and the other request is disconnected.
+ *
+ * <p>
+ * Hedging cuts the tail latency caused by occasional slow servers at the cost of some extra load.
+ * Only {@code GET} and {@code HEAD} requests whose content is {@code null} or
+ * {@link HttpContent#retrySupported() supports retries} are hedged, and at most one duplicate is
+ * sent per attempt. By default the delay is the observed {@link Builder#setPercentile(double)
+ * 95th percentile} of the latency of the host, so about 5% of the requests are hedged, and
+ * requests are not hedged until {@link Builder#setMinSamples(int) enough latencies} have been
+ * observed. A {@link Builder#setDelayMillis(long) fixed delay} may be configured instead.
+ * </p>
+ *
+ * <p>
+ * The original request runs on the calling thread. The duplicate runs on a small pool of threads of
+ * the policy, and a request is not hedged while that pool is busy. If the duplicate wins, the
+ * original request is {@link LowLevelHttpRequest#abort() aborted}.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class HedgingPolicy {
+
+  /** Default percentile of the observed latency after which a request is hedged. */
+  public static final double DEFAULT_PERCENTILE = 0.95;
+
+  /** Default number of latencies to observe for a host before its requests are hedged. */
+  public static final int DEFAULT_MIN_SAMPLES = 20;
+
+  /** Default number of most recent latencies of a host that are kept. */
+  public static final int DEFAULT_WINDOW_SIZE = 100;
+
+  /** Maximum number of hosts whose latencies are kept, the least recently used are dropped. */
+  private static final int MAX_HOSTS = 1024;
+
+  /** Time in seconds after which an idle thread of the executor exits. */
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  /** Maximum number of duplicate requests in flight, further requests are not hedged. */
+  static final int MAX_DUPLICATES = 64;
+
+  /** Timer that starts the duplicate requests, created on first use. */
+  private static HashedWheelTimer timer;
+
+  private final long delayMillis;
+
+  private final double percentile;
+
+  private final int minSamples;
+
+  private final int windowSize;
+
+  private final long minDelayMillis;
+
+  /** Latencies by host, guarded by this. */
+  private final Map<String, Window> windows =
+      new LinkedHashMap<String, Window>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+          return size() > MAX_HOSTS;
+        }
+      };
+
+  /** Executor that runs the duplicate requests, created on first use and guarded by this. */
+  private ExecutorService executor;
+
+  /** Constructor with the default configuration. */
+  public HedgingPolicy() {
+    this(new Builder());
+  }
+
+  /**
+   * @param builder builder
+   */
+  HedgingPolicy(Builder builder) {
+    delayMillis = builder.delayMillis;
+    percentile = builder.percentile;
+    minSamples = builder.minSamples;
+    windowSize = builder.windowSize;
+    minDelayMillis = builder.minDelayMillis;
+  }
+
+  /**
+   * Returns the delay in milliseconds after which a request to the given host is hedged, or
+   * {@code -1} if it must not be hedged.
+   *
+   * @param host host
+   */
+  public long getHedgeDelayMillis(String host) {
+    if (delayMillis >= 0) {
+      return delayMillis;
+    }
+    long[] latencies;
+    synchronized (this) {
+      Window window = windows.get(String.valueOf(host));
+      if (window == null || window.count < minSamples) {
+        return -1;
+      }
+      latencies = Arrays.copyOf(window.latencies, window.count);
+    }
+    Arrays.sort(latencies);
+    int index = (int) Math.ceil(percentile * latencies.length) - 1;
+    return Math.max(minDelayMillis, latencies[Math.max(0, index)]);
+  }
+
+  /**
+   * Records the latency of a request to the given host, which is the time until its response
+   * headers arrived.
+   *
+   * @param host host
+   * @param latencyMillis latency in milliseconds
+   */
+  public synchronized void recordLatency(String host, long latencyMillis) {
+    String key = String.valueOf(host);
+    Window window = windows.get(key);
+    if (window == null) {
+      window = new Window(windowSize);
+      windows.put(key, window);
+    }
+    window.latencies[window.next] = latencyMillis;
+    window.next = (window.next + 1) % windowSize;
+    window.count = Math.min(window.count + 1, windowSize);
+  }
+
+  /** Returns the fixed delay in milliseconds or {@code -1} if the delay is a percentile. */
+  public long getDelayMillis() {
+    return delayMillis;
+  }
+
+  /** Returns the percentile of the observed latency after which a request is hedged. */
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /** Returns the number of latencies to observe for a host before its requests are hedged. */
+  public int getMinSamples() {
+    return minSamples;
+  }
+
+  /** Returns the number of most recent latencies of a host that are kept. */
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  /** Returns the minimum delay in milliseconds when the delay is a percentile. */
+  public long getMinDelayMillis() {
+    return minDelayMillis;
+  }
+
+  /**
+   * Returns the executor that runs the duplicate requests, while the original requests run on the
+   * calling thread. It runs at most {@link #MAX_DUPLICATES} duplicates at once and rejects any
+   * further duplicate rather than queuing it, since a late duplicate is useless. Its daemon threads
+   * exit once idle.
+   */
+  synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(0, MAX_DUPLICATES, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), new HedgeThreadFactory());
+    }
+    return executor;
+  }
+
+  /** Returns the timer that starts the duplicate requests after the hedge delay. */
+  static synchronized HashedWheelTimer getTimer() {
+    if (timer == null) {
+      timer = new HashedWheelTimer("google-http-client-hedge-timer");
+    }
+    return timer;
+  }
+
+  /** Most recent latencies of a host. */
+  private static final class Window {
+
+    final long[] latencies;
+
+    int count;
+
+    /** Index of the next latency to overwrite. */
+    int next;
+
+    Window(int windowSize) {
+      latencies = new long[windowSize];
+    }
+  }
+
+  /** Thread factory of the executor of the hedged exchanges. */
+  private static final class HedgeThreadFactory implements ThreadFactory {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final int poolNumber = POOL_NUMBER.incrementAndGet();
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    HedgeThreadFactory() {
+    }
+
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable,
+          "google-http-client-hedge-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Builder for {@link HedgingPolicy}.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Builder {
+
+    long delayMillis = -1;
+
+    double percentile = DEFAULT_PERCENTILE;
+
+    int minSamples = DEFAULT_MIN_SAMPLES;
+
+    int windowSize = DEFAULT_WINDOW_SIZE;
+
+    long minDelayMillis;
+
+    public Builder() {
+    }
+
+    /** Builds a new instance of {@link HedgingPolicy}. */
+    public HedgingPolicy build() {
+      Preconditions.checkArgument(minSamples <= windowSize);
+      return new HedgingPolicy(this);
+    }
+
+    /** Returns the fixed delay in milliseconds or {@code -1} if the delay is a percentile. */
+    public long getDelayMillis() {
+      return delayMillis;
+    }
+
+    /**
+     * Sets the fixed delay in milliseconds after which a request is hedged, or {@code -1} to use
+     * the {@link #setPercentile(double) percentile} of the observed latency of the host instead.
+     * The default value is {@code -1}.
+     */
+    public Builder setDelayMillis(long delayMillis) {
+      Preconditions.checkArgument(delayMillis >= -1);
+      this.delayMillis = delayMillis;
+      return this;
+    }
+
+    /** Returns the percentile of the observed latency after which a request is hedged. */
+    public double getPercentile() {
+      return percentile;
+    }
+
+    /**
+     * Sets the percentile of the observed latency of the host after which a request is hedged. The
+     * default value is {@link #DEFAULT_PERCENTILE}. Must be {@code > 0} and {@code <= 1}.
+     */
+    public Builder setPercentile(double percentile) {
+      Preconditions.checkArgument(percentile > 0 && percentile <= 1);
+      this.percentile = percentile;
+      return this;
+    }
+
+    /** Returns the number of latencies to observe for a host before its requests are hedged. */
+    public int getMinSamples() {
+      return minSamples;
+    }
+
+    /**
+     * Sets the number of latencies to observe for a host before its requests are hedged. The
+     * default value is {@link #DEFAULT_MIN_SAMPLES}. Must be {@code > 0} and not more than the
+     * {@link #setWindowSize(int) window size}.
+     */
+    public Builder setMinSamples(int minSamples) {
+      Preconditions.checkArgument(minSamples > 0);
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /** Returns the number of most recent latencies of a host that are kept. */
+    public int getWindowSize() {
+      return windowSize;
+    }
+
+    /**
+     * Sets the number of most recent latencies of a host that are kept to compute the percentile.
+     * The default value is {@link #DEFAULT_WINDOW_SIZE}. Must be {@code > 0}.
+     */
+    public Builder setWindowSize(int windowSize) {
+      Preconditions.checkArgument(windowSize > 0);
+      this.windowSize = windowSize;
+      return this;
+    }
+
+    /** Returns the minimum delay in milliseconds when the delay is a percentile. */
+    public long getMinDelayMillis() {
+      return minDelayMillis;
+    }
+
+    /**
+     * Sets the minimum delay in milliseconds when the delay is a percentile, which avoids hedging
+     * requests to a host that is consistently fast. The default value is {@code 0}.
+     */
+    public Builder setMinDelayMillis(long minDelayMillis) {
+      Preconditions.checkArgument(minDelayMillis >= 0);
+      this.minDelayMillis = minDelayMillis;
+      return this;
+    }
+  }
+}
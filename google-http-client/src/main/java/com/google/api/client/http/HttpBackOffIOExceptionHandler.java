@@ -102,7 +102,9 @@ public class HttpBackOffIOExceptionHandler implements HttpIOExceptionHandler {
    *
    * <p>
    * Handles the request with {@link BackOff}. That means that if back-off is required a call to
-   * {@link Sleeper#sleep(long)} will be made.
+   * {@link Sleeper#sleep(long)} will be made, except that the default sleeper does not block while
+   * the request is executed asynchronously, see
+   * {@link HttpRequest#executeAsync(java.util.concurrent.Executor)}.
    * </p>
    */
   public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
@@ -110,7 +112,8 @@ public class HttpBackOffIOExceptionHandler implements HttpIOExceptionHandler {
       return false;
     }
     try {
-      return BackOffUtils.next(sleeper, backOff);
+      return BackOffUtils.next(
+          request == null ? sleeper : request.getBackOffSleeper(sleeper), backOff);
     } catch (InterruptedException exception) {
       return false;
     }
@@ -15,12 +15,14 @@
 package com.google.api.client.http;
 
 import com.google.api.client.util.BackOff;
-import com.google.api.client.util.BackOffUtils;
 import com.google.api.client.util.Beta;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.ExponentialBackOff;
 import com.google.api.client.util.Preconditions;
 import com.google.api.client.util.Sleeper;
 
 import java.io.IOException;
+import java.util.Date;
 
 /**
  * {@link Beta} <br/>
@@ -42,6 +44,11 @@ import java.io.IOException;
  * </pre>
  *
  * <p>
+ * A {@code "Retry-After"} header of the response overrides the back-off time computed by the
+ * {@link BackOff}, see {@link #setRetryAfterHonored(boolean)}.
+ * </p>
+ *
+ * <p>
  * Note: Implementation doesn't call {@link BackOff#reset} at all, since it expects a new
  * {@link BackOff} instance.
  * </p>
@@ -56,6 +63,15 @@ import java.io.IOException;
 @Beta
 public class HttpBackOffUnsuccessfulResponseHandler implements HttpUnsuccessfulResponseHandler {
 
+  /**
+   * Default maximum back-off time in milliseconds requested by a {@code "Retry-After"} header
+   * (15 minutes).
+   *
+   * @since 1.27
+   */
+  public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS =
+      ExponentialBackOff.DEFAULT_MAX_ELAPSED_TIME_MILLIS;
+
   /** Back-off policy. */
   private final BackOff backOff;
 
@@ -65,6 +81,15 @@ public class HttpBackOffUnsuccessfulResponseHandler implements HttpUnsuccessfulR
   /** Sleeper. */
   private Sleeper sleeper = Sleeper.DEFAULT;
 
+  /** Whether a {@code "Retry-After"} response header overrides the back-off time. */
+  private boolean retryAfterHonored = true;
+
+  /** Maximum back-off time in milliseconds requested by a {@code "Retry-After"} header. */
+  private long maxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+
+  /** Clock used to compute the back-off time of a {@code "Retry-After"} HTTP-date. */
+  private Clock clock = Clock.SYSTEM;
+
   /**
    * Constructs a new instance from a {@link BackOff}.
    *
@@ -128,12 +153,109 @@ public class HttpBackOffUnsuccessfulResponseHandler implements HttpUnsuccessfulR
     return this;
   }
 
+  /**
+   * Returns whether a {@code "Retry-After"} response header overrides the back-off time.
+   *
+   * @since 1.27
+   */
+  public final boolean isRetryAfterHonored() {
+    return retryAfterHonored;
+  }
+
+  /**
+   * Sets whether a {@code "Retry-After"} response header overrides the back-off time.
+   *
+   * <p>
+   * The default value is {@code true}: if back-off is required and the back-off policy allows a
+   * retry, the time given by the server either as delta-seconds or as an HTTP-date is used instead
+   * of the time computed by the back-off policy. The request is not retried when the server asks
+   * to wait longer than the {@link #setMaxRetryAfterMillis(long) maximum}, or, if the back-off
+   * policy is an {@link ExponentialBackOff}, past its
+   * {@link ExponentialBackOff#getMaxElapsedTimeMillis() maximum elapsed time}.
+   * </p>
+   *
+   * <p>
+   * Overriding is only supported for the purpose of calling the super implementation and changing
+   * the return type, but nothing else.
+   * </p>
+   *
+   * @since 1.27
+   */
+  public HttpBackOffUnsuccessfulResponseHandler setRetryAfterHonored(boolean retryAfterHonored) {
+    this.retryAfterHonored = retryAfterHonored;
+    return this;
+  }
+
+  /**
+   * Returns the maximum back-off time in milliseconds requested by a {@code "Retry-After"} header
+   * for which the request is retried.
+   *
+   * @since 1.27
+   */
+  public final long getMaxRetryAfterMillis() {
+    return maxRetryAfterMillis;
+  }
+
+  /**
+   * Sets the maximum back-off time in milliseconds requested by a {@code "Retry-After"} header for
+   * which the request is retried. When the server asks to wait longer, the request is not retried,
+   * whatever the back-off policy.
+   *
+   * <p>
+   * The default value is {@link #DEFAULT_MAX_RETRY_AFTER_MILLIS}.
+   * </p>
+   *
+   * <p>
+   * Overriding is only supported for the purpose of calling the super implementation and changing
+   * the return type, but nothing else.
+   * </p>
+   *
+   * @since 1.27
+   */
+  public HttpBackOffUnsuccessfulResponseHandler setMaxRetryAfterMillis(long maxRetryAfterMillis) {
+    Preconditions.checkArgument(maxRetryAfterMillis >= 0);
+    this.maxRetryAfterMillis = maxRetryAfterMillis;
+    return this;
+  }
+
+  /**
+   * Returns the clock used to compute the back-off time of a {@code "Retry-After"} HTTP-date when
+   * the response has no {@code "Date"} header.
+   *
+   * @since 1.27
+   */
+  public final Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Sets the clock used to compute the back-off time of a {@code "Retry-After"} HTTP-date when the
+   * response has no {@code "Date"} header.
+   *
+   * <p>
+   * The default value is {@link Clock#SYSTEM}.
+   * </p>
+   *
+   * <p>
+   * Overriding is only supported for the purpose of calling the super implementation and changing
+   * the return type, but nothing else.
+   * </p>
+   *
+   * @since 1.27
+   */
+  public HttpBackOffUnsuccessfulResponseHandler setClock(Clock clock) {
+    this.clock = Preconditions.checkNotNull(clock);
+    return this;
+  }
+
   /**
    * {@inheritDoc}
    *
    * <p>
    * Handles the request with {@link BackOff}. That means that if back-off is required a call to
-   * {@link Sleeper#sleep(long)} will be made.
+   * {@link Sleeper#sleep(long)} will be made, except that the default sleeper does not block while
+   * the request is executed asynchronously, see
+   * {@link HttpRequest#executeAsync(java.util.concurrent.Executor)}.
    * </p>
    */
   public final boolean handleResponse(
@@ -144,7 +266,29 @@ public class HttpBackOffUnsuccessfulResponseHandler implements HttpUnsuccessfulR
     // check if back-off is required for this response
     if (backOffRequired.isRequired(response)) {
       try {
-        return BackOffUtils.next(sleeper, backOff);
+        long backOffMillis = backOff.nextBackOffMillis();
+        if (backOffMillis == BackOff.STOP) {
+          return false;
+        }
+        if (retryAfterHonored && response != null) {
+          long retryAfterMillis =
+              getRetryAfterMillis(response.getHeaders(), clock.currentTimeMillis());
+          if (retryAfterMillis != -1) {
+            if (retryAfterMillis > maxRetryAfterMillis) {
+              return false;
+            }
+            if (backOff instanceof ExponentialBackOff) {
+              ExponentialBackOff exponentialBackOff = (ExponentialBackOff) backOff;
+              if (exponentialBackOff.getElapsedTimeMillis() + retryAfterMillis
+                  > exponentialBackOff.getMaxElapsedTimeMillis()) {
+                return false;
+              }
+            }
+            backOffMillis = retryAfterMillis;
+          }
+        }
+        (request == null ? sleeper : request.getBackOffSleeper(sleeper)).sleep(backOffMillis);
+        return true;
       } catch (InterruptedException exception) {
         // ignore
       }
@@ -152,6 +296,45 @@ public class HttpBackOffUnsuccessfulResponseHandler implements HttpUnsuccessfulR
     return false;
   }
 
+  /**
+   * Returns the back-off time in milliseconds requested by the {@code "Retry-After"} header, or
+   * {@code -1} if the header is missing or invalid.
+   *
+   * <p>
+   * An HTTP-date is relative to the {@code "Date"} header if present, so that clock skew between
+   * client and server does not matter, or to the given current time otherwise.
+   * </p>
+   *
+   * @param headers response headers
+   * @param currentTimeMillis current time in milliseconds
+   */
+  static long getRetryAfterMillis(HttpHeaders headers, long currentTimeMillis) {
+    String retryAfter = headers.getRetryAfter();
+    if (retryAfter == null) {
+      return -1;
+    }
+    retryAfter = retryAfter.trim();
+    if (retryAfter.length() > 0 && retryAfter.length() < 10 && isDigits(retryAfter)) {
+      return Long.parseLong(retryAfter) * 1000;
+    }
+    Date date = HttpHeaders.parseHttpDate(retryAfter);
+    if (date == null) {
+      return -1;
+    }
+    Date now = headers.getDate() == null ? null : HttpHeaders.parseHttpDate(headers.getDate());
+    long nowMillis = now == null ? currentTimeMillis : now.getTime();
+    return Math.max(0, date.getTime() - nowMillis);
+  }
+
+  private static boolean isDigits(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * {@link Beta} <br/>
    * Interface which defines if back-off is required based on an abnormal {@link HttpResponse}.
@@ -176,11 +359,17 @@ public class HttpBackOffUnsuccessfulResponseHandler implements HttpUnsuccessfulR
 
     /**
      * Back-off required implementation which its {@link #isRequired(HttpResponse)} returns
-     * {@code true} if a server error occurred (5xx).
+     * {@code true} if a server error occurred (5xx) or the server asked the client to slow down
+     * ({@code 429 Too Many Requests}).
+     *
+     * <p>
+     * Upgrade warning: prior to version 1.27 back-off was not required for 429.
+     * </p>
      */
     BackOffRequired ON_SERVER_ERROR = new BackOffRequired() {
       public boolean isRequired(HttpResponse response) {
-        return response.getStatusCode() / 100 == 5;
+        return response.getStatusCode() / 100 == 5
+            || response.getStatusCode() == HttpStatusCodes.STATUS_CODE_TOO_MANY_REQUESTS;
       }
     };
   }
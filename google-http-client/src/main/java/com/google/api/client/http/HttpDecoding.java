@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Beta} <br/>
+ * HTTP content decoding of response content, which is the counterpart of {@link HttpEncoding}.
+ *
+ * <p>
+ * Implementations should be thread-safe, because an {@link HttpDecodingRegistry} is shared by
+ * requests.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public interface HttpDecoding {
+
+  /** Returns the content coding name (for example {@code "gzip"}). */
+  String getName();
+
+  /**
+   * Returns an input stream that decodes the given content.
+   *
+   * <p>
+   * Closing the returned input stream must close the given one.
+   * </p>
+   *
+   * @param content encoded content
+   * @return decoded content
+   */
+  InputStream decode(InputStream content) throws IOException;
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link Beta} <br/>
+ * Registry of the {@link HttpDecoding HTTP content decodings} that decode response content and are
+ * advertised in the {@code Accept-Encoding} header of requests.
+ *
+ * <p>
+ * A new registry contains {@link GZipDecoding} and {@link DeflateDecoding}, and other decodings
+ * may be {@link #register registered}. A request with a registry, see
+ * {@link HttpRequest#setDecodingRegistry}, sends the {@link #getAcceptEncoding() registered
+ * content codings} in its {@code Accept-Encoding} header unless it has been changed from the
+ * default {@code "gzip"}, and {@link HttpResponse#getContent()} decodes the content codings of
+ * the {@code Content-Encoding} response header in the reverse order of their application. Content
+ * codings that are not registered are left to the caller, as well as those applied before them.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  HttpRequestFactory requestFactory = transport.createRequestFactory();
+  requestFactory.setDecodingRegistry(new HttpDecodingRegistry().register(new BrotliDecoding()));
+ * </pre>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class HttpDecodingRegistry {
+
+  /** Decodings by lower-case name in registration order, guarded by this. */
+  private final Map<String, HttpDecoding> decodings = new LinkedHashMap<String, HttpDecoding>();
+
+  /** Constructor with {@link GZipDecoding} and {@link DeflateDecoding}. */
+  public HttpDecodingRegistry() {
+    register(new GZipDecoding());
+    register(new DeflateDecoding());
+  }
+
+  /**
+   * Registers a decoding, replacing any decoding with the same name.
+   *
+   * @param decoding decoding
+   * @return this registry
+   */
+  public synchronized HttpDecodingRegistry register(HttpDecoding decoding) {
+    decodings.put(decoding.getName().toLowerCase(Locale.US), decoding);
+    return this;
+  }
+
+  /**
+   * Unregisters the decoding of the given content coding name, if any.
+   *
+   * @param name content coding name
+   * @return this registry
+   */
+  public synchronized HttpDecodingRegistry unregister(String name) {
+    decodings.remove(name.toLowerCase(Locale.US));
+    return this;
+  }
+
+  /**
+   * Returns the decoding of the given content coding name or {@code null} for none. The name
+   * {@code "x-gzip"} is equivalent to {@code "gzip"}.
+   *
+   * @param name content coding name, which is case-insensitive
+   */
+  public synchronized HttpDecoding get(String name) {
+    String key = name.toLowerCase(Locale.US);
+    if (key.equals("x-gzip")) {
+      key = "gzip";
+    }
+    return decodings.get(key);
+  }
+
+  /**
+   * Returns the value of the {@code Accept-Encoding} header that advertises the registered content
+   * codings, for example {@code "gzip, deflate"}, or {@code null} if none is registered.
+   */
+  public synchronized String getAcceptEncoding() {
+    if (decodings.isEmpty()) {
+      return null;
+    }
+    StringBuilder acceptEncoding = new StringBuilder();
+    for (String name : decodings.keySet()) {
+      if (acceptEncoding.length() > 0) {
+        acceptEncoding.append(", ");
+      }
+      acceptEncoding.append(name);
+    }
+    return acceptEncoding.toString();
+  }
+
+  /**
+   * Decodes content with the given {@code Content-Encoding} header value.
+   *
+   * @param contentEncoding value of the {@code Content-Encoding} header, which lists the content
+   *        codings in the order of their application
+   * @param content encoded content
+   * @return content decoded from the registered content codings
+   */
+  public InputStream decode(String contentEncoding, InputStream content) throws IOException {
+    String[] names = contentEncoding.split(",");
+    for (int i = names.length - 1; i >= 0; i--) {
+      String name = names[i].trim();
+      if (name.length() == 0 || name.equalsIgnoreCase("identity")) {
+        continue;
+      }
+      HttpDecoding decoding = get(name);
+      if (decoding == null) {
+        break;
+      }
+      content = decoding.decode(content);
+    }
+    return content;
+  }
+}
@@ -29,15 +29,19 @@ import com.google.api.client.util.Types;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Type;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,6 +62,14 @@ import java.util.logging.Logger;
  */
 public class HttpHeaders extends GenericData {
 
+  /**
+   * Formats of an HTTP-date as specified in
+   * <a href="https://tools.ietf.org/html/rfc7231#section-7.1.1.1">RFC 7231 section 7.1.1.1</a>:
+   * the preferred IMF-fixdate, and the obsolete RFC 850 and ANSI C asctime() formats.
+   */
+  private static final String[] HTTP_DATE_FORMATS = {
+      "EEE, dd MMM yyyy HH:mm:ss zzz", "EEEE, dd-MMM-yy HH:mm:ss zzz", "EEE MMM d HH:mm:ss yyyy"};
+
   public HttpHeaders() {
     super(EnumSet.of(Flags.IGNORE_CASE));
   }
@@ -893,6 +905,20 @@ public class HttpHeaders extends GenericData {
     }
   }
 
+  /** Parses an HTTP-date or returns {@code null} if it is invalid. */
+  static Date parseHttpDate(String value) {
+    for (String format : HTTP_DATE_FORMATS) {
+      SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
+      dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+      ParsePosition position = new ParsePosition(0);
+      Date date = dateFormat.parse(value, position);
+      if (date != null && position.getIndex() == value.length()) {
+        return date;
+      }
+    }
+    return null;
+  }
+
   /**
    * Returns the string header value for the given header value as an object.
    */
@@ -15,21 +15,28 @@
 package com.google.api.client.http;
 
 import com.google.api.client.util.Beta;
+import com.google.api.client.util.FileBackedOutputStream;
+import com.google.api.client.util.HashedWheelTimer;
 import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.ListenableFuture;
+import com.google.api.client.util.ListenableFutures;
 import com.google.api.client.util.LoggingStreamingContent;
 import com.google.api.client.util.ObjectParser;
 import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.SettableFuture;
 import com.google.api.client.util.Sleeper;
 import com.google.api.client.util.StreamingContent;
 import com.google.api.client.util.StringUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -131,6 +138,12 @@ public final class HttpRequest {
    */
   private int contentLoggingLimit = 0x4000;
 
+  /**
+   * Maximum number of bytes of the content of an unsuccessful response that are read into an
+   * {@link HttpResponseException}.
+   */
+  private int errorContentLimit = Integer.MAX_VALUE;
+
   /** Determines whether logging should be enabled for this request. Defaults to {@code true}. */
   private boolean loggingEnabled = true;
 
@@ -179,6 +192,19 @@ public final class HttpRequest {
   /** HTTP content encoding or {@code null} for none. */
   private HttpEncoding encoding;
 
+  /** How content with an encoding is sent. */
+  private EncodedContentMode encodedContentMode = EncodedContentMode.COMPUTE_LENGTH;
+
+  /**
+   * Encoded content buffered by {@link EncodedContentMode#BUFFER} for the attempts of the current
+   * execution or {@code null} for none.
+   */
+  private FileBackedOutputStream encodedContentBuffer;
+
+  /** Content and encoding of {@link #encodedContentBuffer}. */
+  private HttpContent encodedContentSource;
+  private HttpEncoding encodedContentSourceEncoding;
+
   /**
    * The {@link BackOffPolicy} to use between retry attempts or {@code null} for none.
    */
@@ -212,9 +238,58 @@ public final class HttpRequest {
    */
   private boolean suppressUserAgentSuffix;
 
+  /** Whether the response content is buffered before the response is returned. */
+  private boolean bufferResponseContent;
+
   /** Sleeper. */
   private Sleeper sleeper = Sleeper.DEFAULT;
 
+  /** Retry budget shared with other requests or {@code null} for none. */
+  private RetryBudget retryBudget;
+
+  /** Circuit breaker shared with other requests or {@code null} for none. */
+  private CircuitBreaker circuitBreaker;
+
+  /** Hedging policy shared with other requests or {@code null} for none. */
+  private HedgingPolicy hedgingPolicy;
+
+  /** Coalescer of identical requests shared with other requests or {@code null} for none. */
+  private RequestCoalescer requestCoalescer;
+
+  /** Response cache shared with other requests or {@code null} for none. */
+  private HttpResponseCache responseCache;
+
+  /** Registry of response content decodings or {@code null} for none. */
+  private HttpDecodingRegistry decodingRegistry;
+
+  /** Compression policy of the content or {@code null} for none. */
+  private CompressionPolicy compressionPolicy;
+
+  /** Drain policy of ignored response content or {@code null} for none. */
+  private DrainPolicy drainPolicy;
+
+  /**
+   * Back-off time in milliseconds requested during the current attempt of an asynchronous
+   * execution, or {@code -1} if the request is not executing asynchronously.
+   */
+  private long deferredBackOffMillis = -1;
+
+  /** Sleeper that defers the back-off of an asynchronous execution to {@link #retryTimer}. */
+  private final Sleeper deferringSleeper = new Sleeper() {
+    public void sleep(long millis) {
+      deferredBackOffMillis += millis;
+    }
+  };
+
+  /** Size in bytes above which {@link EncodedContentMode#BUFFER} buffers in a temporary file. */
+  private static final int ENCODED_CONTENT_FILE_THRESHOLD = 1024 * 1024;
+
+  /** Timer that schedules the retries of asynchronous executions, created on first use. */
+  private static HashedWheelTimer retryTimer;
+
+  /** Request factory that built this request or {@code null} for none. */
+  private HttpRequestFactory requestFactory;
+
   /**
    * @param transport HTTP transport
    * @param requestMethod HTTP request method or {@code null} for none
@@ -224,6 +299,16 @@ public final class HttpRequest {
     setRequestMethod(requestMethod);
   }
 
+  /** Returns the request factory that built this request or {@code null} for none. */
+  HttpRequestFactory getRequestFactory() {
+    return requestFactory;
+  }
+
+  /** Sets the request factory that built this request. */
+  void setRequestFactory(HttpRequestFactory requestFactory) {
+    this.requestFactory = requestFactory;
+  }
+
   /**
    * Returns the HTTP transport.
    *
@@ -310,6 +395,35 @@ public final class HttpRequest {
     return this;
   }
 
+  /**
+   * {@link Beta} <br/>
+   * Returns how content with an encoding is sent.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public EncodedContentMode getEncodedContentMode() {
+    return encodedContentMode;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets how content with an encoding is sent.
+   *
+   * <p>
+   * The default value is {@link EncodedContentMode#COMPUTE_LENGTH}, which encodes the content
+   * twice. {@link EncodedContentMode#BUFFER} and {@link EncodedContentMode#STREAM} encode it once
+   * per execution and once per attempt respectively.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setEncodedContentMode(EncodedContentMode encodedContentMode) {
+    this.encodedContentMode = Preconditions.checkNotNull(encodedContentMode);
+    return this;
+  }
+
   /**
    * {@link Beta} <br/>
    * Returns the {@link BackOffPolicy} to use between retry attempts or {@code null} for none.
@@ -396,6 +510,44 @@ public final class HttpRequest {
     return this;
   }
 
+  /**
+   * {@link Beta} <br/>
+   * Returns the maximum number of bytes of the content of an unsuccessful response that are read
+   * into an {@link HttpResponseException}.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public int getErrorContentLimit() {
+    return errorContentLimit;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the maximum number of bytes of the content of an unsuccessful response that are read
+   * into an {@link HttpResponseException}.
+   *
+   * <p>
+   * The rest of the content is {@link HttpResponse#ignore() ignored}, so that it is only read
+   * within the bounds of the {@link #getDrainPolicy() drain policy}, if any. This bounds the cost
+   * of a server that returns large error pages. Can be set to {@code 0} to not read the content at
+   * all.
+   * </p>
+   *
+   * <p>
+   * The default value is {@link Integer#MAX_VALUE}, which reads the whole content.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setErrorContentLimit(int errorContentLimit) {
+    Preconditions.checkArgument(
+        errorContentLimit >= 0, "The error content limit must be non-negative.");
+    this.errorContentLimit = errorContentLimit;
+    return this;
+  }
+
   /**
    * Returns whether logging should be enabled for this request.
    *
@@ -826,6 +978,37 @@ public final class HttpRequest {
     return this;
   }
 
+  /**
+   * {@link Beta} <br/>
+   * Returns whether the response content is {@link HttpResponse#bufferContent() buffered} before
+   * the response is returned.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public boolean getBufferResponseContent() {
+    return bufferResponseContent;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets whether the response content is {@link HttpResponse#bufferContent() buffered} before the
+   * response is returned, so that it may be read any number of times, for example to log it or to
+   * include it in an {@link HttpResponseException}.
+   *
+   * <p>
+   * A failure to read the content is then handled like a failure to execute the request, so the
+   * request may be retried. The default value is {@code false}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setBufferResponseContent(boolean bufferResponseContent) {
+    this.bufferResponseContent = bufferResponseContent;
+    return this;
+  }
+
   /**
    * Execute the HTTP request and returns the HTTP response.
    *
@@ -868,229 +1051,686 @@ public final class HttpRequest {
    *         {@link #getThrowExceptionOnExecuteError()} is {@code true})
    * @see HttpResponse#isSuccessStatusCode()
    */
-  @SuppressWarnings("deprecation")
   public HttpResponse execute() throws IOException {
-    boolean retryRequest = false;
+    Execution execution = startExecution();
+    try {
+      boolean retryRequest;
+      do {
+        retryRequest = executeAttempt(execution);
+      } while (retryRequest);
+      return finishExecution(execution);
+    } finally {
+      releaseEncodedContentBuffer();
+    }
+  }
+
+  /** State of an execution that is carried from one attempt to the next. */
+  private static final class Execution {
+
+    /** Number of retries remaining, which is {@code -1} once there are no more retries. */
+    int retriesRemaining;
+
+    /** Response of the last attempt or {@code null} for none. */
+    HttpResponse response;
+
+    /** Exception thrown by the last attempt or {@code null} for none. */
+    IOException executeException;
+
+    Execution(int retriesRemaining) {
+      this.retriesRemaining = retriesRemaining;
+    }
+  }
+
+  /** Starts an execution of this request. */
+  @SuppressWarnings("deprecation")
+  private Execution startExecution() {
     Preconditions.checkArgument(numRetries >= 0);
-    int retriesRemaining = numRetries;
     if (backOffPolicy != null) {
       // Reset the BackOffPolicy at the start of each execute.
       backOffPolicy.reset();
     }
-    HttpResponse response = null;
-    IOException executeException;
-
     Preconditions.checkNotNull(requestMethod);
     Preconditions.checkNotNull(url);
+    return new Execution(numRetries);
+  }
 
-    do {
-      // Cleanup any unneeded response from a previous iteration
-      if (response != null) {
-        response.ignore();
-      }
+  /**
+   * Executes a single attempt of an execution, including the interceptor, the I/O exception and
+   * unsuccessful response handlers, and the back-off before a retry.
+   *
+   * @return whether the request should be retried
+   */
+  @SuppressWarnings("deprecation")
+  private boolean executeAttempt(Execution execution) throws IOException {
+    boolean retryRequest = false;
+    int retriesRemaining = execution.retriesRemaining;
+    HttpResponse response = execution.response;
+    IOException executeException;
+
+    // Cleanup any unneeded response from a previous iteration
+    if (response != null) {
+      response.ignore();
+    }
 
-      response = null;
-      executeException = null;
+    response = null;
+    executeException = null;
 
-      // run the interceptor
-      if (executeInterceptor != null) {
-        executeInterceptor.intercept(this);
-      }
-      // build low-level HTTP request
-      String urlString = url.build();
-      LowLevelHttpRequest lowLevelHttpRequest = transport.buildRequest(requestMethod, urlString);
-      Logger logger = HttpTransport.LOGGER;
-      boolean loggable = loggingEnabled && logger.isLoggable(Level.CONFIG);
-      StringBuilder logbuf = null;
-      StringBuilder curlbuf = null;
-      // log method and URL
-      if (loggable) {
-        logbuf = new StringBuilder();
-        logbuf.append("-------------- REQUEST  --------------").append(StringUtils.LINE_SEPARATOR);
-        logbuf.append(requestMethod)
-            .append(' ').append(urlString).append(StringUtils.LINE_SEPARATOR);
-
-        // setup curl logging
-        if (curlLoggingEnabled) {
-          curlbuf = new StringBuilder("curl -v --compressed");
-          if (!requestMethod.equals(HttpMethods.GET)) {
-            curlbuf.append(" -X ").append(requestMethod);
-          }
+    // run the interceptor
+    if (executeInterceptor != null) {
+      executeInterceptor.intercept(this);
+    }
+    // advertise the registered content codings instead of the default
+    if (decodingRegistry != null && "gzip".equals(headers.getAcceptEncoding())) {
+      headers.setAcceptEncoding(decodingRegistry.getAcceptEncoding());
+    }
+    // build low-level HTTP request
+    final String urlString = url.build();
+    final LowLevelHttpRequest lowLevelHttpRequest =
+        transport.buildRequest(requestMethod, urlString);
+    Logger logger = HttpTransport.LOGGER;
+    boolean loggable = loggingEnabled && logger.isLoggable(Level.CONFIG);
+    StringBuilder logbuf = null;
+    StringBuilder curlbuf = null;
+    // log method and URL
+    if (loggable) {
+      logbuf = new StringBuilder();
+      logbuf.append("-------------- REQUEST  --------------").append(StringUtils.LINE_SEPARATOR);
+      logbuf.append(requestMethod)
+          .append(' ').append(urlString).append(StringUtils.LINE_SEPARATOR);
+
+      // setup curl logging
+      if (curlLoggingEnabled) {
+        curlbuf = new StringBuilder("curl -v --compressed");
+        if (!requestMethod.equals(HttpMethods.GET)) {
+          curlbuf.append(" -X ").append(requestMethod);
         }
       }
-      // add to user agent
-      String originalUserAgent = headers.getUserAgent();
-      if (!suppressUserAgentSuffix) {
-        if (originalUserAgent == null) {
-          headers.setUserAgent(USER_AGENT_SUFFIX);
-        } else {
-          headers.setUserAgent(originalUserAgent + " " + USER_AGENT_SUFFIX);
-        }
+    }
+    // headers
+    serializeHeaders(logbuf, curlbuf, logger, lowLevelHttpRequest);
+
+    // content
+    StreamingContent streamingContent = content;
+    final boolean contentRetrySupported = streamingContent == null || content.retrySupported();
+    if (streamingContent != null) {
+      final String contentEncoding;
+      final long contentLength;
+      final String contentType = content.getType();
+      // log content
+      if (loggable) {
+        streamingContent = new LoggingStreamingContent(
+            streamingContent, HttpTransport.LOGGER, Level.CONFIG, contentLoggingLimit);
       }
-      // headers
-      HttpHeaders.serializeHeaders(headers, logbuf, curlbuf, logger, lowLevelHttpRequest);
-      if (!suppressUserAgentSuffix) {
-        // set the original user agent back so that retries do not keep appending to it
-        headers.setUserAgent(originalUserAgent);
+      // encoding, chosen by the compression policy unless set
+      HttpEncoding httpEncoding = encoding;
+      if (httpEncoding == null && compressionPolicy != null) {
+        httpEncoding = compressionPolicy.getEncoding(content);
       }
-
-      // content
-      StreamingContent streamingContent = content;
-      final boolean contentRetrySupported = streamingContent == null || content.retrySupported();
-      if (streamingContent != null) {
-        final String contentEncoding;
-        final long contentLength;
-        final String contentType = content.getType();
-        // log content
-        if (loggable) {
-          streamingContent = new LoggingStreamingContent(
-              streamingContent, HttpTransport.LOGGER, Level.CONFIG, contentLoggingLimit);
-        }
-        // encoding
-        if (encoding == null) {
-          contentEncoding = null;
-          contentLength = content.getLength();
+      if (httpEncoding == null) {
+        contentEncoding = null;
+        contentLength = content.getLength();
+      } else {
+        contentEncoding = httpEncoding.getName();
+        if (!contentRetrySupported || encodedContentMode == EncodedContentMode.STREAM) {
+          streamingContent = new HttpEncodingStreamingContent(streamingContent, httpEncoding);
+          contentLength = -1;
+        } else if (encodedContentMode == EncodedContentMode.BUFFER) {
+          final FileBackedOutputStream buffer =
+              getEncodedContentBuffer(streamingContent, httpEncoding);
+          streamingContent = new StreamingContent() {
+            public void writeTo(OutputStream out) throws IOException {
+              buffer.writeTo(out);
+            }
+          };
+          contentLength = buffer.size();
         } else {
-          contentEncoding = encoding.getName();
-          streamingContent = new HttpEncodingStreamingContent(streamingContent, encoding);
-          contentLength = contentRetrySupported ? IOUtils.computeLength(streamingContent) : -1;
+          streamingContent = new HttpEncodingStreamingContent(streamingContent, httpEncoding);
+          contentLength = IOUtils.computeLength(streamingContent);
         }
-        // append content headers to log buffer
-        if (loggable) {
-          if (contentType != null) {
-            String header = "Content-Type: " + contentType;
-            logbuf.append(header).append(StringUtils.LINE_SEPARATOR);
-            if (curlbuf != null) {
-              curlbuf.append(" -H '" + header + "'");
-            }
-          }
-          if (contentEncoding != null) {
-            String header = "Content-Encoding: " + contentEncoding;
-            logbuf.append(header).append(StringUtils.LINE_SEPARATOR);
-            if (curlbuf != null) {
-              curlbuf.append(" -H '" + header + "'");
-            }
+      }
+      // append content headers to log buffer
+      if (loggable) {
+        if (contentType != null) {
+          String header = "Content-Type: " + contentType;
+          logbuf.append(header).append(StringUtils.LINE_SEPARATOR);
+          if (curlbuf != null) {
+            curlbuf.append(" -H '" + header + "'");
           }
-          if (contentLength >= 0) {
-            String header = "Content-Length: " + contentLength;
-            logbuf.append(header).append(StringUtils.LINE_SEPARATOR);
-            // do not log @ curl as the user will most likely manipulate the content
+        }
+        if (contentEncoding != null) {
+          String header = "Content-Encoding: " + contentEncoding;
+          logbuf.append(header).append(StringUtils.LINE_SEPARATOR);
+          if (curlbuf != null) {
+            curlbuf.append(" -H '" + header + "'");
           }
         }
-        if (curlbuf != null) {
-          curlbuf.append(" -d '@-'");
+        if (contentLength >= 0) {
+          String header = "Content-Length: " + contentLength;
+          logbuf.append(header).append(StringUtils.LINE_SEPARATOR);
+          // do not log @ curl as the user will most likely manipulate the content
         }
-        // send content information to low-level HTTP request
-        lowLevelHttpRequest.setContentType(contentType);
-        lowLevelHttpRequest.setContentEncoding(contentEncoding);
-        lowLevelHttpRequest.setContentLength(contentLength);
-        lowLevelHttpRequest.setStreamingContent(streamingContent);
       }
-      // log from buffer
-      if (loggable) {
-        logger.config(logbuf.toString());
-        if (curlbuf != null) {
-          curlbuf.append(" -- '");
-          curlbuf.append(urlString.replaceAll("\'", "'\"'\"'"));
-          curlbuf.append("'");
-          if (streamingContent != null) {
-            curlbuf.append(" << $$$");
-          }
-          logger.config(curlbuf.toString());
+      if (curlbuf != null) {
+        curlbuf.append(" -d '@-'");
+      }
+      // send content information to low-level HTTP request
+      lowLevelHttpRequest.setContentType(contentType);
+      lowLevelHttpRequest.setContentEncoding(contentEncoding);
+      lowLevelHttpRequest.setContentLength(contentLength);
+      lowLevelHttpRequest.setStreamingContent(streamingContent);
+    }
+    // log from buffer
+    if (loggable) {
+      logger.config(logbuf.toString());
+      if (curlbuf != null) {
+        curlbuf.append(" -- '");
+        curlbuf.append(urlString.replaceAll("\'", "'\"'\"'"));
+        curlbuf.append("'");
+        if (streamingContent != null) {
+          curlbuf.append(" << $$$");
         }
+        logger.config(curlbuf.toString());
       }
+    }
 
-      // We need to make sure our content type can support retry
-      // null content is inherently able to be retried
-      retryRequest = contentRetrySupported && retriesRemaining > 0;
-
-      // execute
-      lowLevelHttpRequest.setTimeout(connectTimeout, readTimeout);
-      lowLevelHttpRequest.setWriteTimeout(writeTimeout);
+    // We need to make sure our content type can support retry
+    // null content is inherently able to be retried
+    retryRequest = contentRetrySupported && retriesRemaining > 0;
+    // retries other than redirects are also limited by the retry budget of the host
+    final String host = url.getHost();
+    final String origin = circuitBreaker == null ? null : CircuitBreaker.getOrigin(url);
+    boolean retryAllowed =
+        retryRequest && (retryBudget == null || retryBudget.isRetryAllowed(host));
+    boolean redirect = false;
+    // only idempotent requests whose content may be sent twice are hedged
+    final boolean hedge = hedgingPolicy != null && contentRetrySupported
+        && (requestMethod.equals(HttpMethods.GET) || requestMethod.equals(HttpMethods.HEAD));
+
+    // execute
+    lowLevelHttpRequest.setTimeout(connectTimeout, readTimeout);
+    lowLevelHttpRequest.setWriteTimeout(writeTimeout);
+    try {
+      LowLevelHttpResponse lowLevelHttpResponse;
+      if (responseCache != null && content == null && requestMethod.equals(HttpMethods.GET)) {
+        lowLevelHttpResponse = responseCache.execute(this, urlString, lowLevelHttpRequest,
+            new HttpResponseCache.Exchange() {
+              public LowLevelHttpResponse execute(boolean conditional) throws IOException {
+                // a revalidation must not share the response of an unconditional request
+                return executeLowLevel(
+                    lowLevelHttpRequest, urlString, host, origin, hedge, !conditional);
+              }
+            });
+      } else {
+        lowLevelHttpResponse =
+            executeLowLevel(lowLevelHttpRequest, urlString, host, origin, hedge, true);
+        if (responseCache != null && !requestMethod.equals(HttpMethods.GET)
+            && !requestMethod.equals(HttpMethods.HEAD)
+            && lowLevelHttpResponse.getStatusCode() < HttpStatusCodes.STATUS_CODE_BAD_REQUEST) {
+          // a successful unsafe request invalidates the cached response of its URL
+          responseCache.invalidate(urlString);
+        }
+      }
+      // Flag used to indicate if an exception is thrown before the response is constructed.
+      boolean responseConstructed = false;
       try {
-        LowLevelHttpResponse lowLevelHttpResponse = lowLevelHttpRequest.execute();
-        // Flag used to indicate if an exception is thrown before the response is constructed.
-        boolean responseConstructed = false;
-        try {
-          response = new HttpResponse(this, lowLevelHttpResponse);
-          responseConstructed = true;
-        } finally {
-          if (!responseConstructed) {
-            InputStream lowLevelContent = lowLevelHttpResponse.getContent();
-            if (lowLevelContent != null) {
-              lowLevelContent.close();
+        response = new HttpResponse(this, lowLevelHttpResponse);
+        responseConstructed = true;
+      } finally {
+        if (!responseConstructed) {
+          InputStream lowLevelContent = lowLevelHttpResponse.getContent();
+          if (lowLevelContent != null) {
+            lowLevelContent.close();
+          }
+        }
+      }
+      if (bufferResponseContent) {
+        HttpResponse unbuffered = response;
+        // the content is closed if it cannot be read
+        response = null;
+        response = unbuffered.bufferContent();
+      }
+    } catch (CircuitBreakerOpenException e) {
+      throw e;
+    } catch (IOException e) {
+      if (!retryOnExecuteIOException && (ioExceptionHandler == null
+          || !ioExceptionHandler.handleIOException(this, retryAllowed))) {
+        throw e;
+      }
+      // Save the exception in case the retries do not work and we need to re-throw it later.
+      executeException = e;
+      if (loggable) {
+        logger.log(Level.WARNING, "exception thrown while executing request", e);
+      }
+    }
+
+    // Flag used to indicate if an exception is thrown before the response has completed
+    // processing.
+    boolean responseProcessed = false;
+    try {
+      if (response != null && !response.isSuccessStatusCode()) {
+        boolean errorHandled = false;
+        if (unsuccessfulResponseHandler != null) {
+          // Even if we don't have the potential to retry, we might want to run the
+          // handler to fix conditions (like expired tokens) that might cause us
+          // trouble on our next request
+          errorHandled = unsuccessfulResponseHandler.handleResponse(this, response, retryAllowed);
+        }
+        if (!errorHandled) {
+          if (handleRedirect(response.getStatusCode(), response.getHeaders())) {
+            // The unsuccessful request's error could not be handled and it is a redirect request.
+            errorHandled = true;
+            redirect = true;
+          } else if (retryAllowed && backOffPolicy != null
+              && backOffPolicy.isBackOffRequired(response.getStatusCode())) {
+            // The unsuccessful request's error could not be handled and should be backed off
+            // before retrying
+            long backOffTime = backOffPolicy.getNextBackOffMillis();
+            if (backOffTime != BackOffPolicy.STOP) {
+              try {
+                getBackOffSleeper(sleeper).sleep(backOffTime);
+              } catch (InterruptedException exception) {
+                // ignore
+              }
+              errorHandled = true;
             }
           }
         }
-      } catch (IOException e) {
-        if (!retryOnExecuteIOException && (ioExceptionHandler == null
-            || !ioExceptionHandler.handleIOException(this, retryRequest))) {
-          throw e;
+        // A retry is required if the error was successfully handled or if it is a redirect
+        // request or if the back off policy determined a retry is necessary.
+        retryRequest &= errorHandled;
+        if (retryRequest && !redirect) {
+          retryRequest = acquireRetry(host);
         }
-        // Save the exception in case the retries do not work and we need to re-throw it later.
-        executeException = e;
-        if (loggable) {
-          logger.log(Level.WARNING, "exception thrown while executing request", e);
+        // need to close the response stream before retrying a request
+        if (retryRequest) {
+          response.ignore();
         }
+      } else {
+        // Retry is not required for a successful status code unless the response is null.
+        retryRequest &= (response == null);
+        if (retryRequest) {
+          retryRequest = acquireRetry(host);
+        } else if (response != null && retryBudget != null) {
+          retryBudget.onSuccess(host);
+        }
+      }
+      // Once there are no more retries remaining, this will be -1
+      // Count redirects as retries, we want a finite limit of redirects.
+      retriesRemaining--;
+
+      responseProcessed = true;
+    } finally {
+      if (response != null && !responseProcessed) {
+        response.disconnect();
       }
+    }
+
+    execution.retriesRemaining = retriesRemaining;
+    execution.response = response;
+    execution.executeException = executeException;
+    return retryRequest;
+  }
+
+  /**
+   * Serializes the headers into the given low-level HTTP request, adding the user agent suffix.
+   *
+   * @param logbuf log buffer or {@code null} for none
+   * @param curlbuf log buffer for logging curl requests or {@code null} for none
+   * @param logger logger or {@code null} for none
+   * @param lowLevelHttpRequest low-level HTTP request
+   */
+  private void serializeHeaders(StringBuilder logbuf, StringBuilder curlbuf, Logger logger,
+      LowLevelHttpRequest lowLevelHttpRequest) throws IOException {
+    // add to user agent
+    String originalUserAgent = headers.getUserAgent();
+    if (!suppressUserAgentSuffix) {
+      if (originalUserAgent == null) {
+        headers.setUserAgent(USER_AGENT_SUFFIX);
+      } else {
+        headers.setUserAgent(originalUserAgent + " " + USER_AGENT_SUFFIX);
+      }
+    }
+    HttpHeaders.serializeHeaders(headers, logbuf, curlbuf, logger, lowLevelHttpRequest);
+    if (!suppressUserAgentSuffix) {
+      // set the original user agent back so that retries do not keep appending to it
+      headers.setUserAgent(originalUserAgent);
+    }
+  }
+
+  /**
+   * Executes the given low-level HTTP request, sharing the response of an identical request in
+   * flight if there is a {@link #getRequestCoalescer() request coalescer}, and hedging it if
+   * required.
+   *
+   * <p>
+   * This is the network exchange of the request, so it is where the
+   * {@link #getCircuitBreaker() circuit breaker} is consulted and told of the outcome, and a
+   * response served from the {@link #getResponseCache() response cache} never gets here.
+   * </p>
+   *
+   * @param lowLevelHttpRequest low-level HTTP request that is ready to execute
+   * @param urlString URL of the request
+   * @param host host of the request
+   * @param origin origin of the request if there is a circuit breaker or {@code null} for none
+   * @param hedge whether to hedge the request
+   * @param coalesce whether the request may be coalesced
+   * @return low-level HTTP response
+   */
+  private LowLevelHttpResponse executeLowLevel(LowLevelHttpRequest lowLevelHttpRequest,
+      String urlString, String host, String origin, boolean hedge, boolean coalesce)
+      throws IOException {
+    if (origin == null) {
+      return executeLowLevel(lowLevelHttpRequest, urlString, host, hedge, coalesce);
+    }
+    // fail fast if the circuit of the origin is open
+    if (!circuitBreaker.tryAcquirePermission(origin)) {
+      throw new CircuitBreakerOpenException(origin);
+    }
+    LowLevelHttpResponse lowLevelHttpResponse;
+    try {
+      lowLevelHttpResponse = executeLowLevel(lowLevelHttpRequest, urlString, host, hedge, coalesce);
+    } catch (IOException e) {
+      circuitBreaker.onFailure(origin);
+      throw e;
+    }
+    if (lowLevelHttpResponse.getStatusCode() >= HttpStatusCodes.STATUS_CODE_SERVER_ERROR) {
+      circuitBreaker.onFailure(origin);
+    } else {
+      circuitBreaker.onSuccess(origin);
+    }
+    return lowLevelHttpResponse;
+  }
+
+  /**
+   * Executes the given low-level HTTP request without the circuit breaker, sharing the response of
+   * an identical request in flight if there is a {@link #getRequestCoalescer() request coalescer},
+   * and hedging it if required.
+   *
+   * @param lowLevelHttpRequest low-level HTTP request that is ready to execute
+   * @param urlString URL of the request
+   * @param host host of the request
+   * @param hedge whether to hedge the request
+   * @param coalesce whether the request may be coalesced
+   * @return low-level HTTP response
+   */
+  private LowLevelHttpResponse executeLowLevel(final LowLevelHttpRequest lowLevelHttpRequest,
+      final String urlString, final String host, final boolean hedge, boolean coalesce)
+      throws IOException {
+    if (coalesce && requestCoalescer != null && content == null
+        && requestMethod.equals(HttpMethods.GET)) {
+      // share the response of an identical request that is in flight
+      return requestCoalescer.execute(requestCoalescer.getKey(urlString, headers),
+          new Callable<LowLevelHttpResponse>() {
+            public LowLevelHttpResponse call() throws IOException {
+              return hedge ? executeHedged(lowLevelHttpRequest, urlString, host)
+                  : lowLevelHttpRequest.execute();
+            }
+          });
+    }
+    return hedge
+        ? executeHedged(lowLevelHttpRequest, urlString, host) : lowLevelHttpRequest.execute();
+  }
 
-      // Flag used to indicate if an exception is thrown before the response has completed
-      // processing.
-      boolean responseProcessed = false;
+  /**
+   * Executes the given low-level HTTP request with the {@link #getHedgingPolicy() hedging policy}:
+   * if no response has arrived after the hedge delay, a duplicate low-level request is executed,
+   * the first response wins, and the other request is aborted or disconnected.
+   *
+   * <p>
+   * The original request runs on the calling thread, and only the duplicate runs on the executor
+   * of the hedging policy.
+   * </p>
+   *
+   * @param lowLevelHttpRequest low-level HTTP request that is ready to execute
+   * @param urlString URL of the request
+   * @param host host of the request
+   * @return low-level HTTP response
+   */
+  private LowLevelHttpResponse executeHedged(LowLevelHttpRequest lowLevelHttpRequest,
+      String urlString, String host) throws IOException {
+    HedgingPolicy policy = hedgingPolicy;
+    long delayMillis = policy.getHedgeDelayMillis(host);
+    if (delayMillis < 0) {
+      long startNanos = System.nanoTime();
+      LowLevelHttpResponse lowLevelHttpResponse = lowLevelHttpRequest.execute();
+      policy.recordLatency(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+      return lowLevelHttpResponse;
+    }
+    // build the duplicate on this thread, which owns the headers and content
+    LowLevelHttpRequest duplicate = transport.buildRequest(requestMethod, urlString);
+    serializeHeaders(null, null, null, duplicate);
+    duplicate.setContentType(lowLevelHttpRequest.getContentType());
+    duplicate.setContentEncoding(lowLevelHttpRequest.getContentEncoding());
+    duplicate.setContentLength(lowLevelHttpRequest.getContentLength());
+    duplicate.setStreamingContent(lowLevelHttpRequest.getStreamingContent());
+    duplicate.setTimeout(connectTimeout, readTimeout);
+    duplicate.setWriteTimeout(writeTimeout);
+    HedgedExchange hedge = new HedgedExchange(lowLevelHttpRequest, duplicate, policy, host);
+    HashedWheelTimer.Timeout timeout =
+        HedgingPolicy.getTimer().newTimeout(hedge, delayMillis, TimeUnit.MILLISECONDS);
+    LowLevelHttpResponse lowLevelHttpResponse = null;
+    IOException failure = null;
+    try {
+      long startNanos = System.nanoTime();
+      lowLevelHttpResponse = lowLevelHttpRequest.execute();
+      policy.recordLatency(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      timeout.cancel();
+    }
+    return hedge.complete(lowLevelHttpResponse, failure);
+  }
+
+  /**
+   * Hedge of a low-level HTTP request: a duplicate that is started on the executor of the hedging
+   * policy once the hedge delay has elapsed, and that races the original request running on the
+   * calling thread.
+   */
+  private static final class HedgedExchange implements Runnable {
+
+    private final LowLevelHttpRequest original;
+
+    private final LowLevelHttpRequest duplicate;
+
+    private final HedgingPolicy policy;
+
+    private final String host;
+
+    // fields below are guarded by this
+
+    /** Whether the original request has completed. */
+    private boolean originalDone;
+
+    /** Whether the duplicate has been started. */
+    private boolean started;
+
+    /** Whether the duplicate has completed. */
+    private boolean done;
+
+    /** Whether the duplicate won, in which case {@link #response} is its response. */
+    private boolean won;
+
+    private LowLevelHttpResponse response;
+
+    /** Running duplicate or {@code null} for none. */
+    private Future<?> future;
+
+    HedgedExchange(LowLevelHttpRequest original, LowLevelHttpRequest duplicate,
+        HedgingPolicy policy, String host) {
+      this.original = original;
+      this.duplicate = duplicate;
+      this.policy = policy;
+      this.host = host;
+    }
+
+    /** Starts the duplicate on the executor of the hedging policy, called by the timer. */
+    public synchronized void run() {
+      if (originalDone) {
+        return;
+      }
       try {
-        if (response != null && !response.isSuccessStatusCode()) {
-          boolean errorHandled = false;
-          if (unsuccessfulResponseHandler != null) {
-            // Even if we don't have the potential to retry, we might want to run the
-            // handler to fix conditions (like expired tokens) that might cause us
-            // trouble on our next request
-            errorHandled = unsuccessfulResponseHandler.handleResponse(this, response, retryRequest);
+        future = policy.getExecutor().submit(new Runnable() {
+          public void run() {
+            executeDuplicate();
           }
-          if (!errorHandled) {
-            if (handleRedirect(response.getStatusCode(), response.getHeaders())) {
-              // The unsuccessful request's error could not be handled and it is a redirect request.
-              errorHandled = true;
-            } else if (retryRequest && backOffPolicy != null
-                && backOffPolicy.isBackOffRequired(response.getStatusCode())) {
-              // The unsuccessful request's error could not be handled and should be backed off
-              // before retrying
-              long backOffTime = backOffPolicy.getNextBackOffMillis();
-              if (backOffTime != BackOffPolicy.STOP) {
-                try {
-                  sleeper.sleep(backOffTime);
-                } catch (InterruptedException exception) {
-                  // ignore
-                }
-                errorHandled = true;
-              }
+        });
+        started = true;
+      } catch (RejectedExecutionException e) {
+        // too many duplicates in flight, so this request is not hedged
+      }
+    }
+
+    /** Executes the duplicate, and aborts the original request if the duplicate wins. */
+    void executeDuplicate() {
+      LowLevelHttpResponse lowLevelHttpResponse = null;
+      try {
+        long startNanos = System.nanoTime();
+        lowLevelHttpResponse = duplicate.execute();
+        policy.recordLatency(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+      } catch (IOException e) {
+        // a failure is not a response, so the original request may still win
+      } catch (RuntimeException e) {
+        HttpTransport.LOGGER.log(Level.FINE, "hedged request failed", e);
+      }
+      boolean abort = false;
+      synchronized (this) {
+        done = true;
+        if (lowLevelHttpResponse != null && !originalDone) {
+          won = true;
+          response = lowLevelHttpResponse;
+          lowLevelHttpResponse = null;
+          abort = true;
+        }
+        notifyAll();
+      }
+      if (abort) {
+        original.abort();
+      }
+      disconnect(lowLevelHttpResponse);
+    }
+
+    /**
+     * Completes the hedge once the original request has completed, and returns the winning
+     * response.
+     *
+     * @param lowLevelHttpResponse response of the original request or {@code null} if it failed
+     * @param failure failure of the original request or {@code null} if it succeeded
+     * @return winning response
+     */
+    LowLevelHttpResponse complete(LowLevelHttpResponse lowLevelHttpResponse, IOException failure)
+        throws IOException {
+      LowLevelHttpResponse winner;
+      Future<?> running = null;
+      synchronized (this) {
+        if (failure != null && started) {
+          // a failure is not a response, so wait for the duplicate
+          try {
+            while (!done) {
+              wait();
             }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Request interrupted");
+            interrupted.initCause(e);
+            failure = interrupted;
           }
-          // A retry is required if the error was successfully handled or if it is a redirect
-          // request or if the back off policy determined a retry is necessary.
-          retryRequest &= errorHandled;
-          // need to close the response stream before retrying a request
-          if (retryRequest) {
-            response.ignore();
-          }
+        }
+        originalDone = true;
+        if (won) {
+          winner = response;
         } else {
-          // Retry is not required for a successful status code unless the response is null.
-          retryRequest &= (response == null);
+          winner = lowLevelHttpResponse;
+          lowLevelHttpResponse = null;
+          running = future;
         }
-        // Once there are no more retries remaining, this will be -1
-        // Count redirects as retries, we want a finite limit of redirects.
-        retriesRemaining--;
+      }
+      if (running != null) {
+        // the duplicate lost, so it is interrupted and its response is disconnected
+        running.cancel(true);
+        duplicate.abort();
+      }
+      // the original request lost
+      disconnect(lowLevelHttpResponse);
+      if (winner == null) {
+        throw failure;
+      }
+      return winner;
+    }
 
-        responseProcessed = true;
-      } finally {
-        if (response != null && !responseProcessed) {
-          response.disconnect();
+    private static void disconnect(LowLevelHttpResponse lowLevelHttpResponse) {
+      if (lowLevelHttpResponse != null) {
+        try {
+          lowLevelHttpResponse.disconnect();
+        } catch (IOException e) {
+          HttpTransport.LOGGER.log(Level.FINE, "failed to disconnect hedged response", e);
         }
       }
-    } while (retryRequest);
+    }
+  }
 
+  /**
+   * Returns the buffer of the encoded content for the current execution, encoding the content into
+   * it unless the content and encoding are those of the previous attempt.
+   *
+   * @param streamingContent content to encode, which may log the request content
+   * @param encoding encoding
+   */
+  private FileBackedOutputStream getEncodedContentBuffer(StreamingContent streamingContent,
+      HttpEncoding encoding) throws IOException {
+    if (encodedContentBuffer != null && encodedContentSource == content
+        && encodedContentSourceEncoding == encoding) {
+      return encodedContentBuffer;
+    }
+    releaseEncodedContentBuffer();
+    FileBackedOutputStream buffer = new FileBackedOutputStream(ENCODED_CONTENT_FILE_THRESHOLD);
+    boolean encoded = false;
+    try {
+      encoding.encode(streamingContent, buffer);
+      buffer.close();
+      encoded = true;
+    } finally {
+      if (!encoded) {
+        buffer.reset();
+      }
+    }
+    encodedContentBuffer = buffer;
+    encodedContentSource = content;
+    encodedContentSourceEncoding = encoding;
+    return buffer;
+  }
+
+  /** Returns whether encoded content is buffered for the attempts of the current execution. */
+  boolean isEncodedContentBuffered() {
+    return encodedContentBuffer != null;
+  }
+
+  /** Releases the buffer of the encoded content at the end of an execution. */
+  private void releaseEncodedContentBuffer() {
+    FileBackedOutputStream buffer = encodedContentBuffer;
+    if (buffer != null) {
+      encodedContentBuffer = null;
+      encodedContentSource = null;
+      encodedContentSourceEncoding = null;
+      try {
+        buffer.reset();
+      } catch (IOException e) {
+        // the buffer was already closed, and its temporary file is deleted anyway
+      }
+    }
+  }
+
+  /** Returns whether the retry budget allows a retry to the given host, consuming a token. */
+  private boolean acquireRetry(String host) {
+    return retryBudget == null || retryBudget.tryAcquireRetry(host);
+  }
+
+  /** Finishes an execution once no further attempt is required. */
+  private HttpResponse finishExecution(Execution execution) throws IOException {
+    HttpResponse response = execution.response;
     if (response == null) {
       // Retries did not help resolve the execute exception, re-throw it.
-      throw executeException;
+      throw execution.executeException;
     }
     // response interceptor
     if (responseInterceptor != null) {
@@ -1111,33 +1751,255 @@ public final class HttpRequest {
    * {@link Beta} <br/>
    * Executes this request asynchronously in a single separate thread using the supplied executor.
    *
+   * <p>
+   * Each attempt runs on the executor the same way as in {@link #execute()}, including the
+   * interceptors and the I/O exception and unsuccessful response handlers. However, the back-off
+   * before a retry does not block a thread: a back-off handler that uses {@link Sleeper#DEFAULT},
+   * such as {@link HttpBackOffUnsuccessfulResponseHandler} or
+   * {@link HttpBackOffIOExceptionHandler}, returns immediately and the next attempt is scheduled
+   * on the executor once the back-off time has elapsed. Back-off with a custom {@link Sleeper}
+   * still calls {@link Sleeper#sleep}.
+   * </p>
+   *
+   * <p>
+   * Cancelling the future cancels any pending retry, and with {@code mayInterruptIfRunning}
+   * interrupts the thread of an attempt in progress.
+   * </p>
+   *
+   * <p>
+   * Upgrade warning: prior to version 1.27 this method returned a {@link Future} and the back-off
+   * before a retry blocked the executor thread.
+   * </p>
+   *
    * @param executor executor to run the asynchronous request
    * @return future for accessing the HTTP response
    * @since 1.13
    */
   @Beta
-  public Future<HttpResponse> executeAsync(Executor executor) {
-    FutureTask<HttpResponse> future = new FutureTask<HttpResponse>(new Callable<HttpResponse>() {
-
-      public HttpResponse call() throws Exception {
-        return execute();
-      }
-    });
+  public ListenableFuture<HttpResponse> executeAsync(Executor executor) {
+    AsyncExecution future = new AsyncExecution(startExecution(), executor);
     executor.execute(future);
     return future;
   }
 
   /**
    * {@link Beta} <br/>
-   * Executes this request asynchronously using {@link #executeAsync(Executor)} in a single separate
-   * thread using {@link Executors#newSingleThreadExecutor()}.
+   * Executes this request asynchronously using {@link #executeAsync(Executor)} on the bounded
+   * executor owned by the {@link HttpTransport}, which is shut down by
+   * {@link HttpTransport#shutdown()}.
+   *
+   * <p>
+   * Upgrade warning: prior to version 1.27 this method returned a {@link Future} and created a new
+   * thread for each call that was never shut down.
+   * </p>
    *
    * @return A future for accessing the results of the asynchronous request.
+   * @throws IllegalStateException if the transport has been shut down
+   * @throws RejectedExecutionException if too many asynchronous requests of the transport are in
+   *         progress
    * @since 1.13
    */
   @Beta
-  public Future<HttpResponse> executeAsync() {
-    return executeAsync(Executors.newSingleThreadExecutor());
+  public ListenableFuture<HttpResponse> executeAsync() {
+    return executeAsyncOnTransport(transport.getAsyncExecutor());
+  }
+
+  /**
+   * Executes this request asynchronously on the given executor of the transport once it has been
+   * admitted by {@link HttpTransport#acquireAsyncPermit()}.
+   */
+  private ListenableFuture<HttpResponse> executeAsyncOnTransport(Executor executor) {
+    final HttpTransport transport = this.transport;
+    transport.acquireAsyncPermit();
+    ListenableFuture<HttpResponse> future;
+    try {
+      future = executeAsync(executor);
+    } catch (RuntimeException e) {
+      transport.releaseAsyncPermit();
+      throw e;
+    }
+    future.addListener(new Runnable() {
+      public void run() {
+        transport.releaseAsyncPermit();
+      }
+    }, ListenableFutures.directExecutor());
+    return future;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Executes this request asynchronously using {@link #executeAsync()} and parses the response
+   * content into the given data class with {@link HttpResponse#parseAs(Class)}.
+   *
+   * <p>
+   * Parsing runs on the executor owned by the {@link HttpTransport} once the response has been
+   * received, so no thread blocks waiting for the response. If the executor rejects the parsing,
+   * for example because its queue is full, it runs on the thread that received the response. The
+   * future fails with an {@link HttpResponseException} if the response is unsuccessful and
+   * {@link #getThrowExceptionOnExecuteError()} is {@code true}.
+   * </p>
+   *
+   * @param dataClass data class to parse into
+   * @return future for accessing the parsed response content
+   * @throws IllegalStateException if the transport has been shut down
+   * @throws RejectedExecutionException if too many asynchronous requests of the transport are in
+   *         progress
+   * @since 1.27
+   */
+  @Beta
+  public <T> ListenableFuture<T> executeAsync(final Class<T> dataClass) {
+    Preconditions.checkNotNull(dataClass);
+    final Executor executor = transport.getAsyncExecutor();
+    Executor parseExecutor = new Executor() {
+      public void execute(Runnable command) {
+        try {
+          executor.execute(command);
+        } catch (RejectedExecutionException e) {
+          // the request has already been admitted, so its result must not be dropped
+          command.run();
+        }
+      }
+    };
+    return ListenableFutures.transform(executeAsyncOnTransport(executor),
+        new ListenableFutures.Function<HttpResponse, T>() {
+
+          public T apply(HttpResponse response) throws IOException {
+            return response.parseAs(dataClass);
+          }
+        }, parseExecutor);
+  }
+
+  /**
+   * Returns the sleeper that a back-off handler should use instead of the given configured
+   * sleeper. While this request executes asynchronously, {@link Sleeper#DEFAULT} is replaced by a
+   * sleeper that returns immediately and defers the next attempt by the requested time.
+   *
+   * @param sleeper configured sleeper
+   */
+  Sleeper getBackOffSleeper(Sleeper sleeper) {
+    return deferredBackOffMillis >= 0 && sleeper == Sleeper.DEFAULT ? deferringSleeper : sleeper;
+  }
+
+  /** Returns the timer that schedules the retries of asynchronous executions. */
+  private static synchronized HashedWheelTimer getRetryTimer() {
+    if (retryTimer == null) {
+      retryTimer = new HashedWheelTimer("google-http-client-retry-timer");
+    }
+    return retryTimer;
+  }
+
+  /**
+   * Asynchronous execution that runs each attempt on an executor and schedules retries on the
+   * {@link #getRetryTimer() retry timer}.
+   */
+  private final class AsyncExecution extends SettableFuture<HttpResponse> implements Runnable {
+
+    private final Execution execution;
+
+    private final Executor executor;
+
+    // fields below are guarded by this
+
+    /** Thread running the current attempt or {@code null} for none. */
+    private Thread runner;
+
+    /** Pending retry or {@code null} for none. */
+    private HashedWheelTimer.Timeout pendingRetry;
+
+    AsyncExecution(Execution execution, Executor executor) {
+      this.execution = execution;
+      this.executor = executor;
+    }
+
+    public void run() {
+      synchronized (this) {
+        if (isDone()) {
+          // cancelled before a retry
+          releaseEncodedContentBuffer();
+          return;
+        }
+        runner = Thread.currentThread();
+      }
+      try {
+        long backOffMillis;
+        boolean retryRequest;
+        deferredBackOffMillis = 0;
+        try {
+          retryRequest = executeAttempt(execution);
+        } finally {
+          backOffMillis = deferredBackOffMillis;
+          deferredBackOffMillis = -1;
+        }
+        if (retryRequest) {
+          scheduleRetry(backOffMillis);
+        } else {
+          HttpResponse response;
+          try {
+            response = finishExecution(execution);
+          } finally {
+            releaseEncodedContentBuffer();
+          }
+          if (!set(response)) {
+            // cancelled while the attempt was in progress
+            response.disconnect();
+          }
+        }
+      } catch (Throwable t) {
+        releaseEncodedContentBuffer();
+        setException(t);
+      } finally {
+        synchronized (this) {
+          runner = null;
+        }
+      }
+    }
+
+    private void scheduleRetry(long backOffMillis) {
+      if (backOffMillis <= 0) {
+        executor.execute(this);
+        return;
+      }
+      synchronized (this) {
+        if (isDone()) {
+          // cancelled while the attempt was in progress
+          releaseEncodedContentBuffer();
+          return;
+        }
+        pendingRetry = getRetryTimer().newTimeout(new Runnable() {
+          public void run() {
+            try {
+              executor.execute(AsyncExecution.this);
+            } catch (RuntimeException e) {
+              // for example rejected because the executor has been shut down
+              releaseEncodedContentBuffer();
+              setException(e);
+            }
+          }
+        }, backOffMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (!super.cancel(mayInterruptIfRunning)) {
+        return false;
+      }
+      HashedWheelTimer.Timeout timeout;
+      synchronized (this) {
+        timeout = pendingRetry;
+      }
+      if (timeout != null && timeout.cancel()) {
+        releaseEncodedContentBuffer();
+      }
+      return true;
+    }
+
+    @Override
+    protected synchronized void interruptTask() {
+      if (runner != null) {
+        runner.interrupt();
+      }
+    }
   }
 
   /**
@@ -1201,4 +2063,286 @@ public final class HttpRequest {
     this.sleeper = Preconditions.checkNotNull(sleeper);
     return this;
   }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the retry budget shared with other requests or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public RetryBudget getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the retry budget shared with other requests or {@code null} for none.
+   *
+   * <p>
+   * Retries other than redirects consume a token of the budget of the request host, and a
+   * successful response returns tokens to it. Once the budget of the host is exhausted, the request
+   * is not retried even if {@link #getNumberOfRetries()} allows it, and the I/O exception and
+   * unsuccessful response handlers are told that the request does not support a retry.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getRetryBudget() budget of the request
+   * factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setRetryBudget(RetryBudget retryBudget) {
+    this.retryBudget = retryBudget;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the circuit breaker shared with other requests or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the circuit breaker shared with other requests or {@code null} for none.
+   *
+   * <p>
+   * Each attempt that reaches the network first asks the circuit breaker for permission to send
+   * the request to the origin of the URL, and fails with a {@link CircuitBreakerOpenException},
+   * which is not retried, if the circuit is open. I/O exceptions and server errors (5xx) are then
+   * reported as failures and other responses as successes. Responses served from the
+   * {@link #getResponseCache() response cache} neither consult nor update the circuit breaker.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getCircuitBreaker() circuit breaker of the
+   * request factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the hedging policy shared with other requests or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the hedging policy shared with other requests or {@code null} for none.
+   *
+   * <p>
+   * If this is a {@code GET} or {@code HEAD} request whose content is {@code null} or
+   * {@link HttpContent#retrySupported() supports retries}, an attempt that has received no
+   * response after the {@link HedgingPolicy#getHedgeDelayMillis(String) hedge delay} of the host
+   * sends a duplicate request on another thread. The first response is used and the other request
+   * is disconnected. Hedging happens within an attempt, so it does not consume retries, and both
+   * requests carry the same headers and content.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getHedgingPolicy() hedging policy of the
+   * request factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+    this.hedgingPolicy = hedgingPolicy;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the coalescer of identical requests shared with other requests or {@code null} for
+   * none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public RequestCoalescer getRequestCoalescer() {
+    return requestCoalescer;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the coalescer of identical requests shared with other requests or {@code null} for none.
+   *
+   * <p>
+   * If this is a {@code GET} request without content, each attempt that is identical to a request
+   * in flight waits for its response instead of sending its own, see {@link RequestCoalescer}. The
+   * response content is then buffered in memory if it is shared. A revalidation by the
+   * {@link #getResponseCache() response cache}, which adds conditional headers to the request, is
+   * never coalesced.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getRequestCoalescer() coalescer of the
+   * request factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setRequestCoalescer(RequestCoalescer requestCoalescer) {
+    this.requestCoalescer = requestCoalescer;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the response cache shared with other requests or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the response cache shared with other requests or {@code null} for none.
+   *
+   * <p>
+   * If this is a {@code GET} request without content, each attempt is served from the cache if
+   * possible, see {@link HttpResponseCache}. A cached response is still subject to the unsuccessful
+   * response handler, parser and other settings of this request.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getResponseCache() cache of the request
+   * factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setResponseCache(HttpResponseCache responseCache) {
+    this.responseCache = responseCache;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the registry of response content decodings or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpDecodingRegistry getDecodingRegistry() {
+    return decodingRegistry;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the registry of response content decodings or {@code null} for none.
+   *
+   * <p>
+   * With a registry, the {@code Accept-Encoding} header advertises the registered content codings
+   * unless it has been changed from the default {@code "gzip"}, and
+   * {@link HttpResponse#getContent()} decodes the registered content codings, see
+   * {@link HttpDecodingRegistry}. Without a registry, only {@code gzip} content is decoded.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getDecodingRegistry() registry of the
+   * request factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setDecodingRegistry(HttpDecodingRegistry decodingRegistry) {
+    this.decodingRegistry = decodingRegistry;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the compression policy of the content or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public CompressionPolicy getCompressionPolicy() {
+    return compressionPolicy;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the compression policy of the content or {@code null} for none.
+   *
+   * <p>
+   * Unless this request has an {@link #setEncoding(HttpEncoding) encoding}, the policy chooses
+   * whether the content is compressed, see {@link CompressionPolicy}.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getCompressionPolicy() policy of the request
+   * factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setCompressionPolicy(CompressionPolicy compressionPolicy) {
+    this.compressionPolicy = compressionPolicy;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the drain policy of ignored response content or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public DrainPolicy getDrainPolicy() {
+    return drainPolicy;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the drain policy of ignored response content or {@code null} for none.
+   *
+   * <p>
+   * The policy bounds how much of the rest of the content of a response is read by
+   * {@link HttpResponse#ignore()} and {@link HttpResponse#disconnect()}, for example before a
+   * retry, so that the connection may be reused, see {@link DrainPolicy}. Without a policy the
+   * content is closed at once.
+   * </p>
+   *
+   * <p>
+   * The default value is the {@link HttpRequestFactory#getDrainPolicy() policy of the request
+   * factory}, which is {@code null} by default.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequest setDrainPolicy(DrainPolicy drainPolicy) {
+    this.drainPolicy = drainPolicy;
+    return this;
+  }
 }
@@ -14,6 +14,7 @@
 
 package com.google.api.client.http;
 
+import com.google.api.client.util.Beta;
 import java.io.IOException;
 
 
@@ -35,6 +36,13 @@ import java.io.IOException;
   }
  * </pre>
  *
+ * <p>
+ * Policies such as the {@link #setRetryBudget(RetryBudget) retry budget} or the
+ * {@link #setResponseCache(HttpResponseCache) response cache} of the factory are shared by all the
+ * requests built from it. They are set on each request before the initializer is invoked, so the
+ * initializer may override them for some requests.
+ * </p>
+ *
  * @since 1.4
  * @author Yaniv Inbar
  */
@@ -46,6 +54,30 @@ public final class HttpRequestFactory {
   /** HTTP request initializer or {@code null} for none. */
   private final HttpRequestInitializer initializer;
 
+  /** Retry budget shared by the requests or {@code null} for none. */
+  private volatile RetryBudget retryBudget;
+
+  /** Circuit breaker shared by the requests or {@code null} for none. */
+  private volatile CircuitBreaker circuitBreaker;
+
+  /** Hedging policy shared by the requests or {@code null} for none. */
+  private volatile HedgingPolicy hedgingPolicy;
+
+  /** Coalescer of identical requests shared by the requests or {@code null} for none. */
+  private volatile RequestCoalescer requestCoalescer;
+
+  /** Response cache shared by the requests or {@code null} for none. */
+  private volatile HttpResponseCache responseCache;
+
+  /** Registry of response content decodings or {@code null} for none. */
+  private volatile HttpDecodingRegistry decodingRegistry;
+
+  /** Compression policy of request content or {@code null} for none. */
+  private volatile CompressionPolicy compressionPolicy;
+
+  /** Drain policy of ignored response content or {@code null} for none. */
+  private volatile DrainPolicy drainPolicy;
+
   /**
    * @param transport HTTP transport
    * @param initializer HTTP request initializer or {@code null} for none
@@ -77,6 +109,238 @@ public final class HttpRequestFactory {
     return initializer;
   }
 
+  /**
+   * {@link Beta} <br/>
+   * Returns the retry budget shared by the requests built from this factory or {@code null} for
+   * none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public RetryBudget getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the retry budget shared by the requests built from this factory or {@code null} for none,
+   * see {@link HttpRequest#setRetryBudget(RetryBudget)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setRetryBudget(RetryBudget retryBudget) {
+    this.retryBudget = retryBudget;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the circuit breaker shared by the requests built from this factory or {@code null} for
+   * none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the circuit breaker shared by the requests built from this factory or {@code null} for
+   * none, see {@link HttpRequest#setCircuitBreaker(CircuitBreaker)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the hedging policy shared by the requests built from this factory or {@code null} for
+   * none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the hedging policy shared by the requests built from this factory or {@code null} for
+   * none, see {@link HttpRequest#setHedgingPolicy(HedgingPolicy)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+    this.hedgingPolicy = hedgingPolicy;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the coalescer of identical requests shared by the requests built from this factory or
+   * {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public RequestCoalescer getRequestCoalescer() {
+    return requestCoalescer;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the coalescer of identical requests shared by the requests built from this factory or
+   * {@code null} for none, see {@link HttpRequest#setRequestCoalescer(RequestCoalescer)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setRequestCoalescer(RequestCoalescer requestCoalescer) {
+    this.requestCoalescer = requestCoalescer;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the response cache shared by the requests built from this factory or {@code null} for
+   * none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the response cache shared by the requests built from this factory or {@code null} for
+   * none, see {@link HttpRequest#setResponseCache(HttpResponseCache)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setResponseCache(HttpResponseCache responseCache) {
+    this.responseCache = responseCache;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the registry of response content decodings of the requests built from this factory or
+   * {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpDecodingRegistry getDecodingRegistry() {
+    return decodingRegistry;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the registry of response content decodings of the requests built from this factory or
+   * {@code null} for none, see {@link HttpRequest#setDecodingRegistry(HttpDecodingRegistry)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setDecodingRegistry(HttpDecodingRegistry decodingRegistry) {
+    this.decodingRegistry = decodingRegistry;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the compression policy of the content of the requests built from this factory or
+   * {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public CompressionPolicy getCompressionPolicy() {
+    return compressionPolicy;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the compression policy of the content of the requests built from this factory or
+   * {@code null} for none, see {@link HttpRequest#setCompressionPolicy(CompressionPolicy)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setCompressionPolicy(CompressionPolicy compressionPolicy) {
+    this.compressionPolicy = compressionPolicy;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns the drain policy of the ignored response content of the requests built from this
+   * factory or {@code null} for none.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public DrainPolicy getDrainPolicy() {
+    return drainPolicy;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets the drain policy of the ignored response content of the requests built from this factory
+   * or {@code null} for none, see {@link HttpRequest#setDrainPolicy(DrainPolicy)}.
+   *
+   * <p>
+   * The default value is {@code null}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public HttpRequestFactory setDrainPolicy(DrainPolicy drainPolicy) {
+    this.drainPolicy = drainPolicy;
+    return this;
+  }
+
   /**
    * Builds a request for the given HTTP method, URL, and content.
    *
@@ -89,6 +353,15 @@ public final class HttpRequestFactory {
   public HttpRequest buildRequest(String requestMethod, GenericUrl url, HttpContent content)
       throws IOException {
     HttpRequest request = transport.buildRequest();
+    request.setRequestFactory(this);
+    request.setRetryBudget(retryBudget);
+    request.setCircuitBreaker(circuitBreaker);
+    request.setHedgingPolicy(hedgingPolicy);
+    request.setRequestCoalescer(requestCoalescer);
+    request.setResponseCache(responseCache);
+    request.setDecodingRegistry(decodingRegistry);
+    request.setCompressionPolicy(compressionPolicy);
+    request.setDrainPolicy(drainPolicy);
     if (initializer != null) {
       initializer.initialize(request);
     }
@@ -14,22 +14,25 @@
 
 package com.google.api.client.http;
 
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.ByteStreams;
 import com.google.api.client.util.Charsets;
+import com.google.api.client.util.FileBackedOutputStream;
 import com.google.api.client.util.IOUtils;
 import com.google.api.client.util.LoggingInputStream;
+import com.google.api.client.util.PooledByteArrayOutputStream;
 import com.google.api.client.util.Preconditions;
 import com.google.api.client.util.StringUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 
 /**
  * HTTP response.
@@ -58,6 +61,9 @@ import java.util.zip.GZIPInputStream;
  */
 public final class HttpResponse {
 
+  /** Size in bytes above which {@link #bufferContent()} buffers in a temporary file. */
+  private static final int CONTENT_BUFFER_FILE_THRESHOLD = 4 * 1024 * 1024;
+
   /** HTTP response content or {@code null} before {@link #getContent()}. */
   private InputStream content;
 
@@ -116,6 +122,9 @@ public final class HttpResponse {
   /** Signals whether the content has been read from the input stream. */
   private boolean contentRead;
 
+  /** Buffered content or {@code null} if the content is not buffered. */
+  private FileBackedOutputStream bufferedContent;
+
   HttpResponse(HttpRequest request, LowLevelHttpResponse response) throws IOException {
     this.request = request;
     contentLoggingLimit = request.getContentLoggingLimit();
@@ -350,6 +359,75 @@ public final class HttpResponse {
    * @throws IOException I/O exception
    */
   public InputStream getContent() throws IOException {
+    if (bufferedContent != null) {
+      return bufferedContent.openInputStream();
+    }
+    return getContent(null);
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Reads the whole content of the HTTP response into a buffer, after which the content may be
+   * read any number of times, for example by {@link #getContent()} or {@link #parseAsString()},
+   * until {@link #ignore()} or {@link #disconnect()} is called.
+   *
+   * <p>
+   * The content is buffered in memory, in a buffer presized from the {@code Content-Length} header,
+   * or in a temporary file above 4 MiB. {@link #parseAsString()} decodes content buffered in memory
+   * without copying it first. This method does nothing if the content is already buffered, and
+   * must be called before the content is otherwise read. It is called by
+   * {@link HttpRequest#execute()} if {@link HttpRequest#getBufferResponseContent()} is
+   * {@code true}.
+   * </p>
+   *
+   * @return this response
+   * @throws IOException I/O exception, in which case the content is closed
+   * @since 1.27
+   */
+  @Beta
+  public HttpResponse bufferContent() throws IOException {
+    if (bufferedContent == null) {
+      Preconditions.checkState(!contentRead, "content has already been read");
+      InputStream content = getContent(null);
+      if (content != null) {
+        long contentLength = response.getContentLength();
+        FileBackedOutputStream buffer = new FileBackedOutputStream(
+            CONTENT_BUFFER_FILE_THRESHOLD, contentLength < 0 ? 256 : contentLength);
+        boolean buffered = false;
+        try {
+          IOUtils.copy(content, buffer);
+          buffer.close();
+          buffered = true;
+        } finally {
+          if (!buffered) {
+            buffer.reset();
+          }
+        }
+        bufferedContent = buffer;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns whether the content has been {@link #bufferContent() buffered} and has not been
+   * discarded.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public boolean isContentBuffered() {
+    return bufferedContent != null;
+  }
+
+  /**
+   * Returns the content of the HTTP response like {@link #getContent()}.
+   *
+   * @param readAheadExecutor executor on which encoded content is read ahead of decoding or
+   *        {@code null} to read it on the calling thread
+   */
+  private InputStream getContent(Executor readAheadExecutor) throws IOException {
     if (!contentRead) {
       InputStream lowLevelResponseContent = this.response.getContent();
       if (lowLevelResponseContent != null) {
@@ -357,10 +435,21 @@ public final class HttpResponse {
         // processed.
         boolean contentProcessed = false;
         try {
-          // gzip encoding (wrap content with GZipInputStream)
+          // decode content, only gzip without a decoding registry
           String contentEncoding = this.contentEncoding;
-          if (contentEncoding != null && contentEncoding.contains("gzip")) {
-            lowLevelResponseContent = new GZIPInputStream(lowLevelResponseContent);
+          if (contentEncoding != null) {
+            if (readAheadExecutor != null) {
+              ReadAheadInputStream readAhead = new ReadAheadInputStream(lowLevelResponseContent);
+              lowLevelResponseContent = readAhead;
+              readAhead.start(readAheadExecutor);
+            }
+            HttpDecodingRegistry decodingRegistry = request.getDecodingRegistry();
+            if (decodingRegistry != null) {
+              lowLevelResponseContent =
+                  decodingRegistry.decode(contentEncoding, lowLevelResponseContent);
+            } else if (contentEncoding.contains("gzip")) {
+              lowLevelResponseContent = new PooledGZipInputStream(lowLevelResponseContent);
+            }
           }
           // logging (wrap content with LoggingInputStream)
           Logger logger = HttpTransport.LOGGER;
@@ -372,7 +461,7 @@ public final class HttpResponse {
           contentProcessed = true;
         } catch (EOFException e) {
           // this may happen for example on a HEAD request since there no actual response data read
-          // in GZIPInputStream
+          // in the gzip header
         } finally {
           if (!contentProcessed) {
             lowLevelResponseContent.close();
@@ -417,28 +506,139 @@ public final class HttpResponse {
    * @since 1.9
    */
   public void download(OutputStream outputStream) throws IOException {
+    if (bufferedContent != null) {
+      bufferedContent.writeTo(outputStream);
+      return;
+    }
     InputStream inputStream = getContent();
     IOUtils.copy(inputStream, outputStream);
   }
 
+  /**
+   * {@link Beta} <br/>
+   * Writes the content of the HTTP response into the given destination output stream like
+   * {@link #download(OutputStream)}, but reads encoded content from the network on the given
+   * executor into a bounded ring of buffers while the calling thread decodes it.
+   *
+   * <p>
+   * Reading and decoding a large compressed response then run on two cores instead of one. The
+   * executor should run the task on another thread at once, for example a cached thread pool; if it
+   * runs the task on the calling thread or rejects it, the content is read on the calling thread.
+   * Content that is not encoded, or content already returned by {@link #getContent()}, is copied
+   * like {@link #download(OutputStream)}.
+   * </p>
+   *
+   * <p>
+   * This method closes the content of the HTTP response from {@link #getContent()}, and does not
+   * close the given output stream.
+   * </p>
+   *
+   * @param outputStream destination output stream
+   * @param executor executor on which encoded content is read ahead
+   * @throws IOException I/O exception
+   * @since 1.27
+   */
+  @Beta
+  public void download(OutputStream outputStream, Executor executor) throws IOException {
+    Preconditions.checkNotNull(executor);
+    if (bufferedContent != null) {
+      bufferedContent.writeTo(outputStream);
+      return;
+    }
+    InputStream inputStream = getContent(executor);
+    IOUtils.copy(inputStream, outputStream);
+  }
+
   /**
    * Closes the content of the HTTP response from {@link #getContent()}, ignoring any content.
+   *
+   * <p>
+   * Since version 1.27, {@link #bufferContent() buffered} content is discarded, and the rest of the
+   * content is first read within the bounds of the {@link HttpRequest#getDrainPolicy() drain
+   * policy} of the request, if any, so that the connection may be reused.
+   * </p>
    */
   public void ignore() throws IOException {
-    InputStream content = getContent();
+    ignore(true);
+  }
+
+  /**
+   * Closes the content of the HTTP response like {@link #ignore()}.
+   *
+   * @param drain whether to drain the content with the drain policy of the request, if any
+   */
+  private void ignore(boolean drain) throws IOException {
+    FileBackedOutputStream bufferedContent = this.bufferedContent;
+    if (bufferedContent != null) {
+      this.bufferedContent = null;
+      bufferedContent.reset();
+      return;
+    }
+    DrainPolicy drainPolicy = request.getDrainPolicy();
+    if (drain && drainPolicy != null) {
+      drain(drainPolicy);
+      return;
+    }
+    InputStream content;
+    if (drain || contentRead) {
+      content = getContent();
+    } else {
+      // the connection is not reused, so the content is closed without being decoded
+      content = response.getContent();
+      this.content = content;
+      contentRead = true;
+    }
     if (content != null) {
       content.close();
     }
   }
 
+  /** Drains the content with the given policy and closes it. */
+  private void drain(DrainPolicy drainPolicy) throws IOException {
+    InputStream content;
+    long contentLength = -1;
+    if (contentRead) {
+      content = this.content;
+    } else {
+      // drain the content as received, without decoding it
+      content = response.getContent();
+      contentLength = response.getContentLength();
+      this.content = content;
+      contentRead = true;
+    }
+    if (content != null) {
+      try {
+        // a read that blocks past the deadline is aborted by disconnecting the response
+        drainPolicy.drain(content, contentLength, new Runnable() {
+          public void run() {
+            try {
+              response.disconnect();
+            } catch (IOException e) {
+              // the read fails anyway
+            }
+          }
+        });
+      } catch (IOException e) {
+        // the content is ignored anyway, and the connection is not reused
+      } finally {
+        content.close();
+      }
+    }
+  }
+
   /**
    * Close the HTTP response content using {@link #ignore}, and disconnect using
    * {@link LowLevelHttpResponse#disconnect()}.
    *
+   * <p>
+   * Since version 1.27, the content is not drained with the {@link HttpRequest#getDrainPolicy()
+   * drain policy} of the request, because the connection is not reused.
+   * </p>
+   *
    * @since 1.4
    */
   public void disconnect() throws IOException {
-    ignore();
+    ignore(false);
     response.disconnect();
   }
 
@@ -507,13 +707,42 @@ public final class HttpResponse {
    * @throws IOException I/O exception
    */
   public String parseAsString() throws IOException {
+    if (bufferedContent != null) {
+      return bufferedContent.toString(getContentCharset());
+    }
+    InputStream content = getContent();
+    if (content == null) {
+      return "";
+    }
+    PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+    try {
+      IOUtils.copy(content, out);
+      return out.toString(getContentCharset());
+    } finally {
+      out.reset();
+    }
+  }
+
+  /**
+   * Returns the content of the HTTP response from {@link #getContent()} like
+   * {@link #parseAsString()}, but reads at most the given number of bytes and then
+   * {@link #ignore() ignores} the rest of the content.
+   *
+   * @param maxBytes maximum number of bytes to read
+   */
+  String parseAsString(int maxBytes) throws IOException {
     InputStream content = getContent();
     if (content == null) {
       return "";
     }
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    IOUtils.copy(content, out);
-    return out.toString(getContentCharset().name());
+    PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+    try {
+      ByteStreams.copy(ByteStreams.limit(content, maxBytes), out);
+      return out.toString(getContentCharset());
+    } finally {
+      out.reset();
+      ignore();
+    }
   }
 
   /**
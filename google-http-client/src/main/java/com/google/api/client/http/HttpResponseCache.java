@@ -0,0 +1,1213 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.FileBackedOutputStream;
+import com.google.api.client.util.FutureCallback;
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.ListenableFutures;
+import com.google.api.client.util.Preconditions;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link Beta} <br/>
+ * Cache of the responses to {@code GET} requests, which follows the rules of a private cache in
+ * <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>.
+ *
+ * <p>
+ * Responses are stored if their status code is cacheable by default and they have an explicit
+ * freshness lifetime ({@code Cache-Control: max-age} or {@code Expires}) or a validator
+ * ({@code ETag} or {@code Last-Modified}), unless {@code Cache-Control: no-store} or
+ * {@code Vary: *} forbids it. A fresh response is served without a network call. A stale response
+ * is revalidated with {@code If-None-Match} and {@code If-Modified-Since}, and a
+ * {@code 304 Not Modified} is turned into the full cached response. A response with
+ * {@code Cache-Control: stale-while-revalidate} is served while stale within that window and
+ * revalidated in the background. Only the variant of the most recent response of each URL is
+ * stored, so a request whose {@code Vary} headers differ is a miss. Successful {@code POST},
+ * {@code PUT}, {@code PATCH} and {@code DELETE} requests invalidate the entry of their URL.
+ * </p>
+ *
+ * <p>
+ * Requests with {@code Cache-Control: no-store}, {@code Range} or their own conditional headers
+ * bypass the cache. Being a private cache, it must not be shared by the requests of different
+ * users. A cached response streams its content from the {@link Store store}.
+ * </p>
+ *
+ * <p>
+ * The content of a response from the network is streamed to the caller and copied aside as it is
+ * read, and the response is only stored once its content has been read completely. A response
+ * whose content is not read to the end, or is longer than
+ * {@link #getMaxContentLength() maxContentLength}, is not stored.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class HttpResponseCache {
+
+  static final Logger LOGGER = Logger.getLogger(HttpResponseCache.class.getName());
+
+  /** Default maximum size in bytes of the {@link MemoryStore memory store} (10 MiB). */
+  public static final long DEFAULT_MAX_SIZE_BYTES = 10 * 1024 * 1024;
+
+  /** Default maximum length in bytes of the content of a response that is stored (1 MiB). */
+  public static final long DEFAULT_MAX_CONTENT_LENGTH = 1024 * 1024;
+
+  /** Number of bytes of content read from the network above which it is copied to a file. */
+  private static final int CONTENT_BUFFER_FILE_THRESHOLD = 64 * 1024;
+
+  /**
+   * Status codes that are cacheable by default as specified in
+   * <a href="https://tools.ietf.org/html/rfc7231#section-6.1">RFC 7231 section 6.1</a>.
+   */
+  private static final Set<Integer> CACHEABLE_STATUS_CODES = Collections.unmodifiableSet(
+      new HashSet<Integer>(Arrays.asList(200, 203, 204, 300, 301, 404, 405, 410, 414, 501)));
+
+  /** Headers of a {@code 304 Not Modified} response that do not update the cached headers. */
+  private static final Set<String> NOT_UPDATED_HEADERS = Collections.unmodifiableSet(
+      new HashSet<String>(Arrays.asList("content-length", "content-encoding",
+          "transfer-encoding")));
+
+  /** Maximum heuristic freshness lifetime in milliseconds (24 hours). */
+  private static final long MAX_HEURISTIC_FRESHNESS_MILLIS = 24 * 60 * 60 * 1000L;
+
+  /**
+   * {@link Beta} <br/>
+   * Storage of the cache entries by key, which is the URL of the request.
+   *
+   * <p>
+   * Implementations must be thread-safe. I/O exceptions are logged and treated as a miss.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public interface Store {
+
+    /**
+     * Returns the entry of the given key or {@code null} for none.
+     *
+     * @param key key
+     */
+    Entry get(String key) throws IOException;
+
+    /**
+     * Stores the entry of the given key, replacing any previous entry.
+     *
+     * <p>
+     * The content of the entry may only be read during this call, so it must be copied if it is
+     * stored.
+     * </p>
+     *
+     * @param key key
+     * @param entry entry
+     */
+    void put(String key, Entry entry) throws IOException;
+
+    /**
+     * Removes the entry of the given key if any.
+     *
+     * @param key key
+     */
+    void remove(String key) throws IOException;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Content of a cache entry, which may be read any number of times.
+   *
+   * <p>
+   * Implementations must be thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public interface EntryContent {
+
+    /** Returns the length of the content in bytes. */
+    long getLength();
+
+    /** Returns a new input stream that reads the content, which the caller must close. */
+    InputStream openStream() throws IOException;
+  }
+
+  /** Network exchange of a request executed through the cache. */
+  interface Exchange {
+
+    /**
+     * Executes the low-level HTTP request on the network.
+     *
+     * @param conditional whether conditional headers were added to the low-level HTTP request, in
+     *        which case its response must not be shared with requests that are not conditional
+     * @return low-level HTTP response
+     */
+    LowLevelHttpResponse execute(boolean conditional) throws IOException;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Cached response.
+   *
+   * <p>
+   * Implementation is immutable.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Entry {
+
+    private final int statusCode;
+
+    private final String statusLine;
+
+    private final String reasonPhrase;
+
+    private final List<String> headerNames;
+
+    private final List<String> headerValues;
+
+    private final EntryContent content;
+
+    private final String varyKey;
+
+    private final long requestTimeMillis;
+
+    private final long responseTimeMillis;
+
+    /**
+     * @param statusCode status code
+     * @param statusLine status line or {@code null} for none
+     * @param reasonPhrase reason phrase or {@code null} for none
+     * @param headerNames response header names
+     * @param headerValues response header values, in the same order as the names
+     * @param content response content as received, which must not be modified afterwards, or
+     *        {@code null} for none
+     * @param varyKey values of the request headers named by the {@code Vary} response header
+     * @param requestTimeMillis time in milliseconds when the request was sent
+     * @param responseTimeMillis time in milliseconds when the response was received
+     */
+    public Entry(int statusCode, String statusLine, String reasonPhrase, List<String> headerNames,
+        List<String> headerValues, byte[] content, String varyKey, long requestTimeMillis,
+        long responseTimeMillis) {
+      this(statusCode, statusLine, reasonPhrase, headerNames, headerValues,
+          content == null ? null : new ByteArrayEntryContent(content), varyKey, requestTimeMillis,
+          responseTimeMillis);
+    }
+
+    /**
+     * @param statusCode status code
+     * @param statusLine status line or {@code null} for none
+     * @param reasonPhrase reason phrase or {@code null} for none
+     * @param headerNames response header names
+     * @param headerValues response header values, in the same order as the names
+     * @param content response content as received or {@code null} for none
+     * @param varyKey values of the request headers named by the {@code Vary} response header
+     * @param requestTimeMillis time in milliseconds when the request was sent
+     * @param responseTimeMillis time in milliseconds when the response was received
+     */
+    public Entry(int statusCode, String statusLine, String reasonPhrase, List<String> headerNames,
+        List<String> headerValues, EntryContent content, String varyKey, long requestTimeMillis,
+        long responseTimeMillis) {
+      Preconditions.checkArgument(headerNames.size() == headerValues.size());
+      this.statusCode = statusCode;
+      this.statusLine = statusLine;
+      this.reasonPhrase = reasonPhrase;
+      this.headerNames = Collections.unmodifiableList(new ArrayList<String>(headerNames));
+      this.headerValues = Collections.unmodifiableList(new ArrayList<String>(headerValues));
+      this.content = content;
+      this.varyKey = Preconditions.checkNotNull(varyKey);
+      this.requestTimeMillis = requestTimeMillis;
+      this.responseTimeMillis = responseTimeMillis;
+    }
+
+    /** Returns the status code. */
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    /** Returns the status line or {@code null} for none. */
+    public String getStatusLine() {
+      return statusLine;
+    }
+
+    /** Returns the reason phrase or {@code null} for none. */
+    public String getReasonPhrase() {
+      return reasonPhrase;
+    }
+
+    /** Returns the unmodifiable list of the response header names. */
+    public List<String> getHeaderNames() {
+      return headerNames;
+    }
+
+    /** Returns the unmodifiable list of the response header values. */
+    public List<String> getHeaderValues() {
+      return headerValues;
+    }
+
+    /**
+     * Returns the values of the response header of the given name (may be any case) separated
+     * by commas, or {@code null} if it is missing.
+     */
+    public String getHeaderValue(String name) {
+      return HttpResponseCache.getHeaderValue(headerNames, headerValues, name);
+    }
+
+    /** Returns the response content as received or {@code null} for none. */
+    public EntryContent getContent() {
+      return content;
+    }
+
+    /** Returns the values of the request headers named by the {@code Vary} response header. */
+    public String getVaryKey() {
+      return varyKey;
+    }
+
+    /** Returns the time in milliseconds when the request was sent. */
+    public long getRequestTimeMillis() {
+      return requestTimeMillis;
+    }
+
+    /** Returns the time in milliseconds when the response was received. */
+    public long getResponseTimeMillis() {
+      return responseTimeMillis;
+    }
+
+    /** Returns the approximate size of the entry in bytes. */
+    public long getSize() {
+      long size = 64 + (content == null ? 0 : content.getLength());
+      for (int i = 0; i < headerNames.size(); i++) {
+        size += 2 * (headerNames.get(i).length() + headerValues.get(i).length());
+      }
+      return size;
+    }
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Store that keeps the entries in memory, evicting the least recently used ones once their
+   * total size exceeds a maximum.
+   *
+   * <p>
+   * Implementation is thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class MemoryStore implements Store {
+
+    private final long maxSizeBytes;
+
+    /** Entries by key, guarded by this. */
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** Total size of the entries, guarded by this. */
+    private long sizeBytes;
+
+    /**
+     * @param maxSizeBytes maximum total size of the entries in bytes
+     */
+    public MemoryStore(long maxSizeBytes) {
+      Preconditions.checkArgument(maxSizeBytes >= 0);
+      this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /** Returns the maximum total size of the entries in bytes. */
+    public long getMaxSizeBytes() {
+      return maxSizeBytes;
+    }
+
+    /** Returns the total size of the entries in bytes. */
+    public synchronized long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    /** Returns the number of entries. */
+    public synchronized int getEntryCount() {
+      return entries.size();
+    }
+
+    public synchronized Entry get(String key) {
+      return entries.get(key);
+    }
+
+    public synchronized void put(String key, Entry entry) throws IOException {
+      remove(key);
+      long size = entry.getSize();
+      if (size > maxSizeBytes) {
+        return;
+      }
+      EntryContent content = entry.getContent();
+      if (content != null && !(content instanceof ByteArrayEntryContent)) {
+        // the content is only valid during this call
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) content.getLength());
+        IOUtils.copy(content.openStream(), bytes);
+        entry = new Entry(entry.getStatusCode(), entry.getStatusLine(), entry.getReasonPhrase(),
+            entry.getHeaderNames(), entry.getHeaderValues(), bytes.toByteArray(),
+            entry.getVaryKey(), entry.getRequestTimeMillis(), entry.getResponseTimeMillis());
+      }
+      entries.put(key, entry);
+      sizeBytes += size;
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (sizeBytes > maxSizeBytes) {
+        sizeBytes -= iterator.next().getSize();
+        iterator.remove();
+      }
+    }
+
+    public synchronized void remove(String key) {
+      Entry entry = entries.remove(key);
+      if (entry != null) {
+        sizeBytes -= entry.getSize();
+      }
+    }
+  }
+
+  /** Content of an entry in memory. */
+  private static final class ByteArrayEntryContent implements EntryContent {
+
+    private final byte[] content;
+
+    ByteArrayEntryContent(byte[] content) {
+      this.content = content;
+    }
+
+    public long getLength() {
+      return content.length;
+    }
+
+    public InputStream openStream() {
+      return new ByteArrayInputStream(content);
+    }
+  }
+
+  /** Low-level HTTP response of an entry, which streams its content from the entry. */
+  private static final class CachedLowLevelHttpResponse extends LowLevelHttpResponse {
+
+    private final Entry entry;
+
+    /** Content stream of the entry or {@code null} for none. */
+    private final InputStream content;
+
+    private final List<String> headerNames;
+
+    private final List<String> headerValues;
+
+    CachedLowLevelHttpResponse(Entry entry, InputStream content, List<String> headerNames,
+        List<String> headerValues) {
+      this.entry = entry;
+      this.content = content;
+      this.headerNames = headerNames;
+      this.headerValues = headerValues;
+    }
+
+    @Override
+    public InputStream getContent() {
+      return content;
+    }
+
+    @Override
+    public String getContentEncoding() {
+      return HttpResponseCache.getHeaderValue(headerNames, headerValues, "Content-Encoding");
+    }
+
+    @Override
+    public long getContentLength() {
+      return entry.getContent() == null ? 0 : entry.getContent().getLength();
+    }
+
+    @Override
+    public String getContentType() {
+      return HttpResponseCache.getHeaderValue(headerNames, headerValues, "Content-Type");
+    }
+
+    @Override
+    public String getStatusLine() {
+      return entry.getStatusLine();
+    }
+
+    @Override
+    public int getStatusCode() {
+      return entry.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() {
+      return entry.getReasonPhrase();
+    }
+
+    @Override
+    public int getHeaderCount() {
+      return headerNames.size();
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+      return headerNames.get(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+      return headerValues.get(index);
+    }
+  }
+
+  /**
+   * Low-level HTTP response from the network whose content is stored in the cache once it has
+   * been read completely.
+   */
+  private static final class StoringLowLevelHttpResponse extends LowLevelHttpResponse {
+
+    private final LowLevelHttpResponse response;
+
+    private final InputStream content;
+
+    StoringLowLevelHttpResponse(LowLevelHttpResponse response, InputStream content) {
+      this.response = response;
+      this.content = content;
+    }
+
+    @Override
+    public InputStream getContent() {
+      return content;
+    }
+
+    @Override
+    public String getContentEncoding() throws IOException {
+      return response.getContentEncoding();
+    }
+
+    @Override
+    public long getContentLength() throws IOException {
+      return response.getContentLength();
+    }
+
+    @Override
+    public String getContentType() throws IOException {
+      return response.getContentType();
+    }
+
+    @Override
+    public String getStatusLine() throws IOException {
+      return response.getStatusLine();
+    }
+
+    @Override
+    public int getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() throws IOException {
+      return response.getReasonPhrase();
+    }
+
+    @Override
+    public int getHeaderCount() throws IOException {
+      return response.getHeaderCount();
+    }
+
+    @Override
+    public String getHeaderName(int index) throws IOException {
+      return response.getHeaderName(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) throws IOException {
+      return response.getHeaderValue(index);
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+      response.disconnect();
+    }
+  }
+
+  /**
+   * Content stream of a response from the network, which copies the content aside as it is read
+   * and stores the entry once the end of the content is reached. The copy is abandoned if the
+   * content is closed early or grows longer than the {@link #getMaxContentLength() maximum}.
+   */
+  private final class StoringInputStream extends FilterInputStream {
+
+    private final String key;
+
+    /** Entry without content. */
+    private final Entry entry;
+
+    /** Expected length of the content or {@code -1} if unknown. */
+    private final long contentLength;
+
+    /** Copy of the content read so far or {@code null} once it has been stored or abandoned. */
+    private FileBackedOutputStream buffer;
+
+    StoringInputStream(String key, Entry entry, InputStream in, long contentLength) {
+      super(in);
+      this.key = key;
+      this.entry = entry;
+      this.contentLength = contentLength;
+      buffer = new FileBackedOutputStream(
+          CONTENT_BUFFER_FILE_THRESHOLD, contentLength < 0 ? 256 : contentLength);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        store();
+      } else if (buffer != null) {
+        copy(new byte[] {(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n == -1) {
+        store();
+      } else if (buffer != null) {
+        copy(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipped content cannot be stored
+      abandon();
+      return in.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        abandon();
+      }
+    }
+
+    private void copy(byte[] b, int off, int len) throws IOException {
+      try {
+        if (buffer.size() + len > maxContentLength) {
+          abandon();
+          return;
+        }
+        buffer.write(b, off, len);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "failed to copy response content", e);
+        abandon();
+        return;
+      }
+      if (buffer.size() == contentLength) {
+        // content decoders may stop reading once they have what they need
+        store();
+      }
+    }
+
+    private void store() throws IOException {
+      final FileBackedOutputStream buffer = this.buffer;
+      if (buffer == null) {
+        return;
+      }
+      this.buffer = null;
+      try {
+        buffer.close();
+        putEntry(key, new Entry(entry.getStatusCode(), entry.getStatusLine(),
+            entry.getReasonPhrase(), entry.getHeaderNames(), entry.getHeaderValues(),
+            new EntryContent() {
+
+              public long getLength() {
+                return buffer.size();
+              }
+
+              public InputStream openStream() throws IOException {
+                return buffer.openInputStream();
+              }
+            }, entry.getVaryKey(), entry.getRequestTimeMillis(), entry.getResponseTimeMillis()));
+      } finally {
+        buffer.reset();
+      }
+    }
+
+    private void abandon() throws IOException {
+      FileBackedOutputStream buffer = this.buffer;
+      if (buffer != null) {
+        this.buffer = null;
+        buffer.reset();
+      }
+    }
+  }
+
+  private final Store store;
+
+  private final Clock clock;
+
+  private final long maxContentLength;
+
+  /** Keys that are being revalidated in the background, guarded by itself. */
+  private final Set<String> revalidating = new HashSet<String>();
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong conditionalHitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** Constructor with a {@link MemoryStore} of the {@link #DEFAULT_MAX_SIZE_BYTES default size}. */
+  public HttpResponseCache() {
+    this(new MemoryStore(DEFAULT_MAX_SIZE_BYTES));
+  }
+
+  /**
+   * @param store store of the entries
+   */
+  public HttpResponseCache(Store store) {
+    this(store, Clock.SYSTEM);
+  }
+
+  /**
+   * @param store store of the entries
+   * @param clock clock to compute the age of the entries
+   */
+  public HttpResponseCache(Store store, Clock clock) {
+    this(store, clock, DEFAULT_MAX_CONTENT_LENGTH);
+  }
+
+  /**
+   * @param store store of the entries
+   * @param clock clock to compute the age of the entries
+   * @param maxContentLength maximum length in bytes of the content of a response that is stored,
+   *        which should not be more than the store holds
+   */
+  public HttpResponseCache(Store store, Clock clock, long maxContentLength) {
+    Preconditions.checkArgument(maxContentLength >= 0);
+    this.store = Preconditions.checkNotNull(store);
+    this.clock = Preconditions.checkNotNull(clock);
+    this.maxContentLength = maxContentLength;
+  }
+
+  /** Returns the store of the entries. */
+  public Store getStore() {
+    return store;
+  }
+
+  /** Returns the clock to compute the age of the entries. */
+  public Clock getClock() {
+    return clock;
+  }
+
+  /** Returns the maximum length in bytes of the content of a response that is stored. */
+  public long getMaxContentLength() {
+    return maxContentLength;
+  }
+
+  /** Returns the number of requests served from the cache without a network call. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of requests served from the cache after a {@code 304 Not Modified}. */
+  public long getConditionalHitCount() {
+    return conditionalHitCount.get();
+  }
+
+  /** Returns the number of cacheable requests whose response came from the network. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Executes a {@code GET} request through the cache.
+   *
+   * @param request HTTP request
+   * @param key key of the request, which is its URL
+   * @param lowLevelHttpRequest low-level HTTP request, to which conditional headers are added
+   * @param exchange network exchange of the low-level HTTP request
+   * @return low-level HTTP response
+   */
+  LowLevelHttpResponse execute(HttpRequest request, String key,
+      LowLevelHttpRequest lowLevelHttpRequest, Exchange exchange) throws IOException {
+    HttpHeaders requestHeaders = request.getHeaders();
+    Map<String, String> requestCacheControl = parseCacheControl(requestHeaders.getCacheControl());
+    if (requestCacheControl.containsKey("no-store") || requestHeaders.getRange() != null
+        || requestHeaders.getIfNoneMatch() != null || requestHeaders.getIfModifiedSince() != null) {
+      return exchange.execute(false);
+    }
+    Entry entry = getEntry(key);
+    // the content is opened at once, so that it is still readable if the entry is removed before
+    // the response is read
+    InputStream entryContent = null;
+    if (entry != null && entry.getContent() != null) {
+      try {
+        entryContent = entry.getContent().openStream();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "failed to read cache entry", e);
+        entry = null;
+      }
+    }
+    boolean served = false;
+    try {
+      if (entry != null
+          && !entry.getVaryKey().equals(getVaryKey(entry.getHeaderValue("Vary"), requestHeaders))) {
+        entry = null;
+      }
+      long requestTimeMillis = clock.currentTimeMillis();
+      boolean conditional = false;
+      if (entry != null) {
+        Map<String, String> responseCacheControl =
+            parseCacheControl(entry.getHeaderValue("Cache-Control"));
+        long ageMillis = getAgeMillis(entry, requestTimeMillis);
+        long freshnessMillis = getFreshnessLifetimeMillis(entry, responseCacheControl);
+        long maxAgeSeconds = getSeconds(requestCacheControl, "max-age");
+        boolean revalidate = requestCacheControl.containsKey("no-cache")
+            || responseCacheControl.containsKey("no-cache")
+            || maxAgeSeconds >= 0 && ageMillis > maxAgeSeconds * 1000;
+        if (!revalidate && ageMillis < freshnessMillis) {
+          hitCount.incrementAndGet();
+          served = true;
+          return toResponse(entry, entryContent, ageMillis);
+        }
+        long staleSeconds = getSeconds(responseCacheControl, "stale-while-revalidate");
+        if (!revalidate && staleSeconds > 0 && !responseCacheControl.containsKey("must-revalidate")
+            && ageMillis < freshnessMillis + staleSeconds * 1000) {
+          revalidateInBackground(request, key, entry);
+          hitCount.incrementAndGet();
+          served = true;
+          return toResponse(entry, entryContent, ageMillis);
+        }
+        String etag = entry.getHeaderValue("ETag");
+        if (etag != null) {
+          lowLevelHttpRequest.addHeader("If-None-Match", etag);
+        }
+        String lastModified = entry.getHeaderValue("Last-Modified");
+        if (lastModified != null) {
+          lowLevelHttpRequest.addHeader("If-Modified-Since", lastModified);
+        }
+        conditional = etag != null || lastModified != null;
+      }
+      LowLevelHttpResponse response = exchange.execute(conditional);
+      long responseTimeMillis = clock.currentTimeMillis();
+      int statusCode = response.getStatusCode();
+      List<String> headerNames = new ArrayList<String>();
+      List<String> headerValues = new ArrayList<String>();
+      for (int i = 0; i < response.getHeaderCount(); i++) {
+        headerNames.add(response.getHeaderName(i));
+        headerValues.add(response.getHeaderValue(i));
+      }
+      if (entry != null && statusCode == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+        InputStream content = response.getContent();
+        if (content != null) {
+          content.close();
+        }
+        Entry updated =
+            update(entry, headerNames, headerValues, requestTimeMillis, responseTimeMillis);
+        putEntry(key, updated);
+        conditionalHitCount.incrementAndGet();
+        served = true;
+        return toResponse(updated, entryContent, getAgeMillis(updated, responseTimeMillis));
+      }
+      missCount.incrementAndGet();
+      if (!isCacheable(statusCode, headerNames, headerValues)) {
+        if (entry != null && statusCode < HttpStatusCodes.STATUS_CODE_SERVER_ERROR) {
+          removeEntry(key);
+        }
+        return response;
+      }
+      // the response replaces the entry once its content has been read
+      if (entry != null) {
+        removeEntry(key);
+      }
+      long contentLength = response.getContentLength();
+      if (contentLength > maxContentLength) {
+        return response;
+      }
+      InputStream content = response.getContent();
+      Entry stored = new Entry(statusCode, response.getStatusLine(), response.getReasonPhrase(),
+          headerNames, headerValues, (byte[]) null,
+          getVaryKey(getHeaderValue(headerNames, headerValues, "Vary"), requestHeaders),
+          requestTimeMillis, responseTimeMillis);
+      if (content == null) {
+        putEntry(key, stored);
+        return response;
+      }
+      return new StoringLowLevelHttpResponse(
+          response, new StoringInputStream(key, stored, content, contentLength));
+    } finally {
+      if (!served && entryContent != null) {
+        entryContent.close();
+      }
+    }
+  }
+
+  /**
+   * Invalidates the entry of the given key after a successful request with an unsafe method.
+   *
+   * @param key key of the request, which is its URL
+   */
+  void invalidate(String key) {
+    removeEntry(key);
+  }
+
+  /**
+   * Revalidates the entry of the given request in the background, unless it is already being
+   * revalidated or has been replaced since it was read.
+   */
+  private void revalidateInBackground(HttpRequest request, final String key, Entry entry) {
+    synchronized (revalidating) {
+      if (!revalidating.add(key)) {
+        return;
+      }
+    }
+    boolean started = false;
+    try {
+      // a revalidation may have completed since the entry was read
+      Entry current = getEntry(key);
+      if (current != null && current.getContent() != null) {
+        // only the headers are needed, so the content the store may have opened is released
+        current.getContent().openStream().close();
+      }
+      if (current == null || current.getResponseTimeMillis() != entry.getResponseTimeMillis()) {
+        return;
+      }
+      // the factory of the request applies its policies and initializer, for example credentials
+      // and retry handlers, which must not be shared with the request
+      HttpRequestFactory requestFactory = request.getRequestFactory();
+      if (requestFactory == null) {
+        requestFactory = request.getTransport().createRequestFactory();
+      }
+      HttpRequest revalidation = requestFactory
+          .buildGetRequest(request.getUrl().clone())
+          .setHeaders(request.getHeaders().clone().setCacheControl("no-cache"))
+          .setInterceptor(request.getInterceptor())
+          .setConnectTimeout(request.getConnectTimeout())
+          .setReadTimeout(request.getReadTimeout())
+          .setSuppressUserAgentSuffix(request.getSuppressUserAgentSuffix())
+          .setNumberOfRetries(request.getNumberOfRetries())
+          .setThrowExceptionOnExecuteError(false)
+          // a response is only stored once its content has been read
+          .setBufferResponseContent(true)
+          .setResponseCache(this);
+      ListenableFutures.addCallback(revalidation.executeAsync(),
+          new FutureCallback<HttpResponse>() {
+
+            public void onSuccess(HttpResponse response) {
+              finishRevalidation(key);
+              try {
+                response.ignore();
+              } catch (IOException e) {
+                LOGGER.log(Level.FINE, "failed to close revalidated response", e);
+              }
+            }
+
+            public void onFailure(Throwable t) {
+              finishRevalidation(key);
+              LOGGER.log(Level.FINE, "background revalidation failed", t);
+            }
+          }, ListenableFutures.directExecutor());
+      started = true;
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "background revalidation failed", e);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.FINE, "background revalidation failed", e);
+    } finally {
+      if (!started) {
+        finishRevalidation(key);
+      }
+    }
+  }
+
+  void finishRevalidation(String key) {
+    synchronized (revalidating) {
+      revalidating.remove(key);
+    }
+  }
+
+  private Entry getEntry(String key) {
+    try {
+      return store.get(key);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "failed to read cache entry", e);
+      return null;
+    }
+  }
+
+  private void putEntry(String key, Entry entry) {
+    try {
+      store.put(key, entry);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "failed to write cache entry", e);
+    }
+  }
+
+  private void removeEntry(String key) {
+    try {
+      store.remove(key);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "failed to remove cache entry", e);
+    }
+  }
+
+  /**
+   * Returns a copy of the given entry updated by a {@code 304 Not Modified} response as specified
+   * in <a href="https://tools.ietf.org/html/rfc7234#section-4.3.4">RFC 7234 section 4.3.4</a>.
+   */
+  private static Entry update(Entry previous, List<String> headerNames, List<String> headerValues,
+      long requestTimeMillis, long responseTimeMillis) {
+    Set<String> replaced = new HashSet<String>();
+    for (String name : headerNames) {
+      replaced.add(name.toLowerCase(Locale.US));
+    }
+    replaced.removeAll(NOT_UPDATED_HEADERS);
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < previous.getHeaderNames().size(); i++) {
+      String name = previous.getHeaderNames().get(i);
+      if (!replaced.contains(name.toLowerCase(Locale.US))) {
+        names.add(name);
+        values.add(previous.getHeaderValues().get(i));
+      }
+    }
+    for (int i = 0; i < headerNames.size(); i++) {
+      if (replaced.contains(headerNames.get(i).toLowerCase(Locale.US))) {
+        names.add(headerNames.get(i));
+        values.add(headerValues.get(i));
+      }
+    }
+    return new Entry(previous.getStatusCode(), previous.getStatusLine(),
+        previous.getReasonPhrase(), names, values, previous.getContent(), previous.getVaryKey(),
+        requestTimeMillis, responseTimeMillis);
+  }
+
+  /** Returns a response of the given entry with an {@code Age} header. */
+  private static LowLevelHttpResponse toResponse(
+      Entry entry, InputStream content, long ageMillis) {
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < entry.getHeaderNames().size(); i++) {
+      if (!"age".equalsIgnoreCase(entry.getHeaderNames().get(i))) {
+        names.add(entry.getHeaderNames().get(i));
+        values.add(entry.getHeaderValues().get(i));
+      }
+    }
+    names.add("Age");
+    values.add(String.valueOf(ageMillis / 1000));
+    return new CachedLowLevelHttpResponse(entry, content, names, values);
+  }
+
+  /**
+   * Returns the current age of the given entry in milliseconds as specified in
+   * <a href="https://tools.ietf.org/html/rfc7234#section-4.2.3">RFC 7234 section 4.2.3</a>.
+   */
+  static long getAgeMillis(Entry entry, long nowMillis) {
+    long responseTimeMillis = entry.getResponseTimeMillis();
+    long dateMillis = getDateMillis(entry.getHeaderValue("Date"), responseTimeMillis);
+    long apparentAgeMillis = Math.max(0, responseTimeMillis - dateMillis);
+    long ageSeconds = parseSeconds(entry.getHeaderValue("Age"));
+    long correctedAgeMillis = Math.max(0, ageSeconds) * 1000
+        + responseTimeMillis - entry.getRequestTimeMillis();
+    return Math.max(apparentAgeMillis, correctedAgeMillis)
+        + Math.max(0, nowMillis - responseTimeMillis);
+  }
+
+  /**
+   * Returns the freshness lifetime of the given entry in milliseconds as specified in
+   * <a href="https://tools.ietf.org/html/rfc7234#section-4.2.1">RFC 7234 section 4.2.1</a>, with
+   * a heuristic of 10% of the time since {@code Last-Modified}.
+   */
+  static long getFreshnessLifetimeMillis(Entry entry, Map<String, String> cacheControl) {
+    long maxAgeSeconds = getSeconds(cacheControl, "max-age");
+    if (maxAgeSeconds >= 0) {
+      return maxAgeSeconds * 1000;
+    }
+    long dateMillis = getDateMillis(entry.getHeaderValue("Date"), entry.getResponseTimeMillis());
+    String expires = entry.getHeaderValue("Expires");
+    if (expires != null) {
+      Date expiresDate = HttpHeaders.parseHttpDate(expires.trim());
+      return expiresDate == null ? 0 : Math.max(0, expiresDate.getTime() - dateMillis);
+    }
+    String lastModified = entry.getHeaderValue("Last-Modified");
+    if (lastModified != null && CACHEABLE_STATUS_CODES.contains(entry.getStatusCode())) {
+      Date lastModifiedDate = HttpHeaders.parseHttpDate(lastModified.trim());
+      if (lastModifiedDate != null) {
+        return Math.min(MAX_HEURISTIC_FRESHNESS_MILLIS,
+            Math.max(0, dateMillis - lastModifiedDate.getTime()) / 10);
+      }
+    }
+    return 0;
+  }
+
+  /** Returns whether a response may be stored. */
+  private static boolean isCacheable(int statusCode, List<String> headerNames,
+      List<String> headerValues) {
+    if (!CACHEABLE_STATUS_CODES.contains(statusCode)) {
+      return false;
+    }
+    Map<String, String> cacheControl =
+        parseCacheControl(getHeaderValue(headerNames, headerValues, "Cache-Control"));
+    String vary = getHeaderValue(headerNames, headerValues, "Vary");
+    if (cacheControl.containsKey("no-store") || vary != null && vary.contains("*")) {
+      return false;
+    }
+    return cacheControl.containsKey("max-age")
+        || getHeaderValue(headerNames, headerValues, "Expires") != null
+        || getHeaderValue(headerNames, headerValues, "ETag") != null
+        || getHeaderValue(headerNames, headerValues, "Last-Modified") != null;
+  }
+
+  /**
+   * Returns the values of the request headers named by the given {@code Vary} response header.
+   *
+   * @param vary value of the {@code Vary} response header or {@code null} for none
+   * @param requestHeaders request headers
+   */
+  static String getVaryKey(String vary, HttpHeaders requestHeaders) {
+    if (vary == null) {
+      return "";
+    }
+    Set<String> names = new TreeSet<String>();
+    for (String name : vary.split(",")) {
+      name = name.trim().toLowerCase(Locale.US);
+      if (name.length() > 0) {
+        names.add(name);
+      }
+    }
+    StringBuilder key = new StringBuilder();
+    for (String name : names) {
+      key.append(name).append(':');
+      for (String value : requestHeaders.getHeaderStringValues(name)) {
+        key.append(' ').append(value);
+      }
+      key.append('\n');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Parses the directives of a {@code Cache-Control} header into a map from lower-case name to
+   * value, which is empty for a directive without value.
+   *
+   * @param cacheControl value of the {@code Cache-Control} header or {@code null} for none
+   */
+  static Map<String, String> parseCacheControl(String cacheControl) {
+    Map<String, String> directives = new HashMap<String, String>();
+    if (cacheControl == null) {
+      return directives;
+    }
+    // split at the commas outside of quoted strings
+    List<String> parts = new ArrayList<String>();
+    boolean quoted = false;
+    int start = 0;
+    for (int i = 0; i < cacheControl.length(); i++) {
+      char c = cacheControl.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == ',' && !quoted) {
+        parts.add(cacheControl.substring(start, i));
+        start = i + 1;
+      }
+    }
+    parts.add(cacheControl.substring(start));
+    for (String directive : parts) {
+      int equals = directive.indexOf('=');
+      String name = (equals == -1 ? directive : directive.substring(0, equals)).trim();
+      if (name.length() == 0) {
+        continue;
+      }
+      String value = equals == -1 ? "" : directive.substring(equals + 1).trim();
+      if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+        value = value.substring(1, value.length() - 1);
+      }
+      directives.put(name.toLowerCase(Locale.US), value);
+    }
+    return directives;
+  }
+
+  /**
+   * Returns the number of seconds of the given directive, or {@code -1} if it is missing or
+   * invalid.
+   */
+  private static long getSeconds(Map<String, String> cacheControl, String name) {
+    return parseSeconds(cacheControl.get(name));
+  }
+
+  /** Parses a number of seconds, or returns {@code -1} if it is {@code null} or invalid. */
+  private static long parseSeconds(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Math.max(-1, Long.parseLong(value.trim()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** Returns the time of the given {@code Date} header or the default time if it is invalid. */
+  private static long getDateMillis(String date, long defaultMillis) {
+    Date parsed = date == null ? null : HttpHeaders.parseHttpDate(date.trim());
+    return parsed == null ? defaultMillis : parsed.getTime();
+  }
+
+  /**
+   * Returns the values of the header of the given name (may be any case) separated by commas, or
+   * {@code null} if it is missing.
+   */
+  static String getHeaderValue(List<String> headerNames, List<String> headerValues, String name) {
+    String result = null;
+    for (int i = 0; i < headerNames.size(); i++) {
+      if (name.equalsIgnoreCase(headerNames.get(i))) {
+        result = result == null ? headerValues.get(i) : result + ", " + headerValues.get(i);
+      }
+    }
+    return result;
+  }
+}
@@ -166,13 +166,19 @@ public class HttpResponseException extends IOException {
     }
 
     /**
+     * Constructor that reads at most {@link HttpRequest#getErrorContentLimit()} bytes of the
+     * content of the given HTTP response, and whose detail message includes the status code,
+     * status message and content.
+     *
      * @param response HTTP response
      */
     public Builder(HttpResponse response) {
       this(response.getStatusCode(), response.getStatusMessage(), response.getHeaders());
       // content
       try {
-        content = response.parseAsString();
+        int errorContentLimit = response.getRequest().getErrorContentLimit();
+        content = errorContentLimit == Integer.MAX_VALUE
+            ? response.parseAsString() : response.parseAsString(errorContentLimit);
         if (content.length() == 0) {
           content = null;
         }
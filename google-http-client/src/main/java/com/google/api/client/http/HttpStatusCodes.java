@@ -93,6 +93,13 @@ public class HttpStatusCodes {
    */
   public static final int STATUS_CODE_UNPROCESSABLE_ENTITY = 422;
 
+  /**
+   * Status code for a request that was rejected because the client sent too many requests.
+   *
+   * @since 1.27
+   */
+  public static final int STATUS_CODE_TOO_MANY_REQUESTS = 429;
+
   /** Status code for an internal server error. */
   public static final int STATUS_CODE_SERVER_ERROR = 500;
 
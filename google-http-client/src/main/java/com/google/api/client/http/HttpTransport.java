@@ -14,8 +14,17 @@
 
 package com.google.api.client.http;
 
+import com.google.api.client.util.Beta;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -82,6 +91,12 @@ public abstract class HttpTransport {
 
   static final Logger LOGGER = Logger.getLogger(HttpTransport.class.getName());
 
+  /**
+   * Maximum number of asynchronous requests in progress at once, which is also the capacity of the
+   * queue of the default executor.
+   */
+  static final int ASYNC_QUEUE_CAPACITY = 1024;
+
   /**
    * All valid request methods as specified in {@link #supportsMethod(String)}, sorted in ascending
    * alphabetical order.
@@ -92,6 +107,15 @@ public abstract class HttpTransport {
     Arrays.sort(SUPPORTED_METHODS);
   }
 
+  /** Executor for asynchronous requests, created on first use and guarded by this. */
+  private ExecutorService asyncExecutor;
+
+  /** Permits of the asynchronous requests in progress, each held until its request completes. */
+  private final Semaphore asyncPermits = new Semaphore(ASYNC_QUEUE_CAPACITY);
+
+  /** Whether {@link #shutdownAsyncExecutor()} has been called, guarded by this. */
+  private boolean asyncExecutorShutdown;
+
   /**
    * Returns a new instance of an HTTP request factory based on this HTTP transport.
    *
@@ -151,12 +175,120 @@ public abstract class HttpTransport {
   protected abstract LowLevelHttpRequest buildRequest(String method, String url) throws IOException;
 
   /**
-   * Default implementation does nothing, but subclasses may override to possibly release allocated
-   * system resources or close connections.
+   * Returns the executor that runs asynchronous requests, such as
+   * {@link HttpRequest#executeAsync()}, creating it with {@link #createAsyncExecutor()} on first
+   * use.
+   *
+   * @throws IllegalStateException if the transport has been shut down
+   */
+  final synchronized ExecutorService getAsyncExecutor() {
+    if (asyncExecutorShutdown) {
+      throw new IllegalStateException("transport has been shut down");
+    }
+    if (asyncExecutor == null) {
+      asyncExecutor = createAsyncExecutor();
+    }
+    return asyncExecutor;
+  }
+
+  /**
+   * Admits a new asynchronous request, which must call {@link #releaseAsyncPermit()} once it
+   * completes. An admitted request has at most one task queued on the executor at a time, so its
+   * retries are never rejected for lack of capacity.
+   *
+   * @throws RejectedExecutionException if {@link #ASYNC_QUEUE_CAPACITY} asynchronous requests are
+   *         already in progress
+   */
+  final void acquireAsyncPermit() {
+    if (!asyncPermits.tryAcquire()) {
+      throw new RejectedExecutionException("too many asynchronous requests in progress");
+    }
+  }
+
+  /** Releases the permit of an asynchronous request admitted by {@link #acquireAsyncPermit()}. */
+  final void releaseAsyncPermit() {
+    asyncPermits.release();
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Creates the executor that runs asynchronous requests of this transport, which is shut down by
+   * {@link #shutdown()}.
+   *
+   * <p>
+   * Default implementation returns a pool of {@code max(4, 2 * availableProcessors)} daemon threads
+   * that exit when idle, with a queue of up to 1024 pending tasks. Independently of the executor,
+   * {@link HttpRequest#executeAsync()} admits at most 1024 requests in progress at once, and fails
+   * fast with a {@link RejectedExecutionException} beyond that rather than letting the backlog grow
+   * without bound. Retries of admitted requests are not subject to this limit. Subclasses may
+   * override, for example to limit the concurrency of a transport with a small connection pool.
+   * </p>
+   *
+   * @return new executor
+   * @since 1.27
+   */
+  @Beta
+  protected ExecutorService createAsyncExecutor() {
+    int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(ASYNC_QUEUE_CAPACITY), new AsyncThreadFactory(),
+        new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Shuts down the executor that runs asynchronous requests. Requests that are already queued still
+   * run, but no further asynchronous requests may be executed. Subclasses that override
+   * {@link #shutdown()} without calling {@code super.shutdown()} should call this method.
+   *
+   * @since 1.27
+   */
+  @Beta
+  protected final void shutdownAsyncExecutor() {
+    ExecutorService executor;
+    synchronized (this) {
+      asyncExecutorShutdown = true;
+      executor = asyncExecutor;
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Default implementation shuts down the executor of asynchronous requests, and subclasses may
+   * override to possibly release allocated system resources or close connections.
+   *
+   * <p>
+   * Upgrade warning: prior to version 1.27 the default implementation did nothing.
+   * </p>
    *
    * @throws IOException I/O exception
    * @since 1.4
    */
   public void shutdown() throws IOException {
+    shutdownAsyncExecutor();
+  }
+
+  /** Thread factory of the default executor of asynchronous requests. */
+  private static final class AsyncThreadFactory implements ThreadFactory {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final int poolNumber = POOL_NUMBER.incrementAndGet();
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    AsyncThreadFactory() {
+    }
+
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable,
+          "google-http-client-async-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
   }
 }
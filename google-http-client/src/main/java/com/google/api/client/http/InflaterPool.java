@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import java.util.LinkedList;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater}s that decode raw deflate data and of their input buffers, shared by the
+ * HTTP decodings so that an inflater and its native memory are not allocated for each response.
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class InflaterPool {
+
+  /** Size in bytes of the input buffers. */
+  static final int BUFFER_SIZE = 32 * 1024;
+
+  /** Maximum number of idle inflaters and of idle buffers that are kept. */
+  static final int MAX_IDLE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /** Idle inflaters, guarded by itself. */
+  private static final LinkedList<Inflater> IDLE = new LinkedList<Inflater>();
+
+  /** Idle input buffers, guarded by {@link #IDLE}. */
+  private static final LinkedList<byte[]> IDLE_BUFFERS = new LinkedList<byte[]>();
+
+  /** Returns an inflater, which must be {@link #release released} once no longer used. */
+  static Inflater acquire() {
+    Inflater inflater;
+    synchronized (IDLE) {
+      inflater = IDLE.poll();
+    }
+    return inflater == null ? new Inflater(true) : inflater;
+  }
+
+  /** Returns an inflater to the pool, or ends it if enough inflaters are idle. */
+  static void release(Inflater inflater) {
+    inflater.reset();
+    synchronized (IDLE) {
+      if (IDLE.size() < MAX_IDLE) {
+        IDLE.push(inflater);
+        return;
+      }
+    }
+    inflater.end();
+  }
+
+  /**
+   * Returns an input buffer of {@link #BUFFER_SIZE} bytes, which should be
+   * {@link #releaseBuffer released} once no longer used.
+   */
+  static byte[] acquireBuffer() {
+    byte[] buffer;
+    synchronized (IDLE) {
+      buffer = IDLE_BUFFERS.poll();
+    }
+    return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+  }
+
+  /** Returns an input buffer to the pool. */
+  static void releaseBuffer(byte[] buffer) {
+    synchronized (IDLE) {
+      if (IDLE_BUFFERS.size() < MAX_IDLE) {
+        IDLE_BUFFERS.push(buffer);
+      }
+    }
+  }
+
+  /** Returns the number of idle inflaters. */
+  static int getIdleCount() {
+    synchronized (IDLE) {
+      return IDLE.size();
+    }
+  }
+
+  private InflaterPool() {
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.api.client.http;
 
+import com.google.api.client.util.Beta;
 import com.google.api.client.util.StreamingContent;
 
 import java.io.IOException;
@@ -176,4 +177,21 @@ public abstract class LowLevelHttpRequest {
 
   /** Executes the request and returns a low-level HTTP response object. */
   public abstract LowLevelHttpResponse execute() throws IOException;
+
+  /**
+   * {@link Beta} <br/>
+   * Aborts the execution of the request from another thread, for example because a hedged
+   * duplicate of the request has already received a response, so that {@link #execute()} fails
+   * with an {@link IOException} instead of blocking until the response arrives.
+   *
+   * <p>
+   * Default implementation does nothing, so that the execution completes normally, but subclasses
+   * should normally override.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public void abort() {
+  }
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.StreamingContent;
+import com.google.api.client.util.Throwables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * {@link Beta} <br/>
+ * GZip HTTP content encoding that compresses large content on several threads.
+ *
+ * <p>
+ * The content is split into blocks that are compressed in parallel on the given executor into
+ * independent gzip members, which are written in order. The concatenated members are valid gzip
+ * content, which is decoded like the output of {@link GZipEncoding}, but slightly larger since each
+ * block is compressed without the preceding data. Content that fits in a single block is
+ * compressed on the calling thread. At most a bounded number of blocks is compressed or waiting to
+ * be written at any time, so memory use does not grow with the content length.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public class ParallelGZipEncoding implements HttpEncoding {
+
+  /** Default block size in bytes. */
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  /** Default maximum number of blocks that are compressed or waiting to be written. */
+  public static final int DEFAULT_MAX_PENDING_BLOCKS =
+      2 * Runtime.getRuntime().availableProcessors();
+
+  private final Executor executor;
+
+  private final int level;
+
+  private final int strategy;
+
+  private final int blockSize;
+
+  private final int maxPendingBlocks;
+
+  /**
+   * Constructor with the default compression level, strategy, block size and maximum number of
+   * pending blocks.
+   *
+   * @param executor executor on which blocks are compressed
+   */
+  public ParallelGZipEncoding(Executor executor) {
+    this(executor, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, DEFAULT_BLOCK_SIZE,
+        DEFAULT_MAX_PENDING_BLOCKS);
+  }
+
+  /**
+   * @param executor executor on which blocks are compressed
+   * @param level compression level from {@code 0} to {@code 9} or
+   *        {@link Deflater#DEFAULT_COMPRESSION}
+   * @param strategy compression strategy, such as {@link Deflater#DEFAULT_STRATEGY},
+   *        {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}
+   * @param blockSize size in bytes of the blocks that are compressed independently
+   * @param maxPendingBlocks maximum number of blocks that are compressed or waiting to be written
+   */
+  public ParallelGZipEncoding(Executor executor, int level, int strategy, int blockSize,
+      int maxPendingBlocks) {
+    Preconditions.checkArgument(
+        level == Deflater.DEFAULT_COMPRESSION || level >= 0 && level <= 9);
+    Preconditions.checkArgument(strategy == Deflater.DEFAULT_STRATEGY
+        || strategy == Deflater.FILTERED || strategy == Deflater.HUFFMAN_ONLY);
+    Preconditions.checkArgument(blockSize > 0);
+    Preconditions.checkArgument(maxPendingBlocks > 0);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.level = level;
+    this.strategy = strategy;
+    this.blockSize = blockSize;
+    this.maxPendingBlocks = maxPendingBlocks;
+  }
+
+  /** Returns the executor on which blocks are compressed. */
+  public final Executor getExecutor() {
+    return executor;
+  }
+
+  /** Returns the compression level. */
+  public final int getLevel() {
+    return level;
+  }
+
+  /** Returns the compression strategy. */
+  public final int getStrategy() {
+    return strategy;
+  }
+
+  /** Returns the size in bytes of the blocks that are compressed independently. */
+  public final int getBlockSize() {
+    return blockSize;
+  }
+
+  /** Returns the maximum number of blocks that are compressed or waiting to be written. */
+  public final int getMaxPendingBlocks() {
+    return maxPendingBlocks;
+  }
+
+  public String getName() {
+    return "gzip";
+  }
+
+  public void encode(StreamingContent content, OutputStream out) throws IOException {
+    BlockOutputStream blocks = new BlockOutputStream(out);
+    try {
+      content.writeTo(blocks);
+      blocks.finish();
+    } finally {
+      blocks.cancel();
+    }
+    out.flush();
+  }
+
+  /**
+   * Compresses the given data into a single gzip member.
+   *
+   * @param data data
+   * @param length number of bytes of the data to compress
+   * @return gzip member
+   */
+  byte[] compress(byte[] data, int length) {
+    Deflater deflater = DeflaterPool.acquire(level, strategy);
+    try {
+      ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+      member.write(GZipEncoding.HEADER, 0, GZipEncoding.HEADER.length);
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        member.write(buffer, 0, n);
+      }
+      // trailer: CRC-32 and uncompressed size modulo 2^32, in little-endian order
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, length);
+      byte[] trailer = new byte[8];
+      GZipEncoding.writeIntLittleEndian(trailer, 0, crc.getValue());
+      GZipEncoding.writeIntLittleEndian(trailer, 4, length);
+      member.write(trailer, 0, trailer.length);
+      return member.toByteArray();
+    } finally {
+      DeflaterPool.release(deflater);
+    }
+  }
+
+  /** Block of content that is compressed into a gzip member. */
+  private final class Block extends FutureTask<byte[]> {
+
+    final byte[] data;
+
+    Block(final byte[] data, final int length) {
+      super(new Callable<byte[]>() {
+        public byte[] call() {
+          return compress(data, length);
+        }
+      });
+      this.data = data;
+    }
+  }
+
+  /**
+   * Output stream that splits the content into blocks, compresses them on the executor, and writes
+   * the compressed blocks in order.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   */
+  private final class BlockOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    /** Blocks that are compressed or waiting to be written, in content order. */
+    private final LinkedList<Block> pending = new LinkedList<Block>();
+
+    /** Data buffers of written blocks that may be reused. */
+    private final LinkedList<byte[]> free = new LinkedList<byte[]>();
+
+    private byte[] buffer;
+
+    private int count;
+
+    /** Whether any block has been submitted. */
+    private boolean submitted;
+
+    BlockOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (buffer == null) {
+          buffer = free.isEmpty() ? new byte[blockSize] : free.poll();
+        }
+        int n = Math.min(len, blockSize - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+        if (count == blockSize) {
+          submit();
+        }
+      }
+    }
+
+    /** Compresses the current block on the executor. */
+    private void submit() throws IOException {
+      if (pending.size() == maxPendingBlocks) {
+        writeFirst();
+      }
+      Block block = new Block(buffer, count);
+      buffer = null;
+      count = 0;
+      pending.add(block);
+      submitted = true;
+      try {
+        executor.execute(block);
+      } catch (RejectedExecutionException e) {
+        block.run();
+      }
+    }
+
+    /** Waits for the first pending block to be compressed and writes it. */
+    private void writeFirst() throws IOException {
+      Block block = pending.poll();
+      byte[] member;
+      try {
+        member = block.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted = new InterruptedIOException("Compression interrupted");
+        interrupted.initCause(e);
+        throw interrupted;
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException(e.getCause());
+      }
+      out.write(member);
+      free.add(block.data);
+    }
+
+    /** Compresses the remaining content and writes all pending blocks. */
+    void finish() throws IOException {
+      if (!submitted) {
+        // the content fits in a single block, or is empty
+        out.write(compress(buffer == null ? new byte[0] : buffer, count));
+        buffer = null;
+        return;
+      }
+      if (count > 0) {
+        submit();
+      }
+      while (!pending.isEmpty()) {
+        writeFirst();
+      }
+    }
+
+    /** Cancels the pending blocks, which have not been written because of a failure. */
+    void cancel() {
+      for (Block block : pending) {
+        block.cancel(false);
+      }
+      pending.clear();
+    }
+
+    /** The underlying output stream is not closed, as required by {@link HttpEncoding}. */
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+
+    /** Only flushes blocks that have already been written. */
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+  }
+}
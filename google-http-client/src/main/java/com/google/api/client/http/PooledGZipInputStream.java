@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream that decodes gzip content, like {@link java.util.zip.GZIPInputStream}, with an
+ * {@link Inflater} and a large input buffer from the {@link InflaterPool}.
+ *
+ * <p>
+ * The inflater and buffer are returned to the pool as soon as the stream is closed, even by
+ * another thread while a read is in progress, instead of when the stream is finalized. Concatenated
+ * gzip members are decoded, and any data after the last member is ignored.
+ * </p>
+ *
+ * <p>
+ * Implementation is not thread-safe, except for {@link #close()}.
+ * </p>
+ */
+final class PooledGZipInputStream extends InputStream {
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private final InputStream in;
+
+  private final CRC32 crc = new CRC32();
+
+  /** Inflater or {@code null} once released. */
+  private Inflater inflater;
+
+  /** Input buffer or {@code null} once released. */
+  private byte[] buffer;
+
+  /** Position of the next unread byte in {@link #buffer}. */
+  private int position;
+
+  /** Number of valid bytes in {@link #buffer}. */
+  private int limit;
+
+  /** Whether the end of the last member has been reached. */
+  private boolean eof;
+
+  // fields below are guarded by this
+
+  private boolean reading;
+
+  private boolean closed;
+
+  /**
+   * Reads the header of the first member.
+   *
+   * @param in gzip content
+   * @throws EOFException if the content is empty
+   */
+  PooledGZipInputStream(InputStream in) throws IOException {
+    this.in = in;
+    inflater = InflaterPool.acquire();
+    buffer = InflaterPool.acquireBuffer();
+    boolean initialized = false;
+    try {
+      readHeader(readUnsignedByte());
+      initialized = true;
+    } finally {
+      if (!initialized) {
+        release();
+      }
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int n = read(b, 0, 1);
+    return n == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      reading = true;
+    }
+    try {
+      return inflate(b, off, len);
+    } finally {
+      synchronized (this) {
+        reading = false;
+        if (closed) {
+          // closed by another thread during the read
+          release();
+        }
+      }
+    }
+  }
+
+  @Override
+  public int available() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+    }
+    return eof ? 0 : 1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    boolean release;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      release = !reading;
+    }
+    try {
+      in.close();
+    } finally {
+      if (release) {
+        synchronized (this) {
+          release();
+        }
+      }
+    }
+  }
+
+  private int inflate(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (!eof) {
+      int n;
+      try {
+        n = inflater.inflate(b, off, len);
+      } catch (DataFormatException e) {
+        String message = e.getMessage();
+        throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+      }
+      if (n > 0) {
+        crc.update(b, off, n);
+        return n;
+      }
+      if (inflater.finished()) {
+        // return the bytes that the inflater did not consume
+        position = limit - inflater.getRemaining();
+        readTrailer();
+        int next = readUnsignedByte();
+        if (next != 0x1f) {
+          // end of the content, or data after the last member that is ignored
+          eof = true;
+        } else {
+          // concatenated member
+          inflater.reset();
+          crc.reset();
+          readHeader(next);
+        }
+      } else if (inflater.needsDictionary()) {
+        throw new ZipException("Unexpected preset dictionary");
+      } else if (inflater.needsInput()) {
+        if (position == limit && !fill()) {
+          throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        inflater.setInput(buffer, position, limit - position);
+        position = limit;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads a member header.
+   *
+   * @param first first byte of the header or {@code -1} at the end of the content
+   */
+  private void readHeader(int first) throws IOException {
+    if (first != 0x1f || readUnsignedByte() != 0x8b) {
+      if (first == -1) {
+        throw new EOFException();
+      }
+      throw new ZipException("Not in GZIP format");
+    }
+    if (readUnsignedByte() != 8) {
+      throw new ZipException("Unsupported compression method");
+    }
+    int flags = readUnsignedByte();
+    // modification time, extra flags and operating system
+    skip(6);
+    if ((flags & FEXTRA) != 0) {
+      skip(readUnsignedByte() | readUnsignedByte() << 8);
+    }
+    if ((flags & FNAME) != 0) {
+      skipString();
+    }
+    if ((flags & FCOMMENT) != 0) {
+      skipString();
+    }
+    if ((flags & FHCRC) != 0) {
+      skip(2);
+    }
+  }
+
+  /** Reads and checks a member trailer: CRC-32 and uncompressed size modulo 2^32. */
+  private void readTrailer() throws IOException {
+    long expectedCrc = readIntLittleEndian();
+    long expectedSize = readIntLittleEndian();
+    if (expectedCrc != crc.getValue()
+        || expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+      throw new ZipException("Corrupt GZIP trailer");
+    }
+  }
+
+  private long readIntLittleEndian() throws IOException {
+    long value = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = readUnsignedByte();
+      if (b == -1) {
+        throw new EOFException();
+      }
+      value |= (long) b << (8 * i);
+    }
+    return value;
+  }
+
+  private void skipString() throws IOException {
+    int b;
+    do {
+      b = readUnsignedByte();
+      if (b == -1) {
+        throw new EOFException();
+      }
+    } while (b != 0);
+  }
+
+  private void skip(int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      if (readUnsignedByte() == -1) {
+        throw new EOFException();
+      }
+    }
+  }
+
+  /** Reads a byte of the content outside of the deflate data, or returns {@code -1} at the end. */
+  private int readUnsignedByte() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  /** Fills the empty buffer and returns {@code false} at the end of the content. */
+  private boolean fill() throws IOException {
+    int n;
+    do {
+      n = in.read(buffer, 0, buffer.length);
+    } while (n == 0);
+    if (n == -1) {
+      return false;
+    }
+    position = 0;
+    limit = n;
+    return true;
+  }
+
+  /** Returns the inflater and buffer to the pool. */
+  private void release() {
+    if (inflater != null) {
+      InflaterPool.release(inflater);
+      InflaterPool.releaseBuffer(buffer);
+      inflater = null;
+      buffer = null;
+    }
+  }
+}
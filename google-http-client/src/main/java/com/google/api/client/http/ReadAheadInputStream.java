@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Input stream that reads its underlying stream ahead on another thread into a bounded ring of
+ * buffers, so that reading from the network overlaps with the work of the consumer, for example
+ * decoding the content.
+ *
+ * <p>
+ * Reading starts once {@link #start(Executor)} is called. If the executor rejects the task or runs
+ * it on the thread that started the stream, the underlying stream is read directly instead.
+ * </p>
+ *
+ * <p>
+ * Implementation is not thread-safe, except for {@link #close()}.
+ * </p>
+ */
+final class ReadAheadInputStream extends InputStream implements Runnable {
+
+  /** Size of each buffer. */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Number of buffers of the ring. */
+  static final int BUFFER_COUNT = 4;
+
+  private final InputStream in;
+
+  private final byte[][] buffers;
+
+  private final int[] lengths;
+
+  /** Thread that started the stream. */
+  private Thread consumer;
+
+  // fields below are guarded by this
+
+  /** Index of the first filled buffer. */
+  private int head;
+
+  /** Number of filled buffers. */
+  private int count;
+
+  /** Position of the next unread byte in the first filled buffer. */
+  private int position;
+
+  /** Whether the underlying stream is read directly by the consumer. */
+  private boolean direct;
+
+  /** Whether the end of the underlying stream has been reached. */
+  private boolean eof;
+
+  private IOException failure;
+
+  private boolean closed;
+
+  /**
+   * @param in underlying input stream
+   */
+  ReadAheadInputStream(InputStream in) {
+    this(in, BUFFER_SIZE, BUFFER_COUNT);
+  }
+
+  /**
+   * @param in underlying input stream
+   * @param bufferSize size of each buffer
+   * @param bufferCount number of buffers of the ring
+   */
+  ReadAheadInputStream(InputStream in, int bufferSize, int bufferCount) {
+    this.in = in;
+    buffers = new byte[bufferCount][bufferSize];
+    lengths = new int[bufferCount];
+  }
+
+  /**
+   * Starts reading ahead on the given executor.
+   *
+   * @param executor executor that should run the task on another thread, and should not queue it
+   *        behind tasks that wait for this stream
+   */
+  void start(Executor executor) {
+    consumer = Thread.currentThread();
+    try {
+      executor.execute(this);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        direct = true;
+      }
+    }
+  }
+
+  public void run() {
+    synchronized (this) {
+      if (Thread.currentThread() == consumer) {
+        // reading ahead on the consumer thread would deadlock once the ring is full
+        direct = true;
+        return;
+      }
+      if (direct || closed) {
+        return;
+      }
+    }
+    try {
+      while (true) {
+        int index;
+        synchronized (this) {
+          while (count == buffers.length && !closed) {
+            wait();
+          }
+          if (closed) {
+            return;
+          }
+          index = (head + count) % buffers.length;
+        }
+        // the buffer is not filled, so the consumer does not access it
+        int n = in.read(buffers[index], 0, buffers[index].length);
+        synchronized (this) {
+          if (n == -1) {
+            eof = true;
+            notifyAll();
+            return;
+          }
+          if (n > 0) {
+            lengths[index] = n;
+            count++;
+            notifyAll();
+          }
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    } catch (RuntimeException e) {
+      fail(new IOException(e));
+    } catch (InterruptedException e) {
+      InterruptedIOException interrupted = new InterruptedIOException("Read ahead interrupted");
+      interrupted.initCause(e);
+      fail(interrupted);
+    }
+  }
+
+  private synchronized void fail(IOException cause) {
+    failure = cause;
+    notifyAll();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int n = read(b, 0, 1);
+    return n == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (len == 0) {
+        return 0;
+      }
+      while (!direct && count == 0) {
+        if (failure != null) {
+          throw failure;
+        }
+        if (eof) {
+          return -1;
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          InterruptedIOException interrupted = new InterruptedIOException("Read interrupted");
+          interrupted.initCause(e);
+          throw interrupted;
+        }
+      }
+      if (!direct) {
+        int n = Math.min(len, lengths[head] - position);
+        System.arraycopy(buffers[head], position, b, off, n);
+        position += n;
+        if (position == lengths[head]) {
+          position = 0;
+          head = (head + 1) % buffers.length;
+          count--;
+          notifyAll();
+        }
+        return n;
+      }
+    }
+    return in.read(b, off, len);
+  }
+
+  @Override
+  public int available() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (!direct) {
+        return count == 0 ? 0 : lengths[head] - position;
+      }
+    }
+    return in.available();
+  }
+
+  /**
+   * Closes the underlying stream, which also stops reading ahead. May be called by any thread.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    in.close();
+  }
+}
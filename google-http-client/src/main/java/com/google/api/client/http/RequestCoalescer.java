@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.SettableFuture;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link Beta} <br/>
+ * Coalesces concurrent identical {@code GET} requests into a single network call, also known as
+ * single-flight.
+ *
+ * <p>
+ * Requests are identical if they have the same URL and the same values of the
+ * {@link #getKeyHeaderNames() key headers}, after the
+ * {@link HttpRequest#getInterceptor() interceptor} has run. While a request is in flight, identical
+ * requests wait for its response instead of sending their own. The response content is buffered in
+ * memory and each request gets its own {@link HttpResponse} of it, so it is still subject to its
+ * own response handlers, parser and retries. Requests with content are never coalesced.
+ * </p>
+ *
+ * <p>
+ * The content is only buffered if requests are waiting for it once the response arrives, so a
+ * request that is not coalesced streams its content as usual. A response whose
+ * {@code Content-Length} is greater than {@link #getMaxContentLength() maxContentLength} is not
+ * shared either, and the waiting requests then send their own.
+ * </p>
+ *
+ * <p>
+ * Headers that are not key headers are only taken from the request that is sent, so the key
+ * headers must include every header that changes the response. By default they are
+ * {@code Accept}, {@code Accept-Encoding}, {@code Authorization}, {@code Cookie} and
+ * {@code Range}.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class RequestCoalescer {
+
+  /** Default names of the key headers. */
+  public static final Set<String> DEFAULT_KEY_HEADER_NAMES = Collections.unmodifiableSet(
+      new TreeSet<String>(Arrays.asList("accept", "accept-encoding", "authorization", "cookie",
+          "range")));
+
+  /** Default maximum {@code Content-Length} of a response that is shared. */
+  public static final long DEFAULT_MAX_CONTENT_LENGTH = 1024 * 1024;
+
+  /** Lower-case names of the key headers. */
+  private final Set<String> keyHeaderNames;
+
+  /** Maximum {@code Content-Length} of a response that is shared. */
+  private final long maxContentLength;
+
+  /** In-flight calls by key, guarded by itself. */
+  private final Map<String, Call> calls = new HashMap<String, Call>();
+
+  /**
+   * Constructor with the {@link #DEFAULT_KEY_HEADER_NAMES default key headers} and the
+   * {@link #DEFAULT_MAX_CONTENT_LENGTH default maximum content length}.
+   */
+  public RequestCoalescer() {
+    this(DEFAULT_KEY_HEADER_NAMES);
+  }
+
+  /**
+   * Constructor with the {@link #DEFAULT_MAX_CONTENT_LENGTH default maximum content length}.
+   *
+   * @param keyHeaderNames names of the headers (may be any case) that must have the same values
+   *        for requests to be coalesced
+   */
+  public RequestCoalescer(Collection<String> keyHeaderNames) {
+    this(keyHeaderNames, DEFAULT_MAX_CONTENT_LENGTH);
+  }
+
+  /**
+   * @param keyHeaderNames names of the headers (may be any case) that must have the same values
+   *        for requests to be coalesced
+   * @param maxContentLength maximum {@code Content-Length} of a response that is shared
+   */
+  public RequestCoalescer(Collection<String> keyHeaderNames, long maxContentLength) {
+    Preconditions.checkArgument(maxContentLength >= 0);
+    Set<String> names = new TreeSet<String>();
+    for (String name : keyHeaderNames) {
+      names.add(name.toLowerCase(Locale.US));
+    }
+    this.keyHeaderNames = Collections.unmodifiableSet(names);
+    this.maxContentLength = maxContentLength;
+  }
+
+  /** Returns the unmodifiable set of the lower-case names of the key headers. */
+  public Set<String> getKeyHeaderNames() {
+    return keyHeaderNames;
+  }
+
+  /**
+   * Returns the maximum {@code Content-Length} of a response that is shared. Content of an
+   * unknown length is always shared.
+   */
+  public long getMaxContentLength() {
+    return maxContentLength;
+  }
+
+  /** Returns the number of network calls in flight. */
+  public int getInFlightCount() {
+    synchronized (calls) {
+      return calls.size();
+    }
+  }
+
+  /**
+   * Returns the key of a request.
+   *
+   * @param urlString URL of the request
+   * @param headers headers of the request
+   */
+  String getKey(String urlString, HttpHeaders headers) {
+    StringBuilder key = new StringBuilder(urlString);
+    for (String name : keyHeaderNames) {
+      for (String value : headers.getHeaderStringValues(name)) {
+        key.append('\n').append(name).append(": ").append(value);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Executes the given exchange unless an identical request is in flight, and returns a copy of the
+   * buffered response of the network call, or the response of the given exchange if the response
+   * of the network call is not shared.
+   *
+   * @param key key of the request
+   * @param exchange network call, which is invoked if no identical request is in flight or if the
+   *        response of the identical request is not shared
+   * @return low-level HTTP response
+   * @throws IOException I/O exception of the network call
+   */
+  LowLevelHttpResponse execute(String key, Callable<LowLevelHttpResponse> exchange)
+      throws IOException {
+    Call call;
+    boolean leader = false;
+    synchronized (calls) {
+      call = calls.get(key);
+      if (call == null) {
+        call = new Call();
+        calls.put(key, call);
+        leader = true;
+      } else {
+        call.followers++;
+      }
+    }
+    if (leader) {
+      LowLevelHttpResponse response;
+      try {
+        response = exchange.call();
+      } catch (Throwable e) {
+        synchronized (calls) {
+          calls.remove(key);
+        }
+        call.setException(e);
+        return get(call);
+      }
+      boolean shared;
+      synchronized (calls) {
+        calls.remove(key);
+        shared = call.followers > 0 && response.getContentLength() <= maxContentLength;
+      }
+      if (!shared) {
+        // nothing is buffered, and any followers send their own requests
+        call.set(null);
+        return response;
+      }
+      try {
+        call.set(new BufferedLowLevelHttpResponse(response));
+      } catch (Throwable e) {
+        call.setException(e);
+      }
+    }
+    BufferedLowLevelHttpResponse response = get(call);
+    if (response == null) {
+      return call(exchange);
+    }
+    return response.copy();
+  }
+
+  /** Returns the buffered response of the given call or {@code null} if it is not shared. */
+  private static BufferedLowLevelHttpResponse get(Call call) throws IOException {
+    try {
+      return call.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException("Request interrupted");
+      interrupted.initCause(e);
+      throw interrupted;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /** Invokes the given exchange. */
+  private static LowLevelHttpResponse call(Callable<LowLevelHttpResponse> exchange)
+      throws IOException {
+    try {
+      return exchange.call();
+    } catch (IOException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /** Network call in flight. */
+  private static final class Call extends SettableFuture<BufferedLowLevelHttpResponse> {
+
+    /** Number of requests waiting for the response, guarded by {@link #calls}. */
+    int followers;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link Beta} <br/>
+ * Per-host budget of retries, which limits the extra load that retries add to a host that is
+ * failing.
+ *
+ * <p>
+ * Each host has a token bucket that starts full. A retry consumes one token, and each successful
+ * response returns {@link #getRetryRatio() retryRatio} tokens, up to
+ * {@link #getMaxTokens() maxTokens}. Once the bucket is empty, requests to the host are no longer
+ * retried, whatever their {@link HttpRequest#getNumberOfRetries() number of retries}, so in the
+ * steady state retries add at most {@code retryRatio} times the successful traffic. Redirects do
+ * not count as retries.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class RetryBudget {
+
+  /** Default number of tokens returned by a successful response (10% extra load). */
+  public static final double DEFAULT_RETRY_RATIO = 0.1;
+
+  /** Default capacity of the token bucket of a host. */
+  public static final int DEFAULT_MAX_TOKENS = 10;
+
+  /** Maximum number of hosts whose bucket is kept, the least recently used are dropped. */
+  private static final int MAX_HOSTS = 1024;
+
+  private final double retryRatio;
+
+  private final int maxTokens;
+
+  /** Available tokens by host, guarded by this. */
+  private final Map<String, double[]> tokens =
+      new LinkedHashMap<String, double[]>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+          return size() > MAX_HOSTS;
+        }
+      };
+
+  /** Constructor with the default retry ratio and capacity. */
+  public RetryBudget() {
+    this(DEFAULT_RETRY_RATIO, DEFAULT_MAX_TOKENS);
+  }
+
+  /**
+   * @param retryRatio number of tokens returned by a successful response, which is the maximum
+   *        ratio of retries to successful requests in the steady state
+   * @param maxTokens capacity of the token bucket of a host, which is the number of retries allowed
+   *        in a burst
+   */
+  public RetryBudget(double retryRatio, int maxTokens) {
+    Preconditions.checkArgument(retryRatio >= 0);
+    Preconditions.checkArgument(maxTokens >= 0);
+    this.retryRatio = retryRatio;
+    this.maxTokens = maxTokens;
+  }
+
+  /** Returns the number of tokens returned by a successful response. */
+  public double getRetryRatio() {
+    return retryRatio;
+  }
+
+  /** Returns the capacity of the token bucket of a host. */
+  public int getMaxTokens() {
+    return maxTokens;
+  }
+
+  /**
+   * Returns whether the budget of the given host allows a retry, without consuming a token.
+   *
+   * @param host host
+   */
+  public synchronized boolean isRetryAllowed(String host) {
+    return getBucket(host)[0] >= 1;
+  }
+
+  /**
+   * Consumes a token of the given host for a retry.
+   *
+   * @param host host
+   * @return whether a token was available, otherwise the request must not be retried
+   */
+  public synchronized boolean tryAcquireRetry(String host) {
+    double[] bucket = getBucket(host);
+    if (bucket[0] < 1) {
+      return false;
+    }
+    bucket[0]--;
+    return true;
+  }
+
+  /**
+   * Returns tokens to the budget of the given host after a successful response.
+   *
+   * @param host host
+   */
+  public synchronized void onSuccess(String host) {
+    double[] bucket = getBucket(host);
+    bucket[0] = Math.min(maxTokens, bucket[0] + retryRatio);
+  }
+
+  /**
+   * Returns the number of available tokens of the given host.
+   *
+   * @param host host
+   */
+  public synchronized double getAvailableTokens(String host) {
+    return getBucket(host)[0];
+  }
+
+  /** Returns the bucket of the given host, which is created full. Must hold the lock. */
+  private double[] getBucket(String host) {
+    String key = String.valueOf(host);
+    double[] bucket = tokens.get(key);
+    if (bucket == null) {
+      bucket = new double[] {maxTokens};
+      tokens.put(key, bucket);
+    }
+    return bucket;
+  }
+}
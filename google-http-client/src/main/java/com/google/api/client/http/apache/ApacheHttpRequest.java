@@ -64,4 +64,9 @@ final class ApacheHttpRequest extends LowLevelHttpRequest {
     }
     return new ApacheHttpResponse(request, httpClient.execute(request));
   }
+
+  @Override
+  public void abort() {
+    request.abort();
+  }
 }
@@ -18,6 +18,7 @@ import com.google.api.client.http.HttpMethods;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.util.Beta;
+import com.google.api.client.util.HashedWheelTimer;
 import com.google.api.client.util.Preconditions;
 import com.google.api.client.util.SecurityUtils;
 import com.google.api.client.util.SslUtils;
@@ -27,6 +28,8 @@ import java.net.ProxySelector;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.cert.CertificateFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLContext;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpVersion;
@@ -42,8 +45,10 @@ import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRoute;
 import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.params.ConnRouteParams;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -84,6 +89,12 @@ public final class ApacheHttpTransport extends HttpTransport {
   /** Apache HTTP client. */
   private final HttpClient httpClient;
 
+  /**
+   * Timer that periodically closes idle and expired connections or {@code null} if connections
+   * are not evicted.
+   */
+  private final HashedWheelTimer evictionTimer;
+
   /**
    * Constructor that uses {@link #newDefaultHttpClient()} for the Apache HTTP client.
    *
@@ -122,6 +133,15 @@ public final class ApacheHttpTransport extends HttpTransport {
    * @since 1.6
    */
   public ApacheHttpTransport(HttpClient httpClient) {
+    this(httpClient, 0);
+  }
+
+  /**
+   * @param httpClient Apache HTTP client to use
+   * @param idleConnectionTimeoutMillis time in milliseconds after which idle connections are
+   *        closed by a background timer or {@code 0} to not evict connections
+   */
+  ApacheHttpTransport(HttpClient httpClient, long idleConnectionTimeoutMillis) {
     this.httpClient = httpClient;
     HttpParams params = httpClient.getParams();
     if (params == null) {
@@ -129,6 +149,14 @@ public final class ApacheHttpTransport extends HttpTransport {
     }
     HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
     params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
+    if (idleConnectionTimeoutMillis > 0) {
+      evictionTimer = new HashedWheelTimer(
+          "google-http-client-apache-evictor-" + System.identityHashCode(this), 1,
+          TimeUnit.SECONDS, 64);
+      new IdleConnectionEvictor(idleConnectionTimeoutMillis).schedule();
+    } else {
+      evictionTimer = null;
+    }
   }
 
   /**
@@ -139,7 +167,8 @@ public final class ApacheHttpTransport extends HttpTransport {
    * Use this constructor if you want to customize the default Apache HTTP client. Settings:
    * </p>
    * <ul>
-   * <li>The client connection manager is set to {@link ThreadSafeClientConnManager}.</li>
+   * <li>The client connection manager is set to a {@link ThreadSafeClientConnManager} whose pool
+   * can be inspected with {@link #getConnectionPoolStats()}.</li>
    * <li>The socket buffer size is set to 8192 using
    * {@link HttpConnectionParams#setSocketBufferSize}.</li>
    * <li><The retry mechanism is turned off by setting
@@ -186,7 +215,8 @@ public final class ApacheHttpTransport extends HttpTransport {
     SchemeRegistry registry = new SchemeRegistry();
     registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
     registry.register(new Scheme("https", socketFactory, 443));
-    ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, registry);
+    ClientConnectionManager connectionManager =
+        new InstrumentedClientConnManager(params, registry);
     DefaultHttpClient defaultHttpClient = new DefaultHttpClient(connectionManager, params);
     defaultHttpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
     if (proxySelector != null) {
@@ -231,7 +261,11 @@ public final class ApacheHttpTransport extends HttpTransport {
    */
   @Override
   public void shutdown() {
+    if (evictionTimer != null) {
+      evictionTimer.stop();
+    }
     httpClient.getConnectionManager().shutdown();
+    shutdownAsyncExecutor();
   }
 
   /**
@@ -243,6 +277,78 @@ public final class ApacheHttpTransport extends HttpTransport {
     return httpClient;
   }
 
+  /**
+   * {@link Beta} <br/>
+   * Returns a snapshot of the connections of each route of the connection pool, for example to
+   * find out whether requests are waiting for a connection.
+   *
+   * <p>
+   * Routes appear once a connection has been requested for them, and disappear when the pool is
+   * {@link #shutdown() shut down}.
+   * </p>
+   *
+   * @return unmodifiable map from route to its snapshot, or {@code null} if the connection manager
+   *         of the {@link #getHttpClient() HTTP client} was not created by
+   *         {@link #newDefaultHttpClient()} or {@link Builder}
+   * @since 1.27
+   */
+  @Beta
+  public Map<HttpRoute, ConnectionPoolStats> getConnectionPoolStats() {
+    ClientConnectionManager connectionManager = httpClient.getConnectionManager();
+    if (!(connectionManager instanceof InstrumentedClientConnManager)) {
+      return null;
+    }
+    return ((InstrumentedClientConnManager) connectionManager).getStats();
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns a snapshot of the connections of the whole connection pool.
+   *
+   * @return snapshot whose maximum is the maximum total number of connections, or {@code null} if
+   *         the connection manager of the {@link #getHttpClient() HTTP client} was not created by
+   *         {@link #newDefaultHttpClient()} or {@link Builder}
+   * @since 1.27
+   */
+  @Beta
+  public ConnectionPoolStats getTotalConnectionPoolStats() {
+    ClientConnectionManager connectionManager = httpClient.getConnectionManager();
+    if (!(connectionManager instanceof InstrumentedClientConnManager)) {
+      return null;
+    }
+    return ((InstrumentedClientConnManager) connectionManager).getTotalStats();
+  }
+
+  /**
+   * Timer task that closes expired connections, whose keep-alive duration has passed, and
+   * connections idle for longer than the timeout, so that requests do not fail on connections
+   * closed by the server in the meantime.
+   */
+  private final class IdleConnectionEvictor implements Runnable {
+
+    private final long idleTimeoutMillis;
+
+    IdleConnectionEvictor(long idleTimeoutMillis) {
+      this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /** Schedules the next run, half an idle timeout from now. */
+    void schedule() {
+      try {
+        evictionTimer.newTimeout(this, Math.max(1, idleTimeoutMillis / 2), TimeUnit.MILLISECONDS);
+      } catch (IllegalStateException e) {
+        // the transport has been shut down
+      }
+    }
+
+    public void run() {
+      ClientConnectionManager connectionManager = httpClient.getConnectionManager();
+      connectionManager.closeExpiredConnections();
+      connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+      schedule();
+    }
+  }
+
   /**
    * Builder for {@link ApacheHttpTransport}.
    *
@@ -266,6 +372,9 @@ public final class ApacheHttpTransport extends HttpTransport {
      */
     private ProxySelector proxySelector = ProxySelector.getDefault();
 
+    /** Idle connection timeout in milliseconds or {@code 0} to not evict idle connections. */
+    private long idleConnectionTimeoutMillis;
+
     /**
      * Sets the HTTP proxy to use {@link DefaultHttpRoutePlanner} or {@code null} to use
      * {@link #setProxySelector(ProxySelector)} with {@link ProxySelector#getDefault()}.
@@ -404,9 +513,103 @@ public final class ApacheHttpTransport extends HttpTransport {
       return params;
     }
 
+    /**
+     * {@link Beta} <br/>
+     * Sets the maximum total number of connections of the pool ({@code 200} by default).
+     *
+     * @since 1.27
+     */
+    @Beta
+    public Builder setMaxTotalConnections(int maxTotalConnections) {
+      ConnManagerParams.setMaxTotalConnections(params, maxTotalConnections);
+      return this;
+    }
+
+    /**
+     * {@link Beta} <br/>
+     * Sets the maximum number of connections of the pool for each route without a
+     * {@link #setMaxConnectionsPerRoute(HttpRoute, int) specific maximum} ({@code 20} by default).
+     *
+     * @since 1.27
+     */
+    @Beta
+    public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+      getConnPerRoute().setDefaultMaxPerRoute(maxConnectionsPerRoute);
+      return this;
+    }
+
+    /**
+     * {@link Beta} <br/>
+     * Sets the maximum number of connections of the pool for the given route, for example a host
+     * that serves most of the requests. The route must be the one planned for the requests, which
+     * is secure for HTTPS and goes through the proxy if any.
+     *
+     * <p>
+     * For example:
+     * </p>
+     *
+     * <pre>
+       HttpHost host = new HttpHost("www.googleapis.com", 443, "https");
+       setMaxConnectionsPerRoute(new HttpRoute(host, null, true), 50)
+     * </pre>
+     *
+     * @since 1.27
+     */
+    @Beta
+    public Builder setMaxConnectionsPerRoute(HttpRoute route, int maxConnections) {
+      getConnPerRoute().setMaxForRoute(Preconditions.checkNotNull(route), maxConnections);
+      return this;
+    }
+
+    /** Returns the per-route limits of the HTTP parameters, replacing them if not modifiable. */
+    private ConnPerRouteBean getConnPerRoute() {
+      ConnPerRoute connPerRoute = ConnManagerParams.getMaxConnectionsPerRoute(params);
+      if (connPerRoute instanceof ConnPerRouteBean) {
+        return (ConnPerRouteBean) connPerRoute;
+      }
+      ConnPerRouteBean result = new ConnPerRouteBean();
+      ConnManagerParams.setMaxConnectionsPerRoute(params, result);
+      return result;
+    }
+
+    /**
+     * {@link Beta} <br/>
+     * Sets the time after which idle connections of the pool are closed, or {@code 0} to keep them
+     * open until the server closes them ({@code 0} by default).
+     *
+     * <p>
+     * If the timeout is positive, a background timer closes idle connections, and expired
+     * connections whose keep-alive duration has passed, every half timeout. Use a timeout shorter
+     * than the keep-alive timeout of the servers to avoid requests failing with
+     * {@link org.apache.http.NoHttpResponseException} on connections closed by the server. The
+     * timer is stopped by {@link ApacheHttpTransport#shutdown()}.
+     * </p>
+     *
+     * @since 1.27
+     */
+    @Beta
+    public Builder setIdleConnectionTimeout(long timeout, TimeUnit unit) {
+      Preconditions.checkArgument(timeout >= 0);
+      idleConnectionTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * {@link Beta} <br/>
+     * Returns the time in milliseconds after which idle connections of the pool are closed, or
+     * {@code 0} to keep them open.
+     *
+     * @since 1.27
+     */
+    @Beta
+    public long getIdleConnectionTimeoutMillis() {
+      return idleConnectionTimeoutMillis;
+    }
+
     /** Returns a new instance of {@link ApacheHttpTransport} based on the options. */
     public ApacheHttpTransport build() {
-      return new ApacheHttpTransport(newDefaultHttpClient(socketFactory, params, proxySelector));
+      return new ApacheHttpTransport(
+          newDefaultHttpClient(socketFactory, params, proxySelector), idleConnectionTimeoutMillis);
     }
   }
 }
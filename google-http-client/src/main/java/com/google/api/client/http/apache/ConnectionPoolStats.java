@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.apache;
+
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Objects;
+
+/**
+ * {@link Beta} <br/>
+ * Snapshot of the connections of a connection pool, or of a single route of the pool, returned by
+ * {@link ApacheHttpTransport#getConnectionPoolStats()}.
+ *
+ * <p>
+ * A pool whose available count stays at zero while its pending count grows is the bottleneck of
+ * the requests waiting on it; raising its maximum with
+ * {@link ApacheHttpTransport.Builder#setMaxConnectionsPerRoute} may help.
+ * </p>
+ *
+ * <p>
+ * Implementation is immutable and thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class ConnectionPoolStats {
+
+  private final int leased;
+
+  private final int available;
+
+  private final int pending;
+
+  private final int max;
+
+  /**
+   * @param leased number of connections currently used by a request
+   * @param available number of idle connections that can be reused
+   * @param pending number of requests waiting for a connection
+   * @param max maximum number of connections
+   */
+  public ConnectionPoolStats(int leased, int available, int pending, int max) {
+    this.leased = leased;
+    this.available = available;
+    this.pending = pending;
+    this.max = max;
+  }
+
+  /** Returns the number of connections currently used by a request. */
+  public int getLeased() {
+    return leased;
+  }
+
+  /** Returns the number of idle connections that can be reused. */
+  public int getAvailable() {
+    return available;
+  }
+
+  /** Returns the number of requests waiting for a connection. */
+  public int getPending() {
+    return pending;
+  }
+
+  /** Returns the maximum number of connections. */
+  public int getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("leased", leased)
+        .add("available", available)
+        .add("pending", pending)
+        .add("max", max)
+        .toString();
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.apache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.AbstractConnPool;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.RouteSpecificPool;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+
+/**
+ * {@link ThreadSafeClientConnManager} that can take a {@link ConnectionPoolStats snapshot} of its
+ * connection pool.
+ *
+ * <p>
+ * The pool limits are read from the {@link HttpParams} passed to the constructor, as for
+ * {@link ThreadSafeClientConnManager}.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class InstrumentedClientConnManager extends ThreadSafeClientConnManager {
+
+  /**
+   * @param params HTTP parameters
+   * @param registry scheme registry
+   */
+  InstrumentedClientConnManager(HttpParams params, SchemeRegistry registry) {
+    super(params, registry);
+  }
+
+  @Override
+  protected AbstractConnPool createConnectionPool(HttpParams params) {
+    // called from the super constructor, after connOperator has been initialized
+    return new InstrumentedConnPool(connOperator, params);
+  }
+
+  /** Returns a snapshot of the whole pool. */
+  ConnectionPoolStats getTotalStats() {
+    return ((InstrumentedConnPool) pool).getTotalStats();
+  }
+
+  /** Returns an unmodifiable snapshot of each route of the pool, in no particular order. */
+  Map<HttpRoute, ConnectionPoolStats> getStats() {
+    return ((InstrumentedConnPool) pool).getStats();
+  }
+
+  /** Connection pool that exposes the sizes of its queues. */
+  private static final class InstrumentedConnPool extends ConnPoolByRoute {
+
+    InstrumentedConnPool(ClientConnectionOperator operator, HttpParams params) {
+      super(operator, params);
+    }
+
+    @Override
+    protected RouteSpecificPool newRouteSpecificPool(HttpRoute route) {
+      return new InstrumentedRoutePool(route, connPerRoute);
+    }
+
+    ConnectionPoolStats getTotalStats() {
+      Lock lock = getLock();
+      lock.lock();
+      try {
+        int available = freeConnections.size();
+        return new ConnectionPoolStats(numConnections - available, available,
+            waitingThreads.size(), maxTotalConnections);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Map<HttpRoute, ConnectionPoolStats> getStats() {
+      Map<HttpRoute, ConnectionPoolStats> result =
+          new LinkedHashMap<HttpRoute, ConnectionPoolStats>();
+      Lock lock = getLock();
+      lock.lock();
+      try {
+        for (Map.Entry<HttpRoute, RouteSpecificPool> entry : routeToPool.entrySet()) {
+          InstrumentedRoutePool routePool = (InstrumentedRoutePool) entry.getValue();
+          int available = routePool.getAvailableCount();
+          result.put(entry.getKey(), new ConnectionPoolStats(
+              routePool.getEntryCount() - available, available, routePool.getPendingCount(),
+              connPerRoute.getMaxForRoute(entry.getKey())));
+        }
+      } finally {
+        lock.unlock();
+      }
+      return Collections.unmodifiableMap(result);
+    }
+  }
+
+  /** Route pool that exposes the sizes of its queues. Guarded by the lock of the pool. */
+  private static final class InstrumentedRoutePool extends RouteSpecificPool {
+
+    InstrumentedRoutePool(HttpRoute route, ConnPerRoute connPerRoute) {
+      super(route, connPerRoute);
+    }
+
+    int getAvailableCount() {
+      return freeEntries.size();
+    }
+
+    int getPendingCount() {
+      return waitingThreads.size();
+    }
+  }
+}
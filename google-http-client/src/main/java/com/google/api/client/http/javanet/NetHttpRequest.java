@@ -16,6 +16,7 @@ package com.google.api.client.http.javanet;
 
 import com.google.api.client.http.LowLevelHttpRequest;
 import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.HashedWheelTimer;
 import com.google.api.client.util.Preconditions;
 
 import com.google.api.client.util.StreamingContent;
@@ -23,12 +24,7 @@ import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.net.SocketTimeoutException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -37,18 +33,42 @@ import java.util.concurrent.TimeoutException;
  */
 final class NetHttpRequest extends LowLevelHttpRequest {
 
+  /** Timer used by requests that are not built by a transport. */
+  private static HashedWheelTimer defaultTimer;
+
   private final HttpURLConnection connection;
+  private final HashedWheelTimer timer;
+  private final int requestTimeout;
   private int writeTimeout;
 
   /**
    * @param connection HTTP URL connection
    */
   NetHttpRequest(HttpURLConnection connection) {
+    this(connection, getDefaultTimer(), 0);
+  }
+
+  /**
+   * @param connection HTTP URL connection
+   * @param timer timer that enforces the write and request timeouts
+   * @param requestTimeout timeout in milliseconds to connect, write the content and receive the
+   *        response headers or {@code 0} for an infinite timeout
+   */
+  NetHttpRequest(HttpURLConnection connection, HashedWheelTimer timer, int requestTimeout) {
     this.connection = connection;
+    this.timer = timer;
+    this.requestTimeout = requestTimeout;
     this.writeTimeout = 0;
     connection.setInstanceFollowRedirects(false);
   }
 
+  private static synchronized HashedWheelTimer getDefaultTimer() {
+    if (defaultTimer == null) {
+      defaultTimer = new HashedWheelTimer("google-http-client-net-timer");
+    }
+    return defaultTimer;
+  }
+
   @Override
   public void addHeader(String name, String value) {
     connection.addRequestProperty(name, value);
@@ -86,6 +106,35 @@ final class NetHttpRequest extends LowLevelHttpRequest {
 
   @VisibleForTesting
   LowLevelHttpResponse execute(final OutputWriter outputWriter) throws IOException {
+    if (requestTimeout == 0) {
+      return executeWithoutRequestTimeout(outputWriter);
+    }
+    Watchdog watchdog = new Watchdog(false);
+    HashedWheelTimer.Timeout timeout = newTimeout(watchdog, requestTimeout);
+    LowLevelHttpResponse response;
+    boolean expired;
+    try {
+      response = executeWithoutRequestTimeout(outputWriter);
+    } catch (IOException e) {
+      if (watchdog.finish()) {
+        SocketTimeoutException timeoutException = new SocketTimeoutException("Request timed out");
+        timeoutException.initCause(e);
+        throw timeoutException;
+      }
+      throw e;
+    } finally {
+      timeout.cancel();
+      expired = watchdog.finish();
+    }
+    if (expired) {
+      // the watchdog disconnected the connection just after the response was received
+      throw new SocketTimeoutException("Request timed out");
+    }
+    return response;
+  }
+
+  private LowLevelHttpResponse executeWithoutRequestTimeout(final OutputWriter outputWriter)
+      throws IOException {
     HttpURLConnection connection = this.connection;
     // write content
     if (getStreamingContent() != null) {
@@ -155,32 +204,95 @@ final class NetHttpRequest extends LowLevelHttpRequest {
     if (writeTimeout == 0) {
       outputWriter.write(out, getStreamingContent());
     } else {
-      // do it with timeout
-      final StreamingContent content = getStreamingContent();
-      final Callable<Boolean> writeContent = new Callable<Boolean>() {
-        @Override
-        public Boolean call() throws IOException {
-          outputWriter.write(out, content);
-          return Boolean.TRUE;
+      // write on the calling thread, and let the shared timer abort the write at the deadline
+      // instead of handing it off to a new thread
+      Watchdog watchdog = new Watchdog(true);
+      HashedWheelTimer.Timeout timeout = newTimeout(watchdog, writeTimeout);
+      try {
+        outputWriter.write(out, getStreamingContent());
+      } catch (IOException e) {
+        if (watchdog.finish()) {
+          throw new IOException("Socket write timed out", newTimeoutException(e));
         }
-      };
+        throw e;
+      } finally {
+        timeout.cancel();
+      }
+      if (watchdog.finish()) {
+        throw new IOException("Socket write timed out", newTimeoutException(null));
+      }
+    }
+  }
+
+  @Override
+  public void abort() {
+    connection.disconnect();
+  }
+
+  /**
+   * Schedules the given watchdog on the timer.
+   *
+   * @throws IOException if the timer has been stopped by {@link NetHttpTransport#shutdown()}
+   */
+  private HashedWheelTimer.Timeout newTimeout(Watchdog watchdog, int timeoutMillis)
+      throws IOException {
+    try {
+      return timer.newTimeout(watchdog, timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (IllegalStateException e) {
+      throw new IOException("transport has been shut down", e);
+    }
+  }
 
-      final ExecutorService executor = Executors.newSingleThreadExecutor();
-      final Future<Boolean> future = executor.submit(new FutureTask<Boolean>(writeContent), null);
-      executor.shutdown();
+  private static TimeoutException newTimeoutException(IOException cause) {
+    TimeoutException timeoutException = new TimeoutException();
+    if (cause != null) {
+      timeoutException.initCause(cause);
+    }
+    return timeoutException;
+  }
 
-      try {
-        future.get(writeTimeout, TimeUnit.MILLISECONDS);
-      } catch (InterruptedException e) {
-        throw new IOException("Socket write interrupted", e);
-      } catch (ExecutionException e) {
-        throw new IOException("Exception in socket write", e);
-      } catch (TimeoutException e) {
-        throw new IOException("Socket write timed out", e);
+  /**
+   * Timer task that aborts the request by disconnecting the connection and optionally interrupting
+   * the thread that executes the request, unless the request finished first.
+   */
+  private final class Watchdog implements Runnable {
+
+    private final Thread thread;
+
+    private boolean finished;
+
+    private boolean expired;
+
+    /**
+     * @param interrupt whether to interrupt the current thread, for example to abort content that
+     *        blocks without writing to the connection
+     */
+    Watchdog(boolean interrupt) {
+      thread = interrupt ? Thread.currentThread() : null;
+    }
+
+    public synchronized void run() {
+      if (!finished) {
+        expired = true;
+        connection.disconnect();
+        if (thread != null) {
+          thread.interrupt();
+        }
       }
-      if (!executor.isTerminated()) {
-        executor.shutdown();
+    }
+
+    /**
+     * Marks the request as finished, so that the watchdog no longer aborts it.
+     *
+     * @return whether the watchdog has already aborted the request
+     */
+    synchronized boolean finish() {
+      finished = true;
+      if (expired && thread != null) {
+        // clear the interrupt of the watchdog
+        Thread.interrupted();
       }
+      return expired;
     }
   }
 }
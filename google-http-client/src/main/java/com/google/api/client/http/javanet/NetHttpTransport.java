@@ -17,6 +17,7 @@ package com.google.api.client.http.javanet;
 import com.google.api.client.http.HttpMethods;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.util.Beta;
+import com.google.api.client.util.HashedWheelTimer;
 import com.google.api.client.util.Preconditions;
 import com.google.api.client.util.SecurityUtils;
 import com.google.api.client.util.SslUtils;
@@ -51,6 +52,12 @@ import javax.net.ssl.SSLSocketFactory;
  * </p>
  *
  * <p>
+ * Write timeouts and the {@link Builder#setRequestTimeout request timeout} are enforced by a
+ * timer thread shared by all requests of the transport, which is started when needed and stopped
+ * by {@link #shutdown()}.
+ * </p>
+ *
+ * <p>
  * Implementation is thread-safe. For maximum efficiency, applications should use a single
  * globally-shared instance of the HTTP transport.
  * </p>
@@ -92,6 +99,16 @@ public final class NetHttpTransport extends HttpTransport {
   /** Host name verifier or {@code null} for the default. */
   private final HostnameVerifier hostnameVerifier;
 
+  /**
+   * Timeout in milliseconds to connect, write the content and receive the response headers or
+   * {@code 0} for an infinite timeout.
+   */
+  private final int requestTimeout;
+
+  /** Timer that enforces the write and request timeouts of all requests. */
+  private final HashedWheelTimer timer =
+      new HashedWheelTimer("google-http-client-net-timer-" + System.identityHashCode(this));
+
   /**
    * Constructor with the default behavior.
    *
@@ -115,6 +132,20 @@ public final class NetHttpTransport extends HttpTransport {
     this(new DefaultConnectionFactory(proxy), sslSocketFactory, hostnameVerifier);
   }
 
+  /**
+   * @param proxy HTTP proxy or {@code null} to use the proxy settings from <a
+   *        href="http://docs.oracle.com/javase/7/docs/api/java/net/doc-files/net-properties.html">
+   *        system properties</a>
+   * @param sslSocketFactory SSL socket factory or {@code null} for the default
+   * @param hostnameVerifier host name verifier or {@code null} for the default
+   * @param requestTimeout timeout in milliseconds to connect, write the content and receive the
+   *        response headers or {@code 0} for an infinite timeout
+   */
+  NetHttpTransport(Proxy proxy, SSLSocketFactory sslSocketFactory,
+      HostnameVerifier hostnameVerifier, int requestTimeout) {
+    this(new DefaultConnectionFactory(proxy), sslSocketFactory, hostnameVerifier, requestTimeout);
+  }
+
   /**
    * @param connectionFactory factory to produce connections from {@link URL}s; if {@code null} then
    *        {@link DefaultConnectionFactory} is used
@@ -124,10 +155,24 @@ public final class NetHttpTransport extends HttpTransport {
    */
   NetHttpTransport(ConnectionFactory connectionFactory,
       SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+    this(connectionFactory, sslSocketFactory, hostnameVerifier, 0);
+  }
+
+  /**
+   * @param connectionFactory factory to produce connections from {@link URL}s; if {@code null} then
+   *        {@link DefaultConnectionFactory} is used
+   * @param sslSocketFactory SSL socket factory or {@code null} for the default
+   * @param hostnameVerifier host name verifier or {@code null} for the default
+   * @param requestTimeout timeout in milliseconds to connect, write the content and receive the
+   *        response headers or {@code 0} for an infinite timeout
+   */
+  NetHttpTransport(ConnectionFactory connectionFactory, SSLSocketFactory sslSocketFactory,
+      HostnameVerifier hostnameVerifier, int requestTimeout) {
     this.connectionFactory =
         getConnectionFactory(connectionFactory);
     this.sslSocketFactory = sslSocketFactory;
     this.hostnameVerifier = hostnameVerifier;
+    this.requestTimeout = requestTimeout;
   }
 
   private ConnectionFactory getConnectionFactory(ConnectionFactory connectionFactory) {
@@ -162,7 +207,24 @@ public final class NetHttpTransport extends HttpTransport {
         secureConnection.setSSLSocketFactory(sslSocketFactory);
       }
     }
-    return new NetHttpRequest(connection);
+    return new NetHttpRequest(connection, timer, requestTimeout);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Stops the timer thread that enforces the write and request timeouts. Requests that are still
+   * in progress are no longer subject to these timeouts, and new requests with a write or request
+   * timeout fail with an {@link IOException}.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Override
+  public void shutdown() throws IOException {
+    timer.stop();
+    super.shutdown();
   }
 
   /**
@@ -195,6 +257,12 @@ public final class NetHttpTransport extends HttpTransport {
      */
     private ConnectionFactory connectionFactory;
 
+    /**
+     * Timeout in milliseconds to connect, write the content and receive the response headers or
+     * {@code 0} for an infinite timeout.
+     */
+    private int requestTimeout;
+
     /**
      * Sets the HTTP proxy or {@code null} to use the proxy settings from <a
      * href="http://docs.oracle.com/javase/7/docs/api/java/net/doc-files/net-properties.html">system
@@ -329,14 +397,45 @@ public final class NetHttpTransport extends HttpTransport {
       return this;
     }
 
+    /**
+     * Returns the timeout in milliseconds to connect, write the content and receive the response
+     * headers of a request or {@code 0} for an infinite timeout.
+     *
+     * @since 1.27
+     */
+    public int getRequestTimeout() {
+      return requestTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds to connect, write the content and receive the response
+     * headers of a request or {@code 0} for an infinite timeout.
+     *
+     * <p>
+     * Unlike the connect, read and write timeouts of
+     * {@link com.google.api.client.http.HttpRequest}, which limit each phase of a request
+     * separately, this limits the total time until the response headers are received. Once it
+     * expires, the connection is disconnected and the request fails with a
+     * {@link java.net.SocketTimeoutException}. The default value is {@code 0}.
+     * </p>
+     *
+     * @since 1.27
+     */
+    public Builder setRequestTimeout(int requestTimeout) {
+      Preconditions.checkArgument(requestTimeout >= 0);
+      this.requestTimeout = requestTimeout;
+      return this;
+    }
+
     /** Returns a new instance of {@link NetHttpTransport} based on the options. */
     public NetHttpTransport build() {
       if (System.getProperty(SHOULD_USE_PROXY_FLAG) != null) {
         setProxy(defaultProxy());
       }
       return this.proxy == null
-          ? new NetHttpTransport(connectionFactory, sslSocketFactory, hostnameVerifier)
-          : new NetHttpTransport(this.proxy, sslSocketFactory, hostnameVerifier);
+          ? new NetHttpTransport(
+              connectionFactory, sslSocketFactory, hostnameVerifier, requestTimeout)
+          : new NetHttpTransport(this.proxy, sslSocketFactory, hostnameVerifier, requestTimeout);
     }
   }
 }
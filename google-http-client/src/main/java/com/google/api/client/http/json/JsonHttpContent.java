@@ -19,8 +19,10 @@ import com.google.api.client.http.HttpMediaType;
 import com.google.api.client.json.Json;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.util.Beta;
 import com.google.api.client.util.Preconditions;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -58,6 +60,42 @@ public class JsonHttpContent extends AbstractHttpContent {
   /** Wrapper key for the JSON content or {@code null} for none. */
   private String wrapperKey;
 
+  /**
+   * {@link Beta} <br/>
+   * How the data is serialized to compute the content length and write the content.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public enum SerializationMode {
+
+    /**
+     * Serializes the data once to compute the content length, and again each time the content is
+     * written.
+     */
+    COMPUTE_LENGTH,
+
+    /**
+     * Serializes the data once into a byte array, which is used to compute the content length and
+     * written each time the content is written, for example by each retry. The data must not be
+     * modified after the content has first been used.
+     */
+    BUFFER,
+
+    /**
+     * Serializes the data each time the content is written, with an unknown content length, so
+     * that for example HTTP/1.1 uses chunked transfer coding. This suits very large data or data
+     * that is produced lazily while being serialized.
+     */
+    STREAM
+  }
+
+  /** How the data is serialized. */
+  private SerializationMode serializationMode = SerializationMode.COMPUTE_LENGTH;
+
+  /** Data serialized by {@link SerializationMode#BUFFER} or {@code null} for none. */
+  private ByteArrayOutputStream serializedContent;
+
   /**
    * @param jsonFactory JSON factory to use
    * @param data JSON key name/value data
@@ -70,6 +108,36 @@ public class JsonHttpContent extends AbstractHttpContent {
   }
 
   public void writeTo(OutputStream out) throws IOException {
+    if (serializationMode == SerializationMode.BUFFER) {
+      getSerializedContent().writeTo(out);
+    } else {
+      serialize(out);
+    }
+  }
+
+  @Override
+  protected long computeLength() throws IOException {
+    switch (serializationMode) {
+      case BUFFER:
+        return getSerializedContent().size();
+      case STREAM:
+        return -1;
+      default:
+        return super.computeLength();
+    }
+  }
+
+  /** Returns the data serialized once by {@link SerializationMode#BUFFER}. */
+  private ByteArrayOutputStream getSerializedContent() throws IOException {
+    if (serializedContent == null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      serialize(bytes);
+      serializedContent = bytes;
+    }
+    return serializedContent;
+  }
+
+  private void serialize(OutputStream out) throws IOException {
     JsonGenerator generator = jsonFactory.createJsonGenerator(out, getCharset());
     if (wrapperKey != null) {
       generator.writeStartObject();
@@ -85,6 +153,8 @@ public class JsonHttpContent extends AbstractHttpContent {
   @Override
   public JsonHttpContent setMediaType(HttpMediaType mediaType) {
     super.setMediaType(mediaType);
+    // the charset may have changed
+    serializedContent = null;
     return this;
   }
 
@@ -127,6 +197,41 @@ public class JsonHttpContent extends AbstractHttpContent {
    */
   public JsonHttpContent setWrapperKey(String wrapperKey) {
     this.wrapperKey = wrapperKey;
+    serializedContent = null;
+    return this;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Returns how the data is serialized.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public final SerializationMode getSerializationMode() {
+    return serializationMode;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Sets how the data is serialized, which must be set before the content is first used.
+   *
+   * <p>
+   * The default value is {@link SerializationMode#COMPUTE_LENGTH}, which serializes the data twice
+   * when a request sends the content.
+   * </p>
+   *
+   * <p>
+   * Overriding is only supported for the purpose of calling the super implementation and changing
+   * the return type, but nothing else.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public JsonHttpContent setSerializationMode(SerializationMode serializationMode) {
+    this.serializationMode = Preconditions.checkNotNull(serializationMode);
+    serializedContent = null;
     return this;
   }
 }
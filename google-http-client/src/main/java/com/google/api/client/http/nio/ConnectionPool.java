@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Pool of persistent connections, keyed by route (scheme, host and port).
+ *
+ * <p>
+ * A connection is acquired for each request in the following order of preference:
+ * </p>
+ * <ul>
+ * <li>an idle connection, most recently used first</li>
+ * <li>a new connection, if neither the per-route nor the total connection limit is reached</li>
+ * <li>for pipelinable requests if pipelining is enabled, the open connection of the route with the
+ * fewest outstanding requests that accepts pipelined requests</li>
+ * </ul>
+ * <p>
+ * Otherwise the caller waits until a connection is released.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class ConnectionPool {
+
+  private final IoReactor reactor;
+
+  private final int maxConnectionsPerRoute;
+
+  private final int maxTotalConnections;
+
+  private final long keepAliveMillis;
+
+  /** Maximum number of outstanding requests per connection, {@code 1} if pipelining is disabled. */
+  private final int maxPipelinedRequests;
+
+  private final SSLContext sslContext;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  // fields below are guarded by this
+
+  private final Map<String, Route> routes = new HashMap<String, Route>();
+
+  /** Number of open or opening connections. */
+  private int totalConnections;
+
+  private boolean shutdown;
+
+  /** Connections of a single route. */
+  private static final class Route {
+
+    /** Open or opening connections. */
+    final List<NioConnection> connections = new ArrayList<NioConnection>();
+
+    /** Number of connections being created that are not yet in {@link #connections}. */
+    int pending;
+
+    Route() {
+    }
+  }
+
+  /**
+   * @param reactor I/O reactor
+   * @param maxConnectionsPerRoute maximum number of connections per route
+   * @param maxTotalConnections maximum number of connections
+   * @param keepAliveMillis time in milliseconds after which an idle connection is closed
+   * @param maxPipelinedRequests maximum number of outstanding requests per connection
+   * @param sslContext SSL context for secure connections
+   * @param hostnameVerifier host name verifier or {@code null} to skip host name verification
+   */
+  ConnectionPool(IoReactor reactor, int maxConnectionsPerRoute, int maxTotalConnections,
+      long keepAliveMillis, int maxPipelinedRequests, SSLContext sslContext,
+      HostnameVerifier hostnameVerifier) {
+    this.reactor = reactor;
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    this.maxTotalConnections = maxTotalConnections;
+    this.keepAliveMillis = keepAliveMillis;
+    this.maxPipelinedRequests = maxPipelinedRequests;
+    this.sslContext = sslContext;
+    this.hostnameVerifier = hostnameVerifier;
+  }
+
+  /**
+   * Acquires a connection for one request. The caller must make sure the connection is either
+   * used to send the request or {@link NioConnection#close closed}.
+   *
+   * @param secure whether to use TLS
+   * @param host host name
+   * @param port port
+   * @param pipelinable whether the request may be pipelined behind other requests
+   * @param timeoutMillis timeout in milliseconds to wait for a connection or {@code 0} for an
+   *        infinite timeout
+   */
+  NioConnection acquire(boolean secure, String host, int port, boolean pipelinable,
+      int timeoutMillis) throws IOException {
+    String key = (secure ? "https://" : "http://") + host + ":" + port;
+    long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+    synchronized (this) {
+      while (true) {
+        if (shutdown) {
+          throw new IOException("Transport has been shut down");
+        }
+        Route route = routes.get(key);
+        if (route == null) {
+          route = new Route();
+          routes.put(key, route);
+        }
+        // idle connection, most recently used first
+        NioConnection best = null;
+        for (NioConnection connection : route.connections) {
+          if (connection.inFlight == 0 && connection.reused && connection.isOpen()
+              && (best == null || connection.idleSince > best.idleSince)) {
+            best = connection;
+          }
+        }
+        if (best != null) {
+          best.inFlight++;
+          return best;
+        }
+        // new connection
+        if (route.connections.size() + route.pending < maxConnectionsPerRoute
+            && totalConnections < maxTotalConnections) {
+          route.pending++;
+          totalConnections++;
+          break;
+        }
+        // pipelined on the least loaded connection
+        if (pipelinable && maxPipelinedRequests > 1) {
+          for (NioConnection connection : route.connections) {
+            if (connection.inFlight < maxPipelinedRequests && connection.canPipeline()
+                && (best == null || connection.inFlight < best.inFlight)) {
+              best = connection;
+            }
+          }
+          if (best != null) {
+            best.inFlight++;
+            return best;
+          }
+        }
+        await(deadline);
+      }
+    }
+    NioConnection connection = null;
+    try {
+      connection = new NioConnection(key, new InetSocketAddress(host, port), host,
+          secure ? sslContext : null, hostnameVerifier, reactor, this);
+    } finally {
+      synchronized (this) {
+        Route route = routes.get(key);
+        route.pending--;
+        if (connection == null) {
+          totalConnections--;
+          removeIfUnused(key, route);
+          notifyAll();
+        } else {
+          connection.inFlight = 1;
+          route.connections.add(connection);
+        }
+      }
+    }
+    try {
+      if (isShutdown()) {
+        throw new IOException("Transport has been shut down");
+      }
+      reactor.register(connection);
+    } catch (IOException e) {
+      connection.close(e);
+      throw e;
+    }
+    return connection;
+  }
+
+  private void await(long deadlineNanos) throws IOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000L;
+        if (remainingMillis <= 0) {
+          throw new SocketTimeoutException("Timed out waiting for a connection from the pool");
+        }
+        wait(remainingMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException();
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+  }
+
+  private synchronized boolean isShutdown() {
+    return shutdown;
+  }
+
+  /**
+   * Called when the response of a request sent on the given connection has been completely
+   * received and the connection may be reused.
+   *
+   * @param connection connection
+   * @param keepAliveTimeoutMillis idle timeout in milliseconds advertised by the server or
+   *        {@code -1} for none
+   */
+  synchronized void release(NioConnection connection, long keepAliveTimeoutMillis) {
+    connection.inFlight--;
+    connection.reused = true;
+    connection.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+    if (connection.inFlight == 0) {
+      connection.idleSince = System.currentTimeMillis();
+    }
+    notifyAll();
+  }
+
+  /** Removes a closed connection from the pool. */
+  synchronized void remove(NioConnection connection) {
+    Route route = routes.get(connection.route);
+    if (route != null && route.connections.remove(connection)) {
+      totalConnections--;
+      removeIfUnused(connection.route, route);
+      notifyAll();
+    }
+  }
+
+  private void removeIfUnused(String key, Route route) {
+    if (route.connections.isEmpty() && route.pending == 0) {
+      routes.remove(key);
+    }
+  }
+
+  /** Closes connections that have been idle for longer than the keep-alive timeout. */
+  void evictIdle() {
+    long now = System.currentTimeMillis();
+    List<NioConnection> expired = new ArrayList<NioConnection>();
+    synchronized (this) {
+      for (Route route : routes.values()) {
+        for (NioConnection connection : route.connections) {
+          if (connection.inFlight == 0 && connection.reused) {
+            long timeout = keepAliveMillis;
+            if (connection.keepAliveTimeoutMillis >= 0) {
+              // close a bit before the server does to avoid racing with it
+              timeout = Math.min(timeout, Math.max(0, connection.keepAliveTimeoutMillis - 1000));
+            }
+            if (now - connection.idleSince >= timeout) {
+              expired.add(connection);
+            }
+          }
+        }
+      }
+    }
+    for (NioConnection connection : expired) {
+      connection.close(new IOException("Idle connection closed"));
+    }
+  }
+
+  /** Returns the number of open or opening connections. */
+  synchronized int getConnectionCount() {
+    return totalConnections;
+  }
+
+  /** Closes all connections and fails all pending requests. */
+  void shutdown() {
+    List<NioConnection> connections = new ArrayList<NioConnection>();
+    synchronized (this) {
+      shutdown = true;
+      for (Route route : routes.values()) {
+        connections.addAll(route.connections);
+      }
+      notifyAll();
+    }
+    for (NioConnection connection : connections) {
+      connection.closeAsync(new IOException("Transport has been shut down"));
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A single request/response exchange on an {@link NioConnection}.
+ *
+ * <p>
+ * The I/O reactor thread publishes the parsed response into the exchange, and the thread that
+ * executed the request waits for the response headers and consumes the buffered response body.
+ * Body content is buffered up to {@link #HIGH_WATER_MARK} bytes, after which the connection stops
+ * reading from the socket until the consumer catches up.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class Exchange {
+
+  /** Number of buffered body bytes above which the connection stops reading. */
+  static final int HIGH_WATER_MARK = 256 * 1024;
+
+  /** Number of buffered body bytes below which a paused connection resumes reading. */
+  static final int LOW_WATER_MARK = 64 * 1024;
+
+  /**
+   * Maximum number of remaining body bytes that are read and discarded to keep the connection alive
+   * when the response content is closed before it was fully read.
+   */
+  static final int DISCARD_LIMIT = 64 * 1024;
+
+  private final boolean headRequest;
+
+  private final boolean pipelinable;
+
+  /** Connection or {@code null} before the request is sent. */
+  private NioConnection connection;
+
+  private String httpVersion;
+  private int statusCode = -1;
+  private String reasonPhrase;
+  private List<String> headerNames;
+  private List<String> headerValues;
+  private long contentLength = -1;
+
+  /** Buffered body chunks. */
+  private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+
+  /** Read offset in the first chunk. */
+  private int chunkOffset;
+
+  /** Number of buffered bytes not yet consumed. */
+  private int buffered;
+
+  /** Number of body bytes received from the network. */
+  private long received;
+
+  /** Whether the response has been completely received. */
+  private boolean complete;
+
+  /** Whether the consumer closed the content, so any further body content is dropped. */
+  private boolean discarded;
+
+  /** Whether the connection paused reading and waits to be resumed by the consumer. */
+  private boolean resumeNeeded;
+
+  /** Failure or {@code null} for none. */
+  private IOException failure;
+
+  /**
+   * @param headRequest whether the request method is {@code HEAD}
+   * @param pipelinable whether the request may be pipelined behind other requests
+   */
+  Exchange(boolean headRequest, boolean pipelinable) {
+    this.headRequest = headRequest;
+    this.pipelinable = pipelinable;
+  }
+
+  boolean isHeadRequest() {
+    return headRequest;
+  }
+
+  boolean isPipelinable() {
+    return pipelinable;
+  }
+
+  synchronized void setConnection(NioConnection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Returns whether writing the request has started, in which case the server may have received
+   * some of it.
+   */
+  synchronized boolean isSent() {
+    return connection != null;
+  }
+
+  // Reactor side
+
+  synchronized void onHeaders(String httpVersion, int statusCode, String reasonPhrase,
+      List<String> headerNames, List<String> headerValues) {
+    this.httpVersion = httpVersion;
+    this.statusCode = statusCode;
+    this.reasonPhrase = reasonPhrase;
+    this.headerNames = new ArrayList<String>(headerNames);
+    this.headerValues = new ArrayList<String>(headerValues);
+    for (int i = 0; i < headerNames.size(); i++) {
+      if (headerNames.get(i).equalsIgnoreCase("Content-Length")) {
+        try {
+          contentLength = Long.parseLong(headerValues.get(i).trim());
+        } catch (NumberFormatException e) {
+          // validated by the parser
+        }
+      }
+    }
+    notifyAll();
+  }
+
+  synchronized void onBody(ByteBuffer content) {
+    int length = content.remaining();
+    received += length;
+    if (discarded) {
+      content.position(content.limit());
+      return;
+    }
+    byte[] chunk = new byte[length];
+    content.get(chunk);
+    chunks.add(chunk);
+    buffered += length;
+    notifyAll();
+  }
+
+  synchronized void onComplete() {
+    complete = true;
+    notifyAll();
+  }
+
+  synchronized void fail(IOException cause) {
+    if (!complete && failure == null) {
+      failure = cause;
+      notifyAll();
+    }
+  }
+
+  synchronized boolean isBodyBufferFull() {
+    return !discarded && buffered >= HIGH_WATER_MARK;
+  }
+
+  /**
+   * Returns whether the body buffer is still full, in which case the connection must pause
+   * reading until {@link NioConnection#resume()} is called by the consumer.
+   */
+  synchronized boolean pauseIfFull() {
+    if (isBodyBufferFull()) {
+      resumeNeeded = true;
+      return true;
+    }
+    return false;
+  }
+
+  // Consumer side
+
+  /**
+   * Waits for the response headers.
+   *
+   * @param timeoutMillis timeout in milliseconds or {@code 0} for an infinite timeout
+   */
+  synchronized void awaitHeaders(int timeoutMillis) throws IOException {
+    long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+    while (statusCode == -1) {
+      if (failure != null) {
+        throw failure;
+      }
+      await(deadline);
+    }
+  }
+
+  /** Waits until notified or the deadline ({@code 0} for none) passes. Must hold the lock. */
+  private void await(long deadlineNanos) throws IOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000L;
+        if (remainingMillis <= 0) {
+          SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+          abort(timeout);
+          throw timeout;
+        }
+        wait(remainingMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException("Read interrupted");
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+  }
+
+  /** Aborts the connection outside of the exchange lock. */
+  private void abort(final IOException cause) {
+    final NioConnection connection = this.connection;
+    if (connection != null) {
+      // closing the connection fails this exchange, which requires this lock
+      connection.closeAsync(cause);
+    }
+  }
+
+  synchronized String getHttpVersion() {
+    return httpVersion;
+  }
+
+  synchronized int getStatusCode() {
+    return statusCode;
+  }
+
+  synchronized String getReasonPhrase() {
+    return reasonPhrase;
+  }
+
+  synchronized List<String> getHeaderNames() {
+    return headerNames;
+  }
+
+  synchronized List<String> getHeaderValues() {
+    return headerValues;
+  }
+
+  /** Returns the first value of the given header (case-insensitive) or {@code null} for none. */
+  synchronized String getHeaderValue(String name) {
+    for (int i = 0; i < headerNames.size(); i++) {
+      if (headerNames.get(i).equalsIgnoreCase(name)) {
+        return headerValues.get(i);
+      }
+    }
+    return null;
+  }
+
+  synchronized long getContentLength() {
+    return contentLength;
+  }
+
+  synchronized boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Reads body content, blocking until some content is available.
+   *
+   * @return number of bytes read or {@code -1} at the end of the body
+   */
+  int read(byte[] b, int off, int len, int timeoutMillis) throws IOException {
+    NioConnection toResume = null;
+    int result;
+    synchronized (this) {
+      long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+      while (buffered == 0 && !complete) {
+        if (failure != null) {
+          throw failure;
+        }
+        if (discarded) {
+          return -1;
+        }
+        await(deadline);
+      }
+      if (buffered == 0) {
+        return -1;
+      }
+      result = 0;
+      while (result < len && buffered > 0) {
+        byte[] chunk = chunks.getFirst();
+        int count = Math.min(len - result, chunk.length - chunkOffset);
+        System.arraycopy(chunk, chunkOffset, b, off + result, count);
+        result += count;
+        buffered -= count;
+        chunkOffset += count;
+        if (chunkOffset == chunk.length) {
+          chunks.removeFirst();
+          chunkOffset = 0;
+        }
+      }
+      if (resumeNeeded && buffered <= LOW_WATER_MARK) {
+        resumeNeeded = false;
+        toResume = connection;
+      }
+    }
+    if (toResume != null) {
+      toResume.resume();
+    }
+    return result;
+  }
+
+  synchronized int available() {
+    return buffered;
+  }
+
+  /**
+   * Closes the response content: any remaining body content is dropped, and the connection is
+   * aborted if the remaining content is too large (or of unknown size) to be discarded cheaply.
+   */
+  void close() {
+    NioConnection toResume = null;
+    boolean abort = false;
+    synchronized (this) {
+      if (discarded) {
+        return;
+      }
+      discarded = true;
+      chunks.clear();
+      buffered = 0;
+      notifyAll();
+      if (complete || failure != null) {
+        return;
+      }
+      if (statusCode != -1 && contentLength >= 0
+          && contentLength - received <= DISCARD_LIMIT) {
+        if (resumeNeeded) {
+          resumeNeeded = false;
+          toResume = connection;
+        }
+      } else {
+        abort = true;
+      }
+    }
+    if (toResume != null) {
+      toResume.resume();
+    }
+    if (abort) {
+      abort(new IOException("Response content closed before it was fully read"));
+    }
+  }
+
+  /** Returns a new input stream for the response body. */
+  InputStream newInputStream(final int readTimeout) {
+    return new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        return Exchange.this.read(b, off, len, readTimeout);
+      }
+
+      @Override
+      public int available() {
+        return Exchange.this.available();
+      }
+
+      @Override
+      public void close() {
+        Exchange.this.close();
+      }
+    };
+  }
+}
@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2 as specified in <a
+ * href="https://tools.ietf.org/html/rfc7541">RFC 7541</a>.
+ *
+ * <p>
+ * Header names and values are treated as ISO-8859-1 strings.
+ * </p>
+ */
+final class Hpack {
+
+  /** Default and maximum size of the dynamic table used by this implementation. */
+  static final int DEFAULT_TABLE_SIZE = 4096;
+
+  /** Static table (RFC 7541 appendix A), index {@code i} holds the entry with index {@code i+1}. */
+  private static final String[][] STATIC_TABLE = {
+      {":authority", ""},
+      {":method", "GET"},
+      {":method", "POST"},
+      {":path", "/"},
+      {":path", "/index.html"},
+      {":scheme", "http"},
+      {":scheme", "https"},
+      {":status", "200"},
+      {":status", "204"},
+      {":status", "206"},
+      {":status", "304"},
+      {":status", "400"},
+      {":status", "404"},
+      {":status", "500"},
+      {"accept-charset", ""},
+      {"accept-encoding", "gzip, deflate"},
+      {"accept-language", ""},
+      {"accept-ranges", ""},
+      {"accept", ""},
+      {"access-control-allow-origin", ""},
+      {"age", ""},
+      {"allow", ""},
+      {"authorization", ""},
+      {"cache-control", ""},
+      {"content-disposition", ""},
+      {"content-encoding", ""},
+      {"content-language", ""},
+      {"content-length", ""},
+      {"content-location", ""},
+      {"content-range", ""},
+      {"content-type", ""},
+      {"cookie", ""},
+      {"date", ""},
+      {"etag", ""},
+      {"expect", ""},
+      {"expires", ""},
+      {"from", ""},
+      {"host", ""},
+      {"if-match", ""},
+      {"if-modified-since", ""},
+      {"if-none-match", ""},
+      {"if-range", ""},
+      {"if-unmodified-since", ""},
+      {"last-modified", ""},
+      {"link", ""},
+      {"location", ""},
+      {"max-forwards", ""},
+      {"proxy-authenticate", ""},
+      {"proxy-authorization", ""},
+      {"range", ""},
+      {"referer", ""},
+      {"refresh", ""},
+      {"retry-after", ""},
+      {"server", ""},
+      {"set-cookie", ""},
+      {"strict-transport-security", ""},
+      {"transfer-encoding", ""},
+      {"user-agent", ""},
+      {"vary", ""},
+      {"via", ""},
+      {"www-authenticate", ""}
+  };
+
+  /** Index of the first static table entry for each name. */
+  private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<String, Integer>();
+
+  /** Index of each static table entry with a value, keyed by name and value. */
+  private static final Map<String, Integer> STATIC_ENTRY_INDEX = new HashMap<String, Integer>();
+
+  /** Huffman codes (RFC 7541 appendix B), right-aligned. */
+  private static final int[] HUFFMAN_CODES = {
+      0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+      0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+      0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+      0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+      0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+      0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+      0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+      0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+      0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+      0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+      0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+      0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+      0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+      0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+      0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+      0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+      0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+      0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+      0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+      0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+      0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+      0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+      0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+      0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+      0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+      0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+      0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+      0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+      0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+      0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+      0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+      0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+  };
+
+  /** Huffman code lengths in bits. */
+  private static final byte[] HUFFMAN_LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28,
+      28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11,
+      10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8,
+      15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+      7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6, 15, 5, 6, 5,
+      6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7,
+      7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23,
+      23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+      22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21,
+      23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23, 26, 26, 20, 19, 22, 23, 22, 25,
+      26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26,
+      28, 27, 27, 27, 20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+      26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+  };
+
+  /** Huffman decoding tree: the children of node {@code n} are at {@code 2n} and {@code 2n+1}. */
+  private static final int[] HUFFMAN_TREE;
+
+  /** Symbol of each leaf node in the Huffman decoding tree, or {@code -1} for an inner node. */
+  private static final int[] HUFFMAN_SYMBOLS;
+
+  /** Huffman code of the end-of-string symbol, only used for padding. */
+  private static final int EOS_CODE = 0x3fffffff;
+
+  private static final int EOS_LENGTH = 30;
+
+  static {
+    for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+      STATIC_NAME_INDEX.put(STATIC_TABLE[i][0], i + 1);
+      if (STATIC_TABLE[i][1].length() != 0) {
+        STATIC_ENTRY_INDEX.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+      }
+    }
+    // 256 symbols plus EOS need 257 leaves and 256 inner nodes
+    int[] tree = new int[2 * 514];
+    int[] symbols = new int[514];
+    Arrays.fill(symbols, -1);
+    int nodes = 1;
+    for (int symbol = 0; symbol <= 256; symbol++) {
+      int code = symbol == 256 ? EOS_CODE : HUFFMAN_CODES[symbol];
+      int length = symbol == 256 ? EOS_LENGTH : HUFFMAN_LENGTHS[symbol];
+      int node = 0;
+      for (int bit = length - 1; bit >= 0; bit--) {
+        int child = 2 * node + ((code >>> bit) & 1);
+        if (tree[child] == 0) {
+          tree[child] = nodes++;
+        }
+        node = tree[child];
+      }
+      symbols[node] = symbol;
+    }
+    HUFFMAN_TREE = tree;
+    HUFFMAN_SYMBOLS = symbols;
+  }
+
+  private Hpack() {
+  }
+
+  /** Returns the size of a table entry as defined in RFC 7541 section 4.1. */
+  static int entrySize(String name, String value) {
+    return name.length() + value.length() + 32;
+  }
+
+  /** Writes an integer with an N-bit prefix (RFC 7541 section 5.1). */
+  static void writeInteger(ByteArrayOutputStream out, int firstByte, int prefixBits, int value) {
+    int max = (1 << prefixBits) - 1;
+    if (value < max) {
+      out.write(firstByte | value);
+      return;
+    }
+    out.write(firstByte | max);
+    value -= max;
+    while (value >= 0x80) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** Reads an integer with an N-bit prefix (RFC 7541 section 5.1). */
+  static int readInteger(ByteBuffer in, int firstByte, int prefixBits) throws IOException {
+    int max = (1 << prefixBits) - 1;
+    int value = firstByte & max;
+    if (value < max) {
+      return value;
+    }
+    for (int shift = 0; shift <= 28; shift += 7) {
+      if (!in.hasRemaining()) {
+        throw new ProtocolException("HPACK: truncated integer");
+      }
+      int b = in.get() & 0xff;
+      value += (b & 0x7f) << shift;
+      if (value < 0) {
+        break;
+      }
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new ProtocolException("HPACK: integer overflow");
+  }
+
+  /** Writes a string literal, Huffman encoded if that is shorter (RFC 7541 section 5.2). */
+  static void writeString(ByteArrayOutputStream out, String value) {
+    long bits = 0;
+    for (int i = 0; i < value.length(); i++) {
+      bits += HUFFMAN_LENGTHS[value.charAt(i) & 0xff];
+    }
+    int huffmanLength = (int) ((bits + 7) / 8);
+    if (huffmanLength >= value.length()) {
+      writeInteger(out, 0, 7, value.length());
+      for (int i = 0; i < value.length(); i++) {
+        out.write(value.charAt(i));
+      }
+      return;
+    }
+    writeInteger(out, 0x80, 7, huffmanLength);
+    long current = 0;
+    int count = 0;
+    for (int i = 0; i < value.length(); i++) {
+      int symbol = value.charAt(i) & 0xff;
+      current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+      count += HUFFMAN_LENGTHS[symbol];
+      while (count >= 8) {
+        count -= 8;
+        out.write((int) (current >>> count));
+      }
+    }
+    if (count > 0) {
+      // pad with the most significant bits of EOS
+      out.write((int) ((current << (8 - count)) | (0xff >>> count)));
+    }
+  }
+
+  /** Reads a string literal (RFC 7541 section 5.2). */
+  static String readString(ByteBuffer in) throws IOException {
+    if (!in.hasRemaining()) {
+      throw new ProtocolException("HPACK: truncated string");
+    }
+    int first = in.get() & 0xff;
+    int length = readInteger(in, first, 7);
+    if (length > in.remaining()) {
+      throw new ProtocolException("HPACK: truncated string");
+    }
+    if ((first & 0x80) == 0) {
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        chars[i] = (char) (in.get() & 0xff);
+      }
+      return new String(chars);
+    }
+    StringBuilder result = new StringBuilder(length * 8 / 5);
+    int node = 0;
+    int depth = 0;
+    for (int i = 0; i < length; i++) {
+      int b = in.get() & 0xff;
+      for (int bit = 7; bit >= 0; bit--) {
+        node = HUFFMAN_TREE[2 * node + ((b >>> bit) & 1)];
+        depth++;
+        if (node == 0) {
+          throw new ProtocolException("HPACK: invalid Huffman code");
+        }
+        int symbol = HUFFMAN_SYMBOLS[node];
+        if (symbol != -1) {
+          if (symbol == 256) {
+            throw new ProtocolException("HPACK: EOS in Huffman string");
+          }
+          result.append((char) symbol);
+          node = 0;
+          depth = 0;
+        }
+      }
+    }
+    // padding must be shorter than 8 bits and consist of the most significant bits of EOS, which
+    // are all ones, so the walk must still be on the all-ones path from the root
+    if (depth > 7 || !isAllOnesPath(node, depth)) {
+      throw new ProtocolException("HPACK: invalid Huffman padding");
+    }
+    return result.toString();
+  }
+
+  private static boolean isAllOnesPath(int node, int depth) {
+    int expected = 0;
+    for (int i = 0; i < depth; i++) {
+      expected = HUFFMAN_TREE[2 * expected + 1];
+    }
+    return expected == node;
+  }
+
+  /** Dynamic table (RFC 7541 section 2.3.2), newest entry first. */
+  static final class DynamicTable {
+
+    private final LinkedList<String[]> entries = new LinkedList<String[]>();
+
+    private int size;
+
+    private int maxSize = DEFAULT_TABLE_SIZE;
+
+    int length() {
+      return entries.size();
+    }
+
+    String[] get(int index) {
+      return entries.get(index);
+    }
+
+    void add(String name, String value) {
+      int entrySize = entrySize(name, value);
+      if (entrySize > maxSize) {
+        entries.clear();
+        size = 0;
+        return;
+      }
+      size += entrySize;
+      entries.addFirst(new String[] {name, value});
+      evict();
+    }
+
+    void setMaxSize(int maxSize) {
+      this.maxSize = maxSize;
+      evict();
+    }
+
+    int getMaxSize() {
+      return maxSize;
+    }
+
+    private void evict() {
+      while (size > maxSize) {
+        String[] entry = entries.removeLast();
+        size -= entrySize(entry[0], entry[1]);
+      }
+    }
+  }
+
+  /**
+   * HPACK encoder.
+   *
+   * <p>
+   * Implementation is not thread-safe: header blocks must be encoded in the order they are sent.
+   * </p>
+   */
+  static final class Encoder {
+
+    private final DynamicTable table = new DynamicTable();
+
+    /** Smallest table size to signal at the start of the next header block or {@code -1}. */
+    private int pendingMinSize = -1;
+
+    /** Table size to signal at the start of the next header block or {@code -1}. */
+    private int pendingSize = -1;
+
+    /**
+     * Sets the maximum table size allowed by the peer's {@code SETTINGS_HEADER_TABLE_SIZE}. The
+     * encoder uses at most {@link #DEFAULT_TABLE_SIZE} bytes.
+     */
+    void setMaxTableSize(int peerMaxSize) {
+      int size = Math.min(peerMaxSize, DEFAULT_TABLE_SIZE);
+      if (size == table.getMaxSize() && pendingSize == -1) {
+        return;
+      }
+      pendingMinSize = pendingMinSize == -1 ? size : Math.min(pendingMinSize, size);
+      pendingSize = size;
+      table.setMaxSize(size);
+    }
+
+    /**
+     * Encodes a header block.
+     *
+     * @param names lower case header names
+     * @param values header values
+     * @param out output stream
+     */
+    void encode(List<String> names, List<String> values, ByteArrayOutputStream out) {
+      if (pendingSize != -1) {
+        if (pendingMinSize < pendingSize) {
+          writeInteger(out, 0x20, 5, pendingMinSize);
+        }
+        writeInteger(out, 0x20, 5, pendingSize);
+        pendingMinSize = -1;
+        pendingSize = -1;
+      }
+      for (int i = 0; i < names.size(); i++) {
+        encode(names.get(i), values.get(i), out);
+      }
+    }
+
+    private void encode(String name, String value, ByteArrayOutputStream out) {
+      Integer staticIndex = STATIC_ENTRY_INDEX.get(name + '\0' + value);
+      if (staticIndex != null) {
+        writeInteger(out, 0x80, 7, staticIndex);
+        return;
+      }
+      int nameIndex = 0;
+      Integer staticNameIndex = STATIC_NAME_INDEX.get(name);
+      if (staticNameIndex != null) {
+        nameIndex = staticNameIndex;
+      }
+      for (int i = 0; i < table.length(); i++) {
+        String[] entry = table.get(i);
+        if (entry[0].equals(name)) {
+          if (entry[1].equals(value)) {
+            writeInteger(out, 0x80, 7, STATIC_TABLE.length + 1 + i);
+            return;
+          }
+          if (nameIndex == 0) {
+            nameIndex = STATIC_TABLE.length + 1 + i;
+          }
+        }
+      }
+      if (isSensitive(name)) {
+        // literal never indexed
+        writeLiteral(out, 0x10, 4, nameIndex, name, value);
+      } else if (entrySize(name, value) > table.getMaxSize() / 2) {
+        // literal without indexing, so that large values do not flush the table
+        writeLiteral(out, 0x00, 4, nameIndex, name, value);
+      } else {
+        // literal with incremental indexing
+        writeLiteral(out, 0x40, 6, nameIndex, name, value);
+        table.add(name, value);
+      }
+    }
+
+    private static void writeLiteral(ByteArrayOutputStream out, int firstByte, int prefixBits,
+        int nameIndex, String name, String value) {
+      writeInteger(out, firstByte, prefixBits, nameIndex);
+      if (nameIndex == 0) {
+        writeString(out, name);
+      }
+      writeString(out, value);
+    }
+
+    private static boolean isSensitive(String name) {
+      return name.equals("authorization") || name.equals("proxy-authorization")
+          || name.equals("cookie") || name.equals("set-cookie");
+    }
+  }
+
+  /**
+   * HPACK decoder.
+   *
+   * <p>
+   * Implementation is not thread-safe: header blocks must be decoded in the order they are
+   * received.
+   * </p>
+   */
+  static final class Decoder {
+
+    private final DynamicTable table = new DynamicTable();
+
+    /** Maximum table size announced to the peer with {@code SETTINGS_HEADER_TABLE_SIZE}. */
+    private final int maxTableSize;
+
+    Decoder(int maxTableSize) {
+      this.maxTableSize = maxTableSize;
+      table.setMaxSize(maxTableSize);
+    }
+
+    /**
+     * Decodes a complete header block.
+     *
+     * @param in header block
+     * @param names list to which the decoded header names are added
+     * @param values list to which the decoded header values are added
+     * @throws ProtocolException if the header block is malformed (a compression error)
+     */
+    void decode(ByteBuffer in, List<String> names, List<String> values) throws IOException {
+      boolean fieldSeen = false;
+      while (in.hasRemaining()) {
+        int b = in.get() & 0xff;
+        if ((b & 0x80) != 0) {
+          String[] entry = getEntry(readInteger(in, b, 7));
+          names.add(entry[0]);
+          values.add(entry[1]);
+          fieldSeen = true;
+        } else if ((b & 0xc0) == 0x40) {
+          String[] entry = readLiteral(in, b, 6);
+          table.add(entry[0], entry[1]);
+          names.add(entry[0]);
+          values.add(entry[1]);
+          fieldSeen = true;
+        } else if ((b & 0xe0) == 0x20) {
+          if (fieldSeen) {
+            throw new ProtocolException("HPACK: table size update after header field");
+          }
+          int size = readInteger(in, b, 5);
+          if (size > maxTableSize) {
+            throw new ProtocolException("HPACK: table size update exceeds the limit");
+          }
+          table.setMaxSize(size);
+        } else {
+          // literal without indexing (0000) or never indexed (0001)
+          String[] entry = readLiteral(in, b, 4);
+          names.add(entry[0]);
+          values.add(entry[1]);
+          fieldSeen = true;
+        }
+      }
+    }
+
+    private String[] readLiteral(ByteBuffer in, int firstByte, int prefixBits)
+        throws IOException {
+      int nameIndex = readInteger(in, firstByte, prefixBits);
+      String name = nameIndex == 0 ? readString(in) : getEntry(nameIndex)[0];
+      return new String[] {name, readString(in)};
+    }
+
+    private String[] getEntry(int index) throws ProtocolException {
+      if (index >= 1 && index <= STATIC_TABLE.length) {
+        return STATIC_TABLE[index - 1];
+      }
+      int dynamicIndex = index - STATIC_TABLE.length - 1;
+      if (dynamicIndex >= 0 && dynamicIndex < table.length()) {
+        return table.get(dynamicIndex);
+      }
+      throw new ProtocolException("HPACK: invalid index " + index);
+    }
+  }
+}
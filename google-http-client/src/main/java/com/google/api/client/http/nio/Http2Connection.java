@@ -0,0 +1,1047 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+/**
+ * HTTP/2 connection as specified in <a href="https://tools.ietf.org/html/rfc7540">RFC 7540</a>,
+ * multiplexing many concurrent requests as streams over a single socket.
+ *
+ * <p>
+ * All socket I/O is done by the {@link IoReactor} thread. Threads that execute requests encode
+ * frames into an outbound queue, which the reactor writes to the socket, and wait for
+ * flow-control credit before they queue request content.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class Http2Connection implements ReactorChannel {
+
+  /** Connection preface sent by the client. */
+  private static final byte[] PREFACE = {'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/',
+      '2', '.', '0', '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'};
+
+  static final int TYPE_DATA = 0x0;
+  static final int TYPE_HEADERS = 0x1;
+  static final int TYPE_PRIORITY = 0x2;
+  static final int TYPE_RST_STREAM = 0x3;
+  static final int TYPE_SETTINGS = 0x4;
+  static final int TYPE_PUSH_PROMISE = 0x5;
+  static final int TYPE_PING = 0x6;
+  static final int TYPE_GOAWAY = 0x7;
+  static final int TYPE_WINDOW_UPDATE = 0x8;
+  static final int TYPE_CONTINUATION = 0x9;
+
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+  static final int COMPRESSION_ERROR = 0x9;
+
+  /** Default initial window size and default maximum frame size (RFC 7540 section 6.5.2). */
+  static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+  static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+  /** Maximum number of queued outbound bytes above which writers of request content wait. */
+  private static final int MAX_QUEUED_BYTES = 256 * 1024;
+
+  private static final int STATE_CONNECTING = 0;
+  private static final int STATE_HANDSHAKING = 1;
+  private static final int STATE_OPEN = 2;
+  private static final int STATE_CLOSED = 3;
+
+  /** Origin key, for example {@code "https://www.googleapis.com:443"}. */
+  final String origin;
+
+  private final IoReactor reactor;
+
+  private final Http2ConnectionPool pool;
+
+  private final SecureChannel net;
+
+  /** Receive window of each stream announced with {@code SETTINGS_INITIAL_WINDOW_SIZE}. */
+  private final int localInitialWindowSize;
+
+  /** Receive window of the connection. */
+  private final int localConnectionWindowSize;
+
+  // fields below are only accessed by the reactor thread
+
+  private SelectionKey key;
+
+  private ByteBuffer in = ByteBuffer.allocate(2 * DEFAULT_MAX_FRAME_SIZE + 9);
+
+  private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+
+  /** Header block being received or {@code null} when not expecting a {@code CONTINUATION}. */
+  private ByteArrayOutputStream headerBlock;
+
+  private int headerBlockStreamId;
+
+  private boolean headerBlockEndStream;
+
+  /** Number of received connection-level bytes for which no credit has been returned yet. */
+  private int connectionUnacknowledged;
+
+  private boolean settingsReceived;
+
+  // fields below are guarded by this
+
+  private int state = STATE_CONNECTING;
+
+  private IOException failure;
+
+  /** Whether the server sent {@code GOAWAY}, so no new streams may be created. */
+  private boolean goAway;
+
+  /** Whether the server does not support HTTP/2 on this origin (ALPN negotiated another one). */
+  private boolean http2Unsupported;
+
+  private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+  private final Map<Integer, Http2Stream> streams = new HashMap<Integer, Http2Stream>();
+
+  private int nextStreamId = 1;
+
+  private final LinkedList<ByteBuffer> outbound = new LinkedList<ByteBuffer>();
+
+  private int queuedBytes;
+
+  private boolean flushScheduled;
+
+  /** Whether the last flush could not write all outbound data. */
+  private boolean writeBlocked;
+
+  private boolean handshakeNeedsWrite;
+
+  private long connectionSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+
+  private int peerInitialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+
+  private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+  private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+
+  /** Time in milliseconds the connection became idle. */
+  private long idleSince = System.currentTimeMillis();
+
+  private final Runnable flusher = new Runnable() {
+    public void run() {
+      synchronized (Http2Connection.this) {
+        flushScheduled = false;
+      }
+      try {
+        flush();
+      } catch (IOException e) {
+        close(e);
+      }
+      updateInterest();
+    }
+  };
+
+  /**
+   * @param origin origin key
+   * @param address socket address of the server
+   * @param host host name
+   * @param sslContext SSL context or {@code null} for cleartext HTTP/2 with prior knowledge
+   * @param hostnameVerifier host name verifier or {@code null} to skip host name verification
+   * @param localInitialWindowSize receive window of each stream
+   * @param localConnectionWindowSize receive window of the connection
+   * @param reactor I/O reactor
+   * @param pool connection pool
+   */
+  Http2Connection(String origin, InetSocketAddress address, String host, SSLContext sslContext,
+      HostnameVerifier hostnameVerifier, int localInitialWindowSize,
+      int localConnectionWindowSize, IoReactor reactor, Http2ConnectionPool pool)
+      throws IOException {
+    this.origin = origin;
+    this.reactor = reactor;
+    this.pool = pool;
+    this.localInitialWindowSize = localInitialWindowSize;
+    this.localConnectionWindowSize = localConnectionWindowSize;
+    net = new SecureChannel(address, host, sslContext, hostnameVerifier,
+        new String[] {"h2", "http/1.1"});
+    // the connection preface is the first thing written once the connection is established
+    ByteBuffer settings = frame(TYPE_SETTINGS, 0, 0, 12);
+    settings.putShort((short) SETTINGS_ENABLE_PUSH).putInt(0);
+    settings.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(localInitialWindowSize);
+    settings.flip();
+    outbound.add(ByteBuffer.wrap(PREFACE));
+    outbound.add(settings);
+    if (localConnectionWindowSize > DEFAULT_INITIAL_WINDOW_SIZE) {
+      outbound.add(windowUpdateFrame(0, localConnectionWindowSize - DEFAULT_INITIAL_WINDOW_SIZE));
+    }
+  }
+
+  int getLocalInitialWindowSize() {
+    return localInitialWindowSize;
+  }
+
+  public void register(Selector selector) {
+    try {
+      key = net.channel.register(selector, SelectionKey.OP_CONNECT, this);
+      synchronized (this) {
+        if (state == STATE_CLOSED) {
+          key.cancel();
+          return;
+        }
+      }
+      if (net.channel.isConnectionPending() && net.channel.finishConnect()) {
+        onConnected();
+      }
+      updateInterest();
+    } catch (IOException e) {
+      close(e);
+    } catch (RuntimeException e) {
+      close(new IOException(e));
+    }
+  }
+
+  public void onSelected(int readyOps) {
+    try {
+      int state;
+      synchronized (this) {
+        state = this.state;
+      }
+      if (state == STATE_CONNECTING && (readyOps & SelectionKey.OP_CONNECT) != 0) {
+        if (net.channel.finishConnect()) {
+          onConnected();
+        }
+      } else if (state == STATE_HANDSHAKING) {
+        handshake();
+      } else if (state == STATE_OPEN) {
+        if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+          flush();
+        }
+        if ((readyOps & SelectionKey.OP_READ) != 0) {
+          readInput();
+        }
+      }
+      updateInterest();
+    } catch (IOException e) {
+      close(e);
+    } catch (RuntimeException e) {
+      close(new IOException(e));
+    }
+  }
+
+  private void onConnected() throws IOException {
+    synchronized (this) {
+      state = STATE_HANDSHAKING;
+    }
+    net.beginHandshake();
+    handshake();
+  }
+
+  private void handshake() throws IOException {
+    int result = net.handshake();
+    synchronized (this) {
+      handshakeNeedsWrite = result == SecureChannel.HANDSHAKE_NEED_WRITE;
+    }
+    if (result != SecureChannel.HANDSHAKE_DONE) {
+      return;
+    }
+    if (net.isSecure() && !"h2".equals(net.getApplicationProtocol())) {
+      synchronized (this) {
+        http2Unsupported = true;
+      }
+      close(new ProtocolException("Server does not support HTTP/2"));
+      return;
+    }
+    synchronized (this) {
+      if (state != STATE_CLOSED) {
+        state = STATE_OPEN;
+      }
+      notifyAll();
+    }
+    flush();
+    readInput();
+  }
+
+  /**
+   * Waits until the connection is established.
+   *
+   * @param timeoutMillis timeout in milliseconds or {@code 0} for an infinite timeout
+   * @return {@code true} if the connection is established, or {@code false} if the server does not
+   *         support HTTP/2 on this origin
+   */
+  boolean awaitOpen(int timeoutMillis) throws IOException {
+    synchronized (this) {
+      long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+      while (state != STATE_OPEN) {
+        if (state == STATE_CLOSED) {
+          if (http2Unsupported) {
+            return false;
+          }
+          throw failure;
+        }
+        if (!await(deadline)) {
+          break;
+        }
+      }
+      if (state == STATE_OPEN) {
+        return true;
+      }
+    }
+    SocketTimeoutException timeout = new SocketTimeoutException("connect timed out");
+    closeAsync(timeout);
+    throw timeout;
+  }
+
+  private boolean await(long deadlineNanos) throws InterruptedIOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000L;
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        wait(remainingMillis);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException();
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+  }
+
+  /** Returns whether a new stream may be created on this connection. */
+  synchronized boolean isAvailable() {
+    return state != STATE_CLOSED && !goAway && streams.size() < peerMaxConcurrentStreams
+        && nextStreamId > 0;
+  }
+
+  /** Returns whether ALPN showed that the server does not support HTTP/2 on this origin. */
+  synchronized boolean isHttp2Unsupported() {
+    return http2Unsupported;
+  }
+
+  /** Returns the number of active streams. */
+  synchronized int getStreamCount() {
+    return streams.size();
+  }
+
+  /** Returns the time in milliseconds since which the connection is idle or {@code -1}. */
+  synchronized long getIdleSince() {
+    return streams.isEmpty() ? idleSince : -1;
+  }
+
+  /**
+   * Sends the request headers on a new stream.
+   *
+   * @param names lower case header names, starting with the pseudo-header fields
+   * @param values header values
+   * @param endStream whether the request has no content
+   * @param headRequest whether the request method is {@code HEAD}
+   * @return new stream or {@code null} if no new stream may be created on this connection
+   */
+  Http2Stream newStream(List<String> names, List<String> values, boolean endStream,
+      boolean headRequest) {
+    Http2Stream stream = new Http2Stream(this, headRequest);
+    synchronized (this) {
+      if (!isAvailable() || state != STATE_OPEN) {
+        return null;
+      }
+      stream.id = nextStreamId;
+      nextStreamId += 2;
+      stream.sendWindow = peerInitialWindowSize;
+      streams.put(stream.id, stream);
+      ByteArrayOutputStream block = new ByteArrayOutputStream();
+      encoder.encode(names, values, block);
+      byte[] bytes = block.toByteArray();
+      int offset = 0;
+      int type = TYPE_HEADERS;
+      do {
+        int length = Math.min(bytes.length - offset, peerMaxFrameSize);
+        int flags = offset + length == bytes.length ? FLAG_END_HEADERS : 0;
+        if (type == TYPE_HEADERS && endStream) {
+          flags |= FLAG_END_STREAM;
+        }
+        ByteBuffer frame = frame(type, flags, stream.id, length);
+        frame.put(bytes, offset, length).flip();
+        enqueue(frame);
+        offset += length;
+        type = TYPE_CONTINUATION;
+      } while (offset < bytes.length);
+    }
+    scheduleFlush();
+    return stream;
+  }
+
+  /** Queues request content, waiting for flow-control credit and outbound queue capacity. */
+  void writeData(Http2Stream stream, byte[] b, int off, int len, long deadlineNanos)
+      throws IOException {
+    while (len > 0) {
+      boolean timedOut = false;
+      synchronized (this) {
+        while (true) {
+          if (state == STATE_CLOSED) {
+            throw failure;
+          }
+          if (streams.get(stream.id) != stream) {
+            throw new IOException("Stream " + stream.id + " was reset");
+          }
+          if (connectionSendWindow > 0 && stream.sendWindow > 0
+              && queuedBytes < MAX_QUEUED_BYTES) {
+            break;
+          }
+          if (!await(deadlineNanos)) {
+            timedOut = true;
+            break;
+          }
+        }
+        if (!timedOut) {
+          int count = (int) Math.min(Math.min(len, peerMaxFrameSize),
+              Math.min(connectionSendWindow, stream.sendWindow));
+          connectionSendWindow -= count;
+          stream.sendWindow -= count;
+          ByteBuffer frame = frame(TYPE_DATA, 0, stream.id, count);
+          frame.put(b, off, count).flip();
+          enqueue(frame);
+          off += count;
+          len -= count;
+        }
+      }
+      if (timedOut) {
+        SocketTimeoutException timeout = new SocketTimeoutException("Write timed out");
+        stream.fail(timeout, false);
+        resetStream(stream, CANCEL);
+        throw timeout;
+      }
+      scheduleFlush();
+    }
+  }
+
+  /** Ends the request content of the given stream. */
+  void endStream(Http2Stream stream) throws IOException {
+    synchronized (this) {
+      if (state == STATE_CLOSED) {
+        throw failure;
+      }
+      if (streams.get(stream.id) != stream) {
+        return;
+      }
+      ByteBuffer frame = frame(TYPE_DATA, FLAG_END_STREAM, stream.id, 0);
+      frame.flip();
+      enqueue(frame);
+    }
+    scheduleFlush();
+  }
+
+  /** Returns flow-control credit for consumed response content of the given stream. */
+  void sendWindowUpdate(int streamId, int increment) {
+    synchronized (this) {
+      if (state == STATE_CLOSED || !streams.containsKey(streamId)) {
+        return;
+      }
+      enqueue(windowUpdateFrame(streamId, increment));
+    }
+    scheduleFlush();
+  }
+
+  /** Resets the given stream, unless it is already closed. */
+  void resetStream(Http2Stream stream, int errorCode) {
+    synchronized (this) {
+      if (state == STATE_CLOSED || streams.get(stream.id) != stream) {
+        return;
+      }
+      removeStream(stream.id);
+      ByteBuffer frame = frame(TYPE_RST_STREAM, 0, stream.id, 4);
+      frame.putInt(errorCode).flip();
+      enqueue(frame);
+    }
+    scheduleFlush();
+    onStreamRemoved();
+  }
+
+  /** Removes a stream. Must hold the lock. */
+  private void removeStream(int streamId) {
+    if (streams.remove(streamId) != null) {
+      if (streams.isEmpty()) {
+        idleSince = System.currentTimeMillis();
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Notifies the pool that a stream was removed, and closes the connection if the server sent
+   * {@code GOAWAY} and no streams are left. Must not hold the lock.
+   */
+  private void onStreamRemoved() {
+    boolean drained;
+    synchronized (this) {
+      drained = goAway && streams.isEmpty() && state != STATE_CLOSED;
+    }
+    if (drained) {
+      closeAsync(new IOException("Connection closed by server"));
+    }
+    pool.onStreamClosed();
+  }
+
+  /** Adds a frame to the outbound queue. Must hold the lock. */
+  private void enqueue(ByteBuffer frame) {
+    outbound.add(frame);
+    queuedBytes += frame.remaining();
+  }
+
+  private void scheduleFlush() {
+    synchronized (this) {
+      if (flushScheduled || state == STATE_CLOSED) {
+        return;
+      }
+      flushScheduled = true;
+    }
+    reactor.execute(flusher);
+  }
+
+  /** Writes as much outbound data as possible. Must be called by the reactor thread. */
+  private void flush() throws IOException {
+    while (true) {
+      ByteBuffer buffer;
+      synchronized (this) {
+        if (state != STATE_OPEN) {
+          return;
+        }
+        buffer = outbound.peek();
+        if (buffer == null) {
+          writeBlocked = !net.flush();
+          return;
+        }
+      }
+      int before = buffer.remaining();
+      boolean written = net.write(buffer);
+      synchronized (this) {
+        queuedBytes -= before - buffer.remaining();
+        if (!written) {
+          writeBlocked = true;
+          notifyAll();
+          return;
+        }
+        outbound.removeFirst();
+        notifyAll();
+      }
+    }
+  }
+
+  private void updateInterest() {
+    SelectionKey key = this.key;
+    if (key == null || !key.isValid()) {
+      return;
+    }
+    int ops;
+    synchronized (this) {
+      switch (state) {
+        case STATE_CONNECTING:
+          ops = SelectionKey.OP_CONNECT;
+          break;
+        case STATE_HANDSHAKING:
+          ops = handshakeNeedsWrite ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+          break;
+        case STATE_OPEN:
+          ops = SelectionKey.OP_READ | (writeBlocked ? SelectionKey.OP_WRITE : 0);
+          break;
+        default:
+          return;
+      }
+    }
+    key.interestOps(ops);
+  }
+
+  /** Reads and processes input until no more input is available. */
+  private void readInput() throws IOException {
+    while (true) {
+      if (!in.hasRemaining()) {
+        ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+        in.flip();
+        larger.put(in);
+        in = larger;
+      }
+      int n = net.read(in);
+      processFrames();
+      if (n < 0) {
+        close(new EOFException("Connection closed by server"));
+        return;
+      }
+      if (n == 0) {
+        return;
+      }
+    }
+  }
+
+  private void processFrames() throws IOException {
+    in.flip();
+    try {
+      while (in.remaining() >= 9) {
+        int position = in.position();
+        int length = ((in.get(position) & 0xff) << 16) | ((in.get(position + 1) & 0xff) << 8)
+            | (in.get(position + 2) & 0xff);
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+          connectionError(FRAME_SIZE_ERROR, "Frame too large: " + length);
+          return;
+        }
+        if (in.remaining() < 9 + length) {
+          return;
+        }
+        int type = in.get(position + 3) & 0xff;
+        int flags = in.get(position + 4) & 0xff;
+        int streamId = in.getInt(position + 5) & 0x7fffffff;
+        ByteBuffer payload = in.duplicate();
+        payload.position(position + 9).limit(position + 9 + length);
+        in.position(position + 9 + length);
+        if (!handleFrame(type, flags, streamId, payload.slice())) {
+          return;
+        }
+      }
+    } finally {
+      in.compact();
+    }
+  }
+
+  /** Handles a frame, returning {@code false} if the connection was closed. */
+  private boolean handleFrame(int type, int flags, int streamId, ByteBuffer payload)
+      throws IOException {
+    if (!settingsReceived && type != TYPE_SETTINGS) {
+      return connectionError(PROTOCOL_ERROR, "Expected SETTINGS frame");
+    }
+    if (headerBlock != null && (type != TYPE_CONTINUATION || streamId != headerBlockStreamId)) {
+      return connectionError(PROTOCOL_ERROR, "Expected CONTINUATION frame");
+    }
+    switch (type) {
+      case TYPE_DATA:
+        return onData(flags, streamId, payload);
+      case TYPE_HEADERS:
+        return onHeaders(flags, streamId, payload);
+      case TYPE_CONTINUATION:
+        if (headerBlock == null) {
+          return connectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION frame");
+        }
+        headerBlock.write(payload.array(), payload.arrayOffset() + payload.position(),
+            payload.remaining());
+        if ((flags & FLAG_END_HEADERS) != 0) {
+          return onHeaderBlock();
+        }
+        return true;
+      case TYPE_RST_STREAM:
+        if (payload.remaining() != 4) {
+          return connectionError(FRAME_SIZE_ERROR, "Invalid RST_STREAM frame");
+        }
+        onReset(streamId, payload.getInt());
+        return true;
+      case TYPE_SETTINGS:
+        return onSettings(flags, streamId, payload);
+      case TYPE_PUSH_PROMISE:
+        return connectionError(PROTOCOL_ERROR, "Server push is disabled");
+      case TYPE_PING:
+        if (payload.remaining() != 8) {
+          return connectionError(FRAME_SIZE_ERROR, "Invalid PING frame");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+          ByteBuffer frame = frame(TYPE_PING, FLAG_ACK, 0, 8);
+          frame.put(payload).flip();
+          synchronized (this) {
+            enqueue(frame);
+          }
+          flush();
+        }
+        return true;
+      case TYPE_GOAWAY:
+        if (payload.remaining() < 8) {
+          return connectionError(FRAME_SIZE_ERROR, "Invalid GOAWAY frame");
+        }
+        onGoAway(payload.getInt() & 0x7fffffff, payload.getInt());
+        return true;
+      case TYPE_WINDOW_UPDATE:
+        if (payload.remaining() != 4) {
+          return connectionError(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame");
+        }
+        return onWindowUpdate(streamId, payload.getInt() & 0x7fffffff);
+      default:
+        // PRIORITY and unknown frame types are ignored
+        return true;
+    }
+  }
+
+  private boolean onData(int flags, int streamId, ByteBuffer payload) throws IOException {
+    int frameLength = payload.remaining();
+    int padding = 0;
+    if ((flags & FLAG_PADDED) != 0) {
+      padding = payload.get() & 0xff;
+      if (padding > payload.remaining()) {
+        return connectionError(PROTOCOL_ERROR, "Invalid padding");
+      }
+      payload.limit(payload.limit() - padding);
+    }
+    connectionUnacknowledged += frameLength;
+    if (connectionUnacknowledged >= localConnectionWindowSize / 2) {
+      synchronized (this) {
+        enqueue(windowUpdateFrame(0, connectionUnacknowledged));
+      }
+      connectionUnacknowledged = 0;
+      flush();
+    }
+    Http2Stream stream;
+    synchronized (this) {
+      stream = streams.get(streamId);
+    }
+    if (stream == null) {
+      // stream already reset or closed
+      return true;
+    }
+    int dataLength = payload.remaining();
+    stream.onData(payload);
+    if (frameLength > dataLength && (flags & FLAG_END_STREAM) == 0) {
+      // padding does not reach the consumer, so credit it right away
+      sendWindowUpdate(streamId, frameLength - dataLength);
+    }
+    if ((flags & FLAG_END_STREAM) != 0) {
+      onRemoteEndStream(stream);
+    }
+    return true;
+  }
+
+  private boolean onHeaders(int flags, int streamId, ByteBuffer payload) throws IOException {
+    int padding = 0;
+    if ((flags & FLAG_PADDED) != 0) {
+      padding = payload.get() & 0xff;
+    }
+    if ((flags & FLAG_PRIORITY) != 0) {
+      if (payload.remaining() < 5) {
+        return connectionError(PROTOCOL_ERROR, "Invalid HEADERS frame");
+      }
+      payload.position(payload.position() + 5);
+    }
+    if (padding > payload.remaining()) {
+      return connectionError(PROTOCOL_ERROR, "Invalid padding");
+    }
+    payload.limit(payload.limit() - padding);
+    headerBlock = new ByteArrayOutputStream(payload.remaining());
+    headerBlock.write(payload.array(), payload.arrayOffset() + payload.position(),
+        payload.remaining());
+    headerBlockStreamId = streamId;
+    headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      return onHeaderBlock();
+    }
+    return true;
+  }
+
+  private boolean onHeaderBlock() throws IOException {
+    ByteBuffer block = ByteBuffer.wrap(headerBlock.toByteArray());
+    headerBlock = null;
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    try {
+      // the block must always be decoded to keep the dynamic table in sync
+      decoder.decode(block, names, values);
+    } catch (ProtocolException e) {
+      return connectionError(COMPRESSION_ERROR, e.getMessage());
+    }
+    Http2Stream stream;
+    synchronized (this) {
+      stream = streams.get(headerBlockStreamId);
+    }
+    if (stream == null) {
+      return true;
+    }
+    if (!stream.hasHeaders()) {
+      int statusCode = -1;
+      List<String> headerNames = new ArrayList<String>();
+      List<String> headerValues = new ArrayList<String>();
+      for (int i = 0; i < names.size(); i++) {
+        String name = names.get(i);
+        if (name.equals(":status")) {
+          try {
+            statusCode = Integer.parseInt(values.get(i));
+          } catch (NumberFormatException e) {
+            statusCode = -1;
+          }
+        } else if (!name.startsWith(":")) {
+          headerNames.add(name);
+          headerValues.add(values.get(i));
+        }
+      }
+      if (statusCode < 100) {
+        stream.fail(new ProtocolException("Invalid :status in response"), false);
+        resetStream(stream, PROTOCOL_ERROR);
+        return true;
+      }
+      if (statusCode / 100 == 1) {
+        // interim response: ignore and wait for the final response
+        return true;
+      }
+      stream.onHeaders(statusCode, headerNames, headerValues);
+    }
+    // otherwise trailers, which are ignored
+    if (headerBlockEndStream) {
+      onRemoteEndStream(stream);
+    }
+    return true;
+  }
+
+  private void onRemoteEndStream(Http2Stream stream) {
+    stream.onEndStream();
+    synchronized (this) {
+      removeStream(stream.id);
+    }
+    onStreamRemoved();
+  }
+
+  private void onReset(int streamId, int errorCode) {
+    Http2Stream stream;
+    synchronized (this) {
+      stream = streams.get(streamId);
+      removeStream(streamId);
+    }
+    if (stream != null) {
+      stream.fail(new IOException("Stream reset by server with error code " + errorCode),
+          errorCode == REFUSED_STREAM);
+      onStreamRemoved();
+    }
+  }
+
+  private boolean onSettings(int flags, int streamId, ByteBuffer payload) throws IOException {
+    if (streamId != 0 || payload.remaining() % 6 != 0) {
+      return connectionError(PROTOCOL_ERROR, "Invalid SETTINGS frame");
+    }
+    if ((flags & FLAG_ACK) != 0) {
+      return true;
+    }
+    settingsReceived = true;
+    String error = null;
+    synchronized (this) {
+      while (payload.hasRemaining() && error == null) {
+        int identifier = payload.getShort() & 0xffff;
+        int value = payload.getInt();
+        switch (identifier) {
+          case SETTINGS_HEADER_TABLE_SIZE:
+            encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+            break;
+          case SETTINGS_MAX_CONCURRENT_STREAMS:
+            peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+            break;
+          case SETTINGS_INITIAL_WINDOW_SIZE:
+            if (value < 0) {
+              error = "Invalid initial window size";
+              break;
+            }
+            int delta = value - peerInitialWindowSize;
+            peerInitialWindowSize = value;
+            for (Http2Stream stream : streams.values()) {
+              stream.sendWindow += delta;
+            }
+            break;
+          case SETTINGS_MAX_FRAME_SIZE:
+            if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+              error = "Invalid maximum frame size";
+              break;
+            }
+            peerMaxFrameSize = value;
+            break;
+          default:
+            // SETTINGS_ENABLE_PUSH is only sent by clients and other settings are ignored
+            break;
+        }
+      }
+      if (error == null) {
+        ByteBuffer ack = frame(TYPE_SETTINGS, FLAG_ACK, 0, 0);
+        ack.flip();
+        enqueue(ack);
+        notifyAll();
+      }
+    }
+    if (error != null) {
+      return connectionError(PROTOCOL_ERROR, error);
+    }
+    flush();
+    pool.onStreamClosed();
+    return true;
+  }
+
+  private void onGoAway(int lastStreamId, int errorCode) {
+    List<Http2Stream> refused = new ArrayList<Http2Stream>();
+    synchronized (this) {
+      goAway = true;
+      for (Http2Stream stream : new ArrayList<Http2Stream>(streams.values())) {
+        if (stream.id > lastStreamId) {
+          refused.add(stream);
+          removeStream(stream.id);
+        }
+      }
+    }
+    for (Http2Stream stream : refused) {
+      stream.fail(new IOException("Stream refused by server (GOAWAY)"), true);
+    }
+    onStreamRemoved();
+  }
+
+  private boolean onWindowUpdate(int streamId, int increment) throws IOException {
+    if (increment == 0) {
+      return connectionError(PROTOCOL_ERROR, "Invalid window size increment");
+    }
+    boolean overflow = false;
+    synchronized (this) {
+      if (streamId == 0) {
+        connectionSendWindow += increment;
+        overflow = connectionSendWindow > Integer.MAX_VALUE;
+      } else {
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+          stream.sendWindow += increment;
+        }
+      }
+      notifyAll();
+    }
+    if (overflow) {
+      return connectionError(FLOW_CONTROL_ERROR, "Connection window overflow");
+    }
+    return true;
+  }
+
+  /** Sends {@code GOAWAY} and closes the connection, returning {@code false}. */
+  private boolean connectionError(int errorCode, String message) {
+    ByteBuffer frame = frame(TYPE_GOAWAY, 0, 0, 8);
+    frame.putInt(0).putInt(errorCode).flip();
+    synchronized (this) {
+      outbound.clear();
+      enqueue(frame);
+    }
+    try {
+      flush();
+    } catch (IOException e) {
+      // ignore
+    }
+    close(new ProtocolException("HTTP/2 protocol error: " + message));
+    return false;
+  }
+
+  /** Closes the connection from any thread, failing all outstanding streams. */
+  void closeAsync(final IOException cause) {
+    synchronized (this) {
+      if (state == STATE_CLOSED) {
+        return;
+      }
+      if (failure == null) {
+        failure = cause;
+      }
+    }
+    reactor.execute(new Runnable() {
+      public void run() {
+        close(cause);
+      }
+    });
+  }
+
+  public void close(IOException cause) {
+    List<Http2Stream> failed;
+    synchronized (this) {
+      if (state == STATE_CLOSED) {
+        return;
+      }
+      state = STATE_CLOSED;
+      if (failure == null) {
+        failure = cause;
+      }
+      failed = new ArrayList<Http2Stream>(streams.values());
+      streams.clear();
+      outbound.clear();
+      queuedBytes = 0;
+      notifyAll();
+    }
+    for (Http2Stream stream : failed) {
+      stream.fail(failure, false);
+    }
+    net.close();
+    pool.remove(this);
+  }
+
+  /** Sends {@code GOAWAY} and closes the connection once it is written. */
+  void shutdownGracefully() {
+    ByteBuffer frame = frame(TYPE_GOAWAY, 0, 0, 8);
+    frame.putInt(0).putInt(NO_ERROR).flip();
+    boolean open;
+    synchronized (this) {
+      open = state == STATE_OPEN;
+      if (open) {
+        enqueue(frame);
+      }
+    }
+    if (!open) {
+      closeAsync(new IOException("Connection closed"));
+      return;
+    }
+    reactor.execute(new Runnable() {
+      public void run() {
+        try {
+          flush();
+        } catch (IOException e) {
+          // ignore
+        }
+        close(new IOException("Connection closed"));
+      }
+    });
+  }
+
+  /** Returns a new frame buffer in write mode with the frame header written. */
+  static ByteBuffer frame(int type, int flags, int streamId, int length) {
+    ByteBuffer frame = ByteBuffer.allocate(9 + length);
+    frame.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+    frame.put((byte) type).put((byte) flags).putInt(streamId);
+    return frame;
+  }
+
+  private static ByteBuffer windowUpdateFrame(int streamId, int increment) {
+    ByteBuffer frame = frame(TYPE_WINDOW_UPDATE, 0, streamId, 4);
+    frame.putInt(increment).flip();
+    return frame;
+  }
+}
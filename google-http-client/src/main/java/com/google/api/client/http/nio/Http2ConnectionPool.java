@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Pool of HTTP/2 connections, keyed by origin (scheme, host and port).
+ *
+ * <p>
+ * Since a single HTTP/2 connection carries many concurrent streams, a request uses the least loaded
+ * connection of its origin that accepts new streams. A new connection is only opened when no
+ * connection accepts new streams and the per-origin limit is not reached; otherwise the caller
+ * waits until a stream is closed.
+ * </p>
+ *
+ * <p>
+ * Origins whose server negotiated another protocol than HTTP/2 are remembered, so that later
+ * requests go straight to the HTTP/1.1 fallback.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class Http2ConnectionPool {
+
+  private final IoReactor reactor;
+
+  private final int maxConnectionsPerOrigin;
+
+  private final long keepAliveMillis;
+
+  private final int initialWindowSize;
+
+  private final int connectionWindowSize;
+
+  private final SSLContext sslContext;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  // fields below are guarded by this
+
+  /** Open or opening connections by origin. */
+  private final Map<String, List<Http2Connection>> connections =
+      new HashMap<String, List<Http2Connection>>();
+
+  /** Number of connections being created by origin that are not yet in {@link #connections}. */
+  private final Map<String, Integer> pending = new HashMap<String, Integer>();
+
+  /** Origins known not to support HTTP/2. */
+  private final Set<String> http1Origins = new HashSet<String>();
+
+  private boolean shutdown;
+
+  /**
+   * @param reactor I/O reactor
+   * @param maxConnectionsPerOrigin maximum number of connections per origin
+   * @param keepAliveMillis time in milliseconds after which an idle connection is closed
+   * @param initialWindowSize receive window of each stream
+   * @param connectionWindowSize receive window of each connection
+   * @param sslContext SSL context for secure connections
+   * @param hostnameVerifier host name verifier or {@code null} to skip host name verification
+   */
+  Http2ConnectionPool(IoReactor reactor, int maxConnectionsPerOrigin, long keepAliveMillis,
+      int initialWindowSize, int connectionWindowSize, SSLContext sslContext,
+      HostnameVerifier hostnameVerifier) {
+    this.reactor = reactor;
+    this.maxConnectionsPerOrigin = maxConnectionsPerOrigin;
+    this.keepAliveMillis = keepAliveMillis;
+    this.initialWindowSize = initialWindowSize;
+    this.connectionWindowSize = connectionWindowSize;
+    this.sslContext = sslContext;
+    this.hostnameVerifier = hostnameVerifier;
+  }
+
+  /**
+   * Acquires a connection that accepted new streams at the time of the call. The connection may
+   * still be connecting, so the caller must {@link Http2Connection#awaitOpen wait} for it.
+   *
+   * @param secure whether to use TLS
+   * @param host host name
+   * @param port port
+   * @param timeoutMillis timeout in milliseconds to wait for a connection or {@code 0} for an
+   *        infinite timeout
+   * @return connection or {@code null} if the origin is known not to support HTTP/2
+   */
+  Http2Connection acquire(boolean secure, String host, int port, int timeoutMillis)
+      throws IOException {
+    String origin = (secure ? "https://" : "http://") + host + ":" + port;
+    long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+    synchronized (this) {
+      while (true) {
+        if (shutdown) {
+          throw new IOException("Transport has been shut down");
+        }
+        if (http1Origins.contains(origin)) {
+          return null;
+        }
+        List<Http2Connection> list = connections.get(origin);
+        Http2Connection best = null;
+        if (list != null) {
+          for (Http2Connection connection : list) {
+            if (connection.isAvailable()
+                && (best == null || connection.getStreamCount() < best.getStreamCount())) {
+              best = connection;
+            }
+          }
+        }
+        if (best != null) {
+          return best;
+        }
+        int pendingCount = pending.containsKey(origin) ? pending.get(origin) : 0;
+        if ((list == null ? 0 : list.size()) + pendingCount < maxConnectionsPerOrigin) {
+          pending.put(origin, pendingCount + 1);
+          break;
+        }
+        await(deadline);
+      }
+    }
+    Http2Connection connection = null;
+    try {
+      connection = new Http2Connection(origin, new InetSocketAddress(host, port), host,
+          secure ? sslContext : null, hostnameVerifier, initialWindowSize, connectionWindowSize,
+          reactor, this);
+    } finally {
+      synchronized (this) {
+        int pendingCount = pending.get(origin) - 1;
+        if (pendingCount == 0) {
+          pending.remove(origin);
+        } else {
+          pending.put(origin, pendingCount);
+        }
+        if (connection != null) {
+          List<Http2Connection> list = connections.get(origin);
+          if (list == null) {
+            list = new ArrayList<Http2Connection>();
+            connections.put(origin, list);
+          }
+          list.add(connection);
+        }
+        notifyAll();
+      }
+    }
+    try {
+      if (isShutdown()) {
+        throw new IOException("Transport has been shut down");
+      }
+      reactor.register(connection);
+    } catch (IOException e) {
+      connection.close(e);
+      throw e;
+    }
+    return connection;
+  }
+
+  private void await(long deadlineNanos) throws IOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000L;
+        if (remainingMillis <= 0) {
+          throw new SocketTimeoutException("Timed out waiting for a connection from the pool");
+        }
+        wait(remainingMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException();
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+  }
+
+  private synchronized boolean isShutdown() {
+    return shutdown;
+  }
+
+  /** Called when a stream is closed or the settings of a connection change. */
+  synchronized void onStreamClosed() {
+    notifyAll();
+  }
+
+  /** Removes a closed connection from the pool. */
+  synchronized void remove(Http2Connection connection) {
+    List<Http2Connection> list = connections.get(connection.origin);
+    if (list != null && list.remove(connection)) {
+      if (list.isEmpty()) {
+        connections.remove(connection.origin);
+      }
+      if (connection.isHttp2Unsupported()) {
+        http1Origins.add(connection.origin);
+      }
+      notifyAll();
+    }
+  }
+
+  /** Closes connections without streams that have been idle for longer than the keep-alive time. */
+  void evictIdle() {
+    long now = System.currentTimeMillis();
+    List<Http2Connection> expired = new ArrayList<Http2Connection>();
+    synchronized (this) {
+      for (List<Http2Connection> list : connections.values()) {
+        for (Http2Connection connection : list) {
+          long idleSince = connection.getIdleSince();
+          if (idleSince != -1 && now - idleSince >= keepAliveMillis) {
+            expired.add(connection);
+          }
+        }
+      }
+    }
+    for (Http2Connection connection : expired) {
+      connection.shutdownGracefully();
+    }
+  }
+
+  /** Returns the number of open or opening connections. */
+  synchronized int getConnectionCount() {
+    int count = 0;
+    for (List<Http2Connection> list : connections.values()) {
+      count += list.size();
+    }
+    for (int pendingCount : pending.values()) {
+      count += pendingCount;
+    }
+    return count;
+  }
+
+  /** Closes all connections and fails all pending requests. */
+  void shutdown() {
+    List<Http2Connection> open = new ArrayList<Http2Connection>();
+    synchronized (this) {
+      shutdown = true;
+      for (List<Http2Connection> list : connections.values()) {
+        open.addAll(list);
+      }
+      notifyAll();
+    }
+    for (Http2Connection connection : open) {
+      connection.closeAsync(new IOException("Transport has been shut down"));
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Low-level HTTP request for {@link Http2Transport}.
+ */
+final class Http2Request extends LowLevelHttpRequest {
+
+  /** Connection-specific header fields that must not be sent over HTTP/2. */
+  private static final Set<String> CONNECTION_HEADERS = new HashSet<String>(Arrays.asList(
+      "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host",
+      "te"));
+
+  private final Http2ConnectionPool pool;
+  private final ConnectionPool fallbackPool;
+  private final boolean priorKnowledge;
+  private final String method;
+  private final String url;
+  private final boolean secure;
+  private final String host;
+  private final int port;
+  private final String authority;
+  private final String path;
+  private final List<String> headerNames = new ArrayList<String>();
+  private final List<String> headerValues = new ArrayList<String>();
+  private int connectTimeout;
+  private int readTimeout;
+  private int writeTimeout;
+
+  /**
+   * @param pool HTTP/2 connection pool
+   * @param fallbackPool HTTP/1.1 connection pool for servers that do not support HTTP/2
+   * @param priorKnowledge whether to use cleartext HTTP/2 for {@code http} URLs
+   * @param method HTTP method
+   * @param url URL
+   */
+  Http2Request(Http2ConnectionPool pool, ConnectionPool fallbackPool, boolean priorKnowledge,
+      String method, String url) throws MalformedURLException {
+    this.pool = pool;
+    this.fallbackPool = fallbackPool;
+    this.priorKnowledge = priorKnowledge;
+    this.method = method;
+    this.url = url;
+    URL parsed = new URL(url);
+    String protocol = parsed.getProtocol();
+    Preconditions.checkArgument(protocol.equals("http") || protocol.equals("https"),
+        "unsupported protocol: %s", protocol);
+    secure = protocol.equals("https");
+    String host = parsed.getHost();
+    // strip the brackets of an IPv6 address literal
+    this.host = host.startsWith("[") ? host.substring(1, host.length() - 1) : host;
+    int defaultPort = secure ? 443 : 80;
+    port = parsed.getPort() == -1 ? defaultPort : parsed.getPort();
+    authority = port == defaultPort ? host : host + ":" + port;
+    String file = parsed.getFile();
+    path = file.length() == 0 ? "/" : file;
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    headerNames.add(name);
+    headerValues.add(value);
+  }
+
+  @Override
+  public void setTimeout(int connectTimeout, int readTimeout) {
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  @Override
+  public void setWriteTimeout(int writeTimeout) {
+    this.writeTimeout = writeTimeout;
+  }
+
+  @Override
+  public LowLevelHttpResponse execute() throws IOException {
+    if (secure ? !SecureChannel.isAlpnSupported() : !priorKnowledge) {
+      return executeHttp1();
+    }
+    StreamingContent content = getStreamingContent();
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    serializeHeaders(content, names, values);
+    boolean headRequest = method.equals(HttpMethods.HEAD);
+    while (true) {
+      Http2Connection connection = pool.acquire(secure, host, port, connectTimeout);
+      if (connection == null || !connection.awaitOpen(connectTimeout)) {
+        // the server does not support HTTP/2
+        return executeHttp1();
+      }
+      Http2Stream stream = connection.newStream(names, values, content == null, headRequest);
+      if (stream == null) {
+        // the connection stopped accepting new streams in the meantime
+        continue;
+      }
+      try {
+        if (content != null) {
+          OutputStream out = stream.newOutputStream(writeTimeout);
+          content.writeTo(out);
+          out.close();
+        }
+        stream.awaitHeaders(readTimeout);
+        return new Http2Response(stream, readTimeout);
+      } catch (IOException e) {
+        stream.close();
+        // a stream refused by the server was not processed, so a request without content can
+        // safely be retried
+        if (!stream.isRefused() || content != null) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /** Executes the request on an HTTP/1.1 connection. */
+  private LowLevelHttpResponse executeHttp1() throws IOException {
+    NioHttpRequest request = new NioHttpRequest(fallbackPool, method, url);
+    for (int i = 0; i < headerNames.size(); i++) {
+      request.addHeader(headerNames.get(i), headerValues.get(i));
+    }
+    request.setTimeout(connectTimeout, readTimeout);
+    request.setWriteTimeout(writeTimeout);
+    request.setStreamingContent(getStreamingContent());
+    request.setContentType(getContentType());
+    request.setContentEncoding(getContentEncoding());
+    request.setContentLength(getContentLength());
+    return request.execute();
+  }
+
+  /** Adds the pseudo-header fields followed by the lower case request header fields. */
+  private void serializeHeaders(StreamingContent content, List<String> names,
+      List<String> values) {
+    addHeader(names, values, ":method", method);
+    addHeader(names, values, ":scheme", secure ? "https" : "http");
+    addHeader(names, values, ":authority", authority);
+    addHeader(names, values, ":path", path);
+    for (int i = 0; i < headerNames.size(); i++) {
+      String name = headerNames.get(i).toLowerCase(Locale.US);
+      if (!CONNECTION_HEADERS.contains(name)) {
+        addHeader(names, values, name, headerValues.get(i));
+      }
+    }
+    if (content != null) {
+      String contentType = getContentType();
+      if (contentType != null) {
+        addHeader(names, values, "content-type", contentType);
+      }
+      String contentEncoding = getContentEncoding();
+      if (contentEncoding != null) {
+        addHeader(names, values, "content-encoding", contentEncoding);
+      }
+      long contentLength = getContentLength();
+      if (contentLength >= 0) {
+        addHeader(names, values, "content-length", Long.toString(contentLength));
+      }
+    } else if (method.equals(HttpMethods.POST) || method.equals(HttpMethods.PUT)
+        || method.equals(HttpMethods.PATCH)) {
+      addHeader(names, values, "content-length", "0");
+    }
+  }
+
+  private static void addHeader(List<String> names, List<String> values, String name,
+      String value) {
+    Preconditions.checkArgument(isValidHeaderText(name) && isValidHeaderText(value),
+        "invalid header: %s", name);
+    names.add(name);
+    values.add(value);
+  }
+
+  private static boolean isValidHeaderText(String text) {
+    return text.indexOf('\r') == -1 && text.indexOf('\n') == -1 && text.indexOf('\0') == -1;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.InputStream;
+
+/**
+ * Low-level HTTP response for {@link Http2Transport}.
+ */
+final class Http2Response extends LowLevelHttpResponse {
+
+  private final Http2Stream stream;
+  private final InputStream content;
+
+  /**
+   * @param stream stream whose response headers have been received
+   * @param readTimeout timeout in milliseconds to read response content or {@code 0} for an
+   *        infinite timeout
+   */
+  Http2Response(Http2Stream stream, int readTimeout) {
+    this.stream = stream;
+    content = stream.newInputStream(readTimeout);
+  }
+
+  @Override
+  public int getStatusCode() {
+    return stream.getStatusCode();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Closing the returned stream before the content has been fully read resets the HTTP/2 stream,
+   * but leaves the connection open for other requests.
+   * </p>
+   */
+  @Override
+  public InputStream getContent() {
+    return content;
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return stream.getHeaderValue("content-encoding");
+  }
+
+  @Override
+  public long getContentLength() {
+    return stream.isHeadRequest() ? 0 : stream.getContentLength();
+  }
+
+  @Override
+  public String getContentType() {
+    return stream.getHeaderValue("content-type");
+  }
+
+  /** HTTP/2 has no reason phrase, so this always returns {@code null}. */
+  @Override
+  public String getReasonPhrase() {
+    return null;
+  }
+
+  @Override
+  public String getStatusLine() {
+    return "HTTP/2 " + stream.getStatusCode();
+  }
+
+  @Override
+  public int getHeaderCount() {
+    return stream.getHeaderNames().size();
+  }
+
+  @Override
+  public String getHeaderName(int index) {
+    return stream.getHeaderNames().get(index);
+  }
+
+  @Override
+  public String getHeaderValue(int index) {
+    return stream.getHeaderValues().get(index);
+  }
+
+  @Override
+  public void disconnect() {
+    stream.close();
+  }
+}
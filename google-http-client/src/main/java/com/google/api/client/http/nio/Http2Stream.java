@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A single request/response exchange on an {@link Http2Connection}.
+ *
+ * <p>
+ * The I/O reactor thread publishes the response into the stream, and the thread that executed the
+ * request writes the request content and consumes the response content. Consuming response content
+ * returns flow-control credit to the server, so the amount of buffered content is bounded by the
+ * stream's receive window.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class Http2Stream {
+
+  private final Http2Connection connection;
+
+  private final boolean headRequest;
+
+  /** Stream identifier, assigned when the request headers are sent. */
+  int id;
+
+  /** Send window, guarded by the connection. */
+  long sendWindow;
+
+  // fields below are guarded by this
+
+  private int statusCode = -1;
+  private List<String> headerNames;
+  private List<String> headerValues;
+  private long contentLength = -1;
+
+  private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+  private int chunkOffset;
+  private int buffered;
+
+  /** Number of consumed bytes for which no flow-control credit has been returned yet. */
+  private int unacknowledged;
+
+  private boolean complete;
+  private boolean discarded;
+  private IOException failure;
+
+  /** Whether the server refused the stream before processing it, so it is safe to retry. */
+  private boolean refused;
+
+  /**
+   * @param connection connection
+   * @param headRequest whether the request method is {@code HEAD}
+   */
+  Http2Stream(Http2Connection connection, boolean headRequest) {
+    this.connection = connection;
+    this.headRequest = headRequest;
+  }
+
+  boolean isHeadRequest() {
+    return headRequest;
+  }
+
+  // Reactor side
+
+  synchronized boolean hasHeaders() {
+    return statusCode != -1;
+  }
+
+  synchronized void onHeaders(int statusCode, List<String> headerNames,
+      List<String> headerValues) {
+    this.statusCode = statusCode;
+    this.headerNames = headerNames;
+    this.headerValues = headerValues;
+    for (int i = 0; i < headerNames.size(); i++) {
+      if (headerNames.get(i).equals("content-length")) {
+        try {
+          contentLength = Long.parseLong(headerValues.get(i).trim());
+        } catch (NumberFormatException e) {
+          contentLength = -1;
+        }
+      }
+    }
+    notifyAll();
+  }
+
+  synchronized void onData(ByteBuffer content) {
+    int length = content.remaining();
+    if (discarded || length == 0) {
+      content.position(content.limit());
+      return;
+    }
+    byte[] chunk = new byte[length];
+    content.get(chunk);
+    chunks.add(chunk);
+    buffered += length;
+    notifyAll();
+  }
+
+  synchronized void onEndStream() {
+    complete = true;
+    notifyAll();
+  }
+
+  /**
+   * Fails the stream.
+   *
+   * @param cause failure
+   * @param refused whether the server did not process the request, so it is safe to retry
+   */
+  synchronized void fail(IOException cause, boolean refused) {
+    if (!complete && failure == null) {
+      failure = cause;
+      this.refused = refused;
+      notifyAll();
+    }
+  }
+
+  // Consumer side
+
+  synchronized boolean isRefused() {
+    return refused;
+  }
+
+  /**
+   * Waits for the response headers.
+   *
+   * @param timeoutMillis timeout in milliseconds or {@code 0} for an infinite timeout
+   */
+  void awaitHeaders(int timeoutMillis) throws IOException {
+    synchronized (this) {
+      long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+      while (statusCode == -1) {
+        if (failure != null) {
+          throw failure;
+        }
+        if (!await(deadline)) {
+          failure = new SocketTimeoutException("Read timed out");
+          break;
+        }
+      }
+      if (failure == null) {
+        return;
+      }
+    }
+    // only reached after a timeout
+    connection.resetStream(this, Http2Connection.CANCEL);
+    throw failure;
+  }
+
+  /**
+   * Waits until notified or the deadline ({@code 0} for none) passes, and returns {@code false} if
+   * the deadline has passed. Must hold the lock.
+   */
+  private boolean await(long deadlineNanos) throws InterruptedIOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000L;
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        wait(remainingMillis);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException("Read interrupted");
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+  }
+
+  synchronized int getStatusCode() {
+    return statusCode;
+  }
+
+  synchronized List<String> getHeaderNames() {
+    return headerNames;
+  }
+
+  synchronized List<String> getHeaderValues() {
+    return headerValues;
+  }
+
+  /** Returns the first value of the given header or {@code null} for none. */
+  synchronized String getHeaderValue(String name) {
+    for (int i = 0; i < headerNames.size(); i++) {
+      if (headerNames.get(i).equalsIgnoreCase(name)) {
+        return headerValues.get(i);
+      }
+    }
+    return null;
+  }
+
+  synchronized long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * Reads response content, blocking until some content is available.
+   *
+   * @return number of bytes read or {@code -1} at the end of the content
+   */
+  int read(byte[] b, int off, int len, int timeoutMillis) throws IOException {
+    int result;
+    int credit = 0;
+    synchronized (this) {
+      long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+      while (buffered == 0 && !complete) {
+        if (failure != null) {
+          throw failure;
+        }
+        if (discarded) {
+          return -1;
+        }
+        if (!await(deadline)) {
+          failure = new SocketTimeoutException("Read timed out");
+          break;
+        }
+      }
+      if (failure == null) {
+        if (buffered == 0) {
+          return -1;
+        }
+        result = 0;
+        while (result < len && buffered > 0) {
+          byte[] chunk = chunks.getFirst();
+          int count = Math.min(len - result, chunk.length - chunkOffset);
+          System.arraycopy(chunk, chunkOffset, b, off + result, count);
+          result += count;
+          buffered -= count;
+          chunkOffset += count;
+          if (chunkOffset == chunk.length) {
+            chunks.removeFirst();
+            chunkOffset = 0;
+          }
+        }
+        unacknowledged += result;
+        if (!complete && unacknowledged >= connection.getLocalInitialWindowSize() / 2) {
+          credit = unacknowledged;
+          unacknowledged = 0;
+        }
+      } else {
+        result = -1;
+      }
+    }
+    if (result == -1) {
+      // only reached after a timeout
+      connection.resetStream(this, Http2Connection.CANCEL);
+      throw new SocketTimeoutException("Read timed out");
+    }
+    if (credit > 0) {
+      connection.sendWindowUpdate(id, credit);
+    }
+    return result;
+  }
+
+  synchronized int available() {
+    return buffered;
+  }
+
+  /**
+   * Closes the response content: any remaining content is dropped, and the stream is reset if the
+   * response has not been completely received. Unlike HTTP/1.1, this never closes the connection.
+   */
+  void close() {
+    synchronized (this) {
+      if (discarded) {
+        return;
+      }
+      discarded = true;
+      chunks.clear();
+      buffered = 0;
+      notifyAll();
+      if (complete || failure != null) {
+        return;
+      }
+    }
+    connection.resetStream(this, Http2Connection.CANCEL);
+  }
+
+  /** Returns a new input stream for the response content. */
+  InputStream newInputStream(final int readTimeout) {
+    return new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        return Http2Stream.this.read(b, off, len, readTimeout);
+      }
+
+      @Override
+      public int available() {
+        return Http2Stream.this.available();
+      }
+
+      @Override
+      public void close() {
+        Http2Stream.this.close();
+      }
+    };
+  }
+
+  /**
+   * Returns a new output stream for the request content, which ends the stream when closed.
+   *
+   * @param writeTimeout timeout in milliseconds to write the request content or {@code 0} for an
+   *        infinite timeout
+   */
+  OutputStream newOutputStream(final int writeTimeout) {
+    final long deadline = writeTimeout == 0 ? 0 : System.nanoTime() + writeTimeout * 1000000L;
+    return new OutputStream() {
+
+      private boolean closed;
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        connection.writeData(Http2Stream.this, b, off, len, deadline);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          connection.endStream(Http2Stream.this);
+        }
+      }
+    };
+  }
+}
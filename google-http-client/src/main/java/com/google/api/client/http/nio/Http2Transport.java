@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.SslUtils;
+
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+/**
+ * {@link Beta} <br/>
+ * Thread-safe HTTP/2 low-level transport based on the {@code java.nio} package.
+ *
+ * <p>
+ * Concurrent requests to the same host are multiplexed as streams over a single connection, with
+ * header compression (HPACK) and per-stream flow control, so that slow responses do not block
+ * other requests and response content is buffered only up to the
+ * {@link Builder#setInitialWindowSize stream window}. Like {@link NioHttpTransport}, all
+ * connections are driven by a single selector thread.
+ * </p>
+ *
+ * <p>
+ * For {@code https} URLs, HTTP/2 is negotiated with TLS ALPN, which requires a Java runtime that
+ * supports ALPN (Java 9 or later, or Java 8 update 252 or later). For {@code http} URLs, cleartext
+ * HTTP/2 is only used if {@link Builder#setPriorKnowledgeEnabled enabled}. In all other cases,
+ * including servers that do not negotiate HTTP/2, requests are sent over HTTP/1.1 connections
+ * managed like in {@link NioHttpTransport}.
+ * </p>
+ *
+ * <p>
+ * Server push and proxies are not supported.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe. For maximum efficiency, applications should use a single
+ * globally-shared instance of the HTTP transport, and should call {@link #shutdown()} when it is
+ * no longer needed.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class Http2Transport extends HttpTransport {
+
+  private final IoReactor reactor;
+
+  private final Http2ConnectionPool pool;
+
+  private final ConnectionPool fallbackPool;
+
+  private final boolean priorKnowledge;
+
+  /**
+   * Constructor with the default options.
+   *
+   * <p>
+   * Use {@link Builder} to modify the options.
+   * </p>
+   */
+  public Http2Transport() {
+    this(new Builder());
+  }
+
+  Http2Transport(Builder builder) {
+    SSLContext sslContext = builder.sslContext;
+    if (sslContext == null) {
+      try {
+        sslContext = SSLContext.getDefault();
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    HostnameVerifier hostnameVerifier =
+        builder.hostnameVerifier == null ? new DefaultHostnameVerifier() : builder.hostnameVerifier;
+    priorKnowledge = builder.priorKnowledge;
+    final Object[] poolHolder = new Object[2];
+    reactor = new IoReactor("google-http-client-h2-" + System.identityHashCode(this),
+        new Runnable() {
+          public void run() {
+            ((Http2ConnectionPool) poolHolder[0]).evictIdle();
+            ((ConnectionPool) poolHolder[1]).evictIdle();
+          }
+        });
+    // the connection window allows a few streams to receive content at full speed
+    int connectionWindowSize = (int) Math.min(Integer.MAX_VALUE, 4L * builder.initialWindowSize);
+    pool = new Http2ConnectionPool(reactor, builder.maxConnectionsPerHost,
+        builder.keepAliveMillis, builder.initialWindowSize, connectionWindowSize, sslContext,
+        hostnameVerifier);
+    fallbackPool = new ConnectionPool(reactor,
+        NioHttpTransport.Builder.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+        NioHttpTransport.Builder.DEFAULT_MAX_TOTAL_CONNECTIONS, builder.keepAliveMillis, 1,
+        sslContext, hostnameVerifier);
+    poolHolder[0] = pool;
+    poolHolder[1] = fallbackPool;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * All HTTP methods are supported.
+   * </p>
+   */
+  @Override
+  public boolean supportsMethod(String method) {
+    return true;
+  }
+
+  @Override
+  protected Http2Request buildRequest(String method, String url) throws IOException {
+    return new Http2Request(pool, fallbackPool, priorKnowledge, method, url);
+  }
+
+  /**
+   * Closes all connections and stops the I/O thread. Requests that are still in progress fail.
+   */
+  @Override
+  public void shutdown() throws IOException {
+    pool.shutdown();
+    fallbackPool.shutdown();
+    reactor.shutdown();
+    super.shutdown();
+  }
+
+  /** Returns the number of open HTTP/2 connections, including connections being established. */
+  int getConnectionCount() {
+    return pool.getConnectionCount();
+  }
+
+  /** Returns the number of open HTTP/1.1 connections, including connections being established. */
+  int getFallbackConnectionCount() {
+    return fallbackPool.getConnectionCount();
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Builder for {@link Http2Transport}.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Builder {
+
+    /** Default maximum number of HTTP/2 connections per host ({@code 1}). */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 1;
+
+    /** Default keep-alive time in milliseconds ({@code 60000}). */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+
+    /** Default receive window of each stream in bytes ({@code 1048576}). */
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = 1024 * 1024;
+
+    boolean priorKnowledge;
+
+    int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+    int initialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    /** SSL context or {@code null} for the default. */
+    SSLContext sslContext;
+
+    /** Host name verifier or {@code null} for the default. */
+    HostnameVerifier hostnameVerifier;
+
+    /** Returns whether cleartext HTTP/2 is used for {@code http} URLs. */
+    public boolean isPriorKnowledgeEnabled() {
+      return priorKnowledge;
+    }
+
+    /**
+     * Sets whether cleartext HTTP/2 ("h2c") is used for {@code http} URLs, which requires prior
+     * knowledge that the servers support it. Upgrading HTTP/1.1 connections is not supported.
+     *
+     * <p>
+     * The default value is {@code false}, in which case {@code http} URLs use HTTP/1.1.
+     * </p>
+     */
+    public Builder setPriorKnowledgeEnabled(boolean priorKnowledge) {
+      this.priorKnowledge = priorKnowledge;
+      return this;
+    }
+
+    /** Returns the maximum number of HTTP/2 connections per host (scheme, host name and port). */
+    public int getMaxConnectionsPerHost() {
+      return maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of HTTP/2 connections per host (scheme, host name and port).
+     * Additional connections are only opened when the server limits the number of concurrent
+     * streams of a connection.
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_MAX_CONNECTIONS_PER_HOST}.
+     * </p>
+     */
+    public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+      Preconditions.checkArgument(maxConnectionsPerHost > 0);
+      this.maxConnectionsPerHost = maxConnectionsPerHost;
+      return this;
+    }
+
+    /** Returns the time in milliseconds after which an idle connection is closed. */
+    public long getKeepAliveMillis() {
+      return keepAliveMillis;
+    }
+
+    /**
+     * Sets the time after which an idle connection is closed.
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_KEEP_ALIVE_MILLIS}.
+     * </p>
+     */
+    public Builder setKeepAlive(long duration, TimeUnit unit) {
+      Preconditions.checkArgument(duration >= 0);
+      this.keepAliveMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /** Returns the receive window of each stream in bytes. */
+    public int getInitialWindowSize() {
+      return initialWindowSize;
+    }
+
+    /**
+     * Sets the receive window of each stream in bytes, which is the maximum amount of response
+     * content buffered per request that the application has not read yet.
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_INITIAL_WINDOW_SIZE}.
+     * </p>
+     */
+    public Builder setInitialWindowSize(int initialWindowSize) {
+      Preconditions.checkArgument(
+          initialWindowSize >= Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE);
+      this.initialWindowSize = initialWindowSize;
+      return this;
+    }
+
+    /**
+     * Sets the SSL context based on root certificates in a Java KeyStore.
+     *
+     * @param keyStoreStream input stream to the key store (closed at the end of this method in a
+     *        finally block)
+     * @param storePass password protecting the key store file
+     */
+    public Builder trustCertificatesFromJavaKeyStore(InputStream keyStoreStream, String storePass)
+        throws GeneralSecurityException, IOException {
+      KeyStore trustStore = SecurityUtils.getJavaKeyStore();
+      SecurityUtils.loadKeyStore(trustStore, keyStoreStream, storePass);
+      return trustCertificates(trustStore);
+    }
+
+    /**
+     * Sets the SSL context based on root certificates generated from the specified stream using
+     * {@link CertificateFactory#generateCertificates(InputStream)}.
+     *
+     * @param certificateStream certificate stream
+     */
+    public Builder trustCertificatesFromStream(InputStream certificateStream)
+        throws GeneralSecurityException, IOException {
+      KeyStore trustStore = SecurityUtils.getJavaKeyStore();
+      trustStore.load(null, null);
+      SecurityUtils.loadKeyStoreFromCertificates(
+          trustStore, SecurityUtils.getX509CertificateFactory(), certificateStream);
+      return trustCertificates(trustStore);
+    }
+
+    /**
+     * Sets the SSL context based on a root certificate trust store.
+     *
+     * @param trustStore certificate trust store (use for example {@link SecurityUtils#loadKeyStore}
+     *        or {@link SecurityUtils#loadKeyStoreFromCertificates})
+     */
+    public Builder trustCertificates(KeyStore trustStore) throws GeneralSecurityException {
+      SSLContext sslContext = SslUtils.getTlsSslContext();
+      SslUtils.initSslContext(sslContext, trustStore, SslUtils.getPkixTrustManagerFactory());
+      return setSslContext(sslContext);
+    }
+
+    /**
+     * {@link Beta} <br/>
+     * Disables validating server SSL certificates by setting the SSL context using
+     * {@link SslUtils#trustAllSSLContext()} and the host name verifier using
+     * {@link SslUtils#trustAllHostnameVerifier()}.
+     *
+     * <p>
+     * Be careful! Disabling certificate validation is dangerous and should only be done in testing
+     * environments.
+     * </p>
+     */
+    @Beta
+    public Builder doNotValidateCertificate() throws GeneralSecurityException {
+      hostnameVerifier = SslUtils.trustAllHostnameVerifier();
+      sslContext = SslUtils.trustAllSSLContext();
+      return this;
+    }
+
+    /** Returns the SSL context or {@code null} for the default. */
+    public SSLContext getSslContext() {
+      return sslContext;
+    }
+
+    /** Sets the SSL context or {@code null} for the default. */
+    public Builder setSslContext(SSLContext sslContext) {
+      this.sslContext = sslContext;
+      return this;
+    }
+
+    /** Returns the host name verifier or {@code null} for the default. */
+    public HostnameVerifier getHostnameVerifier() {
+      return hostnameVerifier;
+    }
+
+    /** Sets the host name verifier or {@code null} for the default. */
+    public Builder setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+      this.hostnameVerifier = hostnameVerifier;
+      return this;
+    }
+
+    /** Returns a new instance of {@link Http2Transport} based on the options. */
+    public Http2Transport build() {
+      return new Http2Transport(this);
+    }
+  }
+}
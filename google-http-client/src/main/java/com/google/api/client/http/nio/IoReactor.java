@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single selector thread that drives all connections of a transport.
+ *
+ * <p>
+ * The thread is a daemon thread that is started lazily when the first connection is opened. Other
+ * threads interact with it by submitting tasks with {@link #execute(Runnable)}.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class IoReactor implements Runnable {
+
+  private static final Logger LOGGER = Logger.getLogger(IoReactor.class.getName());
+
+  /** Interval in milliseconds at which the periodic task runs. */
+  private static final long PERIOD_MILLIS = 1000;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+  /** Task run periodically on the reactor thread or {@code null} for none. */
+  private final Runnable periodicTask;
+
+  private final String threadName;
+
+  // fields below are guarded by this
+
+  private Selector selector;
+
+  private Thread thread;
+
+  private boolean shutdown;
+
+  /**
+   * @param threadName name of the reactor thread
+   * @param periodicTask task run about every second on the reactor thread or {@code null} for none
+   */
+  IoReactor(String threadName, Runnable periodicTask) {
+    this.threadName = threadName;
+    this.periodicTask = periodicTask;
+  }
+
+  /** Registers the given channel with the selector, starting the reactor if needed. */
+  void register(final ReactorChannel channel) throws IOException {
+    start();
+    execute(new Runnable() {
+      public void run() {
+        channel.register(selector);
+      }
+    });
+  }
+
+  /**
+   * Runs the given task on the reactor thread. Tasks submitted after shutdown are run on the
+   * calling thread, so that for example connections are still closed.
+   */
+  void execute(Runnable task) {
+    Selector selector;
+    synchronized (this) {
+      if (shutdown || thread == null) {
+        selector = null;
+      } else {
+        tasks.add(task);
+        selector = this.selector;
+      }
+    }
+    if (selector == null) {
+      task.run();
+    } else {
+      selector.wakeup();
+    }
+  }
+
+  /** Returns whether the current thread is the reactor thread. */
+  synchronized boolean inReactorThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  private synchronized void start() throws IOException {
+    if (shutdown) {
+      throw new IOException("Transport has been shut down");
+    }
+    if (thread == null) {
+      selector = Selector.open();
+      thread = new Thread(this, threadName);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /** Stops the reactor thread and closes the selector. */
+  void shutdown() {
+    Selector selector;
+    synchronized (this) {
+      if (shutdown) {
+        return;
+      }
+      shutdown = true;
+      selector = this.selector;
+    }
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  public void run() {
+    long nextPeriod = System.currentTimeMillis() + PERIOD_MILLIS;
+    try {
+      while (true) {
+        synchronized (this) {
+          if (shutdown) {
+            break;
+          }
+        }
+        runTasks();
+        long timeout = Math.max(1, nextPeriod - System.currentTimeMillis());
+        selector.select(timeout);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid()) {
+            ((ReactorChannel) key.attachment()).onSelected(key.readyOps());
+          }
+        }
+        long now = System.currentTimeMillis();
+        if (periodicTask != null && now >= nextPeriod) {
+          nextPeriod = now + PERIOD_MILLIS;
+          periodicTask.run();
+        }
+      }
+    } catch (Throwable t) {
+      LOGGER.log(Level.SEVERE, "I/O reactor failed", t);
+      synchronized (this) {
+        shutdown = true;
+      }
+    } finally {
+      // run remaining tasks on this thread and close all connections
+      runTasks();
+      for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+        ((ReactorChannel) key.attachment()).close(new IOException("Transport has been shut down"));
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "exception thrown by I/O reactor task", e);
+      }
+    }
+  }
+}
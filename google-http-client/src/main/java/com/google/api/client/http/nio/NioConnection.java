@@ -0,0 +1,897 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.util.StreamingContent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Persistent HTTP/1.1 connection over a non-blocking {@link SocketChannel}, optionally secured with
+ * an {@link SSLEngine}.
+ *
+ * <p>
+ * Reading is driven by the {@link IoReactor} thread, which parses responses in the order their
+ * requests were sent and hands them to the waiting {@link Exchange exchanges}. Writing is done by
+ * the threads that execute the requests, one request at a time, and only waits on the reactor when
+ * the socket send buffer is full. Several idempotent requests may be outstanding on the same
+ * connection at the same time (HTTP/1.1 pipelining).
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class NioConnection implements ReactorChannel {
+
+  private static final int STATE_CONNECTING = 0;
+  private static final int STATE_HANDSHAKING = 1;
+  private static final int STATE_OPEN = 2;
+  private static final int STATE_CLOSED = 3;
+
+  /** Size of the buffer used to read from a plain socket and to stage outgoing plain data. */
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  /** Route key, for example {@code "https://www.googleapis.com:443"}. */
+  final String route;
+
+  private final String host;
+
+  private final IoReactor reactor;
+
+  private final ConnectionPool pool;
+
+  private final SocketChannel channel;
+
+  /** SSL engine or {@code null} for a plain connection. */
+  private final SSLEngine engine;
+
+  /** Host name verifier or {@code null} to skip host name verification. */
+  private final HostnameVerifier hostnameVerifier;
+
+  /** Selection key, only accessed by the reactor thread. */
+  private SelectionKey key;
+
+  /** Network input (TLS records), only accessed by the reactor thread. */
+  private ByteBuffer netIn;
+
+  /** Application input, only accessed by the reactor thread. */
+  private ByteBuffer appIn;
+
+  /** Response parser, only accessed by the reactor thread. */
+  private final ResponseParser parser = new ResponseParser();
+
+  /** Whether the inbound side of the SSL engine is done, only accessed by the reactor thread. */
+  private boolean inboundDone;
+
+  /** Lock held while writing a request. */
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  /** Network output (TLS records) guarded by {@link #writeLock}, or {@code null} if plain. */
+  private ByteBuffer netOut;
+
+  // fields below are guarded by this
+
+  private int state = STATE_CONNECTING;
+
+  private IOException failure;
+
+  /** Exchanges whose responses have not been completely received, in request order. */
+  private final LinkedList<Exchange> exchanges = new LinkedList<Exchange>();
+
+  /** Whether reading is paused because the head exchange does not accept more body content. */
+  private boolean readPaused;
+
+  /** Whether a writer waits for the socket to become writable. */
+  private boolean writeWaiting;
+
+  /** Whether the reactor has pending handshake data to flush. */
+  private boolean handshakeFlushPending;
+
+  /** Whether the server proved to support persistent HTTP/1.1 connections. */
+  private boolean persistentHttp11;
+
+  // fields below are guarded by the pool
+
+  /** Number of exchanges acquired from the pool whose responses are not completely received. */
+  int inFlight;
+
+  /** Time in milliseconds the connection became idle. */
+  long idleSince;
+
+  /** Idle timeout in milliseconds advertised by the server or {@code -1} for none. */
+  long keepAliveTimeoutMillis = -1;
+
+  /** Whether the connection has been used for a previous exchange. */
+  boolean reused;
+
+  private final Runnable interestUpdater = new Runnable() {
+    public void run() {
+      updateInterest();
+    }
+  };
+
+  private final Runnable resumer = new Runnable() {
+    public void run() {
+      synchronized (NioConnection.this) {
+        if (!readPaused) {
+          return;
+        }
+        readPaused = false;
+      }
+      try {
+        processInput();
+        readInput();
+      } catch (IOException e) {
+        close(e);
+      } catch (RuntimeException e) {
+        close(new IOException(e));
+      }
+      updateInterest();
+    }
+  };
+
+  /**
+   * Opens a non-blocking socket channel and initiates the connection to the given address.
+   *
+   * @param route route key
+   * @param address socket address of the server
+   * @param host host name used for TLS server name indication and host name verification
+   * @param sslContext SSL context or {@code null} for a plain connection
+   * @param hostnameVerifier host name verifier or {@code null} to skip host name verification
+   * @param reactor I/O reactor
+   * @param pool connection pool
+   */
+  NioConnection(String route, InetSocketAddress address, String host, SSLContext sslContext,
+      HostnameVerifier hostnameVerifier, IoReactor reactor, ConnectionPool pool)
+      throws IOException {
+    this.route = route;
+    this.host = host;
+    this.reactor = reactor;
+    this.pool = pool;
+    this.hostnameVerifier = hostnameVerifier;
+    if (sslContext == null) {
+      engine = null;
+      appIn = ByteBuffer.allocate(BUFFER_SIZE);
+    } else {
+      engine = sslContext.createSSLEngine(host, address.getPort());
+      engine.setUseClientMode(true);
+      netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+      netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+      appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+    channel = SocketChannel.open();
+    boolean success = false;
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      channel.socket().setKeepAlive(true);
+      channel.connect(address);
+      success = true;
+    } finally {
+      if (!success) {
+        channel.close();
+      }
+    }
+  }
+
+  public void register(Selector selector) {
+    try {
+      key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+      synchronized (this) {
+        if (state == STATE_CLOSED) {
+          key.cancel();
+          return;
+        }
+      }
+      if (channel.isConnectionPending() && channel.finishConnect()) {
+        onConnected();
+      }
+      updateInterest();
+    } catch (IOException e) {
+      close(e);
+    } catch (RuntimeException e) {
+      close(new IOException(e));
+    }
+  }
+
+  public void onSelected(int readyOps) {
+    try {
+      int state = getState();
+      if (state == STATE_CONNECTING && (readyOps & SelectionKey.OP_CONNECT) != 0) {
+        if (channel.finishConnect()) {
+          onConnected();
+        }
+      } else if (state == STATE_HANDSHAKING) {
+        handshake();
+      } else if (state == STATE_OPEN) {
+        if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+          synchronized (this) {
+            writeWaiting = false;
+            notifyAll();
+          }
+        }
+        if ((readyOps & SelectionKey.OP_READ) != 0) {
+          readInput();
+        }
+      }
+      updateInterest();
+    } catch (IOException e) {
+      close(e);
+    } catch (RuntimeException e) {
+      close(new IOException(e));
+    }
+  }
+
+  private void onConnected() throws IOException {
+    if (engine == null) {
+      established();
+    } else {
+      synchronized (this) {
+        state = STATE_HANDSHAKING;
+      }
+      engine.beginHandshake();
+      handshake();
+    }
+  }
+
+  /** Advances the TLS handshake as far as possible without blocking. */
+  private void handshake() throws IOException {
+    while (true) {
+      if (!flushNetOutNonBlocking()) {
+        synchronized (this) {
+          handshakeFlushPending = true;
+        }
+        return;
+      }
+      synchronized (this) {
+        handshakeFlushPending = false;
+      }
+      HandshakeStatus status = engine.getHandshakeStatus();
+      if (status == HandshakeStatus.NEED_TASK) {
+        runDelegatedTasks();
+      } else if (status == HandshakeStatus.NEED_WRAP) {
+        SSLEngineResult result = engine.wrap(EMPTY, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new SSLException("SSL engine closed during handshake");
+        }
+      } else if (status == HandshakeStatus.NEED_UNWRAP) {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+          result = engine.unwrap(netIn, appIn);
+        } finally {
+          netIn.compact();
+        }
+        switch (result.getStatus()) {
+          case BUFFER_UNDERFLOW:
+            if (!netIn.hasRemaining()) {
+              netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+            }
+            int n = channel.read(netIn);
+            if (n < 0) {
+              throw new EOFException("Connection closed by server during TLS handshake");
+            }
+            if (n == 0) {
+              return;
+            }
+            break;
+          case BUFFER_OVERFLOW:
+            appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+            break;
+          case CLOSED:
+            throw new SSLException("Connection closed by server during TLS handshake");
+          default:
+            break;
+        }
+      } else {
+        // FINISHED or NOT_HANDSHAKING
+        if (hostnameVerifier != null && !hostnameVerifier.verify(host, engine.getSession())) {
+          throw new SSLPeerUnverifiedException("Host name '" + host + "' does not match the "
+              + "certificate presented by the server");
+        }
+        established();
+        // application data may have arrived together with the last handshake message
+        readInput();
+        return;
+      }
+    }
+  }
+
+  private void runDelegatedTasks() {
+    Runnable task;
+    while ((task = engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  private void established() {
+    synchronized (this) {
+      if (state != STATE_CLOSED) {
+        state = STATE_OPEN;
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the connection is established.
+   *
+   * @param timeoutMillis timeout in milliseconds or {@code 0} for an infinite timeout
+   */
+  synchronized void awaitOpen(int timeoutMillis) throws IOException {
+    long deadline = timeoutMillis == 0 ? 0 : System.nanoTime() + timeoutMillis * 1000000L;
+    while (state != STATE_OPEN) {
+      if (state == STATE_CLOSED) {
+        throw failure;
+      }
+      if (!await(deadline)) {
+        SocketTimeoutException timeout = new SocketTimeoutException("connect timed out");
+        closeAsync(timeout);
+        throw timeout;
+      }
+    }
+  }
+
+  /**
+   * Waits until notified or the deadline ({@code 0} for none) passes, and returns {@code false} if
+   * the deadline has passed. Must hold the lock.
+   */
+  private boolean await(long deadlineNanos) throws InterruptedIOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000L;
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        wait(remainingMillis);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException();
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+  }
+
+  private synchronized int getState() {
+    return state;
+  }
+
+  synchronized boolean isOpen() {
+    return state == STATE_OPEN;
+  }
+
+  /**
+   * Returns whether another idempotent request may be pipelined on this connection, which is the
+   * case if the server proved to support persistent HTTP/1.1 connections and all outstanding
+   * requests are pipelinable.
+   */
+  synchronized boolean canPipeline() {
+    if (state != STATE_OPEN || !persistentHttp11) {
+      return false;
+    }
+    for (Exchange exchange : exchanges) {
+      if (!exchange.isPipelinable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sends a request on this connection.
+   *
+   * @param exchange exchange that receives the response
+   * @param head serialized request line and headers
+   * @param content streaming content or {@code null} for none
+   * @param contentLength content length or less than zero to use chunked transfer coding
+   * @param writeTimeoutMillis timeout in milliseconds to write the request or {@code 0} for an
+   *        infinite timeout
+   */
+  void send(Exchange exchange, byte[] head, StreamingContent content, long contentLength,
+      int writeTimeoutMillis) throws IOException {
+    writeLock.lock();
+    try {
+      synchronized (this) {
+        if (state != STATE_OPEN) {
+          throw failure != null ? failure : new IOException("Connection is not open");
+        }
+        exchanges.add(exchange);
+      }
+      exchange.setConnection(this);
+      long deadline =
+          writeTimeoutMillis == 0 ? 0 : System.nanoTime() + writeTimeoutMillis * 1000000L;
+      ChannelOutputStream out = new ChannelOutputStream(deadline);
+      out.write(head);
+      if (content != null) {
+        OutputStream contentOut =
+            contentLength < 0 ? new ChunkedOutputStream(out) : new FixedLengthOutputStream(out,
+                contentLength);
+        content.writeTo(contentOut);
+        contentOut.close();
+      }
+      out.flush();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /** Writes the given buffer completely. Must hold the write lock. */
+  void write(ByteBuffer src, long deadlineNanos) throws IOException {
+    if (engine == null) {
+      while (src.hasRemaining()) {
+        if (channel.write(src) == 0) {
+          awaitWritable(deadlineNanos);
+        }
+      }
+      return;
+    }
+    flushNetOut(deadlineNanos);
+    while (src.hasRemaining()) {
+      SSLEngineResult result = engine.wrap(src, netOut);
+      switch (result.getStatus()) {
+        case BUFFER_OVERFLOW:
+          if (netOut.position() == 0) {
+            netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+          }
+          break;
+        case CLOSED:
+          throw new SSLException("SSL engine closed");
+        default:
+          break;
+      }
+      if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+        runDelegatedTasks();
+      }
+      flushNetOut(deadlineNanos);
+    }
+  }
+
+  /** Writes all of {@link #netOut}, waiting for the socket to become writable if needed. */
+  private void flushNetOut(long deadlineNanos) throws IOException {
+    while (!flushNetOutNonBlocking()) {
+      awaitWritable(deadlineNanos);
+    }
+  }
+
+  /** Writes as much of {@link #netOut} as possible, returning whether it was fully written. */
+  private boolean flushNetOutNonBlocking() throws IOException {
+    netOut.flip();
+    try {
+      while (netOut.hasRemaining()) {
+        if (channel.write(netOut) == 0) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      netOut.compact();
+    }
+  }
+
+  private void awaitWritable(long deadlineNanos) throws IOException {
+    synchronized (this) {
+      if (state == STATE_CLOSED) {
+        throw failure;
+      }
+      writeWaiting = true;
+    }
+    reactor.execute(interestUpdater);
+    synchronized (this) {
+      while (writeWaiting) {
+        if (state == STATE_CLOSED) {
+          throw failure;
+        }
+        if (!await(deadlineNanos)) {
+          SocketTimeoutException timeout = new SocketTimeoutException("Write timed out");
+          closeAsync(timeout);
+          throw timeout;
+        }
+      }
+    }
+  }
+
+  /** Updates the interest set of the selection key. Must be called by the reactor thread. */
+  private void updateInterest() {
+    SelectionKey key = this.key;
+    if (key == null || !key.isValid()) {
+      return;
+    }
+    int ops;
+    synchronized (this) {
+      switch (state) {
+        case STATE_CONNECTING:
+          ops = SelectionKey.OP_CONNECT;
+          break;
+        case STATE_HANDSHAKING:
+          ops = handshakeFlushPending ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+          break;
+        case STATE_OPEN:
+          ops = readPaused ? 0 : SelectionKey.OP_READ;
+          if (writeWaiting) {
+            ops |= SelectionKey.OP_WRITE;
+          }
+          break;
+        default:
+          return;
+      }
+    }
+    key.interestOps(ops);
+  }
+
+  /** Reads and processes input until no more input is available. */
+  private void readInput() throws IOException {
+    while (true) {
+      synchronized (this) {
+        if (readPaused || state != STATE_OPEN) {
+          return;
+        }
+      }
+      int n;
+      boolean unwrapped = false;
+      if (engine == null) {
+        n = appIn.hasRemaining() ? channel.read(appIn) : 0;
+      } else {
+        if (!netIn.hasRemaining()) {
+          netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+        }
+        n = inboundDone ? -1 : channel.read(netIn);
+        unwrapped = unwrap();
+      }
+      processInput();
+      if (n < 0 || inboundDone) {
+        onEndOfInput();
+        return;
+      }
+      if (n == 0 && !unwrapped) {
+        return;
+      }
+    }
+  }
+
+  /** Decrypts as much of {@link #netIn} as possible, returning whether any progress was made. */
+  private boolean unwrap() throws IOException {
+    boolean progress = false;
+    netIn.flip();
+    try {
+      while (netIn.hasRemaining()) {
+        SSLEngineResult result = engine.unwrap(netIn, appIn);
+        if (result.bytesConsumed() > 0 || result.bytesProduced() > 0) {
+          progress = true;
+        }
+        HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+        if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+          runDelegatedTasks();
+        } else if (handshakeStatus == HandshakeStatus.NEED_WRAP) {
+          wrapPostHandshakeMessage();
+        }
+        SSLEngineResult.Status status = result.getStatus();
+        if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+          break;
+        } else if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          if (appIn.position() == 0) {
+            appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+          } else {
+            // the buffered application data must be processed first
+            break;
+          }
+        } else if (status == SSLEngineResult.Status.CLOSED) {
+          inboundDone = true;
+          break;
+        }
+      }
+    } finally {
+      netIn.compact();
+    }
+    return progress;
+  }
+
+  /**
+   * Sends a post-handshake message (for example a key update) requested by the engine, unless a
+   * writer currently holds the write lock, in which case its next wrap sends it.
+   */
+  private void wrapPostHandshakeMessage() throws IOException {
+    if (writeLock.tryLock()) {
+      try {
+        engine.wrap(EMPTY, netOut);
+        flushNetOutNonBlocking();
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /** Parses the buffered application input. Must be called by the reactor thread. */
+  private void processInput() throws IOException {
+    appIn.flip();
+    try {
+      while (true) {
+        Exchange head;
+        synchronized (this) {
+          if (readPaused || state == STATE_CLOSED) {
+            return;
+          }
+          head = exchanges.peek();
+        }
+        if (head == null) {
+          if (appIn.hasRemaining()) {
+            throw new ProtocolException("Received unexpected data from the server");
+          }
+          return;
+        }
+        int result = parser.parse(appIn, head);
+        if (result == ResponseParser.COMPLETE) {
+          onExchangeComplete();
+        } else if (result == ResponseParser.PAUSED) {
+          if (head.pauseIfFull()) {
+            synchronized (this) {
+              readPaused = true;
+            }
+            return;
+          }
+        } else {
+          return;
+        }
+      }
+    } finally {
+      appIn.compact();
+    }
+  }
+
+  /** Handles the completion of the response of the head exchange. */
+  private void onExchangeComplete() {
+    boolean keepAlive = parser.isKeepAlive();
+    long keepAliveTimeout = parser.getKeepAliveTimeoutMillis();
+    Exchange head;
+    synchronized (this) {
+      head = exchanges.removeFirst();
+      persistentHttp11 = keepAlive && parser.isHttp11();
+    }
+    parser.reset();
+    // release the connection before the consumer sees the end of the response, so that its next
+    // request may reuse this connection
+    if (keepAlive) {
+      pool.release(this, keepAliveTimeout);
+    } else {
+      close(new IOException("Connection closed by server"));
+    }
+    head.onComplete();
+  }
+
+  private void onEndOfInput() {
+    Exchange head;
+    synchronized (this) {
+      head = exchanges.peek();
+    }
+    if (head != null && parser.endOfInput(head)) {
+      synchronized (this) {
+        exchanges.removeFirst();
+      }
+    }
+    close(new EOFException("Connection closed by server"));
+  }
+
+  /** Asks the reactor to resume reading after it was paused by a full exchange body buffer. */
+  void resume() {
+    reactor.execute(resumer);
+  }
+
+  /**
+   * Closes the connection from any thread without blocking on exchange locks, failing all
+   * outstanding exchanges.
+   */
+  void closeAsync(final IOException cause) {
+    synchronized (this) {
+      if (state == STATE_CLOSED) {
+        return;
+      }
+      if (failure == null) {
+        failure = cause;
+      }
+    }
+    // close the socket right away so blocked writers fail fast
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    reactor.execute(new Runnable() {
+      public void run() {
+        close(cause);
+      }
+    });
+  }
+
+  public void close(IOException cause) {
+    List<Exchange> failed;
+    synchronized (this) {
+      if (state == STATE_CLOSED) {
+        return;
+      }
+      state = STATE_CLOSED;
+      if (failure == null) {
+        failure = cause;
+      }
+      failed = new ArrayList<Exchange>(exchanges);
+      exchanges.clear();
+      notifyAll();
+    }
+    for (Exchange exchange : failed) {
+      exchange.fail(failure);
+    }
+    if (engine != null) {
+      engine.closeOutbound();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    pool.remove(this);
+  }
+
+  private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity) {
+    int capacity = Math.max(minimumCapacity, buffer.capacity() * 2);
+    ByteBuffer result = ByteBuffer.allocate(capacity);
+    buffer.flip();
+    result.put(buffer);
+    return result;
+  }
+
+  /** Buffered output stream that writes to this connection. Must hold the write lock. */
+  private final class ChannelOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final long deadlineNanos;
+
+    ChannelOutputStream(long deadlineNanos) {
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len > buffer.remaining()) {
+        flush();
+        if (len >= buffer.capacity()) {
+          NioConnection.this.write(ByteBuffer.wrap(b, off, len), deadlineNanos);
+          return;
+        }
+      }
+      buffer.put(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (buffer.position() > 0) {
+        buffer.flip();
+        NioConnection.this.write(buffer, deadlineNanos);
+        buffer.clear();
+      }
+    }
+  }
+
+  /** Output stream that applies the chunked transfer coding, without closing the target. */
+  private static final class ChunkedOutputStream extends OutputStream {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final OutputStream out;
+
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      out.write(Integer.toHexString(len).getBytes("US-ASCII"));
+      out.write(CRLF);
+      out.write(b, off, len);
+      out.write(CRLF);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        out.write(LAST_CHUNK);
+      }
+    }
+  }
+
+  /** Output stream that verifies the declared content length, without closing the target. */
+  private static final class FixedLengthOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    private long remaining;
+
+    FixedLengthOutputStream(OutputStream out, long contentLength) {
+      this.out = out;
+      this.remaining = contentLength;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len > remaining) {
+        throw new ProtocolException("Content exceeds the declared Content-Length");
+      }
+      out.write(b, off, len);
+      remaining -= len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (remaining != 0) {
+        throw new ProtocolException("Content is shorter than the declared Content-Length");
+      }
+    }
+  }
+}
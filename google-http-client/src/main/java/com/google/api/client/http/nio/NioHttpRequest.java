@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Low-level HTTP request for {@link NioHttpTransport}.
+ */
+final class NioHttpRequest extends LowLevelHttpRequest {
+
+  private final ConnectionPool pool;
+  private final String method;
+  private final boolean secure;
+  private final String host;
+  private final int port;
+  private final String hostHeader;
+  private final String requestTarget;
+  private final List<String> headerNames = new ArrayList<String>();
+  private final List<String> headerValues = new ArrayList<String>();
+  private int connectTimeout;
+  private int readTimeout;
+  private int writeTimeout;
+
+  // fields below are guarded by this
+
+  /** Exchange in progress or {@code null} for none. */
+  private Exchange exchange;
+
+  /** Whether {@link #abort()} has been called. */
+  private boolean aborted;
+
+  /**
+   * @param pool connection pool
+   * @param method HTTP method
+   * @param url URL
+   */
+  NioHttpRequest(ConnectionPool pool, String method, String url) throws MalformedURLException {
+    this.pool = pool;
+    this.method = method;
+    URL parsed = new URL(url);
+    String protocol = parsed.getProtocol();
+    Preconditions.checkArgument(protocol.equals("http") || protocol.equals("https"),
+        "unsupported protocol: %s", protocol);
+    secure = protocol.equals("https");
+    String host = parsed.getHost();
+    // strip the brackets of an IPv6 address literal
+    this.host = host.startsWith("[") ? host.substring(1, host.length() - 1) : host;
+    int defaultPort = secure ? 443 : 80;
+    port = parsed.getPort() == -1 ? defaultPort : parsed.getPort();
+    hostHeader = port == defaultPort ? host : host + ":" + port;
+    String file = parsed.getFile();
+    requestTarget = file.length() == 0 ? "/" : file;
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    headerNames.add(name);
+    headerValues.add(value);
+  }
+
+  @Override
+  public void setTimeout(int connectTimeout, int readTimeout) {
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  @Override
+  public void setWriteTimeout(int writeTimeout) {
+    this.writeTimeout = writeTimeout;
+  }
+
+  @Override
+  public LowLevelHttpResponse execute() throws IOException {
+    StreamingContent content = getStreamingContent();
+    long contentLength = content == null ? 0 : getContentLength();
+    byte[] head = serializeHead(content, contentLength);
+    boolean headRequest = method.equals(HttpMethods.HEAD);
+    boolean pipelinable = content == null && (headRequest || method.equals(HttpMethods.GET)
+        || method.equals(HttpMethods.OPTIONS) || method.equals(HttpMethods.TRACE));
+    while (true) {
+      Exchange exchange = new Exchange(headRequest, pipelinable);
+      synchronized (this) {
+        if (aborted) {
+          throw new IOException("Request aborted");
+        }
+        this.exchange = exchange;
+      }
+      NioConnection connection =
+          pool.acquire(secure, host, port, pipelinable, connectTimeout);
+      boolean reused = connection.reused;
+      try {
+        connection.awaitOpen(connectTimeout);
+        connection.send(exchange, head, content, contentLength, writeTimeout);
+        exchange.awaitHeaders(readTimeout);
+        return new NioHttpResponse(exchange, readTimeout);
+      } catch (IOException e) {
+        connection.closeAsync(e);
+        // the server may have closed a persistent connection while it was idle, in which case it
+        // is safe to retry the request on a new connection if it is idempotent without content,
+        // since the server did not respond, or if none of it was written
+        if (!reused || e instanceof InterruptedIOException || exchange.getStatusCode() != -1
+            || !pipelinable && exchange.isSent() || isAborted()) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void abort() {
+    Exchange exchange;
+    synchronized (this) {
+      aborted = true;
+      exchange = this.exchange;
+    }
+    if (exchange != null) {
+      exchange.fail(new IOException("Request aborted"));
+    }
+  }
+
+  private synchronized boolean isAborted() {
+    return aborted;
+  }
+
+  /** Returns the serialized request line and headers. */
+  private byte[] serializeHead(StreamingContent content, long contentLength) throws IOException {
+    StringBuilder builder = new StringBuilder(256);
+    builder.append(method).append(' ').append(requestTarget).append(" HTTP/1.1\r\n");
+    appendHeader(builder, "Host", hostHeader);
+    for (int i = 0; i < headerNames.size(); i++) {
+      appendHeader(builder, headerNames.get(i), headerValues.get(i));
+    }
+    if (content != null) {
+      String contentType = getContentType();
+      if (contentType != null) {
+        appendHeader(builder, "Content-Type", contentType);
+      }
+      String contentEncoding = getContentEncoding();
+      if (contentEncoding != null) {
+        appendHeader(builder, "Content-Encoding", contentEncoding);
+      }
+      if (contentLength >= 0) {
+        appendHeader(builder, "Content-Length", Long.toString(contentLength));
+      } else {
+        appendHeader(builder, "Transfer-Encoding", "chunked");
+      }
+    } else if (method.equals(HttpMethods.POST) || method.equals(HttpMethods.PUT)
+        || method.equals(HttpMethods.PATCH)) {
+      appendHeader(builder, "Content-Length", "0");
+    }
+    builder.append("\r\n");
+    return builder.toString().getBytes("ISO-8859-1");
+  }
+
+  private static void appendHeader(StringBuilder builder, String name, String value) {
+    Preconditions.checkArgument(isValidHeaderText(name) && isValidHeaderText(value),
+        "invalid header: %s", name);
+    builder.append(name).append(": ").append(value).append("\r\n");
+  }
+
+  private static boolean isValidHeaderText(String text) {
+    return text.indexOf('\r') == -1 && text.indexOf('\n') == -1;
+  }
+}
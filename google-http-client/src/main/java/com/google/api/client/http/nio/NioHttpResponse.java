@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.InputStream;
+
+/**
+ * Low-level HTTP response for {@link NioHttpTransport}.
+ */
+final class NioHttpResponse extends LowLevelHttpResponse {
+
+  private final Exchange exchange;
+  private final InputStream content;
+
+  /**
+   * @param exchange exchange whose response headers have been received
+   * @param readTimeout timeout in milliseconds to read response content or {@code 0} for an
+   *        infinite timeout
+   */
+  NioHttpResponse(Exchange exchange, int readTimeout) {
+    this.exchange = exchange;
+    content = exchange.newInputStream(readTimeout);
+  }
+
+  @Override
+  public int getStatusCode() {
+    return exchange.getStatusCode();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Closing the returned stream before the content has been fully read closes the underlying
+   * connection, unless the remaining content is small enough to be discarded.
+   * </p>
+   */
+  @Override
+  public InputStream getContent() {
+    return content;
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return exchange.getHeaderValue("Content-Encoding");
+  }
+
+  @Override
+  public long getContentLength() {
+    return exchange.getContentLength();
+  }
+
+  @Override
+  public String getContentType() {
+    return exchange.getHeaderValue("Content-Type");
+  }
+
+  @Override
+  public String getReasonPhrase() {
+    return exchange.getReasonPhrase();
+  }
+
+  @Override
+  public String getStatusLine() {
+    String reasonPhrase = exchange.getReasonPhrase();
+    return exchange.getHttpVersion() + " " + exchange.getStatusCode()
+        + (reasonPhrase == null || reasonPhrase.length() == 0 ? "" : " " + reasonPhrase);
+  }
+
+  @Override
+  public int getHeaderCount() {
+    return exchange.getHeaderNames().size();
+  }
+
+  @Override
+  public String getHeaderName(int index) {
+    return exchange.getHeaderNames().get(index);
+  }
+
+  @Override
+  public String getHeaderValue(int index) {
+    return exchange.getHeaderValues().get(index);
+  }
+
+  @Override
+  public void disconnect() {
+    exchange.close();
+  }
+}
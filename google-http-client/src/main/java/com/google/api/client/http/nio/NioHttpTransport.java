@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.SslUtils;
+
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+/**
+ * {@link Beta} <br/>
+ * Thread-safe HTTP low-level transport based on the {@code java.nio} package.
+ *
+ * <p>
+ * All connections are driven by a single selector thread, so that a large number of concurrent
+ * requests does not require a large number of threads blocked in socket reads. Connections are
+ * kept alive in a pool with a per-host and a total limit, and are closed after being idle for the
+ * {@link Builder#setKeepAlive keep-alive time} or the idle timeout advertised by the server in the
+ * {@code Keep-Alive} response header, whichever is shorter.
+ * </p>
+ *
+ * <p>
+ * If {@link Builder#setPipeliningEnabled pipelining is enabled}, idempotent requests without
+ * content (for example {@code GET} and {@code HEAD}) may be sent on a connection that already has
+ * outstanding requests once the per-host connection limit is reached, as long as the server
+ * proved to support persistent HTTP/1.1 connections. Pipelining is disabled by default because
+ * some servers and proxies do not handle it correctly.
+ * </p>
+ *
+ * <p>
+ * Proxies are not supported.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe. For maximum efficiency, applications should use a single
+ * globally-shared instance of the HTTP transport, and should call {@link #shutdown()} when it is
+ * no longer needed.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class NioHttpTransport extends HttpTransport {
+
+  private final IoReactor reactor;
+
+  private final ConnectionPool pool;
+
+  /**
+   * Constructor with the default options.
+   *
+   * <p>
+   * Use {@link Builder} to modify the options.
+   * </p>
+   */
+  public NioHttpTransport() {
+    this(new Builder());
+  }
+
+  NioHttpTransport(Builder builder) {
+    SSLContext sslContext = builder.sslContext;
+    if (sslContext == null) {
+      try {
+        sslContext = SSLContext.getDefault();
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    HostnameVerifier hostnameVerifier =
+        builder.hostnameVerifier == null ? new DefaultHostnameVerifier() : builder.hostnameVerifier;
+    final ConnectionPool[] poolHolder = new ConnectionPool[1];
+    reactor = new IoReactor("google-http-client-nio-" + System.identityHashCode(this),
+        new Runnable() {
+          public void run() {
+            poolHolder[0].evictIdle();
+          }
+        });
+    pool = new ConnectionPool(reactor, builder.maxConnectionsPerHost,
+        builder.maxTotalConnections, builder.keepAliveMillis,
+        builder.pipeliningEnabled ? builder.maxPipelinedRequests : 1, sslContext,
+        hostnameVerifier);
+    poolHolder[0] = pool;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * All HTTP methods are supported.
+   * </p>
+   */
+  @Override
+  public boolean supportsMethod(String method) {
+    return true;
+  }
+
+  @Override
+  protected NioHttpRequest buildRequest(String method, String url) throws IOException {
+    return new NioHttpRequest(pool, method, url);
+  }
+
+  /**
+   * Closes all connections and stops the I/O thread. Requests that are still in progress fail.
+   */
+  @Override
+  public void shutdown() throws IOException {
+    pool.shutdown();
+    reactor.shutdown();
+    super.shutdown();
+  }
+
+  /** Returns the number of open connections, including connections being established. */
+  int getConnectionCount() {
+    return pool.getConnectionCount();
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Builder for {@link NioHttpTransport}.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Builder {
+
+    /** Default maximum number of connections per host. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+    /** Default maximum number of connections. */
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+
+    /** Default keep-alive time in milliseconds ({@code 60000}). */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+
+    /** Default maximum number of outstanding requests per pipelined connection. */
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 4;
+
+    int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+    long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+    boolean pipeliningEnabled;
+
+    int maxPipelinedRequests = DEFAULT_MAX_PIPELINED_REQUESTS;
+
+    /** SSL context or {@code null} for the default. */
+    SSLContext sslContext;
+
+    /** Host name verifier or {@code null} for the default. */
+    HostnameVerifier hostnameVerifier;
+
+    /** Returns the maximum number of connections per host (scheme, host name and port). */
+    public int getMaxConnectionsPerHost() {
+      return maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of connections per host (scheme, host name and port).
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_MAX_CONNECTIONS_PER_HOST}.
+     * </p>
+     */
+    public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+      Preconditions.checkArgument(maxConnectionsPerHost > 0);
+      this.maxConnectionsPerHost = maxConnectionsPerHost;
+      return this;
+    }
+
+    /** Returns the maximum number of connections. */
+    public int getMaxTotalConnections() {
+      return maxTotalConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections.
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_MAX_TOTAL_CONNECTIONS}.
+     * </p>
+     */
+    public Builder setMaxTotalConnections(int maxTotalConnections) {
+      Preconditions.checkArgument(maxTotalConnections > 0);
+      this.maxTotalConnections = maxTotalConnections;
+      return this;
+    }
+
+    /** Returns the time in milliseconds after which an idle connection is closed. */
+    public long getKeepAliveMillis() {
+      return keepAliveMillis;
+    }
+
+    /**
+     * Sets the time after which an idle connection is closed.
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_KEEP_ALIVE_MILLIS}. A shorter idle timeout advertised by
+     * the server takes precedence.
+     * </p>
+     */
+    public Builder setKeepAlive(long duration, TimeUnit unit) {
+      Preconditions.checkArgument(duration >= 0);
+      this.keepAliveMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /** Returns whether HTTP/1.1 pipelining is enabled. */
+    public boolean isPipeliningEnabled() {
+      return pipeliningEnabled;
+    }
+
+    /**
+     * Sets whether HTTP/1.1 pipelining of idempotent requests without content is enabled.
+     *
+     * <p>
+     * The default value is {@code false}.
+     * </p>
+     */
+    public Builder setPipeliningEnabled(boolean pipeliningEnabled) {
+      this.pipeliningEnabled = pipeliningEnabled;
+      return this;
+    }
+
+    /** Returns the maximum number of outstanding requests per pipelined connection. */
+    public int getMaxPipelinedRequests() {
+      return maxPipelinedRequests;
+    }
+
+    /**
+     * Sets the maximum number of outstanding requests per pipelined connection. Only used if
+     * pipelining is enabled.
+     *
+     * <p>
+     * The default value is {@link #DEFAULT_MAX_PIPELINED_REQUESTS}.
+     * </p>
+     */
+    public Builder setMaxPipelinedRequests(int maxPipelinedRequests) {
+      Preconditions.checkArgument(maxPipelinedRequests > 0);
+      this.maxPipelinedRequests = maxPipelinedRequests;
+      return this;
+    }
+
+    /**
+     * Sets the SSL context based on root certificates in a Java KeyStore.
+     *
+     * @param keyStoreStream input stream to the key store (closed at the end of this method in a
+     *        finally block)
+     * @param storePass password protecting the key store file
+     */
+    public Builder trustCertificatesFromJavaKeyStore(InputStream keyStoreStream, String storePass)
+        throws GeneralSecurityException, IOException {
+      KeyStore trustStore = SecurityUtils.getJavaKeyStore();
+      SecurityUtils.loadKeyStore(trustStore, keyStoreStream, storePass);
+      return trustCertificates(trustStore);
+    }
+
+    /**
+     * Sets the SSL context based on root certificates generated from the specified stream using
+     * {@link CertificateFactory#generateCertificates(InputStream)}.
+     *
+     * @param certificateStream certificate stream
+     */
+    public Builder trustCertificatesFromStream(InputStream certificateStream)
+        throws GeneralSecurityException, IOException {
+      KeyStore trustStore = SecurityUtils.getJavaKeyStore();
+      trustStore.load(null, null);
+      SecurityUtils.loadKeyStoreFromCertificates(
+          trustStore, SecurityUtils.getX509CertificateFactory(), certificateStream);
+      return trustCertificates(trustStore);
+    }
+
+    /**
+     * Sets the SSL context based on a root certificate trust store.
+     *
+     * @param trustStore certificate trust store (use for example {@link SecurityUtils#loadKeyStore}
+     *        or {@link SecurityUtils#loadKeyStoreFromCertificates})
+     */
+    public Builder trustCertificates(KeyStore trustStore) throws GeneralSecurityException {
+      SSLContext sslContext = SslUtils.getTlsSslContext();
+      SslUtils.initSslContext(sslContext, trustStore, SslUtils.getPkixTrustManagerFactory());
+      return setSslContext(sslContext);
+    }
+
+    /**
+     * {@link Beta} <br/>
+     * Disables validating server SSL certificates by setting the SSL context using
+     * {@link SslUtils#trustAllSSLContext()} and the host name verifier using
+     * {@link SslUtils#trustAllHostnameVerifier()}.
+     *
+     * <p>
+     * Be careful! Disabling certificate validation is dangerous and should only be done in testing
+     * environments.
+     * </p>
+     */
+    @Beta
+    public Builder doNotValidateCertificate() throws GeneralSecurityException {
+      hostnameVerifier = SslUtils.trustAllHostnameVerifier();
+      sslContext = SslUtils.trustAllSSLContext();
+      return this;
+    }
+
+    /** Returns the SSL context or {@code null} for the default. */
+    public SSLContext getSslContext() {
+      return sslContext;
+    }
+
+    /** Sets the SSL context or {@code null} for the default. */
+    public Builder setSslContext(SSLContext sslContext) {
+      this.sslContext = sslContext;
+      return this;
+    }
+
+    /** Returns the host name verifier or {@code null} for the default. */
+    public HostnameVerifier getHostnameVerifier() {
+      return hostnameVerifier;
+    }
+
+    /** Sets the host name verifier or {@code null} for the default. */
+    public Builder setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+      this.hostnameVerifier = hostnameVerifier;
+      return this;
+    }
+
+    /** Returns a new instance of {@link NioHttpTransport} based on the options. */
+    public NioHttpTransport build() {
+      return new NioHttpTransport(this);
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/**
+ * Channel driven by an {@link IoReactor}.
+ */
+interface ReactorChannel {
+
+  /** Registers the channel with the given selector. Called by the reactor thread. */
+  void register(Selector selector);
+
+  /** Handles the ready operations of the selection key. Called by the reactor thread. */
+  void onSelected(int readyOps);
+
+  /** Closes the channel, failing all outstanding requests. */
+  void close(IOException cause);
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental HTTP/1.x response parser that consumes bytes as they arrive from the network and
+ * feeds the status line, headers and body of each response into an {@link Exchange}.
+ *
+ * <p>
+ * Message body framing follows <a href="https://tools.ietf.org/html/rfc7230#section-3.3.3">RFC
+ * 7230 section 3.3.3</a>.
+ * </p>
+ *
+ * <p>
+ * Implementation is not thread-safe, and is only used by the I/O reactor thread.
+ * </p>
+ */
+final class ResponseParser {
+
+  /** More input is required before the current response is complete. */
+  static final int NEED_MORE = 0;
+
+  /**
+   * The current response is complete and the parser is ready for the next response. The caller is
+   * responsible for {@link Exchange#onComplete() completing} the exchange.
+   */
+  static final int COMPLETE = 1;
+
+  /** The exchange cannot buffer more body content, so parsing must be resumed later. */
+  static final int PAUSED = 2;
+
+  /** Maximum length of the status line or of a single header line. */
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private static final int STATE_STATUS_LINE = 0;
+  private static final int STATE_HEADERS = 1;
+  private static final int STATE_BODY_FIXED = 2;
+  private static final int STATE_CHUNK_SIZE = 3;
+  private static final int STATE_CHUNK_DATA = 4;
+  private static final int STATE_CHUNK_DATA_END = 5;
+  private static final int STATE_TRAILERS = 6;
+  private static final int STATE_BODY_UNTIL_CLOSE = 7;
+
+  private int state = STATE_STATUS_LINE;
+
+  /** Current (partial) line. */
+  private final StringBuilder line = new StringBuilder();
+
+  /** Whether the previous byte of the current line was a carriage return. */
+  private boolean lastWasCr;
+
+  /** Remaining bytes of a fixed length body or of the current chunk. */
+  private long remaining;
+
+  private String httpVersion;
+  private int statusCode;
+  private String reasonPhrase;
+  private final List<String> headerNames = new ArrayList<String>();
+  private final List<String> headerValues = new ArrayList<String>();
+
+  /** Whether the connection may be reused after the current response. */
+  private boolean keepAlive;
+
+  /** Idle timeout in milliseconds advertised by the server or {@code -1} for none. */
+  private long keepAliveTimeoutMillis = -1;
+
+  /** Resets the parser to expect the status line of a new response. */
+  void reset() {
+    state = STATE_STATUS_LINE;
+    line.setLength(0);
+    lastWasCr = false;
+    remaining = 0;
+    httpVersion = null;
+    statusCode = 0;
+    reasonPhrase = null;
+    headerNames.clear();
+    headerValues.clear();
+    keepAlive = false;
+  }
+
+  /**
+   * Returns whether the connection may be reused once the current response is complete.
+   */
+  boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /** Returns whether the server responded with HTTP/1.1 (or newer) to the last request. */
+  boolean isHttp11() {
+    return httpVersion != null && !httpVersion.equals("HTTP/1.0");
+  }
+
+  /**
+   * Returns the idle timeout in milliseconds advertised by the server using the
+   * {@code Keep-Alive} header or {@code -1} for none.
+   */
+  long getKeepAliveTimeoutMillis() {
+    return keepAliveTimeoutMillis;
+  }
+
+  /** Returns whether the body of the current response is delimited by the connection close. */
+  boolean isReadingUntilClose() {
+    return state == STATE_BODY_UNTIL_CLOSE;
+  }
+
+  /** Returns whether any byte of the current response has been parsed. */
+  boolean hasStarted() {
+    return state != STATE_STATUS_LINE || line.length() != 0 || lastWasCr;
+  }
+
+  /**
+   * Parses as much of the given input as possible for the given exchange.
+   *
+   * @param in input buffer in read mode; its position is advanced past the consumed bytes
+   * @param exchange exchange that receives the parsed response
+   * @return {@link #NEED_MORE}, {@link #COMPLETE} or {@link #PAUSED}
+   */
+  int parse(ByteBuffer in, Exchange exchange) throws IOException {
+    while (true) {
+      switch (state) {
+        case STATE_STATUS_LINE:
+          if (!readLine(in)) {
+            return NEED_MORE;
+          }
+          if (line.length() == 0) {
+            // tolerate empty lines before the status line (RFC 7230 section 3.5)
+            continue;
+          }
+          parseStatusLine();
+          state = STATE_HEADERS;
+          break;
+        case STATE_HEADERS:
+          if (!readLine(in)) {
+            return NEED_MORE;
+          }
+          if (line.length() != 0) {
+            addHeaderLine();
+            break;
+          }
+          if (statusCode / 100 == 1 && statusCode != 101) {
+            // interim response, e.g. 100 Continue: ignore and wait for the final response
+            headerNames.clear();
+            headerValues.clear();
+            state = STATE_STATUS_LINE;
+            break;
+          }
+          if (startBody(exchange)) {
+            return completeResponse();
+          }
+          break;
+        case STATE_BODY_FIXED:
+        case STATE_CHUNK_DATA:
+          if (remaining == 0) {
+            if (state == STATE_BODY_FIXED) {
+              return completeResponse();
+            }
+            state = STATE_CHUNK_DATA_END;
+            break;
+          }
+          if (!in.hasRemaining()) {
+            return NEED_MORE;
+          }
+          if (exchange.isBodyBufferFull()) {
+            return PAUSED;
+          }
+          remaining -= deliver(in, exchange, remaining);
+          break;
+        case STATE_CHUNK_SIZE:
+          if (!readLine(in)) {
+            return NEED_MORE;
+          }
+          remaining = parseChunkSize();
+          state = remaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+          break;
+        case STATE_CHUNK_DATA_END:
+          if (!readLine(in)) {
+            return NEED_MORE;
+          }
+          if (line.length() != 0) {
+            throw new ProtocolException("Malformed chunked encoding");
+          }
+          state = STATE_CHUNK_SIZE;
+          break;
+        case STATE_TRAILERS:
+          if (!readLine(in)) {
+            return NEED_MORE;
+          }
+          if (line.length() == 0) {
+            return completeResponse();
+          }
+          // trailer fields are ignored
+          line.setLength(0);
+          break;
+        case STATE_BODY_UNTIL_CLOSE:
+          if (!in.hasRemaining()) {
+            return NEED_MORE;
+          }
+          if (exchange.isBodyBufferFull()) {
+            return PAUSED;
+          }
+          deliver(in, exchange, Long.MAX_VALUE);
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  /**
+   * Signals the end of the input stream, and returns whether it successfully completes the current
+   * response (only the case for a body delimited by the connection close).
+   */
+  boolean endOfInput(Exchange exchange) {
+    if (state == STATE_BODY_UNTIL_CLOSE) {
+      exchange.onComplete();
+      return true;
+    }
+    return false;
+  }
+
+  private int completeResponse() {
+    state = STATE_STATUS_LINE;
+    return COMPLETE;
+  }
+
+  /**
+   * Determines the body framing after the header section and publishes the headers to the
+   * exchange, returning whether the response has no body.
+   */
+  private boolean startBody(Exchange exchange) throws IOException {
+    String transferEncoding = null;
+    String contentLength = null;
+    String connection = null;
+    for (int i = 0; i < headerNames.size(); i++) {
+      String name = headerNames.get(i);
+      if (name.equalsIgnoreCase("Transfer-Encoding")) {
+        transferEncoding = headerValues.get(i);
+      } else if (name.equalsIgnoreCase("Content-Length")) {
+        contentLength = headerValues.get(i);
+      } else if (name.equalsIgnoreCase("Connection")) {
+        connection =
+            connection == null ? headerValues.get(i) : connection + "," + headerValues.get(i);
+      } else if (name.equalsIgnoreCase("Keep-Alive")) {
+        keepAliveTimeoutMillis = parseKeepAliveTimeout(headerValues.get(i));
+      }
+    }
+    if (isHttp11()) {
+      keepAlive = !containsToken(connection, "close");
+    } else {
+      keepAlive = containsToken(connection, "keep-alive");
+    }
+    if (statusCode == 101) {
+      // the connection no longer speaks HTTP/1.1 after switching protocols
+      keepAlive = false;
+    }
+    exchange.onHeaders(httpVersion, statusCode, reasonPhrase, headerNames, headerValues);
+    if (exchange.isHeadRequest() || statusCode == 204 || statusCode == 304
+        || statusCode / 100 == 1) {
+      return true;
+    }
+    if (transferEncoding != null && !transferEncoding.trim().equalsIgnoreCase("identity")) {
+      if (!containsToken(transferEncoding, "chunked")) {
+        // unknown transfer coding: the body is delimited by the connection close
+        keepAlive = false;
+        state = STATE_BODY_UNTIL_CLOSE;
+        return false;
+      }
+      state = STATE_CHUNK_SIZE;
+      return false;
+    }
+    if (contentLength != null) {
+      try {
+        remaining = Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Invalid Content-Length: " + contentLength);
+      }
+      if (remaining < 0) {
+        throw new ProtocolException("Invalid Content-Length: " + contentLength);
+      }
+      state = STATE_BODY_FIXED;
+      return remaining == 0;
+    }
+    keepAlive = false;
+    state = STATE_BODY_UNTIL_CLOSE;
+    return false;
+  }
+
+  /** Delivers up to {@code max} bytes of body content, returning the number of bytes delivered. */
+  private static int deliver(ByteBuffer in, Exchange exchange, long max) {
+    int count = (int) Math.min(in.remaining(), max);
+    ByteBuffer slice = in.slice();
+    slice.limit(count);
+    exchange.onBody(slice);
+    in.position(in.position() + count);
+    return count;
+  }
+
+  /** Reads bytes into {@link #line} until LF, returning whether a complete line was read. */
+  private boolean readLine(ByteBuffer in) throws ProtocolException {
+    while (in.hasRemaining()) {
+      byte b = in.get();
+      if (b == '\n') {
+        if (lastWasCr) {
+          line.setLength(line.length() - 1);
+          lastWasCr = false;
+        }
+        return true;
+      }
+      lastWasCr = b == '\r';
+      if (line.length() >= MAX_LINE_LENGTH) {
+        throw new ProtocolException("HTTP response line too long");
+      }
+      line.append((char) (b & 0xff));
+    }
+    return false;
+  }
+
+  private void parseStatusLine() throws ProtocolException {
+    String statusLine = takeLine();
+    int firstSpace = statusLine.indexOf(' ');
+    if (!statusLine.startsWith("HTTP/") || firstSpace == -1) {
+      throw new ProtocolException("Unexpected status line: " + statusLine);
+    }
+    httpVersion = statusLine.substring(0, firstSpace);
+    int codeEnd = statusLine.indexOf(' ', firstSpace + 1);
+    String code =
+        codeEnd == -1 ? statusLine.substring(firstSpace + 1) : statusLine.substring(firstSpace + 1,
+            codeEnd);
+    try {
+      statusCode = Integer.parseInt(code);
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("Unexpected status line: " + statusLine);
+    }
+    reasonPhrase = codeEnd == -1 ? null : statusLine.substring(codeEnd + 1);
+  }
+
+  private void addHeaderLine() throws ProtocolException {
+    String headerLine = takeLine();
+    char first = headerLine.charAt(0);
+    if ((first == ' ' || first == '\t') && !headerValues.isEmpty()) {
+      // obsolete line folding (RFC 7230 section 3.2.4)
+      int last = headerValues.size() - 1;
+      headerValues.set(last, headerValues.get(last) + ' ' + headerLine.trim());
+      return;
+    }
+    int colon = headerLine.indexOf(':');
+    if (colon <= 0) {
+      throw new ProtocolException("Malformed header: " + headerLine);
+    }
+    headerNames.add(headerLine.substring(0, colon).trim());
+    headerValues.add(headerLine.substring(colon + 1).trim());
+  }
+
+  private long parseChunkSize() throws ProtocolException {
+    String chunkLine = takeLine();
+    int extension = chunkLine.indexOf(';');
+    String size = (extension == -1 ? chunkLine : chunkLine.substring(0, extension)).trim();
+    try {
+      long result = Long.parseLong(size, 16);
+      if (result < 0) {
+        throw new ProtocolException("Invalid chunk size: " + chunkLine);
+      }
+      return result;
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("Invalid chunk size: " + chunkLine);
+    }
+  }
+
+  private String takeLine() {
+    String result = line.toString();
+    line.setLength(0);
+    return result;
+  }
+
+  /** Parses the {@code timeout} parameter of a {@code Keep-Alive} header. */
+  static long parseKeepAliveTimeout(String value) {
+    for (String param : value.split(",")) {
+      String trimmed = param.trim();
+      if (trimmed.regionMatches(true, 0, "timeout=", 0, 8)) {
+        try {
+          return Long.parseLong(trimmed.substring(8).trim()) * 1000;
+        } catch (NumberFormatException e) {
+          return -1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /** Returns whether the given comma-separated header value contains the given token. */
+  static boolean containsToken(String value, String token) {
+    if (value == null) {
+      return false;
+    }
+    for (String element : value.split(",")) {
+      if (element.trim().equalsIgnoreCase(token)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
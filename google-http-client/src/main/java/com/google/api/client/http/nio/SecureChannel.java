@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Non-blocking socket channel, optionally secured with an {@link SSLEngine}, whose reads and writes
+ * are all done by the {@link IoReactor} thread.
+ *
+ * <p>
+ * Application-Layer Protocol Negotiation (ALPN) is used if the Java runtime supports it (Java 9
+ * and later, and Java 8 since update 252). The methods are looked up by reflection because this
+ * library targets Java 6.
+ * </p>
+ *
+ * <p>
+ * Implementation is not thread-safe, and is only used by the I/O reactor thread after
+ * construction.
+ * </p>
+ */
+final class SecureChannel {
+
+  /** {@link #handshake()} result: the handshake is complete. */
+  static final int HANDSHAKE_DONE = 0;
+
+  /** {@link #handshake()} result: the handshake needs more input from the network. */
+  static final int HANDSHAKE_NEED_READ = 1;
+
+  /** {@link #handshake()} result: the handshake needs the socket to become writable. */
+  static final int HANDSHAKE_NEED_WRITE = 2;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  /** {@code SSLParameters.setApplicationProtocols(String[])} or {@code null} if unsupported. */
+  private static final Method SET_APPLICATION_PROTOCOLS;
+
+  /** {@code SSLEngine.getApplicationProtocol()} or {@code null} if unsupported. */
+  private static final Method GET_APPLICATION_PROTOCOL;
+
+  static {
+    Method setApplicationProtocols = null;
+    Method getApplicationProtocol = null;
+    try {
+      setApplicationProtocols =
+          SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+      getApplicationProtocol = SSLEngine.class.getMethod("getApplicationProtocol");
+    } catch (NoSuchMethodException e) {
+      setApplicationProtocols = null;
+      getApplicationProtocol = null;
+    }
+    SET_APPLICATION_PROTOCOLS = setApplicationProtocols;
+    GET_APPLICATION_PROTOCOL = getApplicationProtocol;
+  }
+
+  final SocketChannel channel;
+
+  private final String host;
+
+  /** SSL engine or {@code null} for a plain channel. */
+  private final SSLEngine engine;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  /** Network input (TLS records) or {@code null} for a plain channel. */
+  private ByteBuffer netIn;
+
+  /** Network output (TLS records) in read mode or {@code null} for a plain channel. */
+  private ByteBuffer netOut;
+
+  /** Application data received during the handshake, in read mode, or {@code null} for none. */
+  private ByteBuffer handshakeData;
+
+  private boolean inboundDone;
+
+  /** Returns whether the Java runtime supports ALPN. */
+  static boolean isAlpnSupported() {
+    return SET_APPLICATION_PROTOCOLS != null;
+  }
+
+  /**
+   * Opens a non-blocking socket channel and initiates the connection to the given address.
+   *
+   * @param address socket address of the server
+   * @param host host name used for TLS server name indication and host name verification
+   * @param sslContext SSL context or {@code null} for a plain channel
+   * @param hostnameVerifier host name verifier or {@code null} to skip host name verification
+   * @param applicationProtocols protocols to offer with ALPN or {@code null} for none
+   */
+  SecureChannel(InetSocketAddress address, String host, SSLContext sslContext,
+      HostnameVerifier hostnameVerifier, String[] applicationProtocols) throws IOException {
+    this.host = host;
+    this.hostnameVerifier = hostnameVerifier;
+    if (sslContext == null) {
+      engine = null;
+    } else {
+      engine = sslContext.createSSLEngine(host, address.getPort());
+      engine.setUseClientMode(true);
+      if (applicationProtocols != null && isAlpnSupported()) {
+        SSLParameters parameters = engine.getSSLParameters();
+        invoke(SET_APPLICATION_PROTOCOLS, parameters, new Object[] {applicationProtocols});
+        engine.setSSLParameters(parameters);
+      }
+      netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+      netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+      netOut.flip();
+    }
+    channel = SocketChannel.open();
+    boolean success = false;
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      channel.socket().setKeepAlive(true);
+      channel.connect(address);
+      success = true;
+    } finally {
+      if (!success) {
+        channel.close();
+      }
+    }
+  }
+
+  /** Returns whether the channel is secured with TLS. */
+  boolean isSecure() {
+    return engine != null;
+  }
+
+  /**
+   * Returns the protocol negotiated with ALPN, or {@code null} if none was negotiated or the
+   * channel is not secure.
+   */
+  String getApplicationProtocol() {
+    if (engine == null || GET_APPLICATION_PROTOCOL == null) {
+      return null;
+    }
+    String protocol = (String) invoke(GET_APPLICATION_PROTOCOL, engine, new Object[0]);
+    return protocol == null || protocol.length() == 0 ? null : protocol;
+  }
+
+  /** Starts the TLS handshake, if any, once the socket is connected. */
+  void beginHandshake() throws SSLException {
+    if (engine != null) {
+      engine.beginHandshake();
+    }
+  }
+
+  /** Advances the TLS handshake as far as possible without blocking. */
+  int handshake() throws IOException {
+    if (engine == null) {
+      return HANDSHAKE_DONE;
+    }
+    while (true) {
+      if (!flush()) {
+        return HANDSHAKE_NEED_WRITE;
+      }
+      HandshakeStatus status = engine.getHandshakeStatus();
+      if (status == HandshakeStatus.NEED_TASK) {
+        runDelegatedTasks();
+      } else if (status == HandshakeStatus.NEED_WRAP) {
+        wrap(EMPTY);
+      } else if (status == HandshakeStatus.NEED_UNWRAP) {
+        if (handshakeData == null) {
+          handshakeData = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+          handshakeData.flip();
+        }
+        netIn.flip();
+        handshakeData.compact();
+        SSLEngineResult result;
+        try {
+          result = engine.unwrap(netIn, handshakeData);
+        } finally {
+          netIn.compact();
+          handshakeData.flip();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          handshakeData = enlarge(handshakeData.compact(),
+              handshakeData.capacity() + engine.getSession().getApplicationBufferSize());
+          handshakeData.flip();
+        } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+          if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+          }
+          int n = channel.read(netIn);
+          if (n < 0) {
+            throw new EOFException("Connection closed by server during TLS handshake");
+          }
+          if (n == 0) {
+            return HANDSHAKE_NEED_READ;
+          }
+        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new SSLException("Connection closed by server during TLS handshake");
+        }
+      } else {
+        if (hostnameVerifier != null && !hostnameVerifier.verify(host, engine.getSession())) {
+          throw new SSLPeerUnverifiedException("Host name '" + host + "' does not match the "
+              + "certificate presented by the server");
+        }
+        return HANDSHAKE_DONE;
+      }
+    }
+  }
+
+  /**
+   * Reads and decrypts as much input as possible into the given buffer.
+   *
+   * @return number of bytes read, or {@code -1} at the end of the stream
+   */
+  int read(ByteBuffer dst) throws IOException {
+    if (engine == null) {
+      return channel.read(dst);
+    }
+    int start = dst.position();
+    if (handshakeData != null) {
+      while (handshakeData.hasRemaining() && dst.hasRemaining()) {
+        dst.put(handshakeData.get());
+      }
+      if (handshakeData.hasRemaining()) {
+        return dst.position() - start;
+      }
+      handshakeData = null;
+    }
+    while (dst.hasRemaining()) {
+      int n = inboundDone ? -1 : channel.read(netIn);
+      netIn.flip();
+      boolean overflow = false;
+      try {
+        while (netIn.hasRemaining()) {
+          SSLEngineResult result = engine.unwrap(netIn, dst);
+          if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+          } else if (result.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            // post-handshake message, for example a key update
+            wrap(EMPTY);
+          }
+          SSLEngineResult.Status status = result.getStatus();
+          if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+            break;
+          } else if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            overflow = true;
+            break;
+          } else if (status == SSLEngineResult.Status.CLOSED) {
+            inboundDone = true;
+            break;
+          }
+        }
+      } finally {
+        netIn.compact();
+      }
+      if (!netIn.hasRemaining()) {
+        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+      }
+      int produced = dst.position() - start;
+      if (n < 0 || inboundDone) {
+        return produced == 0 ? -1 : produced;
+      }
+      if (n == 0 || overflow) {
+        return produced;
+      }
+    }
+    return dst.position() - start;
+  }
+
+  /**
+   * Writes (encrypts) as much of the given buffer as possible, returning whether the buffer and
+   * all pending network output have been fully written.
+   */
+  boolean write(ByteBuffer src) throws IOException {
+    if (engine == null) {
+      channel.write(src);
+      return !src.hasRemaining();
+    }
+    while (true) {
+      if (!flush()) {
+        return false;
+      }
+      if (!src.hasRemaining()) {
+        return true;
+      }
+      wrap(src);
+    }
+  }
+
+  /** Writes pending network output, returning whether all of it was written. */
+  boolean flush() throws IOException {
+    if (engine == null) {
+      return true;
+    }
+    while (netOut.hasRemaining()) {
+      if (channel.write(netOut) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Wraps data into {@link #netOut}, which must be empty. */
+  private void wrap(ByteBuffer src) throws IOException {
+    netOut.clear();
+    try {
+      while (true) {
+        SSLEngineResult result = engine.wrap(src, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          netOut = ByteBuffer.allocate(netOut.capacity() * 2);
+          continue;
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new SSLException("SSL engine closed");
+        }
+        if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+          runDelegatedTasks();
+        }
+        return;
+      }
+    } finally {
+      netOut.flip();
+    }
+  }
+
+  private void runDelegatedTasks() {
+    Runnable task;
+    while ((task = engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  /** Closes the channel. */
+  void close() {
+    if (engine != null) {
+      engine.closeOutbound();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity) {
+    int capacity = Math.max(minimumCapacity, buffer.capacity() * 2);
+    ByteBuffer result = ByteBuffer.allocate(capacity);
+    buffer.flip();
+    result.put(buffer);
+    return result;
+  }
+
+  private static Object invoke(Method method, Object target, Object[] args) {
+    try {
+      return method.invoke(target, args);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * {@link com.google.api.client.util.Beta} <br/>
+ * HTTP Transport library for Google API's based on the {@code java.nio} package.
+ *
+ * @since 1.27
+ */
+@com.google.api.client.util.Beta
+package com.google.api.client.http.nio;
@@ -15,8 +15,8 @@
 package com.google.api.client.json;
 
 import com.google.api.client.util.Charsets;
+import com.google.api.client.util.PooledByteArrayOutputStream;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -139,7 +139,12 @@ public abstract class JsonFactory {
    * @since 1.7
    */
   public final byte[] toByteArray(Object item) throws IOException {
-    return toByteStream(item, false).toByteArray();
+    PooledByteArrayOutputStream byteStream = toByteStream(item, false);
+    try {
+      return byteStream.toByteArray();
+    } finally {
+      byteStream.reset();
+    }
   }
 
   /**
@@ -151,25 +156,40 @@ public abstract class JsonFactory {
    * @return serialized JSON string representation
    */
   private String toString(Object item, boolean pretty) throws IOException {
-    return toByteStream(item, pretty).toString("UTF-8");
+    PooledByteArrayOutputStream byteStream = toByteStream(item, pretty);
+    try {
+      return byteStream.toString(Charsets.UTF_8);
+    } finally {
+      byteStream.reset();
+    }
   }
 
   /**
    * Returns a UTF-8 byte array output stream of the serialized JSON representation for the given
-   * item using {@link JsonGenerator#serialize(Object)}.
+   * item using {@link JsonGenerator#serialize(Object)}, which must be
+   * {@link PooledByteArrayOutputStream#reset() reset} once no longer used.
    *
    * @param item data key/value pairs
    * @param pretty whether to return a pretty representation
    * @return serialized JSON string representation
    */
-  private ByteArrayOutputStream toByteStream(Object item, boolean pretty) throws IOException {
-    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-    JsonGenerator generator = createJsonGenerator(byteStream, Charsets.UTF_8);
-    if (pretty) {
-      generator.enablePrettyPrint();
+  private PooledByteArrayOutputStream toByteStream(Object item, boolean pretty)
+      throws IOException {
+    PooledByteArrayOutputStream byteStream = new PooledByteArrayOutputStream();
+    boolean serialized = false;
+    try {
+      JsonGenerator generator = createJsonGenerator(byteStream, Charsets.UTF_8);
+      if (pretty) {
+        generator.enablePrettyPrint();
+      }
+      generator.serialize(item);
+      generator.flush();
+      serialized = true;
+    } finally {
+      if (!serialized) {
+        byteStream.reset();
+      }
     }
-    generator.serialize(item);
-    generator.flush();
     return byteStream;
   }
 
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.testing.util;
+
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.Beta;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Preconditions;
+import com.google.api.client.util.StringUtils;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link Beta} <br/>
+ * Simulation of many clients that retry with a {@link BackOff} after failing at the same time,
+ * which reports the aggregate distribution of the retry arrivals at the server.
+ *
+ * <p>
+ * All clients send a request at time zero. The server fails every request until the outage ends,
+ * and succeeds afterwards. Each client retries with a new back-off created by the
+ * {@link BackOffFactory} until a request succeeds or the back-off returns {@link BackOff#STOP}.
+ * Time is simulated: each client sleeps with a {@link MockSleeper} that advances the
+ * {@link NanoClock} given to its back-off, so a simulation of hours of retries completes at once.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  final Random random = new Random(1);
+  BackOffSimulation.Result result = new BackOffSimulation(new BackOffSimulation.BackOffFactory() {
+    public BackOff newBackOff(NanoClock nanoClock) {
+      return new JitteredBackOff.Builder().setNanoClock(nanoClock).setRandom(random).build();
+    }
+  }).setClientCount(10000).run();
+  System.out.println(result);
+ * </pre>
+ *
+ * <p>
+ * Implementation is not thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public class BackOffSimulation {
+
+  /** Factory of the back-off of each simulated client. */
+  public interface BackOffFactory {
+
+    /**
+     * Returns a new back-off for a client.
+     *
+     * @param nanoClock simulated clock of the client, which the back-off must use to measure
+     *        elapsed time
+     */
+    BackOff newBackOff(NanoClock nanoClock);
+  }
+
+  private final BackOffFactory backOffFactory;
+
+  private int clientCount = 1000;
+
+  private long outageMillis = 10000;
+
+  private long bucketMillis = 100;
+
+  private int maxAttempts = 100;
+
+  /**
+   * @param backOffFactory factory of the back-off of each simulated client
+   */
+  public BackOffSimulation(BackOffFactory backOffFactory) {
+    this.backOffFactory = Preconditions.checkNotNull(backOffFactory);
+  }
+
+  /** Returns the number of clients. */
+  public final int getClientCount() {
+    return clientCount;
+  }
+
+  /** Sets the number of clients. The default value is {@code 1000}. */
+  public BackOffSimulation setClientCount(int clientCount) {
+    Preconditions.checkArgument(clientCount > 0);
+    this.clientCount = clientCount;
+    return this;
+  }
+
+  /** Returns the duration of the outage in milliseconds. */
+  public final long getOutageMillis() {
+    return outageMillis;
+  }
+
+  /**
+   * Sets the duration of the outage in milliseconds, during which every request fails. The default
+   * value is {@code 10000}.
+   */
+  public BackOffSimulation setOutageMillis(long outageMillis) {
+    Preconditions.checkArgument(outageMillis >= 0);
+    this.outageMillis = outageMillis;
+    return this;
+  }
+
+  /** Returns the width of a bucket of the arrival histogram in milliseconds. */
+  public final long getBucketMillis() {
+    return bucketMillis;
+  }
+
+  /**
+   * Sets the width of a bucket of the arrival histogram in milliseconds. The default value is
+   * {@code 100}.
+   */
+  public BackOffSimulation setBucketMillis(long bucketMillis) {
+    Preconditions.checkArgument(bucketMillis > 0);
+    this.bucketMillis = bucketMillis;
+    return this;
+  }
+
+  /** Returns the maximum number of requests of a client. */
+  public final int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Sets the maximum number of requests of a client, including the initial request, as a safety
+   * limit for back-offs that never stop. The default value is {@code 100}.
+   */
+  public BackOffSimulation setMaxAttempts(int maxAttempts) {
+    Preconditions.checkArgument(maxAttempts > 0);
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  /** Runs the simulation. */
+  public Result run() throws IOException {
+    int[] arrivals = new int[16];
+    int lastBucket = -1;
+    int failedClients = 0;
+    long totalCompletionMillis = 0;
+    long maxCompletionMillis = 0;
+    for (int client = 0; client < clientCount; client++) {
+      SimulatedSleeper sleeper = new SimulatedSleeper();
+      BackOff backOff = backOffFactory.newBackOff(sleeper);
+      boolean succeeded = false;
+      for (int attempt = 1; attempt < maxAttempts; attempt++) {
+        long backOffMillis = backOff.nextBackOffMillis();
+        if (backOffMillis == BackOff.STOP) {
+          break;
+        }
+        try {
+          sleeper.sleep(backOffMillis);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        long arrivalMillis = sleeper.getMillis();
+        int bucket = (int) Math.min(Integer.MAX_VALUE - 1, arrivalMillis / bucketMillis);
+        if (bucket >= arrivals.length) {
+          arrivals = Arrays.copyOf(arrivals, Math.max(bucket + 1, arrivals.length * 2));
+        }
+        arrivals[bucket]++;
+        lastBucket = Math.max(lastBucket, bucket);
+        if (arrivalMillis >= outageMillis) {
+          succeeded = true;
+          totalCompletionMillis += arrivalMillis;
+          maxCompletionMillis = Math.max(maxCompletionMillis, arrivalMillis);
+          break;
+        }
+      }
+      if (!succeeded) {
+        failedClients++;
+      }
+    }
+    int succeededClients = clientCount - failedClients;
+    return new Result(bucketMillis, Arrays.copyOf(arrivals, lastBucket + 1), failedClients,
+        succeededClients == 0 ? 0 : totalCompletionMillis / succeededClients,
+        maxCompletionMillis);
+  }
+
+  /** Sleeper that advances a simulated clock. */
+  private static final class SimulatedSleeper extends MockSleeper implements NanoClock {
+
+    private long millis;
+
+    SimulatedSleeper() {
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+      super.sleep(millis);
+      this.millis += millis;
+    }
+
+    public long nanoTime() {
+      return millis * 1000000;
+    }
+
+    long getMillis() {
+      return millis;
+    }
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Result of a {@link BackOffSimulation}.
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static final class Result {
+
+    private final long bucketMillis;
+
+    private final int[] arrivals;
+
+    private final int failedClients;
+
+    private final long meanCompletionMillis;
+
+    private final long maxCompletionMillis;
+
+    Result(long bucketMillis, int[] arrivals, int failedClients, long meanCompletionMillis,
+        long maxCompletionMillis) {
+      this.bucketMillis = bucketMillis;
+      this.arrivals = arrivals;
+      this.failedClients = failedClients;
+      this.meanCompletionMillis = meanCompletionMillis;
+      this.maxCompletionMillis = maxCompletionMillis;
+    }
+
+    /** Returns the width of a bucket of the arrival histogram in milliseconds. */
+    public long getBucketMillis() {
+      return bucketMillis;
+    }
+
+    /**
+     * Returns the arrival histogram: the element {@code i} is the number of retries that arrived
+     * at the server in {@code [i * bucketMillis, (i + 1) * bucketMillis)}.
+     */
+    public int[] getArrivals() {
+      return arrivals.clone();
+    }
+
+    /** Returns the total number of retries of all clients. */
+    public int getTotalRetries() {
+      int total = 0;
+      for (int count : arrivals) {
+        total += count;
+      }
+      return total;
+    }
+
+    /** Returns the largest number of retries that arrived within a single bucket. */
+    public int getPeakArrivals() {
+      int peak = 0;
+      for (int count : arrivals) {
+        peak = Math.max(peak, count);
+      }
+      return peak;
+    }
+
+    /** Returns the number of clients that gave up before the outage ended. */
+    public int getFailedClients() {
+      return failedClients;
+    }
+
+    /** Returns the mean time in milliseconds until a client succeeded. */
+    public long getMeanCompletionMillis() {
+      return meanCompletionMillis;
+    }
+
+    /** Returns the time in milliseconds until the last client succeeded. */
+    public long getMaxCompletionMillis() {
+      return maxCompletionMillis;
+    }
+
+    /** Returns a summary and a text rendering of the arrival histogram. */
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder();
+      result.append("retries=").append(getTotalRetries())
+          .append(" peak=").append(getPeakArrivals())
+          .append(" failedClients=").append(failedClients)
+          .append(" meanCompletionMillis=").append(meanCompletionMillis)
+          .append(" maxCompletionMillis=").append(maxCompletionMillis)
+          .append(StringUtils.LINE_SEPARATOR);
+      int peak = Math.max(1, getPeakArrivals());
+      for (int i = 0; i < arrivals.length; i++) {
+        result.append(String.format("%8d ms %8d ", i * bucketMillis, arrivals[i]));
+        for (long j = 0; j < (long) arrivals[i] * 50 / peak; j++) {
+          result.append('#');
+        }
+        result.append(StringUtils.LINE_SEPARATOR);
+      }
+      return result.toString();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+/**
+ * {@link Beta} <br/>
+ * Pool of byte arrays of a fixed size, used as temporary buffers for copying, serializing and
+ * parsing content, so that these buffers are not allocated for each request.
+ *
+ * <p>
+ * Each thread keeps its own bounded stack of idle buffers, so acquiring and releasing a buffer
+ * never contends with other threads. A buffer may be released by another thread than the one that
+ * acquired it, in which case it joins the pool of the releasing thread. The default pool used by
+ * this library may be replaced with {@link #setDefault(ByteArrayPool)}, for example with a pool
+ * that keeps no idle buffers to disable pooling.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  ByteArrayPool pool = ByteArrayPool.getDefault();
+  byte[] buffer = pool.acquire();
+  try {
+    int n = in.read(buffer);
+    ...
+  } finally {
+    pool.release(buffer);
+  }
+ * </pre>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class ByteArrayPool {
+
+  /** Default buffer size in bytes. */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  /** Default maximum number of idle buffers kept by each thread. */
+  public static final int DEFAULT_MAX_IDLE_PER_THREAD = 4;
+
+  private static volatile ByteArrayPool defaultPool =
+      new ByteArrayPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_IDLE_PER_THREAD);
+
+  private final int bufferSize;
+
+  private final int maxIdlePerThread;
+
+  private final ThreadLocal<Stack> idle = new ThreadLocal<Stack>() {
+    @Override
+    protected Stack initialValue() {
+      return new Stack(maxIdlePerThread);
+    }
+  };
+
+  /**
+   * @param bufferSize size in bytes of the buffers
+   * @param maxIdlePerThread maximum number of idle buffers kept by each thread, or {@code 0} to
+   *        allocate a new buffer each time
+   */
+  public ByteArrayPool(int bufferSize, int maxIdlePerThread) {
+    Preconditions.checkArgument(bufferSize > 0);
+    Preconditions.checkArgument(maxIdlePerThread >= 0);
+    this.bufferSize = bufferSize;
+    this.maxIdlePerThread = maxIdlePerThread;
+  }
+
+  /** Returns the pool used by this library. */
+  public static ByteArrayPool getDefault() {
+    return defaultPool;
+  }
+
+  /**
+   * Sets the pool used by this library.
+   *
+   * @param pool pool
+   */
+  public static void setDefault(ByteArrayPool pool) {
+    defaultPool = Preconditions.checkNotNull(pool);
+  }
+
+  /** Returns the size in bytes of the buffers. */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /** Returns the maximum number of idle buffers kept by each thread. */
+  public int getMaxIdlePerThread() {
+    return maxIdlePerThread;
+  }
+
+  /**
+   * Returns a buffer of {@link #getBufferSize()} bytes with arbitrary content, which should be
+   * {@link #release released} once no longer used.
+   */
+  public byte[] acquire() {
+    if (maxIdlePerThread > 0) {
+      Stack stack = idle.get();
+      if (stack.size > 0) {
+        byte[] buffer = stack.buffers[--stack.size];
+        stack.buffers[stack.size] = null;
+        return buffer;
+      }
+    }
+    return new byte[bufferSize];
+  }
+
+  /**
+   * Returns a buffer to the pool. The buffer must not be used anymore by the caller. Buffers of
+   * another size are ignored.
+   *
+   * @param buffer buffer
+   */
+  public void release(byte[] buffer) {
+    if (maxIdlePerThread > 0 && buffer.length == bufferSize) {
+      Stack stack = idle.get();
+      if (stack.size < maxIdlePerThread) {
+        stack.buffers[stack.size++] = buffer;
+      }
+    }
+  }
+
+  /** Returns the number of idle buffers kept by the current thread. */
+  public int getIdleCount() {
+    return maxIdlePerThread == 0 ? 0 : idle.get().size;
+  }
+
+  /** Idle buffers of a thread. */
+  private static final class Stack {
+
+    final byte[][] buffers;
+
+    int size;
+
+    Stack(int capacity) {
+      buffers = new byte[capacity][];
+    }
+  }
+}
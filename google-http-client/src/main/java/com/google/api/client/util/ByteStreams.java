@@ -32,8 +32,6 @@ import java.io.OutputStream;
  */
 public final class ByteStreams {
 
-  private static final int BUF_SIZE = 0x1000; // 4K
-
   /**
    * Copies all bytes from the input stream to the output stream. Does not close or flush either
    * stream.
@@ -45,17 +43,22 @@ public final class ByteStreams {
   public static long copy(InputStream from, OutputStream to) throws IOException {
     Preconditions.checkNotNull(from);
     Preconditions.checkNotNull(to);
-    byte[] buf = new byte[BUF_SIZE];
-    long total = 0;
-    while (true) {
-      int r = from.read(buf);
-      if (r == -1) {
-        break;
+    ByteArrayPool pool = ByteArrayPool.getDefault();
+    byte[] buf = pool.acquire();
+    try {
+      long total = 0;
+      while (true) {
+        int r = from.read(buf);
+        if (r == -1) {
+          break;
+        }
+        to.write(buf, 0, r);
+        total += r;
       }
-      to.write(buf, 0, r);
-      total += r;
+      return total;
+    } finally {
+      pool.release(buf);
     }
-    return total;
   }
 
   /**
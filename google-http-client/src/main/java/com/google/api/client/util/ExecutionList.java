@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Listeners of a {@link ListenableFuture} that run once when the future completes.
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ */
+final class ExecutionList {
+
+  private static final Logger LOGGER = Logger.getLogger(ExecutionList.class.getName());
+
+  /** Listeners and their executors or {@code null} once executed. */
+  private List<Object[]> listeners = new ArrayList<Object[]>();
+
+  /** Adds a listener, which runs immediately if the list has already been executed. */
+  void add(Runnable listener, Executor executor) {
+    Preconditions.checkNotNull(listener);
+    Preconditions.checkNotNull(executor);
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(new Object[] {listener, executor});
+        return;
+      }
+    }
+    execute(listener, executor);
+  }
+
+  /** Runs all listeners. Only the first call has an effect. */
+  void execute() {
+    List<Object[]> toRun;
+    synchronized (this) {
+      if (listeners == null) {
+        return;
+      }
+      toRun = listeners;
+      listeners = null;
+    }
+    for (Object[] entry : toRun) {
+      execute((Runnable) entry[0], (Executor) entry[1]);
+    }
+  }
+
+  private static void execute(Runnable listener, Executor executor) {
+    try {
+      executor.execute(listener);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.SEVERE, "listener " + listener + " of a future failed to run", e);
+    }
+  }
+}
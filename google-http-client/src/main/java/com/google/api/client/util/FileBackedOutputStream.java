@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * {@link Beta} <br/>
+ * Output stream that buffers the written bytes in memory until their size exceeds a threshold,
+ * and then in a temporary file, so that they can be read any number of times once the stream is
+ * closed.
+ *
+ * <p>
+ * The temporary file is deleted by {@link #reset()}, which should be called once the content is no
+ * longer needed.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  FileBackedOutputStream buffer = new FileBackedOutputStream(1024 * 1024);
+  try {
+    content.writeTo(buffer);
+    buffer.close();
+    long length = buffer.size();
+    buffer.writeTo(out);
+  } finally {
+    buffer.reset();
+  }
+ * </pre>
+ *
+ * <p>
+ * Implementation is not thread-safe. However, once the stream is closed, its content may be read
+ * by any number of threads until it is reset.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class FileBackedOutputStream extends OutputStream {
+
+  private final int fileThreshold;
+
+  /** Bytes written in memory, or {@code null} once they have been moved to the file. */
+  private byte[] buffer;
+
+  private int count;
+
+  /** Temporary file or {@code null} for none. */
+  private File file;
+
+  /** Output stream of the temporary file or {@code null} for none. */
+  private OutputStream fileOut;
+
+  private long size;
+
+  private boolean closed;
+
+  /**
+   * @param fileThreshold number of bytes above which the content is moved to a temporary file
+   */
+  public FileBackedOutputStream(int fileThreshold) {
+    this(fileThreshold, 256);
+  }
+
+  /**
+   * @param fileThreshold number of bytes above which the content is moved to a temporary file
+   * @param expectedSize expected number of bytes, for example from a {@code Content-Length}
+   *        header, used to size the memory buffer so that it does not need to grow
+   */
+  public FileBackedOutputStream(int fileThreshold, long expectedSize) {
+    Preconditions.checkArgument(fileThreshold >= 0);
+    Preconditions.checkArgument(expectedSize >= 0);
+    this.fileThreshold = fileThreshold;
+    buffer = new byte[(int) Math.min(fileThreshold, expectedSize)];
+  }
+
+  /** Returns the number of bytes above which the content is moved to a temporary file. */
+  public int getFileThreshold() {
+    return fileThreshold;
+  }
+
+  /** Returns the number of bytes written. */
+  public long size() {
+    return size;
+  }
+
+  /** Returns the temporary file holding the content or {@code null} if it is held in memory. */
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("stream is closed");
+    }
+    if (file == null && count + len > fileThreshold) {
+      File tempFile = File.createTempFile("FileBackedOutputStream", null);
+      OutputStream out;
+      try {
+        out = new BufferedOutputStream(new FileOutputStream(tempFile));
+        out.write(buffer, 0, count);
+      } catch (IOException e) {
+        tempFile.delete();
+        throw e;
+      }
+      file = tempFile;
+      fileOut = out;
+      buffer = null;
+      count = 0;
+    }
+    if (file == null) {
+      if (count + len > buffer.length) {
+        byte[] newBuffer = new byte[Math.min(fileThreshold, Math.max(count + len, count * 2))];
+        System.arraycopy(buffer, 0, newBuffer, 0, count);
+        buffer = newBuffer;
+      }
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    } else {
+      fileOut.write(b, off, len);
+    }
+    size += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (fileOut != null) {
+      fileOut.flush();
+    }
+  }
+
+  /** Closes the stream, after which its content may be read. */
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      if (fileOut != null) {
+        fileOut.close();
+      }
+    }
+  }
+
+  /**
+   * Returns a new input stream that reads the content, which the caller must close.
+   *
+   * @throws IllegalStateException if the stream is not closed
+   */
+  public InputStream openInputStream() throws IOException {
+    Preconditions.checkState(closed, "stream must be closed first");
+    File file = this.file;
+    return file == null ? new ByteArrayInputStream(buffer, 0, count) : new FileInputStream(file);
+  }
+
+  /**
+   * Returns the content decoded with the given charset. Content held in memory is decoded without
+   * being copied first.
+   *
+   * @param charset charset
+   * @throws IllegalStateException if the stream is not closed
+   */
+  public String toString(Charset charset) throws IOException {
+    Preconditions.checkState(closed, "stream must be closed first");
+    File file = this.file;
+    if (file == null) {
+      return new String(buffer, 0, count, charset);
+    }
+    Reader reader = new InputStreamReader(new FileInputStream(file), charset);
+    try {
+      StringBuilder result = new StringBuilder((int) Math.min(size, Integer.MAX_VALUE));
+      char[] chars = new char[8192];
+      int n;
+      while ((n = reader.read(chars)) != -1) {
+        result.append(chars, 0, n);
+      }
+      return result.toString();
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Writes the content to the given output stream, which is not closed.
+   *
+   * @throws IllegalStateException if the stream is not closed
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    Preconditions.checkState(closed, "stream must be closed first");
+    if (file == null) {
+      out.write(buffer, 0, count);
+    } else {
+      IOUtils.copy(new FileInputStream(file), out);
+    }
+  }
+
+  /**
+   * Discards the content and deletes the temporary file, after which the stream may be written
+   * again.
+   */
+  public void reset() throws IOException {
+    try {
+      close();
+    } finally {
+      if (file != null) {
+        file.delete();
+        file = null;
+        fileOut = null;
+      }
+      buffer = new byte[Math.min(fileThreshold, 256)];
+      count = 0;
+      size = 0;
+      closed = false;
+    }
+  }
+}
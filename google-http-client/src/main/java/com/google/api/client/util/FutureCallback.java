@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+/**
+ * {@link Beta} <br/>
+ * Callback for the result of a {@link ListenableFuture}, see
+ * {@link ListenableFutures#addCallback}.
+ *
+ * @param <V> type of the result
+ * @since 1.27
+ */
+@Beta
+public interface FutureCallback<V> {
+
+  /**
+   * Called with the result of a successful computation.
+   *
+   * @param result result
+   */
+  void onSuccess(V result);
+
+  /**
+   * Called when the computation failed or was cancelled.
+   *
+   * @param t cause of the failure or a {@link java.util.concurrent.CancellationException}
+   */
+  void onFailure(Throwable t);
+}
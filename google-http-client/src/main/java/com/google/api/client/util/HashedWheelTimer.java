@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link Beta} <br/>
+ * Timer optimized for a large number of short-lived timeouts that are usually cancelled before
+ * they expire, such as I/O deadlines.
+ *
+ * <p>
+ * Timeouts are hashed into the buckets of a wheel that a single daemon thread advances once per
+ * tick, so scheduling and cancelling a timeout take constant time and never create a thread.
+ * Timeouts expire up to one tick late. Tasks run on the timer thread and must be short, for example
+ * closing a connection or interrupting a thread.
+ * </p>
+ *
+ * <p>
+ * The thread is started when the first timeout is scheduled and exits after no timeout has been
+ * pending for a while, so a timer that is never {@link #stop() stopped} does not keep a thread
+ * alive.
+ * </p>
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class HashedWheelTimer {
+
+  private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getName());
+
+  /** Default tick duration in milliseconds. */
+  public static final long DEFAULT_TICK_MILLIS = 10;
+
+  /** Default number of buckets of the wheel. */
+  public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+  /** Time in nanoseconds after which the thread exits if no timeout is pending. */
+  private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  /** Timeout scheduled with {@link HashedWheelTimer#newTimeout}. */
+  public interface Timeout {
+
+    /**
+     * Cancels the timeout.
+     *
+     * @return {@code true} if the timeout was pending, so that its task will not run, or
+     *         {@code false} if it has already expired or been cancelled
+     */
+    boolean cancel();
+
+    /** Returns whether the timeout has expired, so that its task has run or is running. */
+    boolean isExpired();
+  }
+
+  private final String threadName;
+
+  private final long tickNanos;
+
+  private final int mask;
+
+  private final long startNanos = System.nanoTime();
+
+  // fields below are guarded by this
+
+  private final List<Set<TimeoutImpl>> wheel;
+
+  private int pending;
+
+  /** Last tick whose bucket has been processed. */
+  private long lastTick;
+
+  private Thread thread;
+
+  private boolean stopped;
+
+  /** Constructor with the default tick duration and wheel size. */
+  public HashedWheelTimer(String threadName) {
+    this(threadName, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+  }
+
+  /**
+   * @param threadName name of the timer thread
+   * @param tickDuration duration of a tick, which is the precision of the timer
+   * @param unit unit of the tick duration
+   * @param ticksPerWheel number of buckets of the wheel, rounded up to a power of two
+   */
+  public HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit,
+      int ticksPerWheel) {
+    Preconditions.checkArgument(tickDuration > 0);
+    Preconditions.checkArgument(ticksPerWheel > 0 && ticksPerWheel <= 1 << 30);
+    this.threadName = Preconditions.checkNotNull(threadName);
+    tickNanos = unit.toNanos(tickDuration);
+    int size = 1;
+    while (size < ticksPerWheel) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    wheel = new ArrayList<Set<TimeoutImpl>>(size);
+    for (int i = 0; i < size; i++) {
+      wheel.add(new HashSet<TimeoutImpl>());
+    }
+  }
+
+  /**
+   * Schedules a task to run once after the given delay, unless the returned timeout is cancelled
+   * first.
+   *
+   * @param task task to run on the timer thread
+   * @param delay delay
+   * @param unit unit of the delay
+   * @return timeout
+   * @throws IllegalStateException if the timer has been stopped
+   */
+  public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+    Preconditions.checkNotNull(task);
+    long deadlineNanos = System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay));
+    synchronized (this) {
+      Preconditions.checkState(!stopped, "timer has been stopped");
+      if (pending == 0) {
+        // the wheel does not turn while no timeout is pending
+        lastTick = Math.max(lastTick, currentTick());
+      }
+      // round up, so that a timeout never expires early
+      long deadlineTick = Math.max(lastTick + 1, (deadlineNanos + tickNanos - 1) / tickNanos);
+      TimeoutImpl timeout = new TimeoutImpl(task, deadlineTick);
+      wheel.get((int) (deadlineTick & mask)).add(timeout);
+      pending++;
+      if (thread == null) {
+        thread = new Thread(new Worker(), threadName);
+        thread.setDaemon(true);
+        thread.start();
+      } else if (pending == 1) {
+        notifyAll();
+      }
+      return timeout;
+    }
+  }
+
+  /** Returns the number of pending timeouts. */
+  public synchronized int getPendingCount() {
+    return pending;
+  }
+
+  /**
+   * Stops the timer and cancels all pending timeouts. Further calls to {@link #newTimeout} fail.
+   */
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+      for (Set<TimeoutImpl> bucket : wheel) {
+        for (TimeoutImpl timeout : bucket) {
+          timeout.state = TimeoutImpl.CANCELLED;
+        }
+        bucket.clear();
+      }
+      pending = 0;
+      notifyAll();
+    }
+  }
+
+  /** Returns the current tick. */
+  private long currentTick() {
+    return (System.nanoTime() - startNanos) / tickNanos;
+  }
+
+  private final class TimeoutImpl implements Timeout {
+
+    static final int PENDING = 0;
+    static final int EXPIRED = 1;
+    static final int CANCELLED = 2;
+
+    final Runnable task;
+
+    final long deadlineTick;
+
+    /** State guarded by the timer. */
+    int state = PENDING;
+
+    TimeoutImpl(Runnable task, long deadlineTick) {
+      this.task = task;
+      this.deadlineTick = deadlineTick;
+    }
+
+    public boolean cancel() {
+      synchronized (HashedWheelTimer.this) {
+        if (state != PENDING) {
+          return false;
+        }
+        state = CANCELLED;
+        wheel.get((int) (deadlineTick & mask)).remove(this);
+        pending--;
+        return true;
+      }
+    }
+
+    public boolean isExpired() {
+      synchronized (HashedWheelTimer.this) {
+        return state == EXPIRED;
+      }
+    }
+  }
+
+  private final class Worker implements Runnable {
+
+    Worker() {
+    }
+
+    public void run() {
+      List<TimeoutImpl> expired = new ArrayList<TimeoutImpl>();
+      while (true) {
+        synchronized (HashedWheelTimer.this) {
+          if (!awaitTick()) {
+            thread = null;
+            return;
+          }
+          long currentTick = currentTick();
+          for (long tick = lastTick + 1; tick <= currentTick && pending > 0; tick++) {
+            Set<TimeoutImpl> bucket = wheel.get((int) (tick & mask));
+            for (TimeoutImpl timeout : bucket) {
+              if (timeout.deadlineTick <= tick) {
+                expired.add(timeout);
+              }
+            }
+            for (TimeoutImpl timeout : expired) {
+              bucket.remove(timeout);
+            }
+            pending -= expired.size();
+            for (TimeoutImpl timeout : expired) {
+              timeout.state = TimeoutImpl.EXPIRED;
+            }
+            lastTick = tick;
+            if (expired.size() > 0) {
+              // run the tasks of one tick at a time, so that tasks run in deadline order
+              break;
+            }
+          }
+        }
+        for (TimeoutImpl timeout : expired) {
+          try {
+            timeout.task.run();
+          } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "timer task threw an exception", e);
+          }
+        }
+        expired.clear();
+      }
+    }
+
+    /**
+     * Waits until the next tick if timeouts are pending, or until a timeout is scheduled
+     * otherwise. Must hold the lock.
+     *
+     * @return {@code false} if the thread should exit
+     */
+    private boolean awaitTick() {
+      long idleSince = System.nanoTime();
+      try {
+        while (!stopped) {
+          if (pending == 0) {
+            long remainingNanos = IDLE_NANOS - (System.nanoTime() - idleSince);
+            if (remainingNanos <= 0) {
+              return false;
+            }
+            HashedWheelTimer.this.wait(TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1);
+            continue;
+          }
+          long remainingNanos = (lastTick + 1) * tickNanos - (System.nanoTime() - startNanos);
+          if (remainingNanos <= 0) {
+            return true;
+          }
+          HashedWheelTimer.this.wait(TimeUnit.NANOSECONDS.toMillis(remainingNanos),
+              (int) (remainingNanos % 1000000));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * {@link Beta} <br/>
+ * Implementation of {@link BackOff} with an exponentially growing back-off period that is
+ * randomized with a {@link Jitter} strategy.
+ *
+ * <p>
+ * Unlike {@link ExponentialBackOff}, whose randomized period stays within a fixed percentage of
+ * the retry interval, these strategies spread the retries of many clients that failed at the same
+ * time over the whole interval, so that they do not retry in synchronized waves. With
+ * {@code exponential_interval = min(max_interval, initial_interval * 2^attempt)}:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link Jitter#FULL}: {@code random(0, exponential_interval)}</li>
+ * <li>{@link Jitter#EQUAL}: {@code exponential_interval / 2 + random(0, exponential_interval / 2)}
+ * </li>
+ * <li>{@link Jitter#DECORRELATED}:
+ * {@code min(max_interval, random(initial_interval, previous_period * 3))}, starting with a
+ * previous period of {@code initial_interval}</li>
+ * </ul>
+ *
+ * <p>
+ * If the time elapsed since the instance is created or {@link #reset()} goes past the
+ * max_elapsed_time then {@link #nextBackOffMillis()} returns {@link BackOff#STOP}.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(
+      new JitteredBackOff.Builder().setJitter(JitteredBackOff.Jitter.DECORRELATED).build()));
+ * </pre>
+ *
+ * <p>
+ * Implementation is not thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public class JitteredBackOff implements BackOff {
+
+  /** The default initial interval value in milliseconds (0.5 seconds). */
+  public static final int DEFAULT_INITIAL_INTERVAL_MILLIS = 500;
+
+  /** The default maximum back off time in milliseconds (1 minute). */
+  public static final int DEFAULT_MAX_INTERVAL_MILLIS = 60000;
+
+  /** The default maximum elapsed time in milliseconds (15 minutes). */
+  public static final int DEFAULT_MAX_ELAPSED_TIME_MILLIS = 900000;
+
+  /** Strategy that randomizes the back-off period. */
+  public enum Jitter {
+
+    /** Random period between zero and the exponential interval. */
+    FULL,
+
+    /** Half the exponential interval plus a random period up to the other half. */
+    EQUAL,
+
+    /** Random period between the initial interval and three times the previous period. */
+    DECORRELATED
+  }
+
+  private final Jitter jitter;
+
+  private final int initialIntervalMillis;
+
+  private final int maxIntervalMillis;
+
+  private final int maxElapsedTimeMillis;
+
+  private final NanoClock nanoClock;
+
+  private final Random random;
+
+  /** Number of back-off periods since the last reset. */
+  private int attempt;
+
+  /** Previous back-off period in milliseconds, used by {@link Jitter#DECORRELATED}. */
+  private long previousMillis;
+
+  /** The system time in nanoseconds when the instance was created or last reset. */
+  private long startTimeNanos;
+
+  /** Creates an instance with full jitter and default values. */
+  public JitteredBackOff() {
+    this(new Builder());
+  }
+
+  /**
+   * @param builder builder
+   */
+  protected JitteredBackOff(Builder builder) {
+    jitter = builder.jitter;
+    initialIntervalMillis = builder.initialIntervalMillis;
+    maxIntervalMillis = builder.maxIntervalMillis;
+    maxElapsedTimeMillis = builder.maxElapsedTimeMillis;
+    nanoClock = builder.nanoClock;
+    random = builder.random == null ? new Random() : builder.random;
+    Preconditions.checkArgument(initialIntervalMillis > 0);
+    Preconditions.checkArgument(maxIntervalMillis >= initialIntervalMillis);
+    Preconditions.checkArgument(maxElapsedTimeMillis > 0);
+    reset();
+  }
+
+  /** Sets the attempt count back to zero and restarts the timer. */
+  public final void reset() {
+    attempt = 0;
+    previousMillis = initialIntervalMillis;
+    startTimeNanos = nanoClock.nanoTime();
+  }
+
+  public long nextBackOffMillis() throws IOException {
+    if (getElapsedTimeMillis() > maxElapsedTimeMillis) {
+      return STOP;
+    }
+    long result;
+    switch (jitter) {
+      case FULL:
+        result = randomBetween(0, getExponentialIntervalMillis());
+        break;
+      case EQUAL:
+        long interval = getExponentialIntervalMillis();
+        result = interval / 2 + randomBetween(0, interval - interval / 2);
+        break;
+      default:
+        result =
+            Math.min(maxIntervalMillis, randomBetween(initialIntervalMillis, previousMillis * 3));
+        previousMillis = result;
+        break;
+    }
+    if (attempt < Integer.MAX_VALUE) {
+      attempt++;
+    }
+    return result;
+  }
+
+  /** Returns {@code min(max_interval, initial_interval * 2^attempt)}. */
+  private long getExponentialIntervalMillis() {
+    if (attempt >= 31 || initialIntervalMillis > maxIntervalMillis >> attempt) {
+      return maxIntervalMillis;
+    }
+    return Math.min(maxIntervalMillis, (long) initialIntervalMillis << attempt);
+  }
+
+  /** Returns a uniformly distributed random value in the range {@code [min, max]}. */
+  private long randomBetween(long min, long max) {
+    return Math.min(max, min + (long) (random.nextDouble() * (max - min + 1)));
+  }
+
+  /** Returns the jitter strategy. */
+  public final Jitter getJitter() {
+    return jitter;
+  }
+
+  /** Returns the initial retry interval in milliseconds. */
+  public final int getInitialIntervalMillis() {
+    return initialIntervalMillis;
+  }
+
+  /** Returns the maximum back-off period in milliseconds. */
+  public final int getMaxIntervalMillis() {
+    return maxIntervalMillis;
+  }
+
+  /** Returns the maximum elapsed time in milliseconds. */
+  public final int getMaxElapsedTimeMillis() {
+    return maxElapsedTimeMillis;
+  }
+
+  /**
+   * Returns the elapsed time in milliseconds since the instance was created or last reset.
+   */
+  public final long getElapsedTimeMillis() {
+    return (nanoClock.nanoTime() - startTimeNanos) / 1000000;
+  }
+
+  /**
+   * {@link Beta} <br/>
+   * Builder for {@link JitteredBackOff}.
+   *
+   * <p>
+   * Implementation is not thread-safe.
+   * </p>
+   *
+   * @since 1.27
+   */
+  @Beta
+  public static class Builder {
+
+    Jitter jitter = Jitter.FULL;
+
+    int initialIntervalMillis = DEFAULT_INITIAL_INTERVAL_MILLIS;
+
+    int maxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+
+    int maxElapsedTimeMillis = DEFAULT_MAX_ELAPSED_TIME_MILLIS;
+
+    NanoClock nanoClock = NanoClock.SYSTEM;
+
+    /** Source of randomness or {@code null} for a new {@link Random} for each instance. */
+    Random random;
+
+    public Builder() {
+    }
+
+    /** Builds a new instance of {@link JitteredBackOff}. */
+    public JitteredBackOff build() {
+      return new JitteredBackOff(this);
+    }
+
+    /** Returns the jitter strategy. The default value is {@link Jitter#FULL}. */
+    public final Jitter getJitter() {
+      return jitter;
+    }
+
+    /**
+     * Sets the jitter strategy. The default value is {@link Jitter#FULL}.
+     *
+     * <p>
+     * Overriding is only supported for the purpose of calling the super implementation and
+     * changing the return type, but nothing else.
+     * </p>
+     */
+    public Builder setJitter(Jitter jitter) {
+      this.jitter = Preconditions.checkNotNull(jitter);
+      return this;
+    }
+
+    /**
+     * Returns the initial retry interval in milliseconds. The default value is
+     * {@link #DEFAULT_INITIAL_INTERVAL_MILLIS}.
+     */
+    public final int getInitialIntervalMillis() {
+      return initialIntervalMillis;
+    }
+
+    /**
+     * Sets the initial retry interval in milliseconds. The default value is
+     * {@link #DEFAULT_INITIAL_INTERVAL_MILLIS}. Must be {@code > 0}.
+     *
+     * <p>
+     * Overriding is only supported for the purpose of calling the super implementation and
+     * changing the return type, but nothing else.
+     * </p>
+     */
+    public Builder setInitialIntervalMillis(int initialIntervalMillis) {
+      this.initialIntervalMillis = initialIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Returns the maximum back-off period in milliseconds. The default value is
+     * {@link #DEFAULT_MAX_INTERVAL_MILLIS}.
+     */
+    public final int getMaxIntervalMillis() {
+      return maxIntervalMillis;
+    }
+
+    /**
+     * Sets the maximum back-off period in milliseconds. The default value is
+     * {@link #DEFAULT_MAX_INTERVAL_MILLIS}. Must be {@code >= initialInterval}.
+     *
+     * <p>
+     * Overriding is only supported for the purpose of calling the super implementation and
+     * changing the return type, but nothing else.
+     * </p>
+     */
+    public Builder setMaxIntervalMillis(int maxIntervalMillis) {
+      this.maxIntervalMillis = maxIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Returns the maximum elapsed time in milliseconds. The default value is
+     * {@link #DEFAULT_MAX_ELAPSED_TIME_MILLIS}.
+     */
+    public final int getMaxElapsedTimeMillis() {
+      return maxElapsedTimeMillis;
+    }
+
+    /**
+     * Sets the maximum elapsed time in milliseconds after which {@link #nextBackOffMillis()}
+     * returns {@link BackOff#STOP}. The default value is {@link #DEFAULT_MAX_ELAPSED_TIME_MILLIS}.
+     * Must be {@code > 0}.
+     *
+     * <p>
+     * Overriding is only supported for the purpose of calling the super implementation and
+     * changing the return type, but nothing else.
+     * </p>
+     */
+    public Builder setMaxElapsedTimeMillis(int maxElapsedTimeMillis) {
+      this.maxElapsedTimeMillis = maxElapsedTimeMillis;
+      return this;
+    }
+
+    /** Returns the nano clock. */
+    public final NanoClock getNanoClock() {
+      return nanoClock;
+    }
+
+    /**
+     * Sets the nano clock. The default value is {@link NanoClock#SYSTEM}.
+     *
+     * <p>
+     * Overriding is only supported for the purpose of calling the super implementation and
+     * changing the return type, but nothing else.
+     * </p>
+     */
+    public Builder setNanoClock(NanoClock nanoClock) {
+      this.nanoClock = Preconditions.checkNotNull(nanoClock);
+      return this;
+    }
+
+    /** Returns the source of randomness or {@code null} for a new {@link Random}. */
+    public final Random getRandom() {
+      return random;
+    }
+
+    /**
+     * Sets the source of randomness, for example a seeded {@link Random} for reproducible tests,
+     * or {@code null} for a new {@link Random} for each instance.
+     *
+     * <p>
+     * Overriding is only supported for the purpose of calling the super implementation and
+     * changing the return type, but nothing else.
+     * </p>
+     */
+    public Builder setRandom(Random random) {
+      this.random = random;
+      return this;
+    }
+  }
+}
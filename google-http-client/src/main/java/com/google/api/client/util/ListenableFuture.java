@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * {@link Beta} <br/>
+ * {@link Future} that runs listeners once it completes, so that a result can be processed without
+ * blocking a thread in {@link Future#get()}.
+ *
+ * <p>
+ * Use {@link ListenableFutures} to add callbacks and to transform results.
+ * </p>
+ *
+ * @param <V> type of the result
+ * @since 1.27
+ */
+@Beta
+public interface ListenableFuture<V> extends Future<V> {
+
+  /**
+   * Registers a listener to run on the given executor once the future completes, successfully,
+   * with an exception or by cancellation. If the future has already completed, the listener runs
+   * immediately.
+   *
+   * <p>
+   * Listeners run in no particular order. Exceptions thrown by the listener or rejected executions
+   * are logged and otherwise ignored.
+   * </p>
+   *
+   * @param listener listener to run
+   * @param executor executor to run the listener, for example
+   *        {@link ListenableFutures#directExecutor()} for short listeners
+   */
+  void addListener(Runnable listener, Executor executor);
+}
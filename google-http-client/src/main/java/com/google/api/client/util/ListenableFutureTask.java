@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * {@link Beta} <br/>
+ * {@link FutureTask} that is also a {@link ListenableFuture}, to run a computation on an
+ * {@link Executor}.
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @param <V> type of the result
+ * @since 1.27
+ */
+@Beta
+public class ListenableFutureTask<V> extends FutureTask<V> implements ListenableFuture<V> {
+
+  private final ExecutionList executionList = new ExecutionList();
+
+  /**
+   * @param callable computation to run
+   */
+  public ListenableFutureTask(Callable<V> callable) {
+    super(callable);
+  }
+
+  public void addListener(Runnable listener, Executor executor) {
+    executionList.add(listener, executor);
+  }
+
+  @Override
+  protected void done() {
+    executionList.execute();
+  }
+}
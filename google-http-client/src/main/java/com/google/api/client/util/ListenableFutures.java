@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link Beta} <br/>
+ * Static utility methods for {@link ListenableFuture}.
+ *
+ * @since 1.27
+ */
+@Beta
+public final class ListenableFutures {
+
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  /**
+   * {@link Beta} <br/>
+   * Function that transforms the result of a future, see {@link ListenableFutures#transform}.
+   *
+   * @param <I> type of the input
+   * @param <O> type of the output
+   * @since 1.27
+   */
+  @Beta
+  public interface Function<I, O> {
+
+    /**
+     * Transforms the input.
+     *
+     * @param input input
+     * @return output
+     * @throws Exception if the transformation failed, which fails the transformed future
+     */
+    O apply(I input) throws Exception;
+  }
+
+  /**
+   * Returns an executor that runs each task immediately on the thread that calls
+   * {@link Executor#execute}, which is only suitable for short tasks that do not block.
+   */
+  public static Executor directExecutor() {
+    return DIRECT_EXECUTOR;
+  }
+
+  /**
+   * Registers a callback to run on the given executor once the future completes.
+   *
+   * @param future future
+   * @param callback callback
+   * @param executor executor to run the callback
+   */
+  public static <V> void addCallback(final ListenableFuture<V> future,
+      final FutureCallback<? super V> callback, Executor executor) {
+    Preconditions.checkNotNull(callback);
+    future.addListener(new Runnable() {
+      public void run() {
+        V result;
+        try {
+          result = getDone(future);
+        } catch (ExecutionException e) {
+          callback.onFailure(e.getCause());
+          return;
+        } catch (RuntimeException e) {
+          callback.onFailure(e);
+          return;
+        } catch (Error e) {
+          callback.onFailure(e);
+          return;
+        }
+        callback.onSuccess(result);
+      }
+    }, executor);
+  }
+
+  /**
+   * Returns a future whose result is the result of the given future transformed by the function,
+   * which runs on the given executor once the given future succeeds.
+   *
+   * <p>
+   * If the given future fails, the returned future fails with the same cause. Cancelling the
+   * returned future cancels the given future.
+   * </p>
+   *
+   * @param input input future
+   * @param function transformation
+   * @param executor executor to run the transformation
+   * @return transformed future
+   */
+  public static <I, O> ListenableFuture<O> transform(final ListenableFuture<I> input,
+      final Function<? super I, ? extends O> function, Executor executor) {
+    Preconditions.checkNotNull(function);
+    final SettableFuture<O> output = new SettableFuture<O>() {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!super.cancel(mayInterruptIfRunning)) {
+          return false;
+        }
+        input.cancel(mayInterruptIfRunning);
+        return true;
+      }
+    };
+    addCallback(input, new FutureCallback<I>() {
+      public void onSuccess(I result) {
+        if (output.isDone()) {
+          return;
+        }
+        try {
+          output.set(function.apply(result));
+        } catch (Throwable t) {
+          output.setException(t);
+        }
+      }
+
+      public void onFailure(Throwable t) {
+        if (t instanceof CancellationException) {
+          output.cancel(false);
+        } else {
+          output.setException(t);
+        }
+      }
+    }, executor);
+    return output;
+  }
+
+  /** Returns the result of a completed future without waiting. */
+  private static <V> V getDone(ListenableFuture<V> future) throws ExecutionException {
+    Preconditions.checkState(future.isDone());
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private ListenableFutures() {
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Beta} <br/>
+ * Output stream that buffers the written bytes in memory like
+ * {@link java.io.ByteArrayOutputStream}, but in buffers from a {@link ByteArrayPool} that are
+ * returned to the pool by {@link #reset()}.
+ *
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream}, the written bytes are never copied to grow the
+ * buffer, and a small content is converted into a string without copying it first.
+ * </p>
+ *
+ * <p>
+ * Sample usage:
+ * </p>
+ *
+ * <pre>
+  PooledByteArrayOutputStream buffer = new PooledByteArrayOutputStream();
+  try {
+    IOUtils.copy(in, buffer);
+    return buffer.toString(Charsets.UTF_8);
+  } finally {
+    buffer.reset();
+  }
+ * </pre>
+ *
+ * <p>
+ * Implementation is not thread-safe.
+ * </p>
+ *
+ * @since 1.27
+ */
+@Beta
+public final class PooledByteArrayOutputStream extends OutputStream {
+
+  private final ByteArrayPool pool;
+
+  /** Filled buffers, not including the current buffer. */
+  private final List<byte[]> filled = new ArrayList<byte[]>();
+
+  /** Current buffer or {@code null} for none. */
+  private byte[] current;
+
+  /** Number of bytes written to the current buffer. */
+  private int count;
+
+  /** Number of bytes written to the filled buffers. */
+  private int filledSize;
+
+  /** Constructor with the {@link ByteArrayPool#getDefault() default pool}. */
+  public PooledByteArrayOutputStream() {
+    this(ByteArrayPool.getDefault());
+  }
+
+  /**
+   * @param pool pool of the buffers
+   */
+  public PooledByteArrayOutputStream(ByteArrayPool pool) {
+    this.pool = Preconditions.checkNotNull(pool);
+  }
+
+  @Override
+  public void write(int b) {
+    if (current == null || count == current.length) {
+      nextBuffer();
+    }
+    current[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    while (len > 0) {
+      if (current == null || count == current.length) {
+        nextBuffer();
+      }
+      int n = Math.min(len, current.length - count);
+      System.arraycopy(b, off, current, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  private void nextBuffer() {
+    if (current != null) {
+      filled.add(current);
+      filledSize += count;
+    }
+    current = pool.acquire();
+    count = 0;
+  }
+
+  /** Returns the number of bytes written. */
+  public int size() {
+    return filledSize + count;
+  }
+
+  /** Returns a new array of the written bytes. */
+  public byte[] toByteArray() {
+    byte[] result = new byte[size()];
+    int offset = 0;
+    for (byte[] buffer : filled) {
+      System.arraycopy(buffer, 0, result, offset, buffer.length);
+      offset += buffer.length;
+    }
+    if (current != null) {
+      System.arraycopy(current, 0, result, offset, count);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the written bytes decoded with the given charset.
+   *
+   * @param charset charset
+   */
+  public String toString(Charset charset) {
+    if (filled.isEmpty()) {
+      return current == null ? "" : new String(current, 0, count, charset);
+    }
+    return new String(toByteArray(), charset);
+  }
+
+  /**
+   * Writes the written bytes to the given output stream.
+   *
+   * @param out output stream
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    for (byte[] buffer : filled) {
+      out.write(buffer);
+    }
+    if (current != null) {
+      out.write(current, 0, count);
+    }
+  }
+
+  /**
+   * Discards the written bytes and returns the buffers to the pool. The stream may be written
+   * again afterwards.
+   */
+  public void reset() {
+    for (byte[] buffer : filled) {
+      pool.release(buffer);
+    }
+    filled.clear();
+    filledSize = 0;
+    if (current != null) {
+      pool.release(current);
+      current = null;
+    }
+    count = 0;
+  }
+}
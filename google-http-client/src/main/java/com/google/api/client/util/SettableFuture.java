@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Beta} <br/>
+ * {@link ListenableFuture} whose result is set explicitly, for example by a callback of an
+ * asynchronous operation.
+ *
+ * <p>
+ * Implementation is thread-safe.
+ * </p>
+ *
+ * @param <V> type of the result
+ * @since 1.27
+ */
+@Beta
+public class SettableFuture<V> implements ListenableFuture<V> {
+
+  private static final int PENDING = 0;
+  private static final int SUCCEEDED = 1;
+  private static final int FAILED = 2;
+  private static final int CANCELLED = 3;
+
+  private final ExecutionList executionList = new ExecutionList();
+
+  // fields below are guarded by this
+
+  private int state = PENDING;
+
+  private V value;
+
+  private Throwable exception;
+
+  /**
+   * Sets the result, unless the future has already completed.
+   *
+   * @param value result
+   * @return whether the result was set
+   */
+  public boolean set(V value) {
+    return complete(SUCCEEDED, value, null);
+  }
+
+  /**
+   * Fails the future, unless it has already completed.
+   *
+   * @param exception cause of the failure
+   * @return whether the exception was set
+   */
+  public boolean setException(Throwable exception) {
+    return complete(FAILED, null, Preconditions.checkNotNull(exception));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * The computation that would set the result is not interrupted, but may call {@link #isDone()}
+   * to stop early. Subclasses may override {@link #interruptTask()} to interrupt it.
+   * </p>
+   */
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!complete(CANCELLED, null, null)) {
+      return false;
+    }
+    if (mayInterruptIfRunning) {
+      interruptTask();
+    }
+    return true;
+  }
+
+  /**
+   * Called by {@link #cancel(boolean)} with {@code mayInterruptIfRunning} set to {@code true} once
+   * the future has been cancelled. The default implementation does nothing.
+   */
+  protected void interruptTask() {
+  }
+
+  private boolean complete(int newState, V newValue, Throwable newException) {
+    synchronized (this) {
+      if (state != PENDING) {
+        return false;
+      }
+      state = newState;
+      value = newValue;
+      exception = newException;
+      notifyAll();
+    }
+    executionList.execute();
+    return true;
+  }
+
+  public synchronized boolean isCancelled() {
+    return state == CANCELLED;
+  }
+
+  public synchronized boolean isDone() {
+    return state != PENDING;
+  }
+
+  public synchronized V get() throws InterruptedException, ExecutionException {
+    while (state == PENDING) {
+      wait();
+    }
+    return getResult();
+  }
+
+  public synchronized V get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (state == PENDING) {
+      long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0) {
+        throw new TimeoutException();
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+    return getResult();
+  }
+
+  private V getResult() throws ExecutionException {
+    switch (state) {
+      case SUCCEEDED:
+        return value;
+      case FAILED:
+        throw new ExecutionException(exception);
+      default:
+        throw new CancellationException();
+    }
+  }
+
+  public void addListener(Runnable listener, Executor executor) {
+    executionList.add(listener, executor);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.http.CircuitBreaker.State;
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.util.NanoClock;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest extends TestCase {
+
+  static class FakeNanoClock implements NanoClock {
+
+    long nanoTime;
+
+    public long nanoTime() {
+      return nanoTime;
+    }
+  }
+
+  static class RecordingListener implements CircuitBreaker.Listener {
+
+    final List<String> changes = new ArrayList<String>();
+
+    public void onStateChange(String origin, State from, State to) {
+      changes.add(origin + " " + from + "->" + to);
+    }
+  }
+
+  public void testGetOrigin() {
+    assertEquals("https://google.com:443",
+        CircuitBreaker.getOrigin(new GenericUrl("https://Google.com/a")));
+    assertEquals("http://google.com:80",
+        CircuitBreaker.getOrigin(new GenericUrl("http://google.com")));
+    assertEquals("http://google.com:8080",
+        CircuitBreaker.getOrigin(new GenericUrl("http://google.com:8080/b?c=d")));
+  }
+
+  public void testStateTransitions() {
+    FakeNanoClock clock = new FakeNanoClock();
+    RecordingListener listener = new RecordingListener();
+    CircuitBreaker breaker = new CircuitBreaker.Builder()
+        .setFailureThreshold(2)
+        .setOpenDurationMillis(1000)
+        .setNanoClock(clock)
+        .setListener(listener)
+        .build();
+    String origin = "http://a:80";
+    assertEquals(State.CLOSED, breaker.getState(origin));
+
+    // a success resets the consecutive failures
+    breaker.onFailure(origin);
+    breaker.onSuccess(origin);
+    breaker.onFailure(origin);
+    assertEquals(State.CLOSED, breaker.getState(origin));
+    assertTrue(breaker.tryAcquirePermission(origin));
+    breaker.onFailure(origin);
+    assertEquals(State.OPEN, breaker.getState(origin));
+    assertFalse(breaker.tryAcquirePermission(origin));
+    // origins have separate circuits
+    assertTrue(breaker.tryAcquirePermission("http://b:80"));
+
+    // a single probe is permitted once the open duration has elapsed
+    clock.nanoTime += 999000000L;
+    assertFalse(breaker.tryAcquirePermission(origin));
+    clock.nanoTime += 1000000L;
+    assertTrue(breaker.tryAcquirePermission(origin));
+    assertEquals(State.HALF_OPEN, breaker.getState(origin));
+    assertFalse(breaker.tryAcquirePermission(origin));
+
+    // a failed probe opens the circuit again
+    breaker.onFailure(origin);
+    assertEquals(State.OPEN, breaker.getState(origin));
+    assertFalse(breaker.tryAcquirePermission(origin));
+
+    // a successful probe closes it
+    clock.nanoTime += 1000000000L;
+    assertTrue(breaker.tryAcquirePermission(origin));
+    breaker.onSuccess(origin);
+    assertEquals(State.CLOSED, breaker.getState(origin));
+    assertTrue(breaker.tryAcquirePermission(origin));
+
+    assertEquals(Arrays.asList(
+        "http://a:80 CLOSED->OPEN",
+        "http://a:80 OPEN->HALF_OPEN",
+        "http://a:80 HALF_OPEN->OPEN",
+        "http://a:80 OPEN->HALF_OPEN",
+        "http://a:80 HALF_OPEN->CLOSED"), listener.changes);
+  }
+
+  public void testStaleProbe() {
+    FakeNanoClock clock = new FakeNanoClock();
+    CircuitBreaker breaker = new CircuitBreaker.Builder()
+        .setFailureThreshold(1)
+        .setOpenDurationMillis(1000)
+        .setNanoClock(clock)
+        .build();
+    String origin = "http://a:80";
+    breaker.onFailure(origin);
+    clock.nanoTime += 1000000000L;
+    assertTrue(breaker.tryAcquirePermission(origin));
+    // the outcome of the probe is never reported
+    assertFalse(breaker.tryAcquirePermission(origin));
+    clock.nanoTime += 1000000000L;
+    assertTrue(breaker.tryAcquirePermission(origin));
+  }
+
+  public void testListenerException() {
+    CircuitBreaker breaker = new CircuitBreaker.Builder()
+        .setFailureThreshold(1)
+        .setListener(new CircuitBreaker.Listener() {
+          public void onStateChange(String origin, State from, State to) {
+            throw new IllegalStateException();
+          }
+        })
+        .build();
+    breaker.onFailure("http://a:80");
+    assertEquals(State.OPEN, breaker.getState("http://a:80"));
+  }
+
+  public void testExecute_serverErrors() throws Exception {
+    FakeNanoClock clock = new FakeNanoClock();
+    CircuitBreaker breaker = new CircuitBreaker.Builder()
+        .setFailureThreshold(3)
+        .setNanoClock(clock)
+        .build();
+    RetryBudgetTest.StatusTransport transport = new RetryBudgetTest.StatusTransport();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setCircuitBreaker(breaker);
+    transport.statusCodes = Arrays.asList(500, 503, 404, 500, 502, 500);
+    for (int i = 0; i < 6; i++) {
+      assertTrue(newRequest(requestFactory).execute().getStatusCode() >= 400);
+    }
+    assertEquals(6, transport.count);
+    try {
+      newRequest(requestFactory).execute();
+      fail("expected " + CircuitBreakerOpenException.class);
+    } catch (CircuitBreakerOpenException e) {
+      assertEquals(CircuitBreaker.getOrigin(HttpTesting.SIMPLE_GENERIC_URL), e.getOrigin());
+    }
+    assertEquals(6, transport.count);
+
+    // the probe closes the circuit
+    clock.nanoTime += CircuitBreaker.DEFAULT_OPEN_DURATION_MILLIS * 1000000L;
+    transport.statusCodes = Arrays.asList(200);
+    assertEquals(200, newRequest(requestFactory).execute().getStatusCode());
+    assertEquals(State.CLOSED,
+        breaker.getState(CircuitBreaker.getOrigin(HttpTesting.SIMPLE_GENERIC_URL)));
+  }
+
+  public void testExecute_ioExceptionsNotRetriedWhileOpen() throws Exception {
+    final int[] count = new int[1];
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            count[0]++;
+            throw new IOException("connection refused");
+          }
+        };
+      }
+    };
+    CircuitBreaker breaker = new CircuitBreaker.Builder().setFailureThreshold(2).build();
+    HttpRequest request = transport.createRequestFactory()
+        .setCircuitBreaker(breaker)
+        .buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setRetryOnExecuteIOException(true);
+    request.setNumberOfRetries(5);
+    try {
+      request.execute();
+      fail("expected " + CircuitBreakerOpenException.class);
+    } catch (CircuitBreakerOpenException e) {
+      // expected
+    }
+    // the third attempt failed fast without reaching the network
+    assertEquals(2, count[0]);
+  }
+
+  public void testInitializerOverridesFactory() throws Exception {
+    final CircuitBreaker other = new CircuitBreaker();
+    HttpRequestFactory requestFactory = new MockHttpTransport()
+        .createRequestFactory(new HttpRequestInitializer() {
+          public void initialize(HttpRequest request) {
+            assertNotNull(request.getCircuitBreaker());
+            request.setCircuitBreaker(other);
+          }
+        })
+        .setCircuitBreaker(new CircuitBreaker());
+    assertSame(other, requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL)
+        .getCircuitBreaker());
+  }
+
+  private static HttpRequest newRequest(HttpRequestFactory requestFactory) throws IOException {
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setThrowExceptionOnExecuteError(false);
+    return request;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link CompressionPolicy}.
+ */
+public class CompressionPolicyTest extends TestCase {
+
+  public void testIsCompressible() {
+    CompressionPolicy policy = new CompressionPolicy();
+    assertTrue(policy.isCompressible("text/plain"));
+    assertTrue(policy.isCompressible("Application/JSON; charset=UTF-8"));
+    assertTrue(policy.isCompressible("application/vnd.api+json"));
+    assertTrue(policy.isCompressible("application/atom+xml"));
+    assertFalse(policy.isCompressible("image/png"));
+    assertFalse(policy.isCompressible("application/octet-stream"));
+    assertFalse(policy.isCompressible("application/jsonp"));
+    assertFalse(policy.isCompressible("invalid"));
+    assertFalse(policy.isCompressible(null));
+
+    policy = new CompressionPolicy.Builder()
+        .setCompressibleTypes(Arrays.asList("Application/Octet-Stream")).build();
+    assertTrue(policy.isCompressible("application/octet-stream"));
+    assertFalse(policy.isCompressible("text/plain"));
+  }
+
+  public void testGetEncoding() throws IOException {
+    GZipEncoding encoding = new GZipEncoding();
+    CompressionPolicy policy =
+        new CompressionPolicy.Builder().setEncoding(encoding).setMinLength(10).build();
+    assertNull(policy.getEncoding(new ByteArrayContent("text/plain", new byte[9])));
+    assertSame(encoding, policy.getEncoding(new ByteArrayContent("text/plain", new byte[10])));
+    assertNull(policy.getEncoding(new ByteArrayContent("image/png", new byte[10])));
+    // content of unknown length is compressed
+    assertSame(encoding, policy.getEncoding(new InputStreamContent("text/plain",
+        new ByteArrayInputStream(new byte[1]))));
+  }
+
+  public void testRequest() throws IOException {
+    final String[] contentEncoding = new String[1];
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest(url) {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            contentEncoding[0] = getContentEncoding();
+            return super.execute();
+          }
+        };
+      }
+    };
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setCompressionPolicy(new CompressionPolicy());
+    requestFactory.buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL,
+        new ByteArrayContent("application/json", new byte[2000])).execute();
+    assertEquals("gzip", contentEncoding[0]);
+    requestFactory.buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL,
+        new ByteArrayContent("application/json", new byte[20])).execute();
+    assertNull(contentEncoding[0]);
+    // the encoding of the request takes precedence
+    requestFactory.buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL,
+        new ByteArrayContent("application/json", new byte[20]))
+        .setEncoding(new GZipEncoding()).execute();
+    assertEquals("gzip", contentEncoding[0]);
+  }
+}
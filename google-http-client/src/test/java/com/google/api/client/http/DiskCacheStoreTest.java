@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.StringUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link DiskCacheStore}.
+ */
+public class DiskCacheStoreTest extends TestCase {
+
+  private File directory;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = File.createTempFile("cache", null);
+    assertTrue(directory.delete());
+    assertTrue(directory.mkdir());
+  }
+
+  @Override
+  protected void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  public void testPutGet() throws Exception {
+    DiskCacheStore store = new DiskCacheStore(directory);
+    assertNull(store.get("a"));
+    store.put("a", entry("abc", "ETag", "\"v1\""));
+    HttpResponseCache.Entry entry = store.get("a");
+    assertEquals(200, entry.getStatusCode());
+    assertEquals("HTTP/1.1 200 OK", entry.getStatusLine());
+    assertEquals("OK", entry.getReasonPhrase());
+    assertEquals(Arrays.asList("ETag"), entry.getHeaderNames());
+    assertEquals("\"v1\"", entry.getHeaderValue("ETag"));
+    assertEquals("vary", entry.getVaryKey());
+    assertEquals(1000, entry.getRequestTimeMillis());
+    assertEquals(2000, entry.getResponseTimeMillis());
+    assertEquals("abc", content(entry));
+
+    // replacing an entry releases the previous one
+    store.put("a", entry("de"));
+    assertEquals("de", content(store.get("a")));
+    assertEquals(1, store.getEntryCount());
+    store.remove("a");
+    assertNull(store.get("a"));
+    assertEquals(0, store.getEntryCount());
+    assertEquals(0, store.getSizeBytes());
+
+    // an entry without content
+    store.put("b", new HttpResponseCache.Entry(204, null, null, new ArrayList<String>(),
+        new ArrayList<String>(), (HttpResponseCache.EntryContent) null, "", 0, 0));
+    entry = store.get("b");
+    assertNull(entry.getStatusLine());
+    assertNull(entry.getContent());
+    store.close();
+  }
+
+  public void testReopen() throws Exception {
+    DiskCacheStore store = new DiskCacheStore(directory);
+    store.put("a", entry("abc"));
+    store.put("b", entry("def"));
+    store.remove("b");
+    long sizeBytes = store.getSizeBytes();
+    store.close();
+    try {
+      store.get("a");
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      // expected
+    }
+
+    store = new DiskCacheStore(directory);
+    assertEquals(1, store.getEntryCount());
+    assertEquals(sizeBytes, store.getSizeBytes());
+    assertEquals("abc", content(store.get("a")));
+    assertNull(store.get("b"));
+    store.close();
+
+    // a different maximum number of entries resets the store
+    store = new DiskCacheStore(directory, DiskCacheStore.DEFAULT_MAX_SIZE_BYTES, 10);
+    assertEquals(0, store.getEntryCount());
+    assertNull(store.get("a"));
+    store.close();
+  }
+
+  public void testTruncatedSegment() throws Exception {
+    DiskCacheStore store = new DiskCacheStore(directory);
+    store.put("a", entry("abc"));
+    store.close();
+    for (File file : directory.listFiles()) {
+      if (file.getName().startsWith("segment-")) {
+        assertTrue(file.delete());
+      }
+    }
+    store = new DiskCacheStore(directory);
+    assertEquals(0, store.getEntryCount());
+    assertNull(store.get("a"));
+    store.close();
+  }
+
+  public void testEvictionByCount() throws Exception {
+    DiskCacheStore store = new DiskCacheStore(directory, DiskCacheStore.DEFAULT_MAX_SIZE_BYTES, 2);
+    store.put("a", entry("a", "ETag", "\"a\""));
+    store.put("b", entry("b", "ETag", "\"b\""));
+    store.get("a");
+    store.put("c", entry("c", "ETag", "\"c\""));
+    assertEquals(2, store.getEntryCount());
+    assertNotNull(store.get("a"));
+    assertNull(store.get("b"));
+    assertNotNull(store.get("c"));
+
+    // an expired entry without validator is evicted first
+    store.put("d", entry("d"));
+    store.get("d");
+    store.put("e", entry("e", "ETag", "\"e\""));
+    assertNull(store.get("d"));
+    assertNotNull(store.get("c"));
+    store.close();
+  }
+
+  public void testEvictionBySize() throws Exception {
+    byte[] content = new byte[1000];
+    DiskCacheStore store = new DiskCacheStore(directory);
+    store.put("k0", entry(content));
+    long entrySize = store.getSizeBytes();
+    store.close();
+
+    store = new DiskCacheStore(directory, entrySize * 3, 100);
+    for (int i = 0; i < 10; i++) {
+      store.put("k" + i, entry(content));
+      assertTrue(store.getSizeBytes() <= entrySize * 3);
+    }
+    assertEquals(3, store.getEntryCount());
+    assertNull(store.get("k6"));
+    for (int i = 7; i < 10; i++) {
+      assertEquals(1000, store.get("k" + i).getContent().getLength());
+    }
+    // an entry larger than the maximum size is not stored
+    store.put("large", entry(new byte[(int) entrySize * 3]));
+    assertNull(store.get("large"));
+    store.close();
+  }
+
+  public void testCompaction() throws Exception {
+    // segments are rolled after 1 MiB
+    byte[] content = new byte[100 * 1024];
+    DiskCacheStore store = new DiskCacheStore(directory, 16 * 1024 * 1024, 100);
+    for (int i = 0; i < 20; i++) {
+      store.put("k" + i, entry(content));
+    }
+    assertTrue(new File(directory, "segment-1").exists());
+    assertTrue(new File(directory, "segment-2").exists());
+    for (int i = 0; i < 8; i++) {
+      store.remove("k" + i);
+    }
+    // the first segment was compacted once less than a quarter of it was live
+    assertFalse(new File(directory, "segment-1").exists());
+    for (int i = 8; i < 20; i++) {
+      assertEquals(content.length, store.get("k" + i).getContent().getLength());
+    }
+    store.close();
+    store = new DiskCacheStore(directory, 16 * 1024 * 1024, 100);
+    assertEquals(12, store.getEntryCount());
+    assertEquals(content.length, store.get("k8").getContent().getLength());
+    store.close();
+  }
+
+  public void testEvictionAfterGet() throws Exception {
+    // segments are rolled after 1 MiB
+    byte[] content = new byte[600 * 1024];
+    Arrays.fill(content, (byte) 'a');
+    DiskCacheStore store = new DiskCacheStore(directory, 1300 * 1024, 100);
+    store.put("k0", entry(content));
+    HttpResponseCache.Entry entry = store.get("k0");
+    store.put("k1", entry(new byte[600 * 1024]));
+    store.put("k2", entry(new byte[600 * 1024]));
+    // the entry was evicted and its segment deleted, but its content is still readable
+    assertNull(store.get("k0"));
+    assertFalse(new File(directory, "segment-1").exists());
+    assertEquals(StringUtils.newStringUtf8(content), content(entry));
+    store.close();
+  }
+
+  public void testResponseCache() throws Exception {
+    HttpResponseCacheTest.CacheTransport transport = new HttpResponseCacheTest.CacheTransport();
+    DiskCacheStore store = new DiskCacheStore(directory);
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setResponseCache(new HttpResponseCache(store));
+    transport.respond(200, "a", "Cache-Control", "max-age=60", "Content-Type", "text/plain");
+    assertEquals("a", requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute()
+        .parseAsString());
+    store.close();
+
+    // a new store serves the response from disk
+    store = new DiskCacheStore(directory);
+    requestFactory =
+        transport.createRequestFactory().setResponseCache(new HttpResponseCache(store));
+    HttpResponse response =
+        requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    assertEquals("a", response.parseAsString());
+    assertEquals("text/plain", response.getContentType());
+    assertEquals(1, transport.requests.size());
+    store.close();
+  }
+
+  private static HttpResponseCache.Entry entry(String content, String... headers) {
+    return entry(StringUtils.getBytesUtf8(content), headers);
+  }
+
+  private static HttpResponseCache.Entry entry(byte[] content, String... headers) {
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < headers.length; i += 2) {
+      names.add(headers[i]);
+      values.add(headers[i + 1]);
+    }
+    return new HttpResponseCache.Entry(200, "HTTP/1.1 200 OK", "OK", names, values, content,
+        "vary", 1000, 2000);
+  }
+
+  private static String content(HttpResponseCache.Entry entry) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    IOUtils.copy(entry.getContent().openStream(), out);
+    return StringUtils.newStringUtf8(out.toByteArray());
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.testing.util.TestableByteArrayInputStream;
+import com.google.api.client.util.NanoClock;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link DrainPolicy}.
+ */
+public class DrainPolicyTest extends TestCase {
+
+  public void testDrain() throws IOException {
+    DrainPolicy policy = new DrainPolicy(100, 1000);
+    assertEquals(100, policy.getMaxBytes());
+    assertEquals(1000, policy.getMaxMillis());
+    ByteArrayInputStream content = new ByteArrayInputStream(new byte[100]);
+    assertTrue(policy.drain(content, 100));
+    assertEquals(-1, content.read());
+    content = new ByteArrayInputStream(new byte[100]);
+    assertTrue(policy.drain(content, -1));
+    assertEquals(-1, content.read());
+  }
+
+  public void testMaxBytes() throws IOException {
+    DrainPolicy policy = new DrainPolicy(100, 1000);
+    // a known length above the maximum is not drained at all
+    ByteArrayInputStream content = new ByteArrayInputStream(new byte[101]);
+    assertFalse(policy.drain(content, 101));
+    assertEquals(101, content.available());
+    // an unknown length is drained up to the maximum
+    content = new ByteArrayInputStream(new byte[10000]);
+    assertFalse(policy.drain(content, -1));
+    assertEquals(10000 - 101, content.available());
+  }
+
+  public void testMaxMillis() throws IOException {
+    final long[] nanoTime = new long[1];
+    NanoClock nanoClock = new NanoClock() {
+      public long nanoTime() {
+        return nanoTime[0];
+      }
+    };
+    DrainPolicy policy = new DrainPolicy(100000, 10, nanoClock);
+    InputStream content = new ByteArrayInputStream(new byte[100000]) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        // each read takes 4 milliseconds
+        nanoTime[0] += 4000000;
+        return super.read(b, off, Math.min(len, 1000));
+      }
+    };
+    assertFalse(policy.drain(content, -1));
+    assertEquals(100000 - 3000, content.available());
+  }
+
+  public void testMaxMillis_blockedRead() throws Exception {
+    DrainPolicy policy = new DrainPolicy(100000, 50);
+    final CountDownLatch aborted = new CountDownLatch(1);
+    InputStream content = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        // blocks like a stalled server until the read is aborted
+        try {
+          if (aborted.await(10, TimeUnit.SECONDS)) {
+            throw new SocketException("Socket closed");
+          }
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        return -1;
+      }
+    };
+    long startNanos = System.nanoTime();
+    try {
+      policy.drain(content, -1, new Runnable() {
+        public void run() {
+          aborted.countDown();
+        }
+      });
+      fail();
+    } catch (SocketException e) {
+      // expected
+    }
+    assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  public void testIgnore() throws IOException {
+    final TestableByteArrayInputStream[] content = new TestableByteArrayInputStream[1];
+    final String[] contentEncoding = new String[1];
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() {
+            content[0] = new TestableByteArrayInputStream(new byte[1000]);
+            return new MockLowLevelHttpResponse().setContentEncoding(contentEncoding[0])
+                .setContent(content[0]);
+          }
+        };
+      }
+    };
+    HttpRequestFactory requestFactory = transport.createRequestFactory();
+    requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute().ignore();
+    assertTrue(content[0].isClosed());
+    assertEquals(1000, content[0].available());
+
+    DrainPolicy policy = new DrainPolicy();
+    assertSame(policy, requestFactory.setDrainPolicy(policy).getDrainPolicy());
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    assertSame(policy, request.getDrainPolicy());
+    // the content is drained without being decoded
+    contentEncoding[0] = "gzip";
+    request.execute().ignore();
+    assertTrue(content[0].isClosed());
+    assertEquals(0, content[0].available());
+    // the content is not drained on disconnect, because the connection is not reused
+    request.execute().disconnect();
+    assertTrue(content[0].isClosed());
+    assertEquals(1000, content[0].available());
+  }
+}
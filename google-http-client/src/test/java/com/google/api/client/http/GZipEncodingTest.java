@@ -17,8 +17,16 @@ package com.google.api.client.http;
 
 import com.google.api.client.testing.util.TestableByteArrayOutputStream;
 import com.google.api.client.util.ByteArrayStreamingContent;
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.StreamingContent;
 import com.google.api.client.util.StringUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import junit.framework.TestCase;
 import org.junit.Assert;
 
@@ -41,4 +49,52 @@ public class GZipEncodingTest extends TestCase {
     assertFalse(out.isClosed());
     Assert.assertArrayEquals(EXPECED_ZIPPED, out.getBuffer());
   }
+
+  public void testLevels() throws IOException {
+    // compressible content that is larger than the buffers
+    byte[] content = new byte[100000];
+    Random random = new Random(0);
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) ('a' + random.nextInt(4));
+    }
+    int[] sizes = new int[3];
+    int[] levels = {Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION};
+    for (int i = 0; i < levels.length; i++) {
+      GZipEncoding encoding = new GZipEncoding(levels[i], Deflater.DEFAULT_STRATEGY);
+      assertEquals(levels[i], encoding.getLevel());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      encoding.encode(new ByteArrayStreamingContent(content), out);
+      sizes[i] = out.size();
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      IOUtils.copy(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), decoded);
+      Assert.assertArrayEquals(content, decoded.toByteArray());
+    }
+    assertTrue(sizes[0] > content.length);
+    assertTrue(sizes[1] < content.length / 2);
+    assertTrue(sizes[2] <= sizes[1]);
+  }
+
+  public void testContentClosesStream() throws IOException {
+    StreamingContent content = new StreamingContent() {
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(StringUtils.getBytesUtf8("oooooooooooooooooooooooooooo"));
+        out.close();
+      }
+    };
+    TestableByteArrayOutputStream out = new TestableByteArrayOutputStream();
+    new GZipEncoding().encode(content, out);
+    assertFalse(out.isClosed());
+    Assert.assertArrayEquals(EXPECED_ZIPPED, out.getBuffer());
+  }
+
+  public void testDeflaterPool() throws IOException {
+    GZipEncoding encoding = new GZipEncoding();
+    for (int i = 0; i < 3; i++) {
+      encoding.encode(new ByteArrayStreamingContent(new byte[10]), new ByteArrayOutputStream());
+    }
+    int idle = DeflaterPool.getIdleCount();
+    assertTrue(idle > 0 && idle <= DeflaterPool.MAX_IDLE);
+    encoding.encode(new ByteArrayStreamingContent(new byte[10]), new ByteArrayOutputStream());
+    assertEquals(idle, DeflaterPool.getIdleCount());
+  }
 }
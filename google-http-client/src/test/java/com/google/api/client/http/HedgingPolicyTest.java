@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HedgingPolicy}.
+ */
+public class HedgingPolicyTest extends TestCase {
+
+  public void testGetHedgeDelayMillis() {
+    HedgingPolicy policy = new HedgingPolicy.Builder()
+        .setPercentile(0.9)
+        .setMinSamples(5)
+        .setWindowSize(10)
+        .build();
+    for (int i = 1; i <= 4; i++) {
+      policy.recordLatency("a", i * 10);
+    }
+    assertEquals(-1, policy.getHedgeDelayMillis("a"));
+    policy.recordLatency("a", 50);
+    assertEquals(50, policy.getHedgeDelayMillis("a"));
+    for (int i = 6; i <= 10; i++) {
+      policy.recordLatency("a", i * 10);
+    }
+    assertEquals(90, policy.getHedgeDelayMillis("a"));
+    // the oldest latencies are overwritten
+    for (int i = 0; i < 10; i++) {
+      policy.recordLatency("a", 1);
+    }
+    assertEquals(1, policy.getHedgeDelayMillis("a"));
+    // hosts are separate
+    assertEquals(-1, policy.getHedgeDelayMillis("b"));
+  }
+
+  public void testGetHedgeDelayMillis_fixed() {
+    HedgingPolicy policy = new HedgingPolicy.Builder().setDelayMillis(25).build();
+    assertEquals(25, policy.getHedgeDelayMillis("a"));
+  }
+
+  public void testGetHedgeDelayMillis_minDelay() {
+    HedgingPolicy policy =
+        new HedgingPolicy.Builder().setMinSamples(1).setMinDelayMillis(100).build();
+    policy.recordLatency("a", 3);
+    assertEquals(100, policy.getHedgeDelayMillis("a"));
+  }
+
+  public void testExecute_slowPrimary() throws Exception {
+    SlowTransport transport = new SlowTransport();
+    HttpRequestFactory requestFactory = transport.createRequestFactory()
+        .setHedgingPolicy(new HedgingPolicy.Builder().setDelayMillis(10).build());
+    HttpResponse response =
+        requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    assertEquals("1", response.parseAsString());
+    assertEquals(2, transport.responses.size());
+    // the slow primary ran on the calling thread, and is aborted once the duplicate wins
+    assertSame(Thread.currentThread(), transport.firstThread);
+    assertTrue(transport.aborted);
+  }
+
+  public void testExecute_busyExecutor() throws Exception {
+    final SlowTransport transport = new SlowTransport();
+    HedgingPolicy policy = new HedgingPolicy.Builder().setDelayMillis(10).build();
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setHedgingPolicy(policy);
+    // occupy every thread of the executor
+    final CountDownLatch busy = new CountDownLatch(1);
+    for (int i = 0; i < HedgingPolicy.MAX_DUPLICATES; i++) {
+      policy.getExecutor().execute(new Runnable() {
+        public void run() {
+          try {
+            busy.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            // done
+          }
+        }
+      });
+    }
+    try {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(200);
+          } catch (InterruptedException e) {
+            // release now
+          }
+          transport.release.countDown();
+        }
+      };
+      thread.start();
+      // the request is not hedged while the executor is busy
+      HttpResponse response =
+          requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+      assertEquals("0", response.parseAsString());
+      assertEquals(1, transport.responses.size());
+      assertFalse(transport.aborted);
+    } finally {
+      busy.countDown();
+    }
+  }
+
+  public void testExecute_fastPrimary() throws Exception {
+    SlowTransport transport = new SlowTransport();
+    transport.release.countDown();
+    HttpRequestFactory requestFactory = transport.createRequestFactory()
+        .setHedgingPolicy(new HedgingPolicy.Builder().setDelayMillis(5000).build());
+    HttpResponse response =
+        requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    assertEquals("0", response.parseAsString());
+    assertEquals(1, transport.responses.size());
+  }
+
+  public void testExecute_notIdempotent() throws Exception {
+    SlowTransport transport = new SlowTransport();
+    final HttpRequestFactory requestFactory = transport.createRequestFactory()
+        .setHedgingPolicy(new HedgingPolicy.Builder().setDelayMillis(0).build());
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          requestFactory.buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL, null).execute();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    };
+    thread.start();
+    Thread.sleep(100);
+    transport.release.countDown();
+    thread.join(5000);
+    assertEquals(1, transport.responses.size());
+  }
+
+  public void testExecute_recordsLatency() throws Exception {
+    SlowTransport transport = new SlowTransport();
+    transport.release.countDown();
+    HedgingPolicy policy = new HedgingPolicy.Builder().setMinSamples(2).build();
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setHedgingPolicy(policy);
+    requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    assertEquals(-1, policy.getHedgeDelayMillis(HttpTesting.SIMPLE_GENERIC_URL.getHost()));
+    requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    assertTrue(policy.getHedgeDelayMillis(HttpTesting.SIMPLE_GENERIC_URL.getHost()) >= 0);
+  }
+
+  /**
+   * Transport whose first request blocks until released, while later requests respond at once.
+   * The content of each response is its index.
+   */
+  static class SlowTransport extends MockHttpTransport {
+
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final List<MockLowLevelHttpResponse> responses = new ArrayList<MockLowLevelHttpResponse>();
+
+    /** Thread that executed the first request. */
+    volatile Thread firstThread;
+
+    /** Whether the first request has been aborted. */
+    volatile boolean aborted;
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest() {
+        private volatile boolean first;
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+          synchronized (responses) {
+            first = responses.isEmpty();
+            response.setContent(String.valueOf(responses.size()));
+            responses.add(response);
+          }
+          if (first) {
+            firstThread = Thread.currentThread();
+            try {
+              release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              // disconnected by the caller once it completes
+            }
+            if (aborted) {
+              throw new IOException("aborted");
+            }
+          }
+          return response;
+        }
+
+        @Override
+        public void abort() {
+          if (first) {
+            // like a disconnected connection
+            aborted = true;
+            release.countDown();
+          }
+        }
+      };
+    }
+  }
+}
@@ -15,9 +15,14 @@
 package com.google.api.client.http;
 
 import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler.BackOffRequired;
+import com.google.api.client.testing.http.FixedClock;
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import com.google.api.client.testing.util.MockBackOff;
 import com.google.api.client.testing.util.MockSleeper;
 import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
 import java.io.IOException;
 import junit.framework.TestCase;
 
@@ -47,6 +52,100 @@ public class HttpBackOffUnsuccessfulResponseHandlerTest extends TestCase {
     subsetHandleResponse(10, 2, true, backOff, BackOffRequired.ALWAYS);
   }
 
+  public void testOnServerError() throws IOException {
+    assertTrue(BackOffRequired.ON_SERVER_ERROR.isRequired(newResponse(500)));
+    assertTrue(BackOffRequired.ON_SERVER_ERROR.isRequired(newResponse(503)));
+    assertTrue(BackOffRequired.ON_SERVER_ERROR.isRequired(newResponse(429)));
+    assertFalse(BackOffRequired.ON_SERVER_ERROR.isRequired(newResponse(404)));
+  }
+
+  public void testHandleResponse_retryAfterSeconds() throws IOException {
+    MockSleeper sleeper = new MockSleeper();
+    HttpBackOffUnsuccessfulResponseHandler handler = new HttpBackOffUnsuccessfulResponseHandler(
+        new MockBackOff().setBackOffMillis(4).setMaxTries(2)).setSleeper(sleeper);
+    assertTrue(handler.handleResponse(null, newResponse(429, "Retry-After", "3"), true));
+    assertEquals(3000, sleeper.getLastMillis());
+    // invalid values are ignored
+    assertTrue(handler.handleResponse(null, newResponse(503, "Retry-After", "soon"), true));
+    assertEquals(4, sleeper.getLastMillis());
+    // the back-off policy still decides when to stop
+    assertFalse(handler.handleResponse(null, newResponse(503, "Retry-After", "3"), true));
+    assertEquals(2, sleeper.getCount());
+  }
+
+  public void testHandleResponse_retryAfterDate() throws IOException {
+    MockSleeper sleeper = new MockSleeper();
+    HttpBackOffUnsuccessfulResponseHandler handler = new HttpBackOffUnsuccessfulResponseHandler(
+        new MockBackOff().setBackOffMillis(4).setMaxTries(5)).setSleeper(sleeper);
+    // relative to the Date header
+    assertTrue(handler.handleResponse(null, newResponse(503,
+        "Retry-After", "Fri, 31 Dec 1999 23:59:59 GMT",
+        "Date", "Fri, 31 Dec 1999 23:58:59 GMT"), true));
+    assertEquals(60000, sleeper.getLastMillis());
+    // obsolete formats
+    assertTrue(handler.handleResponse(null, newResponse(503,
+        "Retry-After", "Friday, 31-Dec-99 23:59:59 GMT",
+        "Date", "Fri, 31 Dec 1999 23:59:49 GMT"), true));
+    assertEquals(10000, sleeper.getLastMillis());
+    assertTrue(handler.handleResponse(null, newResponse(503,
+        "Retry-After", "Fri Dec 31 23:59:59 1999",
+        "Date", "Fri, 31 Dec 1999 23:59:58 GMT"), true));
+    assertEquals(1000, sleeper.getLastMillis());
+    // relative to the clock without a Date header, and never negative
+    handler.setClock(new FixedClock(Long.MAX_VALUE));
+    assertTrue(handler.handleResponse(null,
+        newResponse(503, "Retry-After", "Fri, 31 Dec 1999 23:59:59 GMT"), true));
+    assertEquals(0, sleeper.getLastMillis());
+  }
+
+  public void testHandleResponse_retryAfterDisabled() throws IOException {
+    MockSleeper sleeper = new MockSleeper();
+    HttpBackOffUnsuccessfulResponseHandler handler = new HttpBackOffUnsuccessfulResponseHandler(
+        new MockBackOff().setBackOffMillis(4).setMaxTries(1))
+        .setSleeper(sleeper).setRetryAfterHonored(false);
+    assertTrue(handler.handleResponse(null, newResponse(429, "Retry-After", "3"), true));
+    assertEquals(4, sleeper.getLastMillis());
+  }
+
+  public void testHandleResponse_retryAfterExceedsMaxElapsedTime() throws IOException {
+    MockSleeper sleeper = new MockSleeper();
+    HttpBackOffUnsuccessfulResponseHandler handler = new HttpBackOffUnsuccessfulResponseHandler(
+        new ExponentialBackOff.Builder().setMaxElapsedTimeMillis(10000).build())
+        .setSleeper(sleeper);
+    assertTrue(handler.handleResponse(null, newResponse(503, "Retry-After", "5"), true));
+    assertEquals(5000, sleeper.getLastMillis());
+    assertFalse(handler.handleResponse(null, newResponse(503, "Retry-After", "60"), true));
+    assertEquals(1, sleeper.getCount());
+  }
+
+  public void testHandleResponse_retryAfterExceedsMaximum() throws IOException {
+    MockSleeper sleeper = new MockSleeper();
+    HttpBackOffUnsuccessfulResponseHandler handler = new HttpBackOffUnsuccessfulResponseHandler(
+        new MockBackOff().setBackOffMillis(4).setMaxTries(5)).setSleeper(sleeper);
+    assertEquals(HttpBackOffUnsuccessfulResponseHandler.DEFAULT_MAX_RETRY_AFTER_MILLIS,
+        handler.getMaxRetryAfterMillis());
+    assertFalse(handler.handleResponse(null, newResponse(503, "Retry-After", "86400"), true));
+    handler.setMaxRetryAfterMillis(5000);
+    assertTrue(handler.handleResponse(null, newResponse(503, "Retry-After", "5"), true));
+    assertEquals(5000, sleeper.getLastMillis());
+    assertFalse(handler.handleResponse(null, newResponse(503, "Retry-After", "6"), true));
+    assertEquals(1, sleeper.getCount());
+  }
+
+  private static HttpResponse newResponse(int statusCode, String... headers) throws IOException {
+    MockLowLevelHttpResponse lowLevelResponse =
+        new MockLowLevelHttpResponse().setStatusCode(statusCode);
+    for (int i = 0; i < headers.length; i += 2) {
+      lowLevelResponse.addHeader(headers[i], headers[i + 1]);
+    }
+    HttpTransport transport =
+        new MockHttpTransport.Builder().setLowLevelHttpResponse(lowLevelResponse).build();
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setThrowExceptionOnExecuteError(false);
+    return request.execute();
+  }
+
   private void subsetHandleResponse(
       int count, int millis, boolean retry, BackOff backOff, BackOffRequired backOffRequired)
       throws IOException {
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.StringUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HttpDecodingRegistry}.
+ */
+public class HttpDecodingRegistryTest extends TestCase {
+
+  static final String CONTENT = "abcabcabcabcabcabc";
+
+  public void testRegistry() {
+    HttpDecodingRegistry registry = new HttpDecodingRegistry();
+    assertEquals("gzip, deflate", registry.getAcceptEncoding());
+    assertTrue(registry.get("GZIP") instanceof GZipDecoding);
+    assertTrue(registry.get("x-gzip") instanceof GZipDecoding);
+    assertNull(registry.get("br"));
+    registry.register(new ReverseDecoding()).unregister("deflate");
+    assertEquals("gzip, reverse", registry.getAcceptEncoding());
+    registry.unregister("gzip").unregister("reverse");
+    assertNull(registry.getAcceptEncoding());
+  }
+
+  public void testDecode() throws IOException {
+    HttpDecodingRegistry registry = new HttpDecodingRegistry();
+    byte[] content = StringUtils.getBytesUtf8(CONTENT);
+    assertEquals(CONTENT, decode(registry, "gzip", gzip(content)));
+    assertEquals(CONTENT, decode(registry, "deflate", deflate(content, false)));
+    assertEquals(CONTENT, decode(registry, "deflate", deflate(content, true)));
+    assertEquals(CONTENT, decode(registry, "identity", content));
+    assertEquals("", decode(registry, "deflate", new byte[0]));
+    // codings are decoded in the reverse order of their application
+    assertEquals(CONTENT, decode(registry, "deflate, gzip", gzip(deflate(content, false))));
+    // an unknown coding is left to the caller, as well as those applied before it
+    byte[] reversed = StringUtils.getBytesUtf8(new StringBuilder(CONTENT).reverse().toString());
+    assertEquals(StringUtils.newStringUtf8(reversed),
+        decode(registry, "reverse, gzip", gzip(reversed)));
+    registry.register(new ReverseDecoding());
+    assertEquals(CONTENT, decode(registry, "reverse, gzip", gzip(reversed)));
+  }
+
+  public void testRequest() throws IOException {
+    final byte[] content = deflate(StringUtils.getBytesUtf8(CONTENT), false);
+    final String[] acceptEncoding = new String[1];
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+          @Override
+          public LowLevelHttpResponse execute() {
+            acceptEncoding[0] = getFirstHeaderValue("Accept-Encoding");
+            return new MockLowLevelHttpResponse().setContentEncoding("deflate")
+                .setContent(new ByteArrayInputStream(content));
+          }
+        };
+      }
+    };
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setDecodingRegistry(new HttpDecodingRegistry());
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    assertEquals(CONTENT, request.execute().parseAsString());
+    assertEquals("gzip, deflate", acceptEncoding[0]);
+
+    // an explicit Accept-Encoding header is kept
+    request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.getHeaders().setAcceptEncoding("deflate");
+    assertEquals(CONTENT, request.execute().parseAsString());
+    assertEquals("deflate", acceptEncoding[0]);
+
+    // without a registry, only gzip is decoded
+    request = transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    assertFalse(CONTENT.equals(request.execute().parseAsString()));
+    assertEquals("gzip", acceptEncoding[0]);
+  }
+
+  private static String decode(HttpDecodingRegistry registry, String contentEncoding,
+      byte[] content) throws IOException {
+    InputStream in = registry.decode(contentEncoding, new ByteArrayInputStream(content));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    IOUtils.copy(in, out);
+    return StringUtils.newStringUtf8(out.toByteArray());
+  }
+
+  static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(content);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  static byte[] deflate(byte[] content, boolean raw) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+    DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+    out.write(content);
+    out.close();
+    deflater.end();
+    return bytes.toByteArray();
+  }
+
+  /** Decoding of a made-up content coding that reverses the content. */
+  static class ReverseDecoding implements HttpDecoding {
+
+    public String getName() {
+      return "reverse";
+    }
+
+    public InputStream decode(InputStream content) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      IOUtils.copy(content, out);
+      String reversed = new StringBuilder(StringUtils.newStringUtf8(out.toByteArray()))
+          .reverse().toString();
+      return new ByteArrayInputStream(StringUtils.getBytesUtf8(reversed));
+    }
+  }
+}
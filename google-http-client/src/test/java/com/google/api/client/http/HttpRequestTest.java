@@ -23,8 +23,13 @@ import com.google.api.client.testing.util.LogRecordingHandler;
 import com.google.api.client.testing.util.MockBackOff;
 import com.google.api.client.testing.util.MockSleeper;
 import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.GenericData;
 import com.google.api.client.util.Key;
+import com.google.api.client.util.ListenableFuture;
+import com.google.api.client.util.ListenableFutures;
 import com.google.api.client.util.LoggingStreamingContent;
+import com.google.api.client.util.StreamingContent;
 import com.google.api.client.util.StringUtils;
 import com.google.api.client.util.Value;
 import com.google.common.base.Charsets;
@@ -33,13 +38,23 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -1010,6 +1025,69 @@ public class HttpRequestTest extends TestCase {
     request.execute();
   }
 
+  public void testEncodedContentMode() throws Exception {
+    class CountingEncoding extends GZipEncoding {
+
+      int encodeCount;
+
+      @Override
+      public void encode(StreamingContent content, OutputStream out) throws IOException {
+        encodeCount++;
+        super.encode(content, out);
+      }
+    }
+    class MyTransport extends MockHttpTransport {
+
+      final List<Long> contentLengths = new ArrayList<Long>();
+
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            assertEquals("gzip", getContentEncoding());
+            char[] content = new char[300];
+            Arrays.fill(content, ' ');
+            assertEquals(new String(content), getContentAsString());
+            contentLengths.add(getContentLength());
+            // fail the first attempt
+            return new MockLowLevelHttpResponse().setStatusCode(
+                contentLengths.size() % 2 == 1 ? 500 : 200);
+          }
+        };
+      }
+    }
+    byte[] content = new byte[300];
+    Arrays.fill(content, (byte) ' ');
+    for (EncodedContentMode mode : EncodedContentMode.values()) {
+      MyTransport transport = new MyTransport();
+      CountingEncoding encoding = new CountingEncoding();
+      HttpRequest request = transport.createRequestFactory()
+          .buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL, new ByteArrayContent(null, content))
+          .setEncoding(encoding)
+          .setUnsuccessfulResponseHandler(new MockHttpUnsuccessfulResponseHandler(true));
+      assertEquals(EncodedContentMode.COMPUTE_LENGTH, request.getEncodedContentMode());
+      request.setEncodedContentMode(mode);
+      request.execute();
+      assertEquals(2, transport.contentLengths.size());
+      // the content encoded by getContentAsString is not counted
+      switch (mode) {
+        case COMPUTE_LENGTH:
+          assertEquals(4, encoding.encodeCount);
+          assertEquals(Long.valueOf(25), transport.contentLengths.get(1));
+          break;
+        case BUFFER:
+          assertEquals(1, encoding.encodeCount);
+          assertEquals(Long.valueOf(25), transport.contentLengths.get(1));
+          break;
+        default:
+          assertEquals(2, encoding.encodeCount);
+          assertEquals(Long.valueOf(-1), transport.contentLengths.get(1));
+      }
+    }
+  }
+
   public void testContentLoggingLimitWithLoggingEnabledAndDisabled() throws Exception {
 
     class MyTransport extends MockHttpTransport {
@@ -1143,6 +1221,257 @@ public class HttpRequestTest extends TestCase {
     assertNotNull(futureResponse.get(10, TimeUnit.MILLISECONDS));
   }
 
+  public void testExecuteAsync_transportExecutor() throws Exception {
+    HttpTransport transport = new MockHttpTransport();
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    ListenableFuture<HttpResponse> future = request.executeAsync();
+    final CountDownLatch notified = new CountDownLatch(1);
+    future.addListener(new Runnable() {
+      public void run() {
+        notified.countDown();
+      }
+    }, ListenableFutures.directExecutor());
+    assertTrue(notified.await(5, TimeUnit.SECONDS));
+    assertEquals(200, future.get().getStatusCode());
+    ExecutorService executor = transport.getAsyncExecutor();
+    assertSame(executor, transport.getAsyncExecutor());
+    transport.shutdown();
+    assertTrue(executor.isShutdown());
+    try {
+      request.executeAsync();
+      fail("expected " + IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testExecuteAsync_parseAs() throws Exception {
+    HttpTransport transport = new MockHttpTransport.Builder()
+        .setLowLevelHttpResponse(new MockLowLevelHttpResponse()
+            .setContentType(UrlEncodedParser.CONTENT_TYPE)
+            .setContent("foo=bar"))
+        .build();
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setParser(new UrlEncodedParser());
+    ListenableFuture<GenericData> future = request.executeAsync(GenericData.class);
+    assertEquals(Arrays.asList("bar"), future.get(5, TimeUnit.SECONDS).get("foo"));
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_boundedQueue() throws Exception {
+    HttpTransport transport = new MockHttpTransport();
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) transport.getAsyncExecutor();
+    assertEquals(HttpTransport.ASYNC_QUEUE_CAPACITY, executor.getQueue().remainingCapacity());
+    assertTrue(executor.getRejectedExecutionHandler() instanceof ThreadPoolExecutor.AbortPolicy);
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_retryWhileSaturated() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger();
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, final String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            if (url.endsWith("/block")) {
+              try {
+                unblock.await(10, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+              }
+              return new MockLowLevelHttpResponse();
+            }
+            // fails once, then succeeds
+            return new MockLowLevelHttpResponse().setStatusCode(attempts.getAndIncrement() == 0
+                ? HttpStatusCodes.STATUS_CODE_SERVICE_UNAVAILABLE : HttpStatusCodes.STATUS_CODE_OK);
+          }
+        };
+      }
+    };
+    HttpRequestFactory requestFactory = transport.createRequestFactory();
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(
+        new ExponentialBackOff.Builder()
+            .setInitialIntervalMillis(200)
+            .setRandomizationFactor(0)
+            .build()));
+    ListenableFuture<HttpResponse> future = request.executeAsync();
+    // saturate the transport while the request backs off
+    int admitted = 0;
+    try {
+      while (true) {
+        requestFactory.buildGetRequest(new GenericUrl("http://www.google.com/block"))
+            .executeAsync();
+        admitted++;
+      }
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(HttpTransport.ASYNC_QUEUE_CAPACITY - 1, admitted);
+    // the retry of the admitted request is queued rather than rejected
+    Thread.sleep(500);
+    unblock.countDown();
+    assertEquals(HttpStatusCodes.STATUS_CODE_OK, future.get(10, TimeUnit.SECONDS).getStatusCode());
+    assertEquals(2, attempts.get());
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_parseAsRejected() throws Exception {
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      protected ExecutorService createAsyncExecutor() {
+        // accepts the request but rejects any further task, like a full queue
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>()) {
+          private final AtomicInteger submitted = new AtomicInteger();
+
+          @Override
+          public void execute(Runnable command) {
+            if (submitted.getAndIncrement() > 0) {
+              throw new RejectedExecutionException();
+            }
+            super.execute(command);
+          }
+        };
+      }
+
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest().setResponse(new MockLowLevelHttpResponse()
+            .setContentType(UrlEncodedParser.CONTENT_TYPE)
+            .setContent("foo=bar"));
+      }
+    };
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setParser(new UrlEncodedParser());
+    ListenableFuture<GenericData> future = request.executeAsync(GenericData.class);
+    assertEquals(Arrays.asList("bar"), future.get(5, TimeUnit.SECONDS).get("foo"));
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_parseAsUnsuccessful() throws Exception {
+    HttpTransport transport = new MockHttpTransport.Builder()
+        .setLowLevelHttpResponse(new MockLowLevelHttpResponse().setStatusCode(404))
+        .build();
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    try {
+      request.executeAsync(GenericData.class).get(5, TimeUnit.SECONDS);
+      fail("expected " + ExecutionException.class);
+    } catch (ExecutionException e) {
+      assertEquals(404, ((HttpResponseException) e.getCause()).getStatusCode());
+    }
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_backOffDoesNotBlockExecutor() throws Exception {
+    FailThenSuccessBackoffTransport transport =
+        new FailThenSuccessBackoffTransport(HttpStatusCodes.STATUS_CODE_SERVER_ERROR, 2);
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    final AtomicInteger intercepted = new AtomicInteger();
+    request.setInterceptor(new HttpExecuteInterceptor() {
+      public void intercept(HttpRequest request) {
+        intercepted.incrementAndGet();
+      }
+    });
+    request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(
+        new ExponentialBackOff.Builder()
+            .setInitialIntervalMillis(200)
+            .setRandomizationFactor(0)
+            .setMultiplier(1)
+            .build()));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      long start = System.nanoTime();
+      ListenableFuture<HttpResponse> future = request.executeAsync(executor);
+      // the only executor thread is free during the back-off
+      final CountDownLatch ran = new CountDownLatch(1);
+      executor.execute(new Runnable() {
+        public void run() {
+          ran.countDown();
+        }
+      });
+      assertTrue(ran.await(5, TimeUnit.SECONDS));
+      assertFalse(future.isDone());
+      assertEquals(200, future.get(5, TimeUnit.SECONDS).getStatusCode());
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+      assertEquals(3, transport.lowLevelExecCalls);
+      assertEquals(3, intercepted.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testExecuteAsync_ioExceptionBackOff() throws Exception {
+    FailThenSuccessConnectionErrorTransport transport =
+        new FailThenSuccessConnectionErrorTransport(2);
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(
+        new ExponentialBackOff.Builder().setInitialIntervalMillis(50).build()));
+    assertEquals(200, request.executeAsync().get(5, TimeUnit.SECONDS).getStatusCode());
+    assertEquals(3, transport.lowLevelExecCalls);
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_cancelDuringBackOff() throws Exception {
+    FailThenSuccessBackoffTransport transport =
+        new FailThenSuccessBackoffTransport(HttpStatusCodes.STATUS_CODE_SERVER_ERROR, 1);
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(
+        new ExponentialBackOff.Builder().setInitialIntervalMillis(100).build()));
+    final CountDownLatch attempted = new CountDownLatch(1);
+    request.setInterceptor(new HttpExecuteInterceptor() {
+      public void intercept(HttpRequest request) {
+        attempted.countDown();
+      }
+    });
+    ListenableFuture<HttpResponse> future = request.executeAsync();
+    assertTrue(attempted.await(5, TimeUnit.SECONDS));
+    assertTrue(future.cancel(false));
+    Thread.sleep(300);
+    assertTrue(future.isCancelled());
+    assertEquals(1, transport.lowLevelExecCalls);
+    transport.shutdown();
+  }
+
+  public void testExecuteAsync_rejectedRetryReleasesEncodedContent() throws Exception {
+    FailThenSuccessBackoffTransport transport =
+        new FailThenSuccessBackoffTransport(HttpStatusCodes.STATUS_CODE_SERVER_ERROR, 1);
+    HttpRequest request = transport.createRequestFactory()
+        .buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL, new ByteArrayContent(null, new byte[300]))
+        .setEncoding(new GZipEncoding())
+        .setEncodedContentMode(EncodedContentMode.BUFFER);
+    request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(
+        new ExponentialBackOff.Builder().setInitialIntervalMillis(100).build()));
+    final CountDownLatch attempted = new CountDownLatch(1);
+    request.setInterceptor(new HttpExecuteInterceptor() {
+      public void intercept(HttpRequest request) {
+        attempted.countDown();
+      }
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ListenableFuture<HttpResponse> future = request.executeAsync(executor);
+    assertTrue(attempted.await(5, TimeUnit.SECONDS));
+    // the retry is rejected once the back-off has elapsed
+    executor.shutdown();
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("expected " + ExecutionException.class);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    assertEquals(1, transport.lowLevelExecCalls);
+    assertFalse(request.isEncodedContentBuffered());
+  }
+
   public void testExecute_redirects() throws Exception {
     class MyTransport extends MockHttpTransport {
       int count = 1;
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.FixedClock;
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.testing.util.TestableByteArrayInputStream;
+import com.google.api.client.util.Clock;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HttpResponseCache}.
+ */
+public class HttpResponseCacheTest extends TestCase {
+
+  /** Sun, 06 Nov 1994 08:49:37 GMT. */
+  static final long NOW = 784111777000L;
+
+  static final String DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+  public void testFreshHit() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    FixedClock clock = new FixedClock(NOW);
+    HttpResponseCache cache = new HttpResponseCache(
+        new HttpResponseCache.MemoryStore(HttpResponseCache.DEFAULT_MAX_SIZE_BYTES), clock);
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setResponseCache(cache);
+    transport.respond(200, "a", "Date", DATE, "Cache-Control", "max-age=60");
+    assertEquals("a", execute(requestFactory).parseAsString());
+    clock.setTime(NOW + 30000);
+    HttpResponse response = execute(requestFactory);
+    assertEquals("a", response.parseAsString());
+    assertEquals(200, response.getStatusCode());
+    assertEquals(Long.valueOf(30), response.getHeaders().getAge());
+    assertEquals(1, transport.requests.size());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  public void testRevalidation() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    FixedClock clock = new FixedClock(NOW);
+    HttpResponseCache cache = new HttpResponseCache(
+        new HttpResponseCache.MemoryStore(HttpResponseCache.DEFAULT_MAX_SIZE_BYTES), clock);
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setResponseCache(cache);
+    transport.respond(200, "a", "Date", DATE, "Cache-Control", "max-age=60", "ETag", "\"v1\"",
+        "Last-Modified", "Sat, 05 Nov 1994 08:49:37 GMT");
+    assertEquals("a", execute(requestFactory).parseAsString());
+    assertNull(transport.requests.get(0).getFirstHeaderValue("If-None-Match"));
+
+    // a stale entry is revalidated, and the 304 is turned into the cached response
+    clock.setTime(NOW + 61000);
+    transport.respond(304, null, "Date", "Sun, 06 Nov 1994 08:50:38 GMT",
+        "Cache-Control", "max-age=120");
+    HttpResponse response = execute(requestFactory);
+    assertEquals(200, response.getStatusCode());
+    assertEquals("a", response.parseAsString());
+    MockLowLevelHttpRequest conditional = transport.requests.get(1);
+    assertEquals("\"v1\"", conditional.getFirstHeaderValue("If-None-Match"));
+    assertEquals("Sat, 05 Nov 1994 08:49:37 GMT",
+        conditional.getFirstHeaderValue("If-Modified-Since"));
+    assertEquals(1, cache.getConditionalHitCount());
+
+    // the headers of the 304 updated the entry
+    clock.setTime(NOW + 120000);
+    assertEquals("a", execute(requestFactory).parseAsString());
+    assertEquals(2, transport.requests.size());
+
+    // a changed resource replaces the entry
+    clock.setTime(NOW + 200000);
+    transport.respond(200, "b", "Cache-Control", "max-age=60", "ETag", "\"v2\"");
+    assertEquals("b", execute(requestFactory).parseAsString());
+    assertEquals("b", execute(requestFactory).parseAsString());
+    assertEquals(3, transport.requests.size());
+  }
+
+  public void testRequestCacheControl() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setResponseCache(new HttpResponseCache());
+    transport.respond(200, "a", "Cache-Control", "max-age=60", "ETag", "\"v1\"");
+    execute(requestFactory).parseAsString();
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.getHeaders().setCacheControl("no-cache");
+    transport.respond(304, null);
+    assertEquals("a", request.execute().parseAsString());
+    assertEquals("\"v1\"", transport.requests.get(1).getFirstHeaderValue("If-None-Match"));
+
+    request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.getHeaders().setCacheControl("no-store");
+    transport.respond(200, "b");
+    assertEquals("b", request.execute().parseAsString());
+    assertNull(transport.requests.get(2).getFirstHeaderValue("If-None-Match"));
+  }
+
+  public void testNotCacheable() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setResponseCache(new HttpResponseCache());
+    transport.respond(200, "a", "Cache-Control", "no-store, max-age=60");
+    execute(requestFactory).parseAsString();
+    transport.respond(200, "b", "Cache-Control", "max-age=60", "Vary", "*");
+    execute(requestFactory).parseAsString();
+    transport.respond(500, "c", "Cache-Control", "max-age=60");
+    execute(requestFactory).parseAsString();
+    transport.respond(200, "d");
+    execute(requestFactory).parseAsString();
+    assertEquals("d", execute(requestFactory).parseAsString());
+    assertEquals(5, transport.requests.size());
+  }
+
+  public void testVary() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setResponseCache(new HttpResponseCache());
+    transport.respond(200, "json", "Cache-Control", "max-age=60", "Vary", "Accept");
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.getHeaders().setAccept("application/json");
+    request.execute().parseAsString();
+    request.execute().parseAsString();
+    assertEquals(1, transport.requests.size());
+    request.getHeaders().setAccept("text/xml");
+    transport.respond(200, "xml", "Cache-Control", "max-age=60", "Vary", "Accept");
+    assertEquals("xml", request.execute().parseAsString());
+    assertEquals(2, transport.requests.size());
+  }
+
+  public void testStaleWhileRevalidate() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    FixedClock clock = new FixedClock(NOW);
+    HttpResponseCache cache = new HttpResponseCache(
+        new HttpResponseCache.MemoryStore(HttpResponseCache.DEFAULT_MAX_SIZE_BYTES), clock);
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setResponseCache(cache);
+    transport.respond(200, "a", "Date", DATE,
+        "Cache-Control", "max-age=60, stale-while-revalidate=60", "ETag", "\"v1\"");
+    execute(requestFactory).parseAsString();
+    clock.setTime(NOW + 90000);
+    transport.respond(200, "b", "Cache-Control", "max-age=60", "ETag", "\"v2\"");
+    // the stale response is served at once and revalidated in the background
+    assertEquals("a", execute(requestFactory).parseAsString());
+    for (int i = 0; i < 500 && !"b".equals(execute(requestFactory).parseAsString()); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals("b", execute(requestFactory).parseAsString());
+    assertEquals(2, transport.requests.size());
+    assertEquals("\"v1\"", transport.requests.get(1).getFirstHeaderValue("If-None-Match"));
+  }
+
+  public void testStaleWhileRevalidate_requestFactory() throws Exception {
+    final CacheTransport transport = new CacheTransport();
+    FixedClock clock = new FixedClock(NOW);
+    HttpResponseCache cache = new HttpResponseCache(
+        new HttpResponseCache.MemoryStore(HttpResponseCache.DEFAULT_MAX_SIZE_BYTES), clock);
+    HttpRequestFactory requestFactory = transport.createRequestFactory(
+        new HttpRequestInitializer() {
+          public void initialize(HttpRequest request) {
+            request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+              public boolean handleResponse(
+                  HttpRequest request, HttpResponse response, boolean supportsRetry) {
+                transport.respond(200, "b", "Cache-Control", "max-age=60", "ETag", "\"v2\"");
+                return true;
+              }
+            });
+          }
+        }).setResponseCache(cache);
+    transport.respond(200, "a", "Date", DATE,
+        "Cache-Control", "max-age=60, stale-while-revalidate=60", "ETag", "\"v1\"");
+    execute(requestFactory).parseAsString();
+    clock.setTime(NOW + 90000);
+    transport.respond(503, null);
+    // the background revalidation is retried by the handler of the initializer
+    assertEquals("a", execute(requestFactory).parseAsString());
+    for (int i = 0; i < 500 && !"b".equals(execute(requestFactory).parseAsString()); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals("b", execute(requestFactory).parseAsString());
+    assertEquals(3, transport.requests.size());
+  }
+
+  public void testInvalidation() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setResponseCache(new HttpResponseCache());
+    transport.respond(200, "a", "Cache-Control", "max-age=60");
+    execute(requestFactory).parseAsString();
+    execute(requestFactory).parseAsString();
+    assertEquals(1, transport.requests.size());
+    requestFactory.buildDeleteRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    execute(requestFactory).parseAsString();
+    assertEquals(3, transport.requests.size());
+  }
+
+  public void testCircuitBreaker() throws Exception {
+    CacheTransport transport = new CacheTransport();
+    CircuitBreaker circuitBreaker = new CircuitBreaker.Builder().setFailureThreshold(1).build();
+    HttpRequestFactory requestFactory = transport.createRequestFactory()
+        .setResponseCache(new HttpResponseCache()).setCircuitBreaker(circuitBreaker);
+    String origin = CircuitBreaker.getOrigin(HttpTesting.SIMPLE_GENERIC_URL);
+    transport.respond(200, "a", "Cache-Control", "max-age=60");
+    execute(requestFactory).parseAsString();
+    circuitBreaker.onFailure(origin);
+    assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(origin));
+
+    // a fresh hit is served while the circuit is open, and does not count as a success
+    assertEquals("a", execute(requestFactory).parseAsString());
+    assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState(origin));
+    assertEquals(1, transport.requests.size());
+
+    // a request that reaches the network is rejected
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.getHeaders().setCacheControl("no-cache");
+    try {
+      request.execute();
+      fail("expected " + CircuitBreakerOpenException.class);
+    } catch (CircuitBreakerOpenException e) {
+      // expected
+    }
+    assertEquals(1, transport.requests.size());
+  }
+
+  public void testRequestCoalescer() throws Exception {
+    final CountDownLatch arrived = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CacheTransport transport = new CacheTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            requests.add(this);
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+            if (getFirstHeaderValue("If-None-Match") == null) {
+              return response.setContent("a").addHeader("Date", DATE)
+                  .addHeader("Cache-Control", "max-age=60").addHeader("ETag", "\"v1\"");
+            }
+            // the revalidation stays in flight until the unconditional request has completed
+            arrived.countDown();
+            try {
+              release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+            return response.setStatusCode(304);
+          }
+        };
+      }
+    };
+    FixedClock clock = new FixedClock(NOW);
+    HttpResponseCache cache = new HttpResponseCache(
+        new HttpResponseCache.MemoryStore(HttpResponseCache.DEFAULT_MAX_SIZE_BYTES), clock);
+    final HttpRequestFactory requestFactory = transport.createRequestFactory()
+        .setResponseCache(cache).setRequestCoalescer(new RequestCoalescer());
+    execute(requestFactory).parseAsString();
+    clock.setTime(NOW + 61000);
+    Thread revalidation = new Thread() {
+      @Override
+      public void run() {
+        try {
+          execute(requestFactory).ignore();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    revalidation.start();
+    assertTrue(arrived.await(5, TimeUnit.SECONDS));
+    try {
+      // an unconditional request does not wait for the 304 of the revalidation
+      HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+      request.getHeaders().setCacheControl("no-store");
+      HttpResponse response = request.execute();
+      assertEquals(200, response.getStatusCode());
+      assertEquals("a", response.parseAsString());
+    } finally {
+      release.countDown();
+      revalidation.join();
+    }
+    assertEquals(3, transport.requests.size());
+    assertEquals(1, cache.getConditionalHitCount());
+  }
+
+  public void testMaxContentLength() throws Exception {
+    HttpResponseCache.MemoryStore store =
+        new HttpResponseCache.MemoryStore(HttpResponseCache.DEFAULT_MAX_SIZE_BYTES);
+    HttpResponseCache cache = new HttpResponseCache(store, Clock.SYSTEM, 999);
+    TestableByteArrayInputStream content = new TestableByteArrayInputStream(new byte[1000]);
+    MockLowLevelHttpResponse lowLevelHttpResponse = new MockLowLevelHttpResponse()
+        .setContent(content).setContentLength(1000)
+        .addHeader("Cache-Control", "max-age=60").addHeader("ETag", "\"v1\"");
+    HttpRequestFactory requestFactory = new MockHttpTransport.Builder()
+        .setLowLevelHttpResponse(lowLevelHttpResponse).build()
+        .createRequestFactory().setResponseCache(cache);
+    // a large response is streamed and not stored
+    HttpResponse response = execute(requestFactory);
+    assertEquals(1000, content.available());
+    assertEquals(1000, response.getContent().skip(1000));
+    response.disconnect();
+    assertEquals(0, store.getEntryCount());
+
+    // a large response of unknown length is no longer copied aside once it passes the maximum
+    content = new TestableByteArrayInputStream(new byte[1000]);
+    lowLevelHttpResponse.setContent(content).setContentLength(-1);
+    assertEquals(1000, execute(requestFactory).parseAsString().length());
+    assertEquals(0, store.getEntryCount());
+
+    // a response is stored once its content has been read
+    content = new TestableByteArrayInputStream(new byte[999]);
+    lowLevelHttpResponse.setContent(content).setContentLength(-1);
+    response = execute(requestFactory);
+    assertEquals(0, store.getEntryCount());
+    assertEquals(999, response.parseAsString().length());
+    assertEquals(1, store.getEntryCount());
+    assertEquals(3, cache.getMissCount());
+  }
+
+  public void testFreshnessLifetime() {
+    assertEquals(60000, freshness("Cache-Control", "max-age=60", "Expires", DATE));
+    assertEquals(3600000,
+        freshness("Date", DATE, "Expires", "Sun, 06 Nov 1994 09:49:37 GMT"));
+    assertEquals(0, freshness("Date", DATE, "Expires", "0"));
+    // heuristic freshness of 10% of the time since the last modification
+    assertEquals(8640000,
+        freshness("Date", DATE, "Last-Modified", "Sat, 05 Nov 1994 08:49:37 GMT"));
+    assertEquals(0, freshness("Date", DATE));
+  }
+
+  public void testAge() {
+    HttpResponseCache.Entry entry =
+        entry(NOW - 2000, NOW, "Date", "Sun, 06 Nov 1994 08:49:27 GMT", "Age", "5");
+    // the apparent age of 10s exceeds the corrected age of 7s, plus 3s in the cache
+    assertEquals(13000, HttpResponseCache.getAgeMillis(entry, NOW + 3000));
+  }
+
+  public void testParseCacheControl() {
+    assertEquals(Collections.emptyMap(), HttpResponseCache.parseCacheControl(null));
+    assertEquals("60", HttpResponseCache.parseCacheControl(" Max-Age=60 , no-cache").get(
+        "max-age"));
+    assertEquals("", HttpResponseCache.parseCacheControl("max-age=60, no-cache").get("no-cache"));
+    assertEquals("a, b",
+        HttpResponseCache.parseCacheControl("private=\"a, b\"").get("private"));
+  }
+
+  public void testMemoryStore() throws Exception {
+    HttpResponseCache.Entry entry = entry(NOW, NOW);
+    HttpResponseCache.MemoryStore store = new HttpResponseCache.MemoryStore(entry.getSize() * 2);
+    store.put("a", entry);
+    store.put("b", entry);
+    assertEquals(2, store.getEntryCount());
+    store.get("a");
+    store.put("c", entry);
+    assertSame(entry, store.get("a"));
+    assertNull(store.get("b"));
+    store.remove("a");
+    assertEquals(entry.getSize(), store.getSizeBytes());
+  }
+
+  private static long freshness(String... headers) {
+    HttpResponseCache.Entry entry = entry(NOW, NOW, headers);
+    return HttpResponseCache.getFreshnessLifetimeMillis(entry,
+        HttpResponseCache.parseCacheControl(entry.getHeaderValue("Cache-Control")));
+  }
+
+  private static HttpResponseCache.Entry entry(long requestTimeMillis, long responseTimeMillis,
+      String... headers) {
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < headers.length; i += 2) {
+      names.add(headers[i]);
+      values.add(headers[i + 1]);
+    }
+    return new HttpResponseCache.Entry(200, "HTTP/1.1 200 OK", "OK", names, values,
+        new byte[10], "", requestTimeMillis, responseTimeMillis);
+  }
+
+  private static HttpResponse execute(HttpRequestFactory requestFactory) throws IOException {
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setThrowExceptionOnExecuteError(false);
+    return request.execute();
+  }
+
+  /** Transport that records the requests and responds with the last configured response. */
+  static class CacheTransport extends MockHttpTransport {
+
+    final List<MockLowLevelHttpRequest> requests =
+        Collections.synchronizedList(new ArrayList<MockLowLevelHttpRequest>());
+
+    private volatile int statusCode;
+
+    private volatile String content;
+
+    private volatile List<String> headers;
+
+    void respond(int statusCode, String content, String... headers) {
+      this.statusCode = statusCode;
+      this.content = content;
+      this.headers = Arrays.asList(headers);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      final MockLowLevelHttpRequest request = new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() {
+          requests.add(this);
+          MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+          response.setStatusCode(statusCode);
+          if (content != null) {
+            response.setContent(content);
+          }
+          List<String> pairs = new LinkedList<String>(headers);
+          while (!pairs.isEmpty()) {
+            response.addHeader(pairs.remove(0), pairs.remove(0));
+          }
+          return response;
+        }
+      };
+      return request;
+    }
+  }
+}
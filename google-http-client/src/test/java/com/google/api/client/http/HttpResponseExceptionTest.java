@@ -19,6 +19,7 @@ import com.google.api.client.testing.http.HttpTesting;
 import com.google.api.client.testing.http.MockHttpTransport;
 import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.testing.util.TestableByteArrayInputStream;
 import com.google.api.client.util.StringUtils;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -199,4 +200,76 @@ public class HttpResponseExceptionTest extends TestCase {
     assertEquals(e.getStatusCode(), e2.getStatusCode());
     assertNull(e2.getHeaders());
   }
+
+  public void testErrorContentLimit() throws Exception {
+    final TestableByteArrayInputStream content =
+        new TestableByteArrayInputStream("Unable to find resource".getBytes("UTF-8"));
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            MockLowLevelHttpResponse result = new MockLowLevelHttpResponse();
+            result.setStatusCode(HttpStatusCodes.STATUS_CODE_NOT_FOUND);
+            result.setReasonPhrase("Not Found");
+            result.setContent(content);
+            return result;
+          }
+        };
+      }
+    };
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    assertEquals(Integer.MAX_VALUE, request.getErrorContentLimit());
+    request.setErrorContentLimit(6);
+    try {
+      request.execute();
+      fail();
+    } catch (HttpResponseException e) {
+      assertEquals("Unable", e.getContent());
+      assertEquals("404 Not Found" + StringUtils.LINE_SEPARATOR + "Unable", e.getMessage());
+      // the rest of the content is not read
+      assertTrue(content.isClosed());
+      assertEquals(" to find resource".length(), content.available());
+    }
+  }
+
+  public void testErrorContentLimit_drainPolicy() throws Exception {
+    final TestableByteArrayInputStream content =
+        new TestableByteArrayInputStream("Unable to find resource".getBytes("UTF-8")) {
+          @Override
+          public synchronized int read(byte[] b, int off, int len) {
+            // like a socket, the content can no longer be read once closed
+            return isClosed() ? -1 : super.read(b, off, len);
+          }
+        };
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            MockLowLevelHttpResponse result = new MockLowLevelHttpResponse();
+            result.setStatusCode(HttpStatusCodes.STATUS_CODE_NOT_FOUND);
+            result.setContent(content);
+            return result;
+          }
+        };
+      }
+    };
+    HttpRequest request = transport.createRequestFactory()
+        .buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL)
+        .setErrorContentLimit(6)
+        .setDrainPolicy(new DrainPolicy());
+    try {
+      request.execute();
+      fail();
+    } catch (HttpResponseException e) {
+      assertEquals("Unable", e.getContent());
+      // the rest of the content is drained with the drain policy of the request
+      assertTrue(content.isClosed());
+      assertEquals(0, content.available());
+    }
+  }
 }
@@ -21,10 +21,12 @@ import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import com.google.api.client.testing.util.LogRecordingHandler;
 import com.google.api.client.testing.util.TestableByteArrayInputStream;
+import com.google.api.client.util.IOUtils;
 import com.google.api.client.util.Key;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.text.NumberFormat;
 import java.util.Arrays;
@@ -400,4 +402,82 @@ public class HttpResponseTest extends TestCase {
         transport.createRequestFactory().buildHeadRequest(HttpTesting.SIMPLE_GENERIC_URL);
     request.execute().getContent();
   }
+
+  public void testBufferContent() throws Exception {
+    final TestableByteArrayInputStream content =
+        new TestableByteArrayInputStream(SAMPLE.getBytes("UTF-8"));
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            MockLowLevelHttpResponse result = new MockLowLevelHttpResponse();
+            result.setContentType("text/plain; charset=UTF-8");
+            result.setContent(content);
+            result.setContentLength(SAMPLE.length());
+            return result;
+          }
+        };
+      }
+    };
+    HttpResponse response = transport.createRequestFactory()
+        .buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    assertFalse(response.isContentBuffered());
+    assertSame(response, response.bufferContent());
+    assertTrue(response.isContentBuffered());
+    assertTrue(content.isClosed());
+    // the content may be read any number of times
+    assertEquals(SAMPLE, response.parseAsString());
+    assertEquals(SAMPLE, response.parseAsString());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    response.download(outputStream);
+    assertEquals(SAMPLE, outputStream.toString("UTF-8"));
+    outputStream.reset();
+    IOUtils.copy(response.getContent(), outputStream);
+    assertEquals(SAMPLE, outputStream.toString("UTF-8"));
+    response.ignore();
+    assertFalse(response.isContentBuffered());
+  }
+
+  public void testBufferResponseContent() throws Exception {
+    final int[] attempts = new int[1];
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            MockLowLevelHttpResponse result = new MockLowLevelHttpResponse();
+            if (attempts[0]++ == 0) {
+              // the connection is reset while the content is read
+              result.setContent(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                  throw new IOException("connection reset");
+                }
+              });
+            } else {
+              result.setContentType("text/plain; charset=UTF-8");
+              result.setContent(SAMPLE);
+            }
+            return result;
+          }
+        };
+      }
+    };
+    HttpRequest request = transport.createRequestFactory()
+        .buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL)
+        .setBufferResponseContent(true)
+        .setIOExceptionHandler(new HttpIOExceptionHandler() {
+          public boolean handleIOException(HttpRequest request, boolean supportsRetry) {
+            return supportsRetry;
+          }
+        });
+    assertTrue(request.getBufferResponseContent());
+    HttpResponse response = request.execute();
+    assertEquals(2, attempts[0]);
+    assertTrue(response.isContentBuffered());
+    assertEquals(SAMPLE, response.parseAsString());
+  }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.util.ByteArrayStreamingContent;
+import com.google.api.client.util.IOUtils;
+import com.google.api.client.util.StreamingContent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ParallelGZipEncoding}.
+ */
+public class ParallelGZipEncodingTest extends TestCase {
+
+  private ExecutorService executor;
+
+  @Override
+  protected void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @Override
+  protected void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  public void testEncode() throws Exception {
+    ParallelGZipEncoding encoding = new ParallelGZipEncoding(
+        executor, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 10000, 3);
+    assertEquals("gzip", encoding.getName());
+    for (int length : new int[] {0, 1, 9999, 10000, 10001, 95000}) {
+      byte[] content = content(length);
+      byte[] encoded = encode(encoding, new ByteArrayStreamingContent(content));
+      assertTrue(Arrays.equals(content, gunzip(new GZIPInputStream(
+          new ByteArrayInputStream(encoded)))));
+      assertTrue(Arrays.equals(content, gunzip(new PooledGZipInputStream(
+          new ByteArrayInputStream(encoded)))));
+      // one gzip member per block
+      assertEquals(Math.max(1, (length + 9999) / 10000), countMembers(encoded));
+    }
+  }
+
+  public void testSmallWrites() throws IOException {
+    final byte[] content = content(50000);
+    ParallelGZipEncoding encoding = new ParallelGZipEncoding(
+        executor, 1, Deflater.DEFAULT_STRATEGY, 4096, 2);
+    byte[] encoded = encode(encoding, new StreamingContent() {
+      public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < content.length; i += 7) {
+          out.write(content, i, Math.min(7, content.length - i));
+          out.flush();
+        }
+        out.close();
+      }
+    });
+    assertTrue(Arrays.equals(content, gunzip(new GZIPInputStream(
+        new ByteArrayInputStream(encoded)))));
+  }
+
+  public void testRejectedExecution() throws IOException {
+    byte[] content = content(50000);
+    ParallelGZipEncoding encoding = new ParallelGZipEncoding(new Executor() {
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    }, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 4096, 2);
+    byte[] encoded = encode(encoding, new ByteArrayStreamingContent(content));
+    assertTrue(Arrays.equals(content, gunzip(new GZIPInputStream(
+        new ByteArrayInputStream(encoded)))));
+  }
+
+  public void testContentFailure() {
+    final byte[] content = content(50000);
+    ParallelGZipEncoding encoding = new ParallelGZipEncoding(
+        executor, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 4096, 2);
+    try {
+      encode(encoding, new StreamingContent() {
+        public void writeTo(OutputStream out) throws IOException {
+          out.write(content);
+          throw new IOException("content failure");
+        }
+      });
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      assertEquals("content failure", e.getMessage());
+    }
+  }
+
+  private static byte[] encode(HttpEncoding encoding, StreamingContent content)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoding.encode(content, out);
+    return out.toByteArray();
+  }
+
+  private static byte[] gunzip(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    IOUtils.copy(in, out);
+    return out.toByteArray();
+  }
+
+  /** Returns the number of gzip members, whose headers have no optional fields. */
+  private static int countMembers(byte[] encoded) throws DataFormatException {
+    int count = 0;
+    int offset = 0;
+    byte[] buffer = new byte[4096];
+    while (offset < encoded.length) {
+      Inflater inflater = new Inflater(true);
+      inflater.setInput(encoded, offset + 10, encoded.length - offset - 10);
+      while (!inflater.finished()) {
+        inflater.inflate(buffer);
+      }
+      offset = encoded.length - inflater.getRemaining() + 8;
+      inflater.end();
+      count++;
+    }
+    assertEquals(encoded.length, offset);
+    return count;
+  }
+
+  /** Returns compressible content. */
+  private static byte[] content(int length) {
+    Random random = new Random(1);
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return content;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link PooledGZipInputStream}.
+ */
+public class PooledGZipInputStreamTest extends TestCase {
+
+  public void testDecode() throws IOException {
+    byte[] content = content(200000);
+    assertTrue(Arrays.equals(content, decode(gzip(content))));
+    assertTrue(Arrays.equals(new byte[0], decode(gzip(new byte[0]))));
+    // single bytes
+    InputStream in = new PooledGZipInputStream(new ByteArrayInputStream(gzip(content)));
+    for (byte b : Arrays.copyOf(content, 100)) {
+      assertEquals(b & 0xff, in.read());
+    }
+    in.close();
+  }
+
+  public void testConcatenatedMembers() throws IOException {
+    byte[] first = content(1000);
+    byte[] second = content(50000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(gzip(first));
+    bytes.write(gzip(second));
+    // data after the last member is ignored
+    bytes.write(new byte[] {1, 2, 3});
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(first);
+    expected.write(second);
+    assertTrue(Arrays.equals(expected.toByteArray(), decode(bytes.toByteArray())));
+  }
+
+  public void testOptionalHeaderFields() throws IOException {
+    byte[] content = content(100);
+    byte[] gzip = gzip(content);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    // FHCRC, FEXTRA, FNAME and FCOMMENT flags
+    bytes.write(new byte[] {31, (byte) 139, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 0});
+    bytes.write(new byte[] {3, 0, 'a', 'b', 'c'});
+    bytes.write(new byte[] {'n', 'a', 'm', 'e', 0});
+    bytes.write(new byte[] {'c', 0});
+    bytes.write(new byte[] {0, 0});
+    bytes.write(gzip, 10, gzip.length - 10);
+    assertTrue(Arrays.equals(content, decode(bytes.toByteArray())));
+  }
+
+  public void testInvalid() throws IOException {
+    try {
+      new PooledGZipInputStream(new ByteArrayInputStream(new byte[0]));
+      fail("expected " + EOFException.class);
+    } catch (EOFException e) {
+      // expected
+    }
+    try {
+      new PooledGZipInputStream(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+      fail("expected " + ZipException.class);
+    } catch (ZipException e) {
+      // expected
+    }
+    byte[] gzip = gzip(content(100));
+    gzip[gzip.length - 8]++;
+    try {
+      decode(gzip);
+      fail("expected " + ZipException.class);
+    } catch (ZipException e) {
+      // expected
+    }
+    try {
+      decode(Arrays.copyOf(gzip, gzip.length - 20));
+      fail("expected " + EOFException.class);
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  public void testCloseReleasesInflater() throws IOException {
+    InputStream in = new PooledGZipInputStream(new ByteArrayInputStream(gzip(content(100))));
+    in.read();
+    int idle = InflaterPool.getIdleCount();
+    in.close();
+    assertEquals(Math.min(idle + 1, InflaterPool.MAX_IDLE), InflaterPool.getIdleCount());
+    in.close();
+    assertEquals(Math.min(idle + 1, InflaterPool.MAX_IDLE), InflaterPool.getIdleCount());
+    try {
+      in.read();
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testResponseIgnore() throws IOException {
+    final byte[] content = content(1000);
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            return new MockLowLevelHttpResponse().setContentEncoding("gzip")
+                .setContent(new ByteArrayInputStream(gzip(content)));
+          }
+        };
+      }
+    };
+    HttpRequest request =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    request.execute().download(out);
+    assertTrue(Arrays.equals(content, out.toByteArray()));
+    HttpResponse response = request.execute();
+    response.getContent();
+    int idle = InflaterPool.getIdleCount();
+    response.ignore();
+    assertEquals(Math.min(idle + 1, InflaterPool.MAX_IDLE), InflaterPool.getIdleCount());
+  }
+
+  private static byte[] decode(byte[] gzip) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    IOUtils.copy(new PooledGZipInputStream(new ByteArrayInputStream(gzip)), out);
+    return out.toByteArray();
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(content);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static byte[] content(int length) {
+    byte[] content = new byte[length];
+    Random random = new Random(length);
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return content;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ReadAheadInputStream}.
+ */
+public class ReadAheadInputStreamTest extends TestCase {
+
+  private ExecutorService executor;
+
+  @Override
+  protected void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @Override
+  protected void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  public void testRead() throws IOException {
+    byte[] content = content(300000);
+    ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(content), 1000, 3);
+    in.start(executor);
+    assertTrue(Arrays.equals(content, copy(in)));
+  }
+
+  public void testDirectExecutor() throws IOException {
+    byte[] content = content(300000);
+    ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(content), 1000, 3);
+    in.start(new Executor() {
+      public void execute(Runnable command) {
+        command.run();
+      }
+    });
+    assertTrue(Arrays.equals(content, copy(in)));
+  }
+
+  public void testRejectedExecution() throws IOException {
+    byte[] content = content(1000);
+    ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(content));
+    in.start(new Executor() {
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    });
+    assertTrue(Arrays.equals(content, copy(in)));
+  }
+
+  public void testFailure() throws IOException {
+    final byte[] content = content(5000);
+    InputStream failing = new ByteArrayInputStream(content) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        int n = super.read(b, off, len);
+        if (n == -1) {
+          throw new IllegalStateException("connection reset");
+        }
+        return n;
+      }
+    };
+    ReadAheadInputStream in = new ReadAheadInputStream(failing, 1000, 2);
+    in.start(executor);
+    byte[] buffer = new byte[content.length];
+    int total = 0;
+    try {
+      while (true) {
+        total += in.read(buffer, total, buffer.length - total);
+        assertTrue(total <= content.length);
+        if (total == content.length) {
+          in.read();
+        }
+      }
+    } catch (IOException e) {
+      // the content read before the failure is returned first
+      assertEquals(content.length, total);
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertTrue(Arrays.equals(content, buffer));
+  }
+
+  public void testClose() throws Exception {
+    final boolean[] closed = new boolean[1];
+    InputStream endless = new InputStream() {
+      @Override
+      public int read() {
+        return 0;
+      }
+
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    ReadAheadInputStream in = new ReadAheadInputStream(endless, 100, 2);
+    in.start(executor);
+    assertEquals(0, in.read());
+    in.close();
+    assertTrue(closed[0]);
+    try {
+      in.read();
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      // expected
+    }
+    // the reading task stops once the stream is closed
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  public void testDownload() throws IOException {
+    final byte[] content = content(500000);
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            return new MockLowLevelHttpResponse().setContentEncoding("gzip")
+                .setContent(new ByteArrayInputStream(gzip(content)));
+          }
+        };
+      }
+    };
+    HttpResponse response =
+        transport.createRequestFactory().buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.download(out, executor);
+    assertTrue(Arrays.equals(content, out.toByteArray()));
+  }
+
+  private static byte[] copy(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    IOUtils.copy(in, out);
+    return out.toByteArray();
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(content);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /** Returns compressible content. */
+  private static byte[] content(int length) {
+    Random random = new Random(1);
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return content;
+  }
+}
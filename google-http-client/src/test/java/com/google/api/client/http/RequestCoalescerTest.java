@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.testing.util.TestableByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link RequestCoalescer}.
+ */
+public class RequestCoalescerTest extends TestCase {
+
+  public void testGetKey() {
+    RequestCoalescer coalescer = new RequestCoalescer(Arrays.asList("Authorization"));
+    assertEquals(Arrays.asList("authorization"),
+        new ArrayList<String>(coalescer.getKeyHeaderNames()));
+    HttpHeaders headers = new HttpHeaders().setAuthorization("a").setAccept("b");
+    assertEquals("http://google.com\nauthorization: a",
+        coalescer.getKey("http://google.com", headers));
+    assertFalse(coalescer.getKey("http://google.com", headers)
+        .equals(coalescer.getKey("http://google.com", headers.setAuthorization("c"))));
+  }
+
+  public void testExecute_coalesced() throws Exception {
+    BlockingTransport transport = new BlockingTransport();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setRequestCoalescer(new RequestCoalescer());
+    List<String> contents = executeConcurrently(transport, requestFactory, 10);
+    assertEquals(1, transport.count.get());
+    assertEquals(10, contents.size());
+    for (String content : contents) {
+      assertEquals("content 1", content);
+    }
+    assertEquals(0, requestFactory.getRequestCoalescer().getInFlightCount());
+  }
+
+  public void testExecute_maxContentLength() throws Exception {
+    BlockingTransport transport = new BlockingTransport();
+    RequestCoalescer coalescer =
+        new RequestCoalescer(RequestCoalescer.DEFAULT_KEY_HEADER_NAMES, "content 1".length() - 1);
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setRequestCoalescer(coalescer);
+    List<String> contents = executeConcurrently(transport, requestFactory, 10);
+    // the response is too long to be shared, so the waiting requests send their own
+    assertEquals(10, transport.count.get());
+    assertEquals(10, contents.size());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  public void testExecute_notBuffered() throws Exception {
+    final TestableByteArrayInputStream content =
+        new TestableByteArrayInputStream("content".getBytes("UTF-8"));
+    HttpTransport transport = new MockHttpTransport.Builder()
+        .setLowLevelHttpResponse(new MockLowLevelHttpResponse().setContent(content))
+        .build();
+    HttpResponse response = transport.createRequestFactory()
+        .setRequestCoalescer(new RequestCoalescer())
+        .buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL)
+        .execute();
+    // no request waits for the response, so its content is streamed
+    assertEquals("content".length(), content.available());
+    assertEquals("content", response.parseAsString());
+  }
+
+  public void testExecute_notCoalesced() throws Exception {
+    BlockingTransport transport = new BlockingTransport();
+    transport.release.countDown();
+    HttpRequestFactory requestFactory =
+        transport.createRequestFactory().setRequestCoalescer(new RequestCoalescer());
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    assertEquals("content 1", request.execute().parseAsString());
+    // sequential requests are not coalesced
+    assertEquals("content 2", request.execute().parseAsString());
+    // neither are requests with content
+    request = requestFactory.buildPostRequest(HttpTesting.SIMPLE_GENERIC_URL,
+        new ByteArrayContent(null, new byte[1]));
+    assertEquals("content 3", request.execute().parseAsString());
+  }
+
+  public void testExecute_failure() throws Exception {
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            throw new IOException("connection refused");
+          }
+        };
+      }
+    };
+    RequestCoalescer coalescer = new RequestCoalescer();
+    HttpRequest request = transport.createRequestFactory()
+        .setRequestCoalescer(coalescer)
+        .buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    try {
+      request.execute();
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      assertEquals("connection refused", e.getMessage());
+    }
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  /**
+   * Executes the given number of identical requests concurrently, and returns their contents once
+   * they all wait for a network call.
+   */
+  private static List<String> executeConcurrently(BlockingTransport transport,
+      final HttpRequestFactory requestFactory, int count) throws InterruptedException {
+    final List<String> contents = new ArrayList<String>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < count; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            String content =
+                requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL).execute()
+                    .parseAsString();
+            synchronized (contents) {
+              contents.add(content);
+            }
+          } catch (IOException e) {
+            // missing content fails the test
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    // wait until every thread waits for the network call
+    for (Thread thread : threads) {
+      for (int i = 0; i < 500 && thread.getState() != Thread.State.WAITING
+          && thread.getState() != Thread.State.TIMED_WAITING; i++) {
+        Thread.sleep(10);
+      }
+    }
+    assertEquals(1, requestFactory.getRequestCoalescer().getInFlightCount());
+    transport.release.countDown();
+    for (Thread thread : threads) {
+      thread.join(5000);
+    }
+    return contents;
+  }
+
+  /** Transport whose requests block until released and respond with their number. */
+  static class BlockingTransport extends MockHttpTransport {
+
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest() {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+          response.setContent("content " + count.incrementAndGet());
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return response;
+        }
+      };
+    }
+  }
+}
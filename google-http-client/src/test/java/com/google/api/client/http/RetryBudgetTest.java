@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http;
+
+import com.google.api.client.testing.http.HttpTesting;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.testing.util.MockBackOff;
+import com.google.api.client.testing.util.MockSleeper;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link RetryBudget}.
+ */
+public class RetryBudgetTest extends TestCase {
+
+  public void testTokenBucket() {
+    RetryBudget budget = new RetryBudget(0.5, 2);
+    assertEquals(2.0, budget.getAvailableTokens("a"));
+    assertTrue(budget.tryAcquireRetry("a"));
+    assertTrue(budget.tryAcquireRetry("a"));
+    assertFalse(budget.isRetryAllowed("a"));
+    assertFalse(budget.tryAcquireRetry("a"));
+    // hosts have separate budgets
+    assertTrue(budget.isRetryAllowed("b"));
+    budget.onSuccess("a");
+    assertFalse(budget.isRetryAllowed("a"));
+    budget.onSuccess("a");
+    assertTrue(budget.tryAcquireRetry("a"));
+    // the bucket is capped
+    for (int i = 0; i < 10; i++) {
+      budget.onSuccess("a");
+    }
+    assertEquals(2.0, budget.getAvailableTokens("a"));
+  }
+
+  public void testExecute_budgetExhausted() throws Exception {
+    StatusTransport transport = new StatusTransport();
+    RetryBudget budget = new RetryBudget(0.5, 3);
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setRetryBudget(budget);
+
+    // the first request retries until the budget is exhausted
+    transport.statusCodes = Arrays.asList(500);
+    assertEquals(500, newRequest(requestFactory).execute().getStatusCode());
+    assertEquals(4, transport.count);
+    assertEquals(0.0, budget.getAvailableTokens("google.com"));
+
+    // the next request is not retried at all
+    transport.count = 0;
+    assertEquals(500, newRequest(requestFactory).execute().getStatusCode());
+    assertEquals(1, transport.count);
+
+    // successful responses refill the budget
+    transport.count = 0;
+    transport.statusCodes = Arrays.asList(200);
+    newRequest(requestFactory).execute();
+    newRequest(requestFactory).execute();
+    assertEquals(1.0, budget.getAvailableTokens("google.com"));
+    transport.count = 0;
+    transport.statusCodes = Arrays.asList(500, 200);
+    assertEquals(200, newRequest(requestFactory).execute().getStatusCode());
+    assertEquals(2, transport.count);
+  }
+
+  public void testExecute_redirectsDoNotConsumeBudget() throws Exception {
+    StatusTransport transport = new StatusTransport();
+    RetryBudget budget = new RetryBudget(0.1, 0);
+    HttpRequestFactory requestFactory = transport.createRequestFactory().setRetryBudget(budget);
+    transport.statusCodes = Arrays.asList(302, 302, 200);
+    assertEquals(200, newRequest(requestFactory).execute().getStatusCode());
+    assertEquals(3, transport.count);
+  }
+
+  private static HttpRequest newRequest(HttpRequestFactory requestFactory) throws IOException {
+    HttpRequest request = requestFactory.buildGetRequest(HttpTesting.SIMPLE_GENERIC_URL);
+    request.setThrowExceptionOnExecuteError(false);
+    request.setUnsuccessfulResponseHandler(
+        new HttpBackOffUnsuccessfulResponseHandler(new MockBackOff().setMaxTries(10))
+            .setSleeper(new MockSleeper()));
+    return request;
+  }
+
+  /** Transport that responds with the given status codes, repeating the last one. */
+  static class StatusTransport extends MockHttpTransport {
+
+    List<Integer> statusCodes;
+
+    int count;
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest() {
+        @Override
+        public LowLevelHttpResponse execute() {
+          int statusCode = statusCodes.get(Math.min(count++, statusCodes.size() - 1));
+          MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+          response.setStatusCode(statusCode);
+          if (statusCode == 302) {
+            response.addHeader("Location", HttpTesting.SIMPLE_URL);
+          }
+          return response;
+        }
+      };
+    }
+  }
+}
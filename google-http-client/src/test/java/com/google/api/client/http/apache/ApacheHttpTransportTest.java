@@ -20,18 +20,28 @@ import static org.mockito.Mockito.when;
 
 import com.google.api.client.util.ByteArrayStreamingContent;
 import com.google.api.client.util.StringUtils;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import junit.framework.TestCase;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
 
 /**
  * Tests {@link ApacheHttpTransport}.
@@ -81,6 +91,112 @@ public class ApacheHttpTransportTest extends TestCase {
     execute(transport.buildRequest("PATCH", "http://www.test.url"));
   }
 
+  public void testConnectionPoolStats_notInstrumented() {
+    ApacheHttpTransport transport = new ApacheHttpTransport(new DefaultHttpClient());
+    assertNull(transport.getConnectionPoolStats());
+    assertNull(transport.getTotalConnectionPoolStats());
+  }
+
+  public void testConnectionPoolStats() throws Exception {
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+    HttpRoute route =
+        new HttpRoute(new HttpHost("localhost", serverSocket.getLocalPort(), "http"));
+    HttpRoute otherRoute = new HttpRoute(new HttpHost("localhost", 1, "http"));
+    ApacheHttpTransport transport = new ApacheHttpTransport.Builder()
+        .setMaxTotalConnections(10)
+        .setMaxConnectionsPerRoute(3)
+        .setMaxConnectionsPerRoute(route, 1)
+        .build();
+    try {
+      assertTrue(transport.getConnectionPoolStats().isEmpty());
+      ClientConnectionManager connectionManager = transport.getHttpClient().getConnectionManager();
+      ManagedClientConnection connection = open(transport, route);
+      connectionManager.requestConnection(otherRoute, null).getConnection(1, TimeUnit.SECONDS);
+
+      // a second request for the route waits for the connection
+      final AtomicReference<ManagedClientConnection> second =
+          new AtomicReference<ManagedClientConnection>();
+      Thread thread = request(connectionManager, route, second);
+      while (transport.getConnectionPoolStats().get(route).getPending() == 0) {
+        Thread.sleep(10);
+      }
+      Map<HttpRoute, ConnectionPoolStats> stats = transport.getConnectionPoolStats();
+      assertEquals(2, stats.size());
+      assertStats(1, 0, 1, 1, stats.get(route));
+      assertStats(1, 0, 0, 3, stats.get(otherRoute));
+      assertStats(2, 0, 1, 10, transport.getTotalConnectionPoolStats());
+
+      connection.markReusable();
+      connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+      thread.join();
+      assertStats(1, 0, 0, 1, transport.getConnectionPoolStats().get(route));
+      connectionManager.releaseConnection(second.get(), -1, TimeUnit.MILLISECONDS);
+      assertStats(0, 1, 0, 1, transport.getConnectionPoolStats().get(route));
+      assertStats(1, 1, 0, 10, transport.getTotalConnectionPoolStats());
+    } finally {
+      transport.shutdown();
+      serverSocket.close();
+    }
+  }
+
+  public void testIdleConnectionTimeout() throws Exception {
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+    HttpRoute route =
+        new HttpRoute(new HttpHost("localhost", serverSocket.getLocalPort(), "http"));
+    ApacheHttpTransport.Builder builder =
+        new ApacheHttpTransport.Builder().setIdleConnectionTimeout(10, TimeUnit.MILLISECONDS);
+    assertEquals(10, builder.getIdleConnectionTimeoutMillis());
+    ApacheHttpTransport transport = builder.build();
+    try {
+      ClientConnectionManager connectionManager = transport.getHttpClient().getConnectionManager();
+      ManagedClientConnection connection = open(transport, route);
+      connection.markReusable();
+      connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+      assertStats(0, 1, 0, 20, transport.getConnectionPoolStats().get(route));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (transport.getTotalConnectionPoolStats().getAvailable() > 0) {
+        assertTrue("idle connection was not closed", System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+    } finally {
+      transport.shutdown();
+      serverSocket.close();
+    }
+  }
+
+  private static ManagedClientConnection open(ApacheHttpTransport transport, HttpRoute route)
+      throws Exception {
+    ManagedClientConnection connection = transport.getHttpClient().getConnectionManager()
+        .requestConnection(route, null).getConnection(1, TimeUnit.SECONDS);
+    connection.open(route, new BasicHttpContext(), transport.getHttpClient().getParams());
+    return connection;
+  }
+
+  private static Thread request(final ClientConnectionManager connectionManager,
+      final HttpRoute route, final AtomicReference<ManagedClientConnection> result) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(
+              connectionManager.requestConnection(route, null).getConnection(10, TimeUnit.SECONDS));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static void assertStats(
+      int leased, int available, int pending, int max, ConnectionPoolStats stats) {
+    assertEquals(leased, stats.getLeased());
+    assertEquals(available, stats.getAvailable());
+    assertEquals(pending, stats.getPending());
+    assertEquals(max, stats.getMax());
+  }
+
   private void subtestUnsupportedRequestsWithContent(ApacheHttpRequest request, String method)
       throws Exception {
     try {
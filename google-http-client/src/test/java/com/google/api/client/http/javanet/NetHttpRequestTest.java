@@ -5,16 +5,21 @@ import com.google.api.client.http.InputStreamContent;
 import com.google.api.client.http.javanet.NetHttpRequest.OutputWriter;
 import com.google.api.client.testing.http.HttpTesting;
 import com.google.api.client.testing.http.javanet.MockHttpURLConnection;
+import com.google.api.client.util.HashedWheelTimer;
 import com.google.api.client.util.StreamingContent;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import org.junit.Test;
 
@@ -71,6 +76,109 @@ public class NetHttpRequestTest {
     }
   }
 
+  @Test(timeout = 5000)
+  public void testWriteTimeout_sharedTimer() throws Exception {
+    HashedWheelTimer timer = new HashedWheelTimer("test-timer");
+    try {
+      for (int i = 0; i < 3; i++) {
+        MockHttpURLConnection connection =
+            new MockHttpURLConnection(new URL(HttpTesting.SIMPLE_URL));
+        connection.setRequestMethod("POST");
+        NetHttpRequest request = new NetHttpRequest(connection, timer, 0);
+        request.setStreamingContent(new InputStreamContent("text/plain",
+            NetHttpRequestTest.class.getClassLoader().getResourceAsStream("file.txt")));
+        request.setWriteTimeout(1000);
+        request.execute(new SleepingOutputWriter(0L));
+        // the write deadline is cancelled once the content is written
+        assertEquals(0, timer.getPendingCount());
+        assertFalse(Thread.currentThread().isInterrupted());
+      }
+    } finally {
+      timer.stop();
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testRequestTimeout() throws Exception {
+    final CountDownLatch disconnected = new CountDownLatch(1);
+    MockHttpURLConnection connection = new MockHttpURLConnection(new URL(HttpTesting.SIMPLE_URL)) {
+      @Override
+      public void disconnect() {
+        disconnected.countDown();
+      }
+    };
+    connection.setRequestMethod("POST");
+    HashedWheelTimer timer = new HashedWheelTimer("test-timer");
+    NetHttpRequest request = new NetHttpRequest(connection, timer, 100);
+    request.setStreamingContent(new InputStreamContent("text/plain",
+        NetHttpRequestTest.class.getClassLoader().getResourceAsStream("file.txt")));
+    try {
+      // blocks until the connection is disconnected, like a write to an unresponsive server
+      request.execute(new OutputWriter() {
+        @Override
+        public void write(OutputStream outputStream, StreamingContent content)
+            throws IOException {
+          try {
+            disconnected.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new IOException("interrupted", e);
+          }
+          throw new IOException("connection closed");
+        }
+      });
+      fail("expected " + SocketTimeoutException.class);
+    } catch (SocketTimeoutException e) {
+      assertEquals("connection closed", e.getCause().getMessage());
+    } finally {
+      timer.stop();
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testRequestTimeout_afterResponse() throws Exception {
+    final CountDownLatch disconnected = new CountDownLatch(1);
+    MockHttpURLConnection connection = new MockHttpURLConnection(new URL(HttpTesting.SIMPLE_URL)) {
+      @Override
+      public void connect() throws IOException {
+        // the response is received while the watchdog disconnects the connection
+        try {
+          disconnected.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException("interrupted", e);
+        }
+      }
+
+      @Override
+      public void disconnect() {
+        disconnected.countDown();
+      }
+    };
+    HashedWheelTimer timer = new HashedWheelTimer("test-timer");
+    NetHttpRequest request = new NetHttpRequest(connection, timer, 100);
+    try {
+      request.execute();
+      fail("expected " + SocketTimeoutException.class);
+    } catch (SocketTimeoutException e) {
+      assertEquals("Request timed out", e.getMessage());
+    } finally {
+      timer.stop();
+    }
+  }
+
+  @Test
+  public void testRequestTimeout_stoppedTimer() throws Exception {
+    MockHttpURLConnection connection = new MockHttpURLConnection(new URL(HttpTesting.SIMPLE_URL));
+    HashedWheelTimer timer = new HashedWheelTimer("test-timer");
+    timer.stop();
+    NetHttpRequest request = new NetHttpRequest(connection, timer, 100);
+    try {
+      request.execute();
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      assertEquals("transport has been shut down", e.getMessage());
+    }
+  }
+
   private static void postWithTimeout(int timeout) throws Exception {
     MockHttpURLConnection connection = new MockHttpURLConnection(new URL(HttpTesting.SIMPLE_URL));
     connection.setRequestMethod("POST");
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link Hpack}.
+ */
+public class HpackTest extends TestCase {
+
+  public void testInteger() throws Exception {
+    // RFC 7541 appendix C.1
+    assertEquals("0a", encodeInteger(10, 5));
+    assertEquals("1f9a0a", encodeInteger(1337, 5));
+    assertEquals("2a", encodeInteger(42, 8));
+    for (int value : new int[] {0, 30, 31, 127, 128, 1337, Integer.MAX_VALUE}) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Hpack.writeInteger(out, 0xe0, 5, value);
+      ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+      int first = in.get() & 0xff;
+      assertEquals(0xe0, first & 0xe0);
+      assertEquals(value, Hpack.readInteger(in, first, 5));
+      assertFalse(in.hasRemaining());
+    }
+  }
+
+  public void testDecodeRequestsWithoutHuffman() throws Exception {
+    // RFC 7541 appendix C.3
+    Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    assertHeaders(decoder, "828684410f7777772e6578616d706c652e636f6d",
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+    assertHeaders(decoder, "828684be58086e6f2d6361636865", ":method", "GET", ":scheme", "http",
+        ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+    assertHeaders(decoder,
+        "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565", ":method", "GET",
+        ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+        "custom-key", "custom-value");
+  }
+
+  public void testDecodeRequestsWithHuffman() throws Exception {
+    // RFC 7541 appendix C.4
+    Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    assertHeaders(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff", ":method", "GET",
+        ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+    assertHeaders(decoder, "828684be5886a8eb10649cbf", ":method", "GET", ":scheme", "http",
+        ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+    assertHeaders(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf", ":method", "GET",
+        ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+        "custom-key", "custom-value");
+  }
+
+  public void testDecodeResponsesWithEviction() throws Exception {
+    // RFC 7541 appendix C.6, with a dynamic table of 256 bytes
+    Hpack.Decoder decoder = new Hpack.Decoder(256);
+    assertHeaders(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1b"
+        + "ff6e919d29ad171863c78f0b97c8e9ae82ae43d3", ":status", "302", "cache-control",
+        "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location",
+        "https://www.example.com");
+    assertHeaders(decoder, "4883640effc1c0bf", ":status", "307", "cache-control", "private",
+        "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com");
+  }
+
+  public void testRoundTrip() throws Exception {
+    Hpack.Encoder encoder = new Hpack.Encoder();
+    Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      large.append((char) ('a' + i % 26));
+    }
+    List<String> names = Arrays.asList(":method", ":path", "authorization", "x-large",
+        "user-agent", "accept-encoding", "x-binary");
+    List<String> values = Arrays.asList("POST", "/upload?id=1", "Bearer secret",
+        large.toString(), "Google-HTTP-Java-Client/1.27", "gzip", "\u00e9\u0001~");
+    for (int round = 0; round < 3; round++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      encoder.encode(names, values, out);
+      List<String> decodedNames = new ArrayList<String>();
+      List<String> decodedValues = new ArrayList<String>();
+      decoder.decode(ByteBuffer.wrap(out.toByteArray()), decodedNames, decodedValues);
+      assertEquals(names, decodedNames);
+      assertEquals(values, decodedValues);
+      if (round > 0) {
+        // indexed entries make later blocks much smaller, except for the large value
+        assertTrue(out.size() < large.length());
+      }
+    }
+    // a smaller table size is signaled at the start of the next block
+    encoder.setMaxTableSize(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.encode(names, values, out);
+    assertEquals(0x20, out.toByteArray()[0] & 0xff);
+    List<String> decodedNames = new ArrayList<String>();
+    List<String> decodedValues = new ArrayList<String>();
+    decoder.decode(ByteBuffer.wrap(out.toByteArray()), decodedNames, decodedValues);
+    assertEquals(values, decodedValues);
+  }
+
+  public void testHuffmanString() throws Exception {
+    String value = "https://www.example.com/path?query=value&other=1";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Hpack.writeString(out, value);
+    byte[] bytes = out.toByteArray();
+    assertEquals(0x80, bytes[0] & 0x80);
+    assertTrue(bytes.length < value.length());
+    assertEquals(value, Hpack.readString(ByteBuffer.wrap(bytes)));
+  }
+
+  public void testInvalidHeaderBlocks() throws Exception {
+    // index 0, index beyond the tables, invalid Huffman padding and truncated string
+    String[] blocks = {"80", "ff00", "418cf1e3c2e5f23a6ba0ab90f4fe", "410f7777"};
+    for (String block : blocks) {
+      try {
+        new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE).decode(ByteBuffer.wrap(fromHex(block)),
+            new ArrayList<String>(), new ArrayList<String>());
+        fail("expected " + ProtocolException.class + " for " + block);
+      } catch (ProtocolException e) {
+        // expected
+      }
+    }
+  }
+
+  private static void assertHeaders(Hpack.Decoder decoder, String hex, String... expected)
+      throws Exception {
+    List<String> names = new ArrayList<String>();
+    List<String> values = new ArrayList<String>();
+    decoder.decode(ByteBuffer.wrap(fromHex(hex)), names, values);
+    List<String> actual = new ArrayList<String>();
+    for (int i = 0; i < names.size(); i++) {
+      actual.add(names.get(i));
+      actual.add(values.get(i));
+    }
+    assertEquals(Arrays.asList(expected), actual);
+  }
+
+  private static String encodeInteger(int value, int prefixBits) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Hpack.writeInteger(out, 0, prefixBits, value);
+    StringBuilder hex = new StringBuilder();
+    for (byte b : out.toByteArray()) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  private static byte[] fromHex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    return bytes;
+  }
+}
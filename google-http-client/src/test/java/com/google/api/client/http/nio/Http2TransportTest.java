@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.StringUtils;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link Http2Transport}.
+ */
+public class Http2TransportTest extends TestCase {
+
+  private H2TestServer server;
+
+  private NioHttpTransportTest.TestServer http1Server;
+
+  private Http2Transport transport;
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (transport != null) {
+      transport.shutdown();
+    }
+    if (server != null) {
+      server.close();
+    }
+    if (http1Server != null) {
+      http1Server.close();
+    }
+  }
+
+  public void testGet() throws Exception {
+    server = new H2TestServer(null);
+    transport = new Http2Transport.Builder().setPriorKnowledgeEnabled(true).build();
+    HttpResponse response = get("/hello");
+    assertEquals(200, response.getStatusCode());
+    assertEquals("text/plain", response.getContentType());
+    assertEquals("GET /hello", response.parseAsString());
+    assertEquals("GET /hello?a=b", get("/hello?a=b").parseAsString());
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testPost_largerThanWindow() throws Exception {
+    server = new H2TestServer(null);
+    transport = new Http2Transport.Builder().setPriorKnowledgeEnabled(true).build();
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 200000; i++) {
+      content.append((char) ('a' + i % 26));
+    }
+    HttpResponse response = transport.createRequestFactory().buildPostRequest(url("/post"),
+        new ByteArrayContent("text/plain", StringUtils.getBytesUtf8(content.toString())))
+        .execute();
+    assertEquals("POST /post " + content, response.parseAsString());
+  }
+
+  public void testHead() throws Exception {
+    server = new H2TestServer(null);
+    transport = new Http2Transport.Builder().setPriorKnowledgeEnabled(true).build();
+    HttpResponse response =
+        transport.createRequestFactory().buildHeadRequest(url("/head")).execute();
+    assertEquals(200, response.getStatusCode());
+    assertEquals("", response.parseAsString());
+  }
+
+  public void testMultiplexing() throws Exception {
+    server = new H2TestServer(null);
+    transport = new Http2Transport.Builder().setPriorKnowledgeEnabled(true).build();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      // the server only answers once both requests arrived, so they must be sent concurrently on
+      // the single connection
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 2; i++) {
+        results.add(executor.submit(new Callable<String>() {
+          public String call() throws Exception {
+            return get("/batch").parseAsString();
+          }
+        }));
+      }
+      for (Future<String> result : results) {
+        assertEquals("GET /batch", result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, server.connections.get());
+    assertEquals(1, transport.getConnectionCount());
+  }
+
+  public void testLargeResponse_flowControl() throws Exception {
+    server = new H2TestServer(null);
+    // a small window makes the server wait for window updates many times
+    transport = new Http2Transport.Builder().setPriorKnowledgeEnabled(true)
+        .setInitialWindowSize(65535).build();
+    String content = get("/large").parseAsString();
+    assertEquals(H2TestServer.LARGE_SIZE, content.length());
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testReadTimeout_resetsStream() throws Exception {
+    server = new H2TestServer(null);
+    transport = new Http2Transport.Builder().setPriorKnowledgeEnabled(true).build();
+    HttpRequest request = transport.createRequestFactory().buildGetRequest(url("/hang"));
+    request.setReadTimeout(200);
+    request.setNumberOfRetries(0);
+    try {
+      request.execute();
+      fail("expected " + SocketTimeoutException.class);
+    } catch (SocketTimeoutException e) {
+      // expected
+    }
+    // the connection is still usable
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    assertEquals(1, server.connections.get());
+    assertTrue(server.awaitReset());
+  }
+
+  public void testCleartextWithoutPriorKnowledge_usesHttp1() throws Exception {
+    http1Server = new NioHttpTransportTest.TestServer(null);
+    transport = new Http2Transport();
+    HttpResponse response = transport.createRequestFactory()
+        .buildGetRequest(new GenericUrl("http://localhost:" + http1Server.getPort() + "/hello"))
+        .execute();
+    assertEquals("GET /hello", response.parseAsString());
+    assertEquals(0, transport.getConnectionCount());
+    assertEquals(1, transport.getFallbackConnectionCount());
+  }
+
+  public void testTls_fallbackToHttp1() throws Exception {
+    http1Server = new NioHttpTransportTest.TestServer(newServerSslContext());
+    transport = new Http2Transport.Builder().doNotValidateCertificate().build();
+    GenericUrl url = new GenericUrl("https://localhost:" + http1Server.getPort() + "/chunked");
+    assertEquals("GET /chunked",
+        transport.createRequestFactory().buildGetRequest(url).execute().parseAsString());
+    int connections = http1Server.connections.get();
+    for (int i = 0; i < 3; i++) {
+      assertEquals("GET /chunked",
+          transport.createRequestFactory().buildGetRequest(url).execute().parseAsString());
+    }
+    // the origin is remembered as not supporting HTTP/2
+    assertEquals(connections, http1Server.connections.get());
+    assertEquals(0, transport.getConnectionCount());
+    assertEquals(1, transport.getFallbackConnectionCount());
+  }
+
+  public void testTls_alpn() throws Exception {
+    if (!SecureChannel.isAlpnSupported()) {
+      // ALPN requires a newer Java runtime
+      return;
+    }
+    server = new H2TestServer(newServerSslContext());
+    transport = new Http2Transport.Builder().doNotValidateCertificate().build();
+    for (int i = 0; i < 3; i++) {
+      assertEquals("GET /hello", get("/hello").parseAsString());
+    }
+    assertEquals(H2TestServer.LARGE_SIZE, get("/large").parseAsString().length());
+    assertEquals(1, server.connections.get());
+    assertEquals(1, transport.getConnectionCount());
+    assertEquals(0, transport.getFallbackConnectionCount());
+  }
+
+  private HttpResponse get(String path) throws IOException {
+    return transport.createRequestFactory().buildGetRequest(url(path)).execute();
+  }
+
+  private GenericUrl url(String path) {
+    return new GenericUrl(
+        (server.secure ? "https" : "http") + "://localhost:" + server.getPort() + path);
+  }
+
+  private static SSLContext newServerSslContext() throws Exception {
+    KeyStore keyStore = SecurityUtils.getPkcs12KeyStore();
+    SecurityUtils.loadKeyStore(keyStore, Http2TransportTest.class.getClassLoader()
+        .getResourceAsStream("com/google/api/client/util/secret.p12"), "notasecret");
+    KeyManagerFactory keyManagerFactory =
+        KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, "notasecret".toCharArray());
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+    return serverContext;
+  }
+
+  /**
+   * Minimal blocking HTTP/2 server with prior knowledge (or ALPN for TLS) that answers each request
+   * with its method, path and content, honoring the client's flow-control windows.
+   */
+  static final class H2TestServer implements Runnable {
+
+    static final int LARGE_SIZE = 1024 * 1024;
+
+    final boolean secure;
+    final ServerSocket serverSocket;
+    final AtomicInteger connections = new AtomicInteger();
+    final CountDownLatch batchReceived = new CountDownLatch(2);
+    final CountDownLatch resetReceived = new CountDownLatch(1);
+    final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    H2TestServer(SSLContext sslContext) throws Exception {
+      secure = sslContext != null;
+      if (secure) {
+        SSLServerSocket sslServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory()
+            .createServerSocket(0, 50, InetAddress.getByName("localhost"));
+        SSLParameters parameters = sslServerSocket.getSSLParameters();
+        SSLParameters.class.getMethod("setApplicationProtocols", String[].class)
+            .invoke(parameters, (Object) new String[] {"h2"});
+        sslServerSocket.setSSLParameters(parameters);
+        serverSocket = sslServerSocket;
+      } else {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+      }
+      Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    boolean awaitReset() throws InterruptedException {
+      return resetReceived.await(5, TimeUnit.SECONDS);
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      synchronized (sockets) {
+        for (Socket socket : sockets) {
+          socket.close();
+        }
+      }
+    }
+
+    public void run() {
+      while (true) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException e) {
+          return;
+        }
+        connections.incrementAndGet();
+        sockets.add(socket);
+        Thread thread = new Thread(new Runnable() {
+          public void run() {
+            try {
+              new ServerConnection(socket).serve();
+            } catch (IOException e) {
+              // connection closed
+            } finally {
+              try {
+                socket.close();
+              } catch (IOException e) {
+                // ignore
+              }
+            }
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    /** Server side of a single connection, whose writes and windows are guarded by this. */
+    final class ServerConnection {
+
+      final DataInputStream in;
+      final OutputStream out;
+      final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+      final Hpack.Encoder encoder = new Hpack.Encoder();
+      long connectionWindow = Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE;
+      int initialWindow = Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE;
+      final Map<Integer, long[]> streamWindows = new HashMap<Integer, long[]>();
+      final Map<Integer, Request> requests = new HashMap<Integer, Request>();
+
+      ServerConnection(Socket socket) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = socket.getOutputStream();
+      }
+
+      void serve() throws IOException {
+        byte[] preface = new byte[24];
+        in.readFully(preface);
+        assertEquals("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", new String(preface, "ISO-8859-1"));
+        ByteBuffer settings =
+            Http2Connection.frame(Http2Connection.TYPE_SETTINGS, 0, 0, 6);
+        settings.putShort((short) Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS).putInt(100);
+        writeFrame(settings);
+        ByteArrayOutputStream headerBlock = null;
+        int headerStreamId = 0;
+        boolean headerEndStream = false;
+        while (true) {
+          int length = (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+          int type = in.readUnsignedByte();
+          int flags = in.readUnsignedByte();
+          int streamId = in.readInt() & 0x7fffffff;
+          byte[] payload = new byte[length];
+          in.readFully(payload);
+          ByteBuffer buffer = ByteBuffer.wrap(payload);
+          switch (type) {
+            case Http2Connection.TYPE_SETTINGS:
+              if ((flags & Http2Connection.FLAG_ACK) == 0) {
+                onSettings(buffer);
+              }
+              break;
+            case Http2Connection.TYPE_HEADERS:
+              headerBlock = new ByteArrayOutputStream();
+              headerBlock.write(payload);
+              headerStreamId = streamId;
+              headerEndStream = (flags & Http2Connection.FLAG_END_STREAM) != 0;
+              if ((flags & Http2Connection.FLAG_END_HEADERS) != 0) {
+                onHeaders(headerStreamId, headerBlock.toByteArray(), headerEndStream);
+                headerBlock = null;
+              }
+              break;
+            case Http2Connection.TYPE_CONTINUATION:
+              headerBlock.write(payload);
+              if ((flags & Http2Connection.FLAG_END_HEADERS) != 0) {
+                onHeaders(headerStreamId, headerBlock.toByteArray(), headerEndStream);
+                headerBlock = null;
+              }
+              break;
+            case Http2Connection.TYPE_DATA:
+              onData(streamId, payload, (flags & Http2Connection.FLAG_END_STREAM) != 0);
+              break;
+            case Http2Connection.TYPE_WINDOW_UPDATE:
+              onWindowUpdate(streamId, buffer.getInt());
+              break;
+            case Http2Connection.TYPE_RST_STREAM:
+              synchronized (this) {
+                streamWindows.remove(streamId);
+                notifyAll();
+              }
+              resetReceived.countDown();
+              break;
+            case Http2Connection.TYPE_PING:
+              ByteBuffer ping = Http2Connection.frame(
+                  Http2Connection.TYPE_PING, Http2Connection.FLAG_ACK, 0, 8);
+              ping.put(payload);
+              writeFrame(ping);
+              break;
+            case Http2Connection.TYPE_GOAWAY:
+              return;
+            default:
+              break;
+          }
+        }
+      }
+
+      void onSettings(ByteBuffer payload) throws IOException {
+        synchronized (this) {
+          while (payload.hasRemaining()) {
+            int identifier = payload.getShort();
+            int value = payload.getInt();
+            if (identifier == Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE) {
+              for (long[] window : streamWindows.values()) {
+                window[0] += value - initialWindow;
+              }
+              initialWindow = value;
+            }
+          }
+          notifyAll();
+        }
+        writeFrame(Http2Connection.frame(
+            Http2Connection.TYPE_SETTINGS, Http2Connection.FLAG_ACK, 0, 0));
+      }
+
+      void onHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        decoder.decode(ByteBuffer.wrap(block), names, values);
+        Request request = new Request();
+        request.streamId = streamId;
+        request.method = values.get(names.indexOf(":method"));
+        request.path = values.get(names.indexOf(":path"));
+        assertEquals(Arrays.asList(":method", ":scheme", ":authority", ":path"),
+            names.subList(0, 4));
+        synchronized (this) {
+          streamWindows.put(streamId, new long[] {initialWindow});
+        }
+        requests.put(streamId, request);
+        if (endStream) {
+          dispatch(request);
+        }
+      }
+
+      void onData(int streamId, byte[] payload, boolean endStream) throws IOException {
+        Request request = requests.get(streamId);
+        request.content.write(payload);
+        if (payload.length > 0) {
+          ByteBuffer update = Http2Connection.frame(Http2Connection.TYPE_WINDOW_UPDATE, 0, 0, 4);
+          update.putInt(payload.length);
+          writeFrame(update);
+          if (!endStream) {
+            update = Http2Connection.frame(Http2Connection.TYPE_WINDOW_UPDATE, 0, streamId, 4);
+            update.putInt(payload.length);
+            writeFrame(update);
+          }
+        }
+        if (endStream) {
+          dispatch(request);
+        }
+      }
+
+      synchronized void onWindowUpdate(int streamId, int increment) {
+        if (streamId == 0) {
+          connectionWindow += increment;
+        } else {
+          long[] window = streamWindows.get(streamId);
+          if (window != null) {
+            window[0] += increment;
+          }
+        }
+        notifyAll();
+      }
+
+      void dispatch(final Request request) {
+        requests.remove(request.streamId);
+        Thread thread = new Thread(new Runnable() {
+          public void run() {
+            try {
+              respond(request);
+            } catch (Exception e) {
+              // connection closed
+            }
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+
+      void respond(Request request) throws Exception {
+        if (request.path.equals("/hang")) {
+          return;
+        }
+        if (request.path.equals("/batch")) {
+          batchReceived.countDown();
+          batchReceived.await(5, TimeUnit.SECONDS);
+        }
+        byte[] content;
+        if (request.path.equals("/large")) {
+          content = new byte[LARGE_SIZE];
+          Arrays.fill(content, (byte) 'x');
+        } else {
+          String text = request.method + " " + request.path;
+          if (request.content.size() > 0) {
+            text += " " + request.content.toString("UTF-8");
+          }
+          content = StringUtils.getBytesUtf8(text);
+        }
+        boolean head = request.method.equals("HEAD");
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        synchronized (this) {
+          encoder.encode(Arrays.asList(":status", "content-type", "content-length"),
+              Arrays.asList("200", "text/plain", Integer.toString(content.length)), block);
+          ByteBuffer headers = Http2Connection.frame(Http2Connection.TYPE_HEADERS,
+              Http2Connection.FLAG_END_HEADERS | (head ? Http2Connection.FLAG_END_STREAM : 0),
+              request.streamId, block.size());
+          headers.put(block.toByteArray());
+          writeFrame(headers);
+        }
+        if (head) {
+          return;
+        }
+        int offset = 0;
+        do {
+          synchronized (this) {
+            long[] window;
+            while ((window = streamWindows.get(request.streamId)) != null
+                && (window[0] <= 0 || connectionWindow <= 0)) {
+              wait();
+            }
+            if (window == null) {
+              // reset by the client
+              return;
+            }
+            int count = (int) Math.min(Math.min(content.length - offset, 16384),
+                Math.min(window[0], connectionWindow));
+            window[0] -= count;
+            connectionWindow -= count;
+            boolean last = offset + count == content.length;
+            ByteBuffer data = Http2Connection.frame(Http2Connection.TYPE_DATA,
+                last ? Http2Connection.FLAG_END_STREAM : 0, request.streamId, count);
+            data.put(content, offset, count);
+            writeFrame(data);
+            offset += count;
+            if (last) {
+              streamWindows.remove(request.streamId);
+            }
+          }
+        } while (offset < content.length);
+      }
+
+      synchronized void writeFrame(ByteBuffer frame) throws IOException {
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+      }
+    }
+
+    static final class Request {
+      int streamId;
+      String method;
+      String path;
+      final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    }
+  }
+}
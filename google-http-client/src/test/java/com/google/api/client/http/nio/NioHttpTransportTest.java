@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.StringUtils;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link NioHttpTransport}.
+ */
+public class NioHttpTransportTest extends TestCase {
+
+  private TestServer server;
+
+  private NioHttpTransport transport;
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (transport != null) {
+      transport.shutdown();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  public void testGet_contentLength() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    HttpResponse response = get("/hello");
+    assertEquals(200, response.getStatusCode());
+    assertEquals("text/plain", response.getContentType());
+    assertEquals("GET /hello", response.parseAsString());
+  }
+
+  public void testGet_chunked() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    HttpResponse response = get("/chunked");
+    assertEquals(200, response.getStatusCode());
+    assertEquals("GET /chunked", response.parseAsString());
+  }
+
+  public void testPost() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    HttpRequestFactory factory = transport.createRequestFactory();
+    byte[] bytes = StringUtils.getBytesUtf8("fixed length content");
+    HttpResponse response = factory.buildPostRequest(
+        url("/post"), new ByteArrayContent("text/plain", bytes)).execute();
+    assertEquals("POST /post fixed length content", response.parseAsString());
+    InputStreamContent chunked =
+        new InputStreamContent("text/plain", new ByteArrayInputStream(bytes));
+    response = factory.buildPostRequest(url("/post"), chunked).execute();
+    assertEquals("POST /post fixed length content", response.parseAsString());
+    assertEquals(Collections.singletonList("chunked"), server.transferEncodings);
+  }
+
+  public void testHead() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    HttpResponse response =
+        transport.createRequestFactory().buildHeadRequest(url("/head")).execute();
+    assertEquals(200, response.getStatusCode());
+    assertEquals("", response.parseAsString());
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testKeepAlive() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    for (int i = 0; i < 5; i++) {
+      assertEquals("GET /chunked", get("/chunked").parseAsString());
+    }
+    assertEquals(1, server.connections.get());
+    assertEquals(1, transport.getConnectionCount());
+  }
+
+  public void testConnectionClose() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    assertEquals("GET /close", get("/close").parseAsString());
+    assertEquals("GET /close", get("/close").parseAsString());
+    assertEquals(2, server.connections.get());
+  }
+
+  public void testStaleConnection_retriesGet() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    assertEquals("GET /dropnext", get("/dropnext").parseAsString());
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    assertEquals(2, server.connections.get());
+  }
+
+  public void testStaleConnection_doesNotReplayPost() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    assertEquals("GET /dropnext", get("/dropnext").parseAsString());
+    HttpRequest request = transport.createRequestFactory().buildPostRequest(url("/post"), null);
+    request.setNumberOfRetries(0);
+    try {
+      request.execute();
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testIgnore_keepsConnection() throws Exception {
+    server = new TestServer(null);
+    // a single connection, so that the second request waits until the first response is discarded
+    transport = new NioHttpTransport.Builder().setMaxConnectionsPerHost(1).build();
+    get("/hello").ignore();
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testMaxConnectionsPerHost() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport.Builder().setMaxConnectionsPerHost(2).build();
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 6; i++) {
+        results.add(executor.submit(new Callable<String>() {
+          public String call() throws Exception {
+            return get("/slow").parseAsString();
+          }
+        }));
+      }
+      for (Future<String> result : results) {
+        assertEquals("GET /slow", result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(server.connections.get() <= 2);
+  }
+
+  public void testPipelining() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport.Builder()
+        .setMaxConnectionsPerHost(1)
+        .setPipeliningEnabled(true)
+        .build();
+    // the connection must prove to be persistent before requests are pipelined on it
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // the server waits for the second request before it answers the first one
+      Future<String> first = executor.submit(new Callable<String>() {
+        public String call() throws Exception {
+          return get("/batch").parseAsString();
+        }
+      });
+      assertTrue(server.batchReceived.await(10, TimeUnit.SECONDS));
+      assertEquals("GET /second", get("/second").parseAsString());
+      assertEquals("GET /batch", first.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testReadTimeout() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    HttpRequest request = transport.createRequestFactory().buildGetRequest(url("/hang"));
+    request.setReadTimeout(200);
+    request.setNumberOfRetries(0);
+    try {
+      request.execute();
+      fail("expected " + SocketTimeoutException.class);
+    } catch (SocketTimeoutException e) {
+      // expected
+    }
+    assertEquals("GET /hello", get("/hello").parseAsString());
+  }
+
+  public void testShutdown() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    transport.shutdown();
+    try {
+      get("/hello");
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testTls() throws Exception {
+    KeyStore keyStore = SecurityUtils.getPkcs12KeyStore();
+    SecurityUtils.loadKeyStore(keyStore,
+        getClass().getClassLoader().getResourceAsStream("com/google/api/client/util/secret.p12"),
+        "notasecret");
+    KeyManagerFactory keyManagerFactory =
+        KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, "notasecret".toCharArray());
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+    server = new TestServer(serverContext);
+    transport = new NioHttpTransport.Builder().doNotValidateCertificate().build();
+    for (int i = 0; i < 3; i++) {
+      assertEquals("GET /chunked", get("/chunked").parseAsString());
+    }
+    assertEquals("GET /large", get("/large").parseAsString().substring(0, 10));
+    assertEquals(1, server.connections.get());
+  }
+
+  public void testLargeResponse() throws Exception {
+    server = new TestServer(null);
+    transport = new NioHttpTransport();
+    String content = get("/large").parseAsString();
+    assertEquals(TestServer.LARGE_SIZE, content.length());
+    assertEquals("GET /hello", get("/hello").parseAsString());
+    assertEquals(1, server.connections.get());
+  }
+
+  private HttpResponse get(String path) throws IOException {
+    return transport.createRequestFactory().buildGetRequest(url(path)).execute();
+  }
+
+  private GenericUrl url(String path) {
+    return new GenericUrl(
+        (server.secure ? "https" : "http") + "://localhost:" + server.getPort() + path);
+  }
+
+  /**
+   * Minimal blocking HTTP/1.1 server that answers each request with its method and path, and
+   * supports a few special paths.
+   */
+  static final class TestServer implements Runnable {
+
+    static final int LARGE_SIZE = 1024 * 1024;
+
+    final boolean secure;
+    final ServerSocket serverSocket;
+    final AtomicInteger connections = new AtomicInteger();
+    final List<String> transferEncodings = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch batchReceived = new CountDownLatch(1);
+    final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    TestServer(SSLContext sslContext) throws IOException {
+      secure = sslContext != null;
+      serverSocket = secure
+          ? sslContext.getServerSocketFactory().createServerSocket(0, 50,
+              InetAddress.getByName("localhost"))
+          : new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+      Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+      synchronized (sockets) {
+        for (Socket socket : sockets) {
+          socket.close();
+        }
+      }
+    }
+
+    public void run() {
+      while (true) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException e) {
+          return;
+        }
+        connections.incrementAndGet();
+        sockets.add(socket);
+        Thread thread = new Thread(new Runnable() {
+          public void run() {
+            try {
+              serve(socket);
+            } catch (IOException e) {
+              // connection closed
+            } finally {
+              try {
+                socket.close();
+              } catch (IOException e) {
+                // ignore
+              }
+            }
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    void serve(Socket socket) throws IOException {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      while (true) {
+        String[] request = readRequest(in);
+        if (request == null) {
+          return;
+        }
+        String path = request[1];
+        if (path.equals("/batch")) {
+          batchReceived.countDown();
+          String[] second = readRequest(in);
+          if (second == null) {
+            return;
+          }
+          respond(out, request);
+          respond(out, second);
+        } else if (path.equals("/dropnext")) {
+          // drops the next request, as if the connection had been idle for too long
+          respond(out, request);
+          readRequest(in);
+          return;
+        } else if (path.equals("/hang")) {
+          readRequest(in);
+          return;
+        } else {
+          if (path.equals("/slow")) {
+            try {
+              Thread.sleep(100);
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+          if (!respond(out, request)) {
+            return;
+          }
+        }
+      }
+    }
+
+    /** Returns whether the connection is kept alive. */
+    boolean respond(OutputStream out, String[] request) throws IOException {
+      String method = request[0];
+      String path = request[1];
+      String body = method + " " + path + (request[2].length() == 0 ? "" : " " + request[2]);
+      byte[] bytes = StringUtils.getBytesUtf8(body);
+      if (path.equals("/large")) {
+        bytes = new byte[LARGE_SIZE];
+        byte[] prefix = StringUtils.getBytesUtf8(body);
+        for (int i = 0; i < bytes.length; i++) {
+          bytes[i] = i < prefix.length ? prefix[i] : (byte) ('a' + i % 26);
+        }
+      }
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n");
+      boolean close = path.equals("/close");
+      if (close) {
+        head.append("Connection: close\r\n");
+      }
+      if (path.equals("/chunked")) {
+        head.append("Transfer-Encoding: chunked\r\n\r\n");
+        response.write(StringUtils.getBytesUtf8(head.toString()));
+        for (int i = 0; i < bytes.length; i += 3) {
+          int count = Math.min(3, bytes.length - i);
+          response.write(StringUtils.getBytesUtf8(Integer.toHexString(count) + "\r\n"));
+          response.write(bytes, i, count);
+          response.write(StringUtils.getBytesUtf8("\r\n"));
+        }
+        response.write(StringUtils.getBytesUtf8("0\r\n\r\n"));
+      } else {
+        head.append("Content-Length: ").append(bytes.length).append("\r\n\r\n");
+        response.write(StringUtils.getBytesUtf8(head.toString()));
+        if (!method.equals("HEAD")) {
+          response.write(bytes);
+        }
+      }
+      out.write(response.toByteArray());
+      out.flush();
+      return !close;
+    }
+
+    /** Returns the method, path and body of the next request or {@code null} at end of input. */
+    String[] readRequest(InputStream in) throws IOException {
+      String requestLine = readLine(in);
+      if (requestLine == null) {
+        return null;
+      }
+      String[] parts = requestLine.split(" ");
+      long contentLength = 0;
+      boolean chunked = false;
+      String line;
+      while ((line = readLine(in)) != null && line.length() != 0) {
+        int colon = line.indexOf(':');
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        if (name.equalsIgnoreCase("Content-Length")) {
+          contentLength = Long.parseLong(value);
+        } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+          transferEncodings.add(value);
+          chunked = value.equalsIgnoreCase("chunked");
+        }
+      }
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      if (chunked) {
+        while (true) {
+          int size = Integer.parseInt(readLine(in), 16);
+          if (size == 0) {
+            readLine(in);
+            break;
+          }
+          for (int i = 0; i < size; i++) {
+            body.write(in.read());
+          }
+          readLine(in);
+        }
+      } else {
+        for (long i = 0; i < contentLength; i++) {
+          body.write(in.read());
+        }
+      }
+      return new String[] {parts[0], parts[1], StringUtils.newStringUtf8(body.toByteArray())};
+    }
+
+    static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int b;
+      while ((b = in.read()) != '\n') {
+        if (b == -1) {
+          return line.length() == 0 ? null : line.toString();
+        }
+        if (b != '\r') {
+          line.append((char) b);
+        }
+      }
+      return line.toString();
+    }
+  }
+}
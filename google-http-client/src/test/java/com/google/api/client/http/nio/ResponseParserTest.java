@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.http.nio;
+
+import com.google.api.client.util.StringUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ResponseParser}.
+ */
+public class ResponseParserTest extends TestCase {
+
+  public void testContentLength() throws Exception {
+    String response =
+        "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nContent-Type: text/plain\r\n\r\nhello";
+    for (boolean byteByByte : new boolean[] {false, true}) {
+      ResponseParser parser = new ResponseParser();
+      Exchange exchange = new Exchange(false, false);
+      assertEquals(ResponseParser.COMPLETE, parse(parser, exchange, response, byteByByte));
+      assertEquals(200, exchange.getStatusCode());
+      assertEquals("OK", exchange.getReasonPhrase());
+      assertEquals("HTTP/1.1", exchange.getHttpVersion());
+      assertEquals("text/plain", exchange.getHeaderValue("content-type"));
+      assertEquals(5, exchange.getContentLength());
+      assertEquals("hello", readBody(exchange));
+      assertTrue(parser.isKeepAlive());
+      assertTrue(parser.isHttp11());
+    }
+  }
+
+  public void testChunked() throws Exception {
+    String response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+        + "5;ext=1\r\nhello\r\n7\r\n, world\r\n0\r\nTrailer: value\r\n\r\n";
+    for (boolean byteByByte : new boolean[] {false, true}) {
+      ResponseParser parser = new ResponseParser();
+      Exchange exchange = new Exchange(false, false);
+      assertEquals(ResponseParser.COMPLETE, parse(parser, exchange, response, byteByByte));
+      assertEquals(-1, exchange.getContentLength());
+      assertEquals("hello, world", readBody(exchange));
+      assertTrue(parser.isKeepAlive());
+    }
+  }
+
+  public void testPipelinedResponses() throws Exception {
+    ByteBuffer in = ByteBuffer.wrap(StringUtils.getBytesUtf8(
+        "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\na"
+        + "HTTP/1.1 404 Not Found\r\nContent-Length: 1\r\n\r\nb"));
+    ResponseParser parser = new ResponseParser();
+    Exchange first = new Exchange(false, true);
+    assertEquals(ResponseParser.COMPLETE, parser.parse(in, first));
+    first.onComplete();
+    parser.reset();
+    Exchange second = new Exchange(false, true);
+    assertEquals(ResponseParser.COMPLETE, parser.parse(in, second));
+    second.onComplete();
+    assertFalse(in.hasRemaining());
+    assertEquals("a", readBody(first));
+    assertEquals(404, second.getStatusCode());
+    assertEquals("b", readBody(second));
+  }
+
+  public void testUntilClose() throws Exception {
+    ResponseParser parser = new ResponseParser();
+    Exchange exchange = new Exchange(false, false);
+    assertEquals(ResponseParser.NEED_MORE,
+        parse(parser, exchange, "HTTP/1.0 200 OK\r\n\r\nbody", false));
+    assertTrue(parser.isReadingUntilClose());
+    assertFalse(parser.isKeepAlive());
+    assertTrue(parser.endOfInput(exchange));
+    assertEquals("body", readBody(exchange));
+  }
+
+  public void testNoBody() throws Exception {
+    ResponseParser parser = new ResponseParser();
+    Exchange exchange = new Exchange(true, false);
+    assertEquals(ResponseParser.COMPLETE,
+        parse(parser, exchange, "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n", false));
+    assertEquals("", readBody(exchange));
+    parser.reset();
+    exchange = new Exchange(false, false);
+    assertEquals(ResponseParser.COMPLETE,
+        parse(parser, exchange, "HTTP/1.1 204 No Content\r\n\r\n", false));
+    assertEquals("", readBody(exchange));
+    parser.reset();
+    exchange = new Exchange(false, false);
+    assertEquals(ResponseParser.COMPLETE,
+        parse(parser, exchange, "HTTP/1.1 304 Not Modified\r\n\r\n", false));
+    assertEquals("", readBody(exchange));
+  }
+
+  public void testInterimResponse() throws Exception {
+    ResponseParser parser = new ResponseParser();
+    Exchange exchange = new Exchange(false, false);
+    assertEquals(ResponseParser.COMPLETE, parse(parser, exchange,
+        "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 201 Created\r\nContent-Length: 0\r\n\r\n", false));
+    assertEquals(201, exchange.getStatusCode());
+    assertEquals(1, exchange.getHeaderNames().size());
+  }
+
+  public void testKeepAlive() throws Exception {
+    ResponseParser parser = new ResponseParser();
+    parse(parser, new Exchange(false, false),
+        "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 0\r\n\r\n", false);
+    assertFalse(parser.isKeepAlive());
+    parser.reset();
+    parse(parser, new Exchange(false, false),
+        "HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nKeep-Alive: timeout=5, max=100\r\n"
+        + "Content-Length: 0\r\n\r\n", false);
+    assertTrue(parser.isKeepAlive());
+    assertFalse(parser.isHttp11());
+    assertEquals(5000, parser.getKeepAliveTimeoutMillis());
+    parser.reset();
+    parse(parser, new Exchange(false, false), "HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n",
+        false);
+    assertFalse(parser.isKeepAlive());
+  }
+
+  public void testParseKeepAliveTimeout() {
+    assertEquals(5000, ResponseParser.parseKeepAliveTimeout("timeout=5"));
+    assertEquals(3000, ResponseParser.parseKeepAliveTimeout("max=10, Timeout=3"));
+    assertEquals(-1, ResponseParser.parseKeepAliveTimeout("max=10"));
+    assertEquals(-1, ResponseParser.parseKeepAliveTimeout("timeout=abc"));
+  }
+
+  public void testMalformed() throws Exception {
+    String[] responses = {"FOO 200 OK\r\n\r\n", "HTTP/1.1 abc OK\r\n\r\n",
+        "HTTP/1.1 200 OK\r\nno colon\r\n\r\n", "HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n",
+        "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n"};
+    for (String response : responses) {
+      try {
+        parse(new ResponseParser(), new Exchange(false, false), response, false);
+        fail("expected " + ProtocolException.class + " for " + response);
+      } catch (ProtocolException e) {
+        // expected
+      }
+    }
+  }
+
+  private static int parse(ResponseParser parser, Exchange exchange, String response,
+      boolean byteByByte) throws IOException {
+    byte[] bytes = StringUtils.getBytesUtf8(response);
+    int result = ResponseParser.NEED_MORE;
+    if (!byteByByte) {
+      result = parser.parse(ByteBuffer.wrap(bytes), exchange);
+    } else {
+      for (int i = 0; i < bytes.length; i++) {
+        ByteBuffer in = ByteBuffer.wrap(bytes, i, 1);
+        result = parser.parse(in, exchange);
+        assertFalse(in.hasRemaining());
+      }
+    }
+    if (result == ResponseParser.COMPLETE) {
+      exchange.onComplete();
+    }
+    return result;
+  }
+
+  private static String readBody(Exchange exchange) throws IOException {
+    InputStream in = exchange.newInputStream(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != -1) {
+      out.write(b);
+    }
+    return StringUtils.newStringUtf8(out.toByteArray());
+  }
+}
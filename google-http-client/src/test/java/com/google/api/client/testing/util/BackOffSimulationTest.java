@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.testing.util;
+
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.JitteredBackOff;
+import com.google.api.client.util.NanoClock;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link BackOffSimulation}.
+ */
+public class BackOffSimulationTest extends TestCase {
+
+  public void testSynchronizedRetries() throws Exception {
+    BackOffSimulation.Result result = new BackOffSimulation(new BackOffSimulation.BackOffFactory() {
+      public BackOff newBackOff(NanoClock nanoClock) {
+        return new ExponentialBackOff.Builder()
+            .setRandomizationFactor(0)
+            .setNanoClock(nanoClock)
+            .build();
+      }
+    }).setClientCount(100).setOutageMillis(1000).run();
+    // without jitter, all clients retry at the same time: 500, 1250 ms
+    assertEquals(200, result.getTotalRetries());
+    assertEquals(100, result.getPeakArrivals());
+    assertEquals(1250, result.getMaxCompletionMillis());
+    assertEquals(0, result.getFailedClients());
+  }
+
+  public void testJitterSpreadsRetries() throws Exception {
+    BackOffSimulation.Result exponential = simulate(new BackOffSimulation.BackOffFactory() {
+      public BackOff newBackOff(NanoClock nanoClock) {
+        return new ExponentialBackOff.Builder()
+            .setRandomizationFactor(0)
+            .setNanoClock(nanoClock)
+            .build();
+      }
+    });
+    assertEquals(10000, exponential.getPeakArrivals());
+    final Random random = new Random(1);
+    for (final JitteredBackOff.Jitter jitter : JitteredBackOff.Jitter.values()) {
+      BackOffSimulation.Result jittered = simulate(new BackOffSimulation.BackOffFactory() {
+        public BackOff newBackOff(NanoClock nanoClock) {
+          return new JitteredBackOff.Builder()
+              .setJitter(jitter)
+              .setNanoClock(nanoClock)
+              .setRandom(random)
+              .build();
+        }
+      });
+      assertEquals(0, jittered.getFailedClients());
+      assertTrue(jitter + ": " + jittered.getPeakArrivals(), jittered.getPeakArrivals() < 5000);
+    }
+  }
+
+  public void testFailedClients() throws Exception {
+    BackOffSimulation.Result result = new BackOffSimulation(new BackOffSimulation.BackOffFactory() {
+      public BackOff newBackOff(NanoClock nanoClock) {
+        return new MockBackOff().setBackOffMillis(100).setMaxTries(3);
+      }
+    }).setClientCount(10).setOutageMillis(1000).setBucketMillis(50).run();
+    assertEquals(10, result.getFailedClients());
+    assertEquals(30, result.getTotalRetries());
+    int[] arrivals = result.getArrivals();
+    assertEquals(7, arrivals.length);
+    assertEquals(10, arrivals[2]);
+    assertEquals(10, arrivals[6]);
+    assertTrue(result.toString().startsWith("retries=30 peak=10 failedClients=10"));
+  }
+
+  private static BackOffSimulation.Result simulate(BackOffSimulation.BackOffFactory factory)
+      throws Exception {
+    return new BackOffSimulation(factory).setClientCount(10000).setOutageMillis(30000).run();
+  }
+}
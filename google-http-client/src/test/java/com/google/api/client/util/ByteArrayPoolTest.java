@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ByteArrayPool}.
+ */
+public class ByteArrayPoolTest extends TestCase {
+
+  public void testAcquireRelease() {
+    ByteArrayPool pool = new ByteArrayPool(100, 2);
+    byte[] first = pool.acquire();
+    byte[] second = pool.acquire();
+    byte[] third = pool.acquire();
+    assertEquals(100, first.length);
+    assertNotSame(first, second);
+    assertEquals(0, pool.getIdleCount());
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    // at most two buffers are kept
+    assertEquals(2, pool.getIdleCount());
+    assertSame(second, pool.acquire());
+    assertSame(first, pool.acquire());
+    assertEquals(0, pool.getIdleCount());
+    // buffers of another size are ignored
+    pool.release(new byte[10]);
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  public void testNoIdleBuffers() {
+    ByteArrayPool pool = new ByteArrayPool(100, 0);
+    byte[] buffer = pool.acquire();
+    pool.release(buffer);
+    assertEquals(0, pool.getIdleCount());
+    assertNotSame(buffer, pool.acquire());
+  }
+
+  public void testPerThread() throws InterruptedException {
+    final ByteArrayPool pool = new ByteArrayPool(100, 2);
+    pool.release(pool.acquire());
+    final int[] idleCount = new int[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        idleCount[0] = pool.getIdleCount();
+      }
+    };
+    thread.start();
+    thread.join();
+    assertEquals(0, idleCount[0]);
+    assertEquals(1, pool.getIdleCount());
+  }
+
+  public void testCopy() throws IOException {
+    ByteArrayPool defaultPool = ByteArrayPool.getDefault();
+    ByteArrayPool pool = new ByteArrayPool(64, 1);
+    ByteArrayPool.setDefault(pool);
+    try {
+      byte[] content = new byte[1000];
+      for (int i = 0; i < content.length; i++) {
+        content[i] = (byte) i;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(1000, ByteStreams.copy(new ByteArrayInputStream(content), out));
+      assertTrue(Arrays.equals(content, out.toByteArray()));
+      // the copy buffer is returned to the pool
+      assertEquals(1, pool.getIdleCount());
+      byte[] buffer = pool.acquire();
+      pool.release(buffer);
+      out.reset();
+      IOUtils.copy(new ByteArrayInputStream(content), out);
+      assertTrue(Arrays.equals(content, out.toByteArray()));
+      // the same buffer is reused
+      assertSame(buffer, pool.acquire());
+    } finally {
+      ByteArrayPool.setDefault(defaultPool);
+    }
+  }
+}
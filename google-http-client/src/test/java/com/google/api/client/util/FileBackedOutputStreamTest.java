@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link FileBackedOutputStream}.
+ */
+public class FileBackedOutputStreamTest extends TestCase {
+
+  public void testInMemory() throws IOException {
+    FileBackedOutputStream out = new FileBackedOutputStream(10);
+    out.write(1);
+    out.write(new byte[] {2, 3, 4}, 1, 2);
+    try {
+      out.openInputStream();
+      fail("expected " + IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    out.close();
+    assertNull(out.getFile());
+    assertEquals(3, out.size());
+    assertTrue(Arrays.equals(new byte[] {1, 3, 4}, read(out)));
+    assertTrue(Arrays.equals(new byte[] {1, 3, 4}, read(out)));
+    try {
+      out.write(5);
+      fail("expected " + IOException.class);
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testFile() throws IOException {
+    byte[] content = new byte[1000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    FileBackedOutputStream out = new FileBackedOutputStream(100);
+    out.write(content, 0, 50);
+    assertNull(out.getFile());
+    out.write(content, 50, 950);
+    File file = out.getFile();
+    assertTrue(file.exists());
+    out.close();
+    assertEquals(1000, out.size());
+    assertTrue(Arrays.equals(content, read(out)));
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    IOUtils.copy(out.openInputStream(), copy);
+    assertTrue(Arrays.equals(content, copy.toByteArray()));
+
+    out.reset();
+    assertFalse(file.exists());
+    assertNull(out.getFile());
+    assertEquals(0, out.size());
+    out.write(content, 0, 10);
+    out.close();
+    assertTrue(Arrays.equals(Arrays.copyOf(content, 10), read(out)));
+  }
+
+  public void testToString() throws IOException {
+    String content = "caf\u00e9 \u20ac";
+    FileBackedOutputStream out = new FileBackedOutputStream(100, content.length());
+    out.write(content.getBytes("UTF-8"));
+    out.close();
+    assertNull(out.getFile());
+    assertEquals(content, out.toString(Charsets.UTF_8));
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      large.append(content);
+    }
+    out = new FileBackedOutputStream(100, 100000);
+    out.write(large.toString().getBytes("UTF-8"));
+    out.close();
+    assertNotNull(out.getFile());
+    assertEquals(large.toString(), out.toString(Charsets.UTF_8));
+    out.reset();
+  }
+
+  private static byte[] read(FileBackedOutputStream out) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    out.writeTo(bytes);
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HashedWheelTimer}.
+ */
+public class HashedWheelTimerTest extends TestCase {
+
+  private HashedWheelTimer timer;
+
+  @Override
+  protected void setUp() {
+    // a small wheel, so that timeouts wrap around it
+    timer = new HashedWheelTimer("test-timer", 5, TimeUnit.MILLISECONDS, 8);
+  }
+
+  @Override
+  protected void tearDown() {
+    timer.stop();
+  }
+
+  public void testExpiresInDeadlineOrder() throws Exception {
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(3);
+    long start = System.nanoTime();
+    for (final int delay : new int[] {120, 20, 70}) {
+      timer.newTimeout(new Runnable() {
+        public void run() {
+          order.add(delay);
+          done.countDown();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(120));
+    assertEquals(Arrays.asList(20, 70, 120), order);
+    assertEquals(0, timer.getPendingCount());
+  }
+
+  public void testCancel() throws Exception {
+    final CountDownLatch expired = new CountDownLatch(1);
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    HashedWheelTimer.Timeout timeout = timer.newTimeout(new Runnable() {
+      public void run() {
+        cancelled.countDown();
+      }
+    }, 30, TimeUnit.MILLISECONDS);
+    HashedWheelTimer.Timeout other = timer.newTimeout(new Runnable() {
+      public void run() {
+        expired.countDown();
+      }
+    }, 60, TimeUnit.MILLISECONDS);
+    assertEquals(2, timer.getPendingCount());
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    assertTrue(expired.await(5, TimeUnit.SECONDS));
+    assertEquals(1, cancelled.getCount());
+    assertFalse(timeout.isExpired());
+    assertTrue(other.isExpired());
+    assertFalse(other.cancel());
+  }
+
+  public void testExceptionInTask() throws Exception {
+    final CountDownLatch expired = new CountDownLatch(1);
+    timer.newTimeout(new Runnable() {
+      public void run() {
+        throw new IllegalStateException("expected");
+      }
+    }, 0, TimeUnit.MILLISECONDS);
+    timer.newTimeout(new Runnable() {
+      public void run() {
+        expired.countDown();
+      }
+    }, 10, TimeUnit.MILLISECONDS);
+    assertTrue(expired.await(5, TimeUnit.SECONDS));
+  }
+
+  public void testStop() throws Exception {
+    final CountDownLatch expired = new CountDownLatch(1);
+    HashedWheelTimer.Timeout timeout = timer.newTimeout(new Runnable() {
+      public void run() {
+        expired.countDown();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+    timer.stop();
+    assertFalse(expired.await(100, TimeUnit.MILLISECONDS));
+    assertFalse(timeout.cancel());
+    try {
+      timer.newTimeout(new Runnable() {
+        public void run() {
+        }
+      }, 10, TimeUnit.MILLISECONDS);
+      fail("expected " + IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link JitteredBackOff}.
+ */
+public class JitteredBackOffTest extends TestCase {
+
+  public void testBuilder() {
+    JitteredBackOff backOff = new JitteredBackOff();
+    assertEquals(JitteredBackOff.Jitter.FULL, backOff.getJitter());
+    assertEquals(
+        JitteredBackOff.DEFAULT_INITIAL_INTERVAL_MILLIS, backOff.getInitialIntervalMillis());
+    assertEquals(JitteredBackOff.DEFAULT_MAX_INTERVAL_MILLIS, backOff.getMaxIntervalMillis());
+    assertEquals(
+        JitteredBackOff.DEFAULT_MAX_ELAPSED_TIME_MILLIS, backOff.getMaxElapsedTimeMillis());
+    try {
+      new JitteredBackOff.Builder().setInitialIntervalMillis(10).setMaxIntervalMillis(5).build();
+      fail("expected " + IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testFullJitter() throws Exception {
+    JitteredBackOff backOff = newBuilder(JitteredBackOff.Jitter.FULL).build();
+    for (int attempt = 0; attempt < 20; attempt++) {
+      long interval = Math.min(1000, 10L << attempt);
+      long millis = backOff.nextBackOffMillis();
+      assertTrue(millis >= 0 && millis <= interval);
+    }
+  }
+
+  public void testEqualJitter() throws Exception {
+    JitteredBackOff backOff = newBuilder(JitteredBackOff.Jitter.EQUAL).build();
+    for (int attempt = 0; attempt < 20; attempt++) {
+      long interval = Math.min(1000, 10L << attempt);
+      long millis = backOff.nextBackOffMillis();
+      assertTrue(millis >= interval / 2 && millis <= interval);
+    }
+  }
+
+  public void testDecorrelatedJitter() throws Exception {
+    JitteredBackOff backOff = newBuilder(JitteredBackOff.Jitter.DECORRELATED).build();
+    long previous = 10;
+    for (int attempt = 0; attempt < 100; attempt++) {
+      long millis = backOff.nextBackOffMillis();
+      assertTrue(millis >= 10 && millis <= Math.min(1000, previous * 3));
+      previous = millis;
+    }
+  }
+
+  public void testMaxElapsedTime() throws Exception {
+    final long[] nanos = {0};
+    JitteredBackOff backOff = newBuilder(JitteredBackOff.Jitter.FULL)
+        .setMaxElapsedTimeMillis(1000)
+        .setNanoClock(new NanoClock() {
+          public long nanoTime() {
+            return nanos[0];
+          }
+        })
+        .build();
+    assertTrue(backOff.nextBackOffMillis() != BackOff.STOP);
+    nanos[0] = 1001 * 1000000L;
+    assertEquals(BackOff.STOP, backOff.nextBackOffMillis());
+    backOff.reset();
+    assertEquals(0, backOff.getElapsedTimeMillis());
+    assertTrue(backOff.nextBackOffMillis() != BackOff.STOP);
+  }
+
+  public void testLargeAttempts() throws Exception {
+    JitteredBackOff backOff = newBuilder(JitteredBackOff.Jitter.EQUAL)
+        .setInitialIntervalMillis(Integer.MAX_VALUE / 2)
+        .setMaxIntervalMillis(Integer.MAX_VALUE)
+        .build();
+    for (int attempt = 0; attempt < 100; attempt++) {
+      long millis = backOff.nextBackOffMillis();
+      assertTrue(millis >= Integer.MAX_VALUE / 4 && millis <= Integer.MAX_VALUE);
+    }
+  }
+
+  private static JitteredBackOff.Builder newBuilder(JitteredBackOff.Jitter jitter) {
+    return new JitteredBackOff.Builder()
+        .setJitter(jitter)
+        .setInitialIntervalMillis(10)
+        .setMaxIntervalMillis(1000)
+        .setRandom(new Random(1));
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ListenableFutures}, {@link SettableFuture} and {@link ListenableFutureTask}.
+ */
+public class ListenableFuturesTest extends TestCase {
+
+  private static final ListenableFutures.Function<String, Integer> LENGTH =
+      new ListenableFutures.Function<String, Integer>() {
+        public Integer apply(String input) {
+          return input.length();
+        }
+      };
+
+  public void testSettableFuture_set() throws Exception {
+    SettableFuture<String> future = new SettableFuture<String>();
+    try {
+      future.get(1, TimeUnit.MILLISECONDS);
+      fail("expected " + TimeoutException.class);
+    } catch (TimeoutException e) {
+      // expected
+    }
+    assertTrue(future.set("a"));
+    assertFalse(future.set("b"));
+    assertFalse(future.setException(new Exception()));
+    assertFalse(future.cancel(true));
+    assertTrue(future.isDone());
+    assertFalse(future.isCancelled());
+    assertEquals("a", future.get());
+  }
+
+  public void testSettableFuture_cancel() throws Exception {
+    SettableFuture<String> future = new SettableFuture<String>();
+    assertTrue(future.cancel(false));
+    assertTrue(future.isCancelled());
+    assertFalse(future.set("a"));
+    try {
+      future.get();
+      fail("expected " + CancellationException.class);
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+
+  public void testAddCallback() {
+    final AtomicReference<Object> result = new AtomicReference<Object>();
+    FutureCallback<String> callback = new FutureCallback<String>() {
+      public void onSuccess(String value) {
+        result.set(value);
+      }
+
+      public void onFailure(Throwable t) {
+        result.set(t);
+      }
+    };
+    SettableFuture<String> future = new SettableFuture<String>();
+    ListenableFutures.addCallback(future, callback, ListenableFutures.directExecutor());
+    assertNull(result.get());
+    future.set("a");
+    assertEquals("a", result.get());
+
+    // callbacks added after completion run immediately
+    Exception exception = new Exception();
+    future = new SettableFuture<String>();
+    future.setException(exception);
+    ListenableFutures.addCallback(future, callback, ListenableFutures.directExecutor());
+    assertSame(exception, result.get());
+  }
+
+  public void testTransform() throws Exception {
+    SettableFuture<String> input = new SettableFuture<String>();
+    ListenableFuture<Integer> output =
+        ListenableFutures.transform(input, LENGTH, ListenableFutures.directExecutor());
+    assertFalse(output.isDone());
+    input.set("abc");
+    assertEquals(3, output.get().intValue());
+  }
+
+  public void testTransform_failure() throws Exception {
+    SettableFuture<String> input = new SettableFuture<String>();
+    ListenableFuture<Integer> output =
+        ListenableFutures.transform(input, LENGTH, ListenableFutures.directExecutor());
+    input.set(null);
+    try {
+      output.get();
+      fail("expected " + ExecutionException.class);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof NullPointerException);
+    }
+  }
+
+  public void testTransform_cancel() {
+    SettableFuture<String> input = new SettableFuture<String>();
+    ListenableFuture<Integer> output =
+        ListenableFutures.transform(input, LENGTH, ListenableFutures.directExecutor());
+    assertTrue(output.cancel(false));
+    assertTrue(input.isCancelled());
+  }
+
+  public void testListenableFutureTask() throws Exception {
+    ListenableFutureTask<String> task = new ListenableFutureTask<String>(
+        new Callable<String>() {
+          public String call() {
+            return "abc";
+          }
+        });
+    ListenableFuture<Integer> output =
+        ListenableFutures.transform(task, LENGTH, ListenableFutures.directExecutor());
+    assertFalse(output.isDone());
+    task.run();
+    assertEquals(3, output.get().intValue());
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link LoggingByteArrayOutputStream}.
+ */
+public class LoggingByteArrayOutputStreamTest extends TestCase {
+
+  public void testClose() throws IOException {
+    LoggingByteArrayOutputStream out = new LoggingByteArrayOutputStream(
+        Logger.getLogger(LoggingByteArrayOutputStreamTest.class.getName()), Level.FINE, 32);
+    out.write("abcdefghijklmnopqrstuvwxyz0123456789".getBytes("UTF-8"));
+    assertEquals("abcdefghijklmnopqrstuvwxyz012345", out.toString("UTF-8"));
+    out.close();
+    assertEquals(36, out.getBytesWritten());
+    // the logged content is still available after close
+    assertEquals("abcdefghijklmnopqrstuvwxyz012345", out.toString("UTF-8"));
+    assertEquals(32, out.size());
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.api.client.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link PooledByteArrayOutputStream}.
+ */
+public class PooledByteArrayOutputStreamTest extends TestCase {
+
+  public void testWrite() throws IOException {
+    ByteArrayPool pool = new ByteArrayPool(10, 4);
+    PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(pool);
+    assertEquals(0, out.size());
+    assertEquals("", out.toString(Charsets.UTF_8));
+    assertEquals(0, out.toByteArray().length);
+    out.write('a');
+    out.write("bcdefghijklmnopqrstuvwxy".getBytes("UTF-8"), 1, 22);
+    out.write('z');
+    assertEquals(24, out.size());
+    assertEquals("acdefghijklmnopqrstuvwxz", out.toString(Charsets.UTF_8));
+    assertTrue(Arrays.equals("acdefghijklmnopqrstuvwxz".getBytes("UTF-8"), out.toByteArray()));
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    out.writeTo(copy);
+    assertTrue(Arrays.equals(out.toByteArray(), copy.toByteArray()));
+    out.reset();
+    assertEquals(0, out.size());
+    assertEquals(3, pool.getIdleCount());
+    // the stream may be written again
+    out.write("abc".getBytes("UTF-8"));
+    assertEquals("abc", out.toString(Charsets.UTF_8));
+    assertEquals(2, pool.getIdleCount());
+    out.reset();
+    assertEquals(3, pool.getIdleCount());
+  }
+}